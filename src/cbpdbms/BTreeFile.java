@@ -0,0 +1,483 @@
+package cbpdbms;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreeFile is a DbFile that stores a B+-tree index on one field of a table.
+ * Each entry of the index is a key and the RecordId of the tuple of the table
+ * that has this key; duplicate keys are allowed.
+ * <p>
+ * Page 0 is a {@link BTreeRootPtrPage} that points to the root. Inner nodes
+ * are {@link BTreeInternalPage}s and entries are stored, sorted on their key,
+ * in {@link BTreeLeafPage}s linked to their right sibling. Pages are read
+ * through the BufferPool, and so are locked like the pages of a HeapFile:
+ * readers take shared locks on the pages they go through, writers exclusive
+ * locks on the pages they change.
+ * <p>
+ * The tuples of a BTreeFile, as returned by its iterators, are its entries:
+ * the key, then the page number and slot of the indexed tuple. addTuple and
+ * deleteTuple take a tuple of the indexed table (with its RecordId) and add
+ * or remove its entry. Pages are split when they are full, but are not merged
+ * when entries are deleted.
+ *
+ * @see Catalog#addIndex
+ * @see IndexScan
+ * @see IndexLookup
+ */
+public class BTreeFile implements IndexFile {
+	File f;
+	PageChannel pages;
+	int tableid;// the indexed table
+	int keyField;
+	Type keyType;
+	TupleDesc td;
+
+	/**
+	 * Constructs a B+-tree index backed by the specified file.
+	 *
+	 * @param f
+	 *            the file that stores the on-disk backing store for this
+	 *            index, empty for a new index
+	 * @param table
+	 *            the indexed table
+	 * @param keyField
+	 *            the index of the indexed field in the tuples of table
+	 */
+	public BTreeFile(File f, DbFile table, int keyField) {
+		this.f = f;
+		this.pages = new PageChannel(f);
+		this.tableid = table.getId();
+		this.keyField = keyField;
+
+		TupleDesc tableTd = table.getTupleDesc();
+		this.keyType = tableTd.getType(keyField);
+		this.td = new TupleDesc(new Type[] { keyType, Type.INT_TYPE, Type.INT_TYPE },
+				new String[] { tableTd.getFieldName(keyField), "pgno", "slot" });
+	}
+
+	/**
+	 * Returns the File backing this BTreeFile on disk.
+	 */
+	public File getFile() {
+		return this.f;
+	}
+
+	/**
+	 * Returns an ID uniquely identifying this BTreeFile, the hash of the
+	 * absolute name of its file like a HeapFile.
+	 */
+	public int getId() {
+		return this.f.getAbsoluteFile().hashCode();
+	}
+
+	public void close() {
+		pages.close();
+	}
+
+	public int getTableId() {
+		return this.tableid;
+	}
+
+	public int getKeyField() {
+		return this.keyField;
+	}
+
+	public Type getKeyType() {
+		return this.keyType;
+	}
+
+	/**
+	 * Returns the TupleDesc of the entries of this index: the key, then the
+	 * page number and slot of the indexed tuple.
+	 */
+	public TupleDesc getTupleDesc() {
+		return this.td;
+	}
+
+	/**
+	 * Returns the number of pages in this BTreeFile.
+	 */
+	public int numPages() {
+		return (int) (pages.length() / BufferPool.PAGE_SIZE);
+	}
+
+	public Page readPage(PageId pid) {
+		BTreePageId id = (BTreePageId) pid;
+		try {
+			byte[] data = pages.readPage(id.pageno());
+
+			switch (id.pgcateg()) {
+			case BTreePageId.ROOT_PTR:
+				return new BTreeRootPtrPage(id, data);
+			case BTreePageId.INTERNAL:
+				return new BTreeInternalPage(id, data);
+			case BTreePageId.LEAF:
+				return new BTreeLeafPage(id, data);
+			default:
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		throw new IllegalArgumentException();
+	}
+
+	// see DbFile.java for javadocs
+	public void writePage(Page page) throws IOException {
+		pages.writePage(page.getId().pageno(), page.getPageData());
+	}
+
+	/**
+	 * Appends an empty page to the file, after the root pointer page if the
+	 * file is new.
+	 *
+	 * @return the page number of the new page
+	 */
+	synchronized int allocatePage() throws IOException {
+		int pgNo = numPages();
+		if (pgNo == 0)
+			pgNo = 1;
+		pages.extendToPages(pgNo + 1);
+		return pgNo;
+	}
+
+	// NOTE: pages fetched to be modified are pinned, and added to pinned,
+	// until the update is done, so the copy modified is never one evicted
+	// meanwhile. Once unpinned, a dirty page stays in the pool, or under
+	// STEAL is written after its update record is logged.
+	private BTreePage getPage(TransactionId tid, BTreePageId pid, Permissions perm, ArrayList<PageId> pinned)
+			throws TransactionAbortedException, DbException {
+		if (perm == Permissions.READ_WRITE) {
+			BTreePage page = (BTreePage) Database.getBufferPool().pinPage(tid, pid, perm);
+			pinned.add(pid);
+			return page;
+		}
+		return (BTreePage) Database.getBufferPool().getPage(tid, pid, perm);
+	}
+
+	private void unpinPages(TransactionId tid, ArrayList<PageId> pinned) {
+		for (PageId pid : pinned)
+			Database.getBufferPool().unpinPage(tid, pid);
+	}
+
+	private BTreeRootPtrPage getRootPtrPage(TransactionId tid, Permissions perm, ArrayList<PageId> pinned)
+			throws TransactionAbortedException, DbException {
+		return (BTreeRootPtrPage) getPage(tid, new BTreePageId(getId(), 0, BTreePageId.ROOT_PTR), perm, pinned);
+	}
+
+	/**
+	 * Descends from the root to the leftmost leaf that may hold key, taking
+	 * shared locks on the way.
+	 *
+	 * @param key
+	 *            the key to look for, null for the leftmost leaf of the tree
+	 * @return the leaf, or null if the tree is empty
+	 */
+	private BTreeLeafPage findLeaf(TransactionId tid, Field key) throws TransactionAbortedException, DbException {
+		if (numPages() == 0)
+			return null;
+
+		BTreePageId id = getRootPtrPage(tid, Permissions.READ_ONLY, null).getRootId();
+		if (id == null)
+			return null;
+
+		while (id.pgcateg() == BTreePageId.INTERNAL) {
+			BTreeInternalPage p = (BTreeInternalPage) getPage(tid, id, Permissions.READ_ONLY, null);
+			id = p.getChildId(key == null ? 0 : p.findChild(key, true));
+		}
+		return (BTreeLeafPage) getPage(tid, id, Permissions.READ_ONLY, null);
+	}
+
+	/**
+	 * Adds the entry of a tuple of the indexed table, splitting the pages on
+	 * its path that are full.
+	 *
+	 * @param t
+	 *            a tuple of the indexed table, with its RecordId
+	 * @return the pages that were modified
+	 */
+	public ArrayList<Page> addTuple(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		RecordId rid = t.getRecordId();
+		if (rid == null)
+			throw new DbException("tuple has no RecordId");
+		Field key = t.getField(keyField);
+		ArrayList<Page> modifiedPage = new ArrayList<Page>();
+		ArrayList<PageId> pinned = new ArrayList<PageId>();
+		try {
+			BTreeRootPtrPage rootPtr = getRootPtrPage(tid, Permissions.READ_ONLY, null);
+			BTreePageId id = rootPtr.getRootId();
+			if (id == null) {
+				rootPtr = getRootPtrPage(tid, Permissions.READ_WRITE, pinned);
+				id = rootPtr.getRootId();
+				if (id == null) {
+					id = new BTreePageId(getId(), allocatePage(), BTreePageId.LEAF);
+					rootPtr.setRootId(id);
+					markDirty(rootPtr, tid, modifiedPage);
+				}
+			}
+
+			// the internal pages on the way to the leaf, and the child taken in
+			// each of them
+			ArrayList<BTreePageId> path = new ArrayList<BTreePageId>();
+			ArrayList<Integer> childIdx = new ArrayList<Integer>();
+			while (id.pgcateg() == BTreePageId.INTERNAL) {
+				BTreeInternalPage p = (BTreeInternalPage) getPage(tid, id, Permissions.READ_ONLY, null);
+				int i = p.findChild(key, false);
+				path.add(id);
+				childIdx.add(i);
+				id = p.getChildId(i);
+			}
+
+			BTreeLeafPage leaf = (BTreeLeafPage) getPage(tid, id, Permissions.READ_WRITE, pinned);
+			markDirty(leaf, tid, modifiedPage);
+			if (leaf.getNumEntries() < leaf.getMaxEntries()) {
+				leaf.insertEntry(key, rid.getPageId().pageno(), rid.tupleno());
+				return modifiedPage;
+			}
+
+			BTreeLeafPage right = (BTreeLeafPage) newPage(tid, BTreePageId.LEAF, modifiedPage, pinned);
+			leaf.splitInto(right);
+			if (key.compare(Predicate.Op.LESS_THAN, right.getKey(0)))
+				leaf.insertEntry(key, rid.getPageId().pageno(), rid.tupleno());
+			else
+				right.insertEntry(key, rid.getPageId().pageno(), rid.tupleno());
+
+			// insert the separator of the split pages in their parent, splitting
+			// it too if it is full
+			Field sep = right.getKey(0);
+			BTreePageId leftId = leaf.getId();
+			BTreePageId rightId = right.getId();
+			for (int level = path.size() - 1; level >= 0; level--) {
+				BTreeInternalPage parent = (BTreeInternalPage) getPage(tid, path.get(level), Permissions.READ_WRITE,
+						pinned);
+				markDirty(parent, tid, modifiedPage);
+				int i = childIdx.get(level);
+				if (parent.getNumKeys() < parent.getMaxKeys()) {
+					parent.insertKey(i, sep, rightId.pageno());
+					return modifiedPage;
+				}
+
+				BTreeInternalPage newRight = (BTreeInternalPage) newPage(tid, BTreePageId.INTERNAL, modifiedPage,
+						pinned);
+				int mid = parent.getNumKeys() / 2;
+				Field midKey = parent.splitInto(newRight);
+				if (i <= mid)
+					parent.insertKey(i, sep, rightId.pageno());
+				else
+					newRight.insertKey(i - mid - 1, sep, rightId.pageno());
+
+				sep = midKey;
+				leftId = parent.getId();
+				rightId = newRight.getId();
+			}
+
+			// the root was split, the tree grows by one level
+			BTreeInternalPage root = (BTreeInternalPage) newPage(tid, BTreePageId.INTERNAL, modifiedPage, pinned);
+			root.initRoot(leftId, sep, rightId);
+			rootPtr = getRootPtrPage(tid, Permissions.READ_WRITE, pinned);
+			rootPtr.setRootId(root.getId());
+			markDirty(rootPtr, tid, modifiedPage);
+			return modifiedPage;
+		} finally {
+			unpinPages(tid, pinned);
+		}
+	}
+
+	private BTreePage newPage(TransactionId tid, int pgcateg, ArrayList<Page> modifiedPage,
+			ArrayList<PageId> pinned) throws DbException, IOException, TransactionAbortedException {
+		BTreePage p = getPage(tid, new BTreePageId(getId(), allocatePage(), pgcateg), Permissions.READ_WRITE,
+				pinned);
+		markDirty(p, tid, modifiedPage);
+		return p;
+	}
+
+	private void markDirty(BTreePage p, TransactionId tid, ArrayList<Page> modifiedPage) {
+		p.markDirty(true, tid);
+		if (!modifiedPage.contains(p))
+			modifiedPage.add(p);
+	}
+
+	/**
+	 * Removes the entry of a tuple of the indexed table.
+	 *
+	 * @param t
+	 *            a tuple of the indexed table, with its RecordId
+	 * @return the leaf that was modified
+	 * @throws DbException
+	 *             if the tuple is not in the index
+	 */
+	public Page deleteTuple(TransactionId tid, Tuple t) throws DbException, TransactionAbortedException, IOException {
+		RecordId rid = t.getRecordId();
+		if (rid == null)
+			throw new DbException("tuple has no RecordId");
+		Field key = t.getField(keyField);
+
+		BTreeLeafPage leaf = findLeaf(tid, key);
+		int i = leaf == null ? 0 : leaf.findFirst(key);
+		while (leaf != null) {
+			for (; i < leaf.getNumEntries(); i++) {
+				if (!leaf.getKey(i).compare(Predicate.Op.EQUALS, key))
+					throw new DbException("the tuple is not in this index");
+				if (leaf.getPageNo(i) == rid.getPageId().pageno() && leaf.getSlot(i) == rid.tupleno()) {
+					ArrayList<PageId> pinned = new ArrayList<PageId>();
+					try {
+						leaf = (BTreeLeafPage) getPage(tid, leaf.getId(), Permissions.READ_WRITE, pinned);
+						leaf.deleteEntry(i);
+						leaf.markDirty(true, tid);
+						return leaf;
+					} finally {
+						unpinPages(tid, pinned);
+					}
+				}
+			}
+			leaf = nextLeaf(tid, leaf);
+			i = 0;
+		}
+		throw new DbException("the tuple is not in this index");
+	}
+
+	private BTreeLeafPage nextLeaf(TransactionId tid, BTreeLeafPage leaf)
+			throws TransactionAbortedException, DbException {
+		if (leaf.getRightSibling() == 0)
+			return null;
+		BTreePageId id = new BTreePageId(getId(), leaf.getRightSibling(), BTreePageId.LEAF);
+		return (BTreeLeafPage) getPage(tid, id, Permissions.READ_ONLY, null);
+	}
+
+	/**
+	 * @return an iterator over all the entries of this index, in key order
+	 */
+	public DbFileIterator iterator(TransactionId tid) throws DbException, TransactionAbortedException {
+		return new BTreeFileIterator(tid, null, null);
+	}
+
+	/**
+	 * Returns an iterator over the entries whose key satisfies
+	 * <tt>key op constant</tt>, in key order. Only the leaves that may hold
+	 * such entries are read for =, &lt;, &lt;=, &gt; and &gt;=.
+	 *
+	 * @param op
+	 *            the comparison of the keys with constant
+	 * @param constant
+	 *            the value the keys are compared to
+	 */
+	public DbFileIterator indexIterator(TransactionId tid, Predicate.Op op, Field constant) {
+		return new BTreeFileIterator(tid, op, constant);
+	}
+
+	public DbFileIterator lookup(TransactionId tid, Field key) {
+		return indexIterator(tid, Predicate.Op.EQUALS, key);
+	}
+
+	/**
+	 * A lookup reads one page per level of the tree.
+	 */
+	public int estimateLookupPages(int ntups) {
+		return estimateHeight(ntups);
+	}
+
+	/**
+	 * Estimates the number of levels of the tree, leaves included, for an
+	 * index of ntups entries whose pages are full.
+	 */
+	public int estimateHeight(int ntups) {
+		int leafEntries = (BufferPool.PAGE_SIZE - 8) / (keyType.getLen() + 8);
+		int fanout = (BufferPool.PAGE_SIZE - 12) / (keyType.getLen() + 4) + 1;
+
+		int pages = (ntups + leafEntries - 1) / leafEntries;
+		int height = 1;
+		while (pages > 1) {
+			pages = (pages + fanout - 1) / fanout;
+			height++;
+		}
+		return height;
+	}
+
+	/**
+	 * Reads the entries matching a predicate one leaf at a time, following the
+	 * right sibling pointers.
+	 */
+	class BTreeFileIterator extends AbstractDbFileIterator {
+		TransactionId tid;
+		Predicate.Op op;// null for all the entries
+		Field constant;
+
+		boolean opened;
+		BTreeLeafPage leaf;
+		int pos;
+
+		BTreeFileIterator(TransactionId tid, Predicate.Op op, Field constant) {
+			this.tid = tid;
+			this.op = op;
+			this.constant = constant;
+		}
+
+		public void open() throws DbException, TransactionAbortedException {
+			opened = true;
+			if (op == Predicate.Op.EQUALS || op == Predicate.Op.GREATER_THAN
+					|| op == Predicate.Op.GREATER_THAN_OR_EQ) {
+				leaf = findLeaf(tid, constant);
+				pos = leaf == null ? 0 : leaf.findFirst(constant);
+			} else {
+				leaf = findLeaf(tid, null);
+				pos = 0;
+			}
+		}
+
+		protected Tuple readNext() throws DbException, TransactionAbortedException {
+			if (!opened)
+				return null;
+
+			while (leaf != null) {
+				if (pos >= leaf.getNumEntries()) {
+					leaf = nextLeaf(tid, leaf);
+					pos = 0;
+					continue;
+				}
+
+				int i = pos++;
+				Field key = leaf.getKey(i);
+				if (op != null && pastEnd(key)) {
+					leaf = null;
+					break;
+				}
+				if (op != null && !key.compare(op, constant))
+					continue;
+
+				Tuple t = new Tuple(td);
+				t.setField(0, key);
+				t.setField(1, new IntField(leaf.getPageNo(i)));
+				t.setField(2, new IntField(leaf.getSlot(i)));
+				return t;
+			}
+			return null;
+		}
+
+		/**
+		 * @return true if neither key nor any later key can match
+		 */
+		private boolean pastEnd(Field key) {
+			switch (op) {
+			case EQUALS:
+			case LESS_THAN_OR_EQ:
+				return key.compare(Predicate.Op.GREATER_THAN, constant);
+			case LESS_THAN:
+				return key.compare(Predicate.Op.GREATER_THAN_OR_EQ, constant);
+			default:
+				return false;
+			}
+		}
+
+		public void rewind() throws DbException, TransactionAbortedException {
+			close();
+			open();
+		}
+
+		public void close() {
+			super.close();
+			opened = false;
+			leaf = null;
+		}
+	}
+}
@@ -0,0 +1,171 @@
+package cbpdbms;
+
+import java.io.*;
+
+/**
+ * BTreeInternalPage stores the keys and child pointers of an inner node of a
+ * BTreeFile. The keys are sorted; child i holds keys between key i-1 and key
+ * i, both included, since duplicate keys may span several children. All the
+ * children of a page are of the same category (INTERNAL or LEAF).
+ * <p>
+ * The format of an internal page is the number of keys (an int), the category
+ * of the children (an int), the first child (an int), then each key followed
+ * by the child to its right.
+ *
+ * @see BTreeFile
+ */
+public class BTreeInternalPage extends BTreePage {
+	int numKeys;
+	int childCategory;
+	Field keys[];
+	int children[];
+
+	/**
+	 * Create a BTreeInternalPage from a set of bytes of data read from disk.
+	 * The number of keys that fit on a page is
+	 * <p>
+	 * floor((BufferPool.PAGE_SIZE - 12) / (key size + 4))
+	 */
+	public BTreeInternalPage(BTreePageId id, byte[] data) throws IOException {
+		super(id);
+		int max = getMaxKeys();
+		keys = new Field[max];
+		children = new int[max + 1];
+
+		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+		numKeys = dis.readInt();
+		childCategory = dis.readInt();
+		children[0] = dis.readInt();
+		for (int i = 0; i < numKeys; i++) {
+			keys[i] = readKey(dis);
+			children[i + 1] = dis.readInt();
+		}
+		dis.close();
+
+		setBeforeImage();
+	}
+
+	/**
+	 * @return the number of keys that fit on this page
+	 */
+	public int getMaxKeys() {
+		return (BufferPool.PAGE_SIZE - 12) / (keyType.getLen() + 4);
+	}
+
+	public int getNumKeys() {
+		return numKeys;
+	}
+
+	public Field getKey(int i) {
+		return keys[i];
+	}
+
+	/**
+	 * @return the id of child i, 0 <= i <= getNumKeys()
+	 */
+	public BTreePageId getChildId(int i) {
+		return new BTreePageId(pid.getTableId(), children[i], childCategory);
+	}
+
+	/**
+	 * Returns the child to descend into for key.
+	 *
+	 * @param leftmost
+	 *            true for the leftmost child that may hold key, to find all
+	 *            the entries with this key; false for the rightmost one, where
+	 *            a new entry with this key goes
+	 */
+	public int findChild(Field key, boolean leftmost) {
+		Predicate.Op op = leftmost ? Predicate.Op.LESS_THAN : Predicate.Op.LESS_THAN_OR_EQ;
+		int lo = 0, hi = numKeys;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (keys[mid].compare(op, key))
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Makes this empty page a root with the two specified children.
+	 */
+	void initRoot(BTreePageId left, Field key, BTreePageId right) {
+		numKeys = 1;
+		childCategory = left.pgcateg();
+		children[0] = left.pageno();
+		keys[0] = key;
+		children[1] = right.pageno();
+	}
+
+	/**
+	 * Inserts key as key i, with child as its right child.
+	 *
+	 * @throws DbException
+	 *             if the page is full
+	 */
+	public void insertKey(int i, Field key, int child) throws DbException {
+		if (numKeys == getMaxKeys())
+			throw new DbException("page is full");
+
+		System.arraycopy(keys, i, keys, i + 1, numKeys - i);
+		System.arraycopy(children, i + 1, children, i + 2, numKeys - i);
+		keys[i] = key;
+		children[i + 1] = child;
+		numKeys++;
+	}
+
+	/**
+	 * Moves the keys and children above the middle key of this page to the
+	 * empty page right.
+	 *
+	 * @return the middle key, which separates this page from right in the
+	 *         parent; it is removed from this page
+	 */
+	Field splitInto(BTreeInternalPage right) {
+		int mid = numKeys / 2;
+		Field midKey = keys[mid];
+		int n = numKeys - mid - 1;
+		System.arraycopy(keys, mid + 1, right.keys, 0, n);
+		System.arraycopy(children, mid + 1, right.children, 0, n + 1);
+		right.numKeys = n;
+		right.childCategory = childCategory;
+		for (int i = mid; i < numKeys; i++)
+			keys[i] = null;
+		numKeys = mid;
+		return midKey;
+	}
+
+	public byte[] getPageData() {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.PAGE_SIZE);
+		DataOutputStream dos = new DataOutputStream(baos);
+		try {
+			dos.writeInt(numKeys);
+			dos.writeInt(childCategory);
+			dos.writeInt(children[0]);
+			for (int i = 0; i < numKeys; i++) {
+				keys[i].serialize(dos);
+				dos.writeInt(children[i + 1]);
+			}
+			dos.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return toPageData(baos);
+	}
+
+	/**
+	 * Return a view of this page before it was modified -- used by recovery
+	 */
+	public BTreeInternalPage getBeforeImage() {
+		try {
+			return new BTreeInternalPage(getId(), oldData);
+		} catch (IOException e) {
+			e.printStackTrace();
+			// should never happen -- we parsed it OK before!
+			System.exit(1);
+		}
+		return null;
+	}
+}
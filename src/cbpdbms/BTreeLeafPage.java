@@ -0,0 +1,194 @@
+package cbpdbms;
+
+import java.io.*;
+
+/**
+ * BTreeLeafPage stores the entries of a BTreeFile: a key and the page number
+ * and slot of the tuple of the indexed table that has this key. Entries are
+ * kept sorted on their key, and each leaf points to its right sibling so that
+ * ranges can be read without going back up the tree.
+ * <p>
+ * The format of a leaf is the number of entries (an int), the page number of
+ * the right sibling (an int, 0 if none), then the entries.
+ *
+ * @see BTreeFile
+ */
+public class BTreeLeafPage extends BTreePage {
+	int numEntries;
+	int rightSibling;
+	Field keys[];
+	int pgNos[];
+	int slots[];
+
+	/**
+	 * Create a BTreeLeafPage from a set of bytes of data read from disk. The
+	 * number of entries that fit on a leaf is
+	 * <p>
+	 * floor((BufferPool.PAGE_SIZE - 8) / (key size + 8))
+	 */
+	public BTreeLeafPage(BTreePageId id, byte[] data) throws IOException {
+		super(id);
+		int max = getMaxEntries();
+		keys = new Field[max];
+		pgNos = new int[max];
+		slots = new int[max];
+
+		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+		numEntries = dis.readInt();
+		rightSibling = dis.readInt();
+		for (int i = 0; i < numEntries; i++) {
+			keys[i] = readKey(dis);
+			pgNos[i] = dis.readInt();
+			slots[i] = dis.readInt();
+		}
+		dis.close();
+
+		setBeforeImage();
+	}
+
+	/**
+	 * @return the number of entries that fit on this page
+	 */
+	public int getMaxEntries() {
+		return (BufferPool.PAGE_SIZE - 8) / (keyType.getLen() + 8);
+	}
+
+	public int getNumEntries() {
+		return numEntries;
+	}
+
+	public Field getKey(int i) {
+		return keys[i];
+	}
+
+	/**
+	 * @return the page number, in the indexed table, of the tuple of entry i
+	 */
+	public int getPageNo(int i) {
+		return pgNos[i];
+	}
+
+	/**
+	 * @return the slot, on its page of the indexed table, of the tuple of
+	 *         entry i
+	 */
+	public int getSlot(int i) {
+		return slots[i];
+	}
+
+	/**
+	 * @return the page number of the right sibling, 0 if this is the last leaf
+	 */
+	public int getRightSibling() {
+		return rightSibling;
+	}
+
+	public void setRightSibling(int pgNo) {
+		this.rightSibling = pgNo;
+	}
+
+	/**
+	 * @return the index of the first entry whose key is not less than key, or
+	 *         getNumEntries() if there is none
+	 */
+	public int findFirst(Field key) {
+		int lo = 0, hi = numEntries;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (keys[mid].compare(Predicate.Op.LESS_THAN, key))
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Inserts an entry after the entries with the same key.
+	 *
+	 * @throws DbException
+	 *             if the page is full
+	 */
+	public void insertEntry(Field key, int pgNo, int slot) throws DbException {
+		if (numEntries == getMaxEntries())
+			throw new DbException("page is full");
+
+		int lo = 0, hi = numEntries;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (keys[mid].compare(Predicate.Op.LESS_THAN_OR_EQ, key))
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		System.arraycopy(keys, lo, keys, lo + 1, numEntries - lo);
+		System.arraycopy(pgNos, lo, pgNos, lo + 1, numEntries - lo);
+		System.arraycopy(slots, lo, slots, lo + 1, numEntries - lo);
+		keys[lo] = key;
+		pgNos[lo] = pgNo;
+		slots[lo] = slot;
+		numEntries++;
+	}
+
+	/**
+	 * Removes entry i.
+	 */
+	public void deleteEntry(int i) {
+		System.arraycopy(keys, i + 1, keys, i, numEntries - i - 1);
+		System.arraycopy(pgNos, i + 1, pgNos, i, numEntries - i - 1);
+		System.arraycopy(slots, i + 1, slots, i, numEntries - i - 1);
+		numEntries--;
+		keys[numEntries] = null;
+	}
+
+	/**
+	 * Moves the upper half of the entries of this page to the empty page
+	 * right, which becomes the right sibling of this page.
+	 */
+	void splitInto(BTreeLeafPage right) {
+		int half = numEntries / 2;
+		int n = numEntries - half;
+		System.arraycopy(keys, half, right.keys, 0, n);
+		System.arraycopy(pgNos, half, right.pgNos, 0, n);
+		System.arraycopy(slots, half, right.slots, 0, n);
+		right.numEntries = n;
+		for (int i = half; i < numEntries; i++)
+			keys[i] = null;
+		numEntries = half;
+
+		right.rightSibling = rightSibling;
+		rightSibling = right.getId().pageno();
+	}
+
+	public byte[] getPageData() {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.PAGE_SIZE);
+		DataOutputStream dos = new DataOutputStream(baos);
+		try {
+			dos.writeInt(numEntries);
+			dos.writeInt(rightSibling);
+			for (int i = 0; i < numEntries; i++) {
+				keys[i].serialize(dos);
+				dos.writeInt(pgNos[i]);
+				dos.writeInt(slots[i]);
+			}
+			dos.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return toPageData(baos);
+	}
+
+	/**
+	 * Return a view of this page before it was modified -- used by recovery
+	 */
+	public BTreeLeafPage getBeforeImage() {
+		try {
+			return new BTreeLeafPage(getId(), oldData);
+		} catch (IOException e) {
+			e.printStackTrace();
+			// should never happen -- we parsed it OK before!
+			System.exit(1);
+		}
+		return null;
+	}
+}
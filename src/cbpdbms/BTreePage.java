@@ -0,0 +1,21 @@
+package cbpdbms;
+
+/**
+ * BTreePage is the base class of the pages of a BTreeFile, whose ids also
+ * record the category of the page.
+ *
+ * @see BTreeFile
+ * @see BufferPool
+ */
+public abstract class BTreePage extends IndexPage {
+	BTreePage(BTreePageId id) {
+		super(id);
+	}
+
+	/**
+	 * @return the PageId associated with this page.
+	 */
+	public BTreePageId getId() {
+		return (BTreePageId) this.pid;
+	}
+}
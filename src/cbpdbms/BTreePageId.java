@@ -0,0 +1,56 @@
+package cbpdbms;
+
+/**
+ * Unique identifier for the pages of a BTreeFile. Besides the table and page
+ * number it records the category of the page, so that BTreeFile.readPage
+ * knows which kind of page to create.
+ * <p>
+ * NOTE: Two ids are equal if their table and page number are, whatever their
+ * category, so the LockManager, which keys the locks of the pages by PageId,
+ * locks index pages like heap pages.
+ */
+public class BTreePageId extends HeapPageId {
+	public static final int ROOT_PTR = 0;
+	public static final int INTERNAL = 1;
+	public static final int LEAF = 2;
+
+	int pgcateg;
+
+	/**
+	 * Constructor. Create a page id structure for a specific page of a
+	 * specific index.
+	 *
+	 * @param tableId
+	 *            The index that is being referenced
+	 * @param pgNo
+	 *            The page number in that index.
+	 * @param pgcateg
+	 *            The category of the page: ROOT_PTR, INTERNAL or LEAF
+	 */
+	public BTreePageId(int tableId, int pgNo, int pgcateg) {
+		super(tableId, pgNo);
+		this.pgcateg = pgcateg;
+	}
+
+	/**
+	 * @return the category of this page: ROOT_PTR, INTERNAL or LEAF
+	 */
+	public int pgcateg() {
+		return this.pgcateg;
+	}
+
+	/**
+	 * Return a representation of this object as an array of integers, for
+	 * writing to disk. Size of returned array must contain number of integers
+	 * that corresponds to number of args to one of the constructors.
+	 */
+	public int[] serialize() {
+		int data[] = new int[3];
+
+		data[0] = getTableId();
+		data[1] = pageno();
+		data[2] = pgcateg();
+
+		return data;
+	}
+}
@@ -0,0 +1,70 @@
+package cbpdbms;
+
+import java.io.*;
+
+/**
+ * BTreeRootPtrPage is page 0 of every BTreeFile. It points to the root page of
+ * the tree, which moves when the root splits. A root page number of 0 means
+ * the tree is empty.
+ *
+ * @see BTreeFile
+ */
+public class BTreeRootPtrPage extends BTreePage {
+	int rootPgNo;
+	int rootCategory;
+
+	/**
+	 * Create a BTreeRootPtrPage from a set of bytes of data read from disk:
+	 * the page number and the category of the root page.
+	 */
+	public BTreeRootPtrPage(BTreePageId id, byte[] data) throws IOException {
+		super(id);
+		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+		rootPgNo = dis.readInt();
+		rootCategory = dis.readInt();
+		dis.close();
+
+		setBeforeImage();
+	}
+
+	/**
+	 * @return the id of the root page, or null if the tree is empty
+	 */
+	public BTreePageId getRootId() {
+		if (rootPgNo == 0)
+			return null;
+		return new BTreePageId(pid.getTableId(), rootPgNo, rootCategory);
+	}
+
+	public void setRootId(BTreePageId id) {
+		rootPgNo = id.pageno();
+		rootCategory = id.pgcateg();
+	}
+
+	public byte[] getPageData() {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.PAGE_SIZE);
+		DataOutputStream dos = new DataOutputStream(baos);
+		try {
+			dos.writeInt(rootPgNo);
+			dos.writeInt(rootCategory);
+			dos.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return toPageData(baos);
+	}
+
+	/**
+	 * Return a view of this page before it was modified -- used by recovery
+	 */
+	public BTreeRootPtrPage getBeforeImage() {
+		try {
+			return new BTreeRootPtrPage(getId(), oldData);
+		} catch (IOException e) {
+			e.printStackTrace();
+			// should never happen -- we parsed it OK before!
+			System.exit(1);
+		}
+		return null;
+	}
+}
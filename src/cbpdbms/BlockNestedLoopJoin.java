@@ -0,0 +1,153 @@
+package cbpdbms;
+
+import java.util.*;
+
+/**
+ * The BlockNestedLoopJoin operator implements a join on any predicate with a
+ * block nested loops join. The outer child (child1) is read a block of
+ * blockPages pages of tuples at a time, and the inner child (child2) is
+ * scanned once per block rather than once per outer tuple as in
+ * {@link Join}.
+ * <p>
+ * The output tuples are the fields of child1 followed by the fields of child2,
+ * the same as {@link Join}.
+ */
+public class BlockNestedLoopJoin extends AbstractDbIterator {
+	/**
+	 * Default size, in pages, of a block of outer tuples.
+	 */
+	public static final int DEFAULT_BLOCK_PAGES = 10;
+
+	JoinPredicate p;
+	DbIterator child1;
+	DbIterator child2;
+	int blockPages;
+
+	ArrayList<Tuple> block;// the current block of outer tuples
+	Tuple innerTup;
+	int blockPos;// next outer tuple of block to join with innerTup
+
+	/**
+	 * Constructor, with the default block size.
+	 *
+	 * @param p
+	 *            The predicate to use to join the children
+	 * @param child1
+	 *            Iterator for the left(outer) relation to join
+	 * @param child2
+	 *            Iterator for the right(inner) relation to join
+	 */
+	public BlockNestedLoopJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+		this(p, child1, child2, DEFAULT_BLOCK_PAGES);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param p
+	 *            The predicate to use to join the children
+	 * @param child1
+	 *            Iterator for the left(outer) relation to join
+	 * @param child2
+	 *            Iterator for the right(inner) relation to join
+	 * @param blockPages
+	 *            the number of pages of outer tuples joined per scan of the
+	 *            inner relation, at least 1
+	 */
+	public BlockNestedLoopJoin(JoinPredicate p, DbIterator child1, DbIterator child2, int blockPages) {
+		if (blockPages < 1)
+			throw new IllegalArgumentException("blockPages must be at least 1");
+
+		this.p = p;
+		this.child1 = child1;
+		this.child2 = child2;
+		this.blockPages = blockPages;
+	}
+
+	/**
+	 * @return the number of outer tuples in a full block
+	 */
+	public int getBlockTuples() {
+		return blockPages * SpillFile.tuplesPerPage(child1.getTupleDesc());
+	}
+
+	/**
+	 * @see cbpdbms.TupleDesc#combine(TupleDesc, TupleDesc) for possible
+	 *      implementation logic.
+	 */
+	public TupleDesc getTupleDesc() {
+		return TupleDesc.combine(child1.getTupleDesc(), child2.getTupleDesc());
+	}
+
+	public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+		child1.open();
+		child2.open();
+		block = new ArrayList<Tuple>();
+		readBlock();
+	}
+
+	public void close() {
+		super.close();
+		child1.close();
+		child2.close();
+		block = null;
+		innerTup = null;
+	}
+
+	public void rewind() throws DbException, TransactionAbortedException {
+		super.close();
+		child1.rewind();
+		child2.rewind();
+		readBlock();
+	}
+
+	/**
+	 * Reads the next block of outer tuples, it is empty once the outer child
+	 * is exhausted.
+	 */
+	private void readBlock() throws DbException, TransactionAbortedException {
+		block.clear();
+		int blockTuples = getBlockTuples();
+		while (block.size() < blockTuples && child1.hasNext())
+			block.add(child1.next());
+		innerTup = null;
+		blockPos = 0;
+	}
+
+	/**
+	 * Returns the next tuple generated by the join, or null if there are no
+	 * more tuples. Each inner tuple is joined with every outer tuple of the
+	 * current block; once the inner child is exhausted, the next block is read
+	 * and the inner child is rewound.
+	 *
+	 * @return The next matching tuple.
+	 * @see JoinPredicate#filter
+	 */
+	protected Tuple readNext() throws TransactionAbortedException, DbException {
+		if (block == null)
+			throw new DbException("Iterator not init");
+
+		while (!block.isEmpty()) {
+			if (innerTup != null) {
+				while (blockPos < block.size()) {
+					Tuple outer = block.get(blockPos++);
+					if (p.filter(outer, innerTup))
+						return Tuple.simpleCombine(outer, innerTup);
+				}
+			}
+
+			if (child2.hasNext()) {
+				innerTup = child2.next();
+				blockPos = 0;
+				continue;
+			}
+
+			if (block.size() < getBlockTuples() || !child1.hasNext())
+				break;
+			readBlock();
+			child2.rewind();
+		}
+		block.clear();
+		return null;
+	}
+}
@@ -1,10 +1,17 @@
 package cbpdbms;
 
 import java.io.*;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import util.Debug;
 
@@ -28,11 +35,56 @@ public class BufferPool {
 	 */
 	public static final int DEFAULT_PAGES = 50;
 
+	/**
+	 * Number of latches the pages are striped over: a page is read from disk
+	 * holding the latch of its stripe, so pages of different stripes are read
+	 * in parallel.
+	 */
+	static final int LOAD_STRIPES = 64;
+
 	int numPages;
 	public Map<PageId, Page> pageMap;
-	List<Page> clockList; // recent used
+	ReplacementPolicy policy;
 	LockManager locker;
-	Map<PageId, PageId> pageIdMap;
+	AtomicInteger usedFrames;// pages in the pool or being read into it
+	Object[] loadLatches;
+
+	/**
+	 * The pin count of each page of the pool, -1 while the page is being
+	 * evicted. A page is in pinCounts if and only if it is in pageMap.
+	 */
+	Map<PageId, AtomicInteger> pinCounts;
+	Map<TransactionId, List<PageId>> pinsOf;// the pins each transaction holds
+
+	/**
+	 * Whether dirty pages of uncommitted transactions may be evicted, see
+	 * {@link #setSteal}. NO-STEAL by default.
+	 */
+	volatile boolean steal;
+
+	/**
+	 * Whether scans read pages ahead, see {@link #setReadAhead}. On by
+	 * default.
+	 */
+	volatile boolean readAhead;
+
+	/**
+	 * The pages of the pool whose committed contents are not on disk yet,
+	 * each with the sequence number of its last commit. See
+	 * {@link #startCleaner}.
+	 */
+	Map<PageId, Long> unwritten;
+	AtomicLong commitSeq;
+	Object writeLatch;// held while a page is written to its file
+	volatile PageCleaner cleaner;
+	AtomicInteger writeBackEvictions;
+	AtomicInteger prefetchedPages;
+
+	/**
+	 * The committed versions of the pages snapshot transactions read, null
+	 * unless the pool is in MVCC mode, see {@link #setMvcc}.
+	 */
+	volatile VersionStore versions;
 
 	/**
 	 * Creates a BufferPool that caches up to numPages pages.
@@ -42,12 +94,239 @@ public class BufferPool {
 	 */
 
 	public BufferPool(int numPages) {
+		this(numPages, new ClockPolicy(numPages));
+	}
+
+	/**
+	 * Creates a BufferPool that caches up to numPages pages and evicts them
+	 * according to the specified policy.
+	 *
+	 * @param numPages
+	 *            maximum number of pages in this buffer pool.
+	 * @param policy
+	 *            the replacement policy, created for numPages pages
+	 */
+	public BufferPool(int numPages, ReplacementPolicy policy) {
+		this(numPages, policy, new LockManager());
+	}
+
+	/**
+	 * Creates a BufferPool that caches up to numPages pages, evicts them
+	 * according to the specified policy and breaks the deadlocks of its
+	 * transactions with the specified deadlock policy.
+	 *
+	 * @param numPages
+	 *            maximum number of pages in this buffer pool.
+	 * @param policy
+	 *            the replacement policy, created for numPages pages
+	 * @param deadlock
+	 *            the deadlock policy of the locks of the pages
+	 */
+	public BufferPool(int numPages, ReplacementPolicy policy, DeadlockPolicy deadlock) {
+		this(numPages, policy, new LockManager(deadlock));
+	}
+
+	private BufferPool(int numPages, ReplacementPolicy policy, LockManager locker) {
 		this.numPages = numPages;
 		this.pageMap = new ConcurrentHashMap<PageId, Page>();
-		this.clockList = new LinkedList<Page>();
-		this.locker = new LockManager();
+		this.policy = policy;
+		this.locker = locker;
 
-		this.pageIdMap = new ConcurrentHashMap<PageId, PageId>();
+		this.usedFrames = new AtomicInteger(0);
+		this.loadLatches = new Object[LOAD_STRIPES];
+		for (int i = 0; i < LOAD_STRIPES; i++)
+			loadLatches[i] = new Object();
+		this.pinCounts = new ConcurrentHashMap<PageId, AtomicInteger>();
+		this.pinsOf = new ConcurrentHashMap<TransactionId, List<PageId>>();
+		this.steal = false;
+		this.readAhead = true;
+		this.unwritten = new ConcurrentHashMap<PageId, Long>();
+		this.commitSeq = new AtomicLong(0);
+		this.writeLatch = new Object();
+		this.cleaner = null;
+		this.writeBackEvictions = new AtomicInteger(0);
+		this.prefetchedPages = new AtomicInteger(0);
+		this.versions = null;
+	}
+
+	/**
+	 * Switches the pool between NO-STEAL, where a dirty page stays in the pool
+	 * until its transaction commits, and STEAL, where it may be evicted before.
+	 * <p>
+	 * In STEAL mode a transaction may dirty more pages than the pool holds. A
+	 * stolen page reaches the disk after its update record was forced to the
+	 * log, and {@link LogFile#rollback} or {@link LogFile#recover} undo it.
+	 * Only the pages of transactions started with {@link Transaction#start},
+	 * whose BEGIN record is logged, are stolen; those of other transactions
+	 * stay in the pool as under NO-STEAL.
+	 *
+	 * @param steal
+	 *            true for STEAL, false for NO-STEAL
+	 */
+	public void setSteal(boolean steal) {
+		this.steal = steal;
+	}
+
+	/**
+	 * @return true if the pool is in STEAL mode
+	 */
+	public boolean isSteal() {
+		return steal;
+	}
+
+	/**
+	 * Turns MVCC mode on or off. In MVCC mode each commit is stamped with a
+	 * timestamp and keeps the versions of the pages it writes, and a
+	 * transaction started with {@link #beginSnapshot} reads the HeapFiles as
+	 * they were committed when it started, without locks: it neither waits
+	 * for the writers nor makes them wait. The versions no snapshot reads any
+	 * more are dropped. Should be set while no transaction runs.
+	 *
+	 * @param mvcc
+	 *            true for MVCC mode
+	 * @see VersionStore
+	 */
+	public synchronized void setMvcc(boolean mvcc) {
+		if (mvcc == (versions != null))
+			return;
+		versions = mvcc ? new VersionStore() : null;
+	}
+
+	/**
+	 * @return true if the pool is in MVCC mode
+	 */
+	public boolean isMvcc() {
+		return versions != null;
+	}
+
+	/**
+	 * @return the versions of the pages, null unless the pool is in MVCC
+	 *         mode
+	 */
+	public VersionStore getVersionStore() {
+		return versions;
+	}
+
+	/**
+	 * Starts tid as a snapshot transaction, which reads the last committed
+	 * versions of the pages and writes none, until it completes.
+	 *
+	 * @return the timestamp of the commit tid reads the pages as of
+	 * @throws IllegalStateException
+	 *             if the pool is not in MVCC mode
+	 */
+	public long beginSnapshot(TransactionId tid) {
+		VersionStore v = versions;
+		if (v == null)
+			throw new IllegalStateException("the pool is not in MVCC mode");
+		return v.beginSnapshot(tid);
+	}
+
+	/**
+	 * @return true if tid is a snapshot transaction, see {@link #beginSnapshot}
+	 */
+	public boolean isSnapshot(TransactionId tid) {
+		VersionStore v = versions;
+		return v != null && v.getSnapshot(tid) != null;
+	}
+
+	/**
+	 * Retrieve the version of the specified page a snapshot transaction
+	 * reads, without a lock. The page returned is not in the pool, and must
+	 * not be changed.
+	 *
+	 * @param tid
+	 *            the snapshot transaction reading the page
+	 * @param pid
+	 *            the ID of the requested page
+	 * @throws DbException
+	 *             if tid is not a snapshot transaction
+	 */
+	public Page getPageVersion(TransactionId tid, PageId pid) throws DbException {
+		VersionStore v = versions;
+		Long ts = v == null ? null : v.getSnapshot(tid);
+		if (ts == null)
+			throw new DbException("transaction " + tid + " is not a snapshot transaction");
+		while (true) {
+			Page page = v.find(pid, ts);
+			if (page != null)
+				return page;
+			Page committed = fetchPage(tid, pid, false).getBeforeImage();
+			// NOTE: a writer pins the page before its data may be read here,
+			// so the contents read are committed if it is still not pinned
+			if (!v.hasVersions(pid))
+				return committed;
+		}
+	}
+
+	/**
+	 * Turns the read-ahead of sequential scans on or off, see
+	 * {@link HeapFileIterator}.
+	 *
+	 * @param readAhead
+	 *            true if scans read pages ahead
+	 */
+	public void setReadAhead(boolean readAhead) {
+		this.readAhead = readAhead;
+	}
+
+	/**
+	 * @return true if scans read pages ahead
+	 */
+	public boolean isReadAhead() {
+		return readAhead;
+	}
+
+	/**
+	 * Starts a {@link PageCleaner} writing back the pages of the pool in the
+	 * background, and makes commits NO-FORCE while it runs: a transaction
+	 * whose BEGIN record is logged commits by logging the update records of
+	 * its pages, which stay in the pool until the cleaner, an eviction or a
+	 * checkpoint writes them. {@link LogFile#recover} redoes them after a
+	 * crash.
+	 *
+	 * @param rate
+	 *            the most pages the cleaner writes per second
+	 * @param lowWater
+	 *            the fraction of the pool the cleaner stops at
+	 * @param highWater
+	 *            the fraction of the pool not written back the cleaner starts
+	 *            at
+	 */
+	public synchronized void startCleaner(int rate, double lowWater, double highWater) {
+		if (cleaner != null)
+			throw new IllegalStateException("the cleaner is running");
+		cleaner = new PageCleaner(this, rate, lowWater, highWater);
+		cleaner.start();
+	}
+
+	/**
+	 * Stops the cleaner, and makes commits write their pages again. The pages
+	 * not written back yet are written when they are evicted or flushed.
+	 */
+	public void stopCleaner() throws InterruptedException {
+		PageCleaner c;
+		synchronized (this) {
+			c = cleaner;
+			cleaner = null;
+		}
+		if (c != null)
+			c.shutdown();
+	}
+
+	/**
+	 * @return the number of pages of the pool holding committed data not
+	 *         written back yet
+	 */
+	public int getUnwrittenCount() {
+		return unwritten.size();
+	}
+
+	/**
+	 * @return the number of evictions that had to write a page back first
+	 */
+	public int getWriteBackEvictions() {
+		return writeBackEvictions.get();
 	}
 
 	/**
@@ -66,6 +345,9 @@ public class BufferPool {
 	 * to the buffer pool and returned. If there is insufficient space in the
 	 * buffer pool, an page should be evicted and the new page should be added
 	 * in its place.
+	 * <p>
+	 * A hit takes no lock of the pool. A miss reads the page holding the latch
+	 * of its stripe only, and takes the lock of the pool only to evict a page.
 	 *
 	 * @param tid
 	 *            the ID of the transaction requesting the page
@@ -76,63 +358,330 @@ public class BufferPool {
 	 */
 	public Page getPage(TransactionId tid, PageId _pid, Permissions perm)
 			throws TransactionAbortedException, DbException {
-		PageId pid;
+		return getPage(tid, _pid, LockMode.of(perm), false);
+	}
 
-		// NOTE: gap.
-		// t1.get，3, t2.get null，pid null，2
+	/**
+	 * Retrieve the specified page with the associated permissions, as
+	 * {@link #getPage}, and pin it: the page is not evicted until it is
+	 * unpinned with {@link #unpinPage} as many times as it was pinned, or until
+	 * the transaction completes.
+	 *
+	 * @param tid
+	 *            the ID of the transaction requesting the page
+	 * @param pid
+	 *            the ID of the requested page
+	 * @param perm
+	 *            the requested permissions on the page
+	 */
+	public Page pinPage(TransactionId tid, PageId pid, Permissions perm)
+			throws TransactionAbortedException, DbException {
+		return getPage(tid, pid, LockMode.of(perm), true);
+	}
 
-		synchronized (this) {
-			pid = pageIdMap.get(_pid);// 1
-			if (pid == null)
-				pageIdMap.put(_pid, _pid);// 2
-			pid = pageIdMap.get(_pid);// 3
-		}
+	/**
+	 * Retrieve the specified page and pin it, as {@link #pinPage}, with a lock
+	 * in mode: IS to read some of its records, SIX to write some of them
+	 * while other transactions read the others, under record locks.
+	 *
+	 * @see #acquireRecordLock
+	 */
+	public Page pinPage(TransactionId tid, PageId pid, LockMode mode)
+			throws TransactionAbortedException, DbException {
+		return getPage(tid, pid, mode, true);
+	}
+
+	/**
+	 * Releases a pin of tid on the specified page. Does nothing if tid holds
+	 * no pin on it, e.g. when an iterator is closed after its transaction
+	 * completed, which released all its pins.
+	 */
+	public void unpinPage(TransactionId tid, PageId pid) {
+		List<PageId> pins = pinsOf.get(tid);
+		if (pins != null && pins.remove(pid))
+			pinCounts.get(pid).decrementAndGet();
+	}
 
-		acquireLock(tid, pid, perm);// 
+	/**
+	 * @return the number of pins on the specified page, 0 if it is not in
+	 *         the pool
+	 */
+	public int getPinCount(PageId pid) {
+		AtomicInteger pins = pinCounts.get(pid);
+		return pins == null ? 0 : Math.max(pins.get(), 0);
+	}
+
+	private Page getPage(TransactionId tid, PageId pid, LockMode mode, boolean pin)
+			throws TransactionAbortedException, DbException {
+		if (mode != LockMode.S && mode != LockMode.IS)
+			checkWritable(tid);
+		locker.acquireLock(tid, pid, mode);
 		// some code goes here
-		if (pageMap.containsKey(pid)) {
-			HeapPage page = (HeapPage) pageMap.get(pid);
-
-			// RUList.remove(page);
-			// RUList.add(page);
-			page.setVisit(true);
-
-			return page;
-		} else {
-			int fileId = pid.getTableId();
-
-			List<Catalog.TableItem> tlist = Database.getCatalog().getTableItem();
-			for (Catalog.TableItem t : tlist) {
-				// catalog file，file page。
-				int tableid = t.getFile().getId();
-				if (tableid != fileId)
-					continue;
-
-				// verify BufferPool is full
-				if (pageMap.keySet().size() == this.numPages) {
-					// evict a page
-					evictPage();
-				}
-				DbFile file = Database.getCatalog().getDbFile(fileId);
-				// disk！！！！！
-				Page newpage = file.readPage(pid);
-				// page bufferpool
-				pageMap.put(pid, newpage);
-				clockList.add(newpage);
-
-				return newpage;
+		return fetchPage(tid, pid, pin);
+	}
+
+	/**
+	 * @throws DbException
+	 *             if tid is a snapshot transaction, which writes no page
+	 */
+	private void checkWritable(TransactionId tid) throws DbException {
+		if (isSnapshot(tid))
+			throw new DbException("snapshot transaction " + tid + " is read-only");
+	}
+
+	/**
+	 * Returns a page from the pool, read into it if it is not there, without
+	 * a lock.
+	 */
+	private Page fetchPage(TransactionId tid, PageId pid, boolean pin) throws DbException {
+		while (true) {
+			Page page = cachedPage(tid, pid, pin);
+			if (page != null)
+				return page;
 
+			// NOTE: the page is read under the latch of its stripe, so that two
+			// transactions missing it together do not both read and add it.
+			synchronized (loadLatches[(pid.hashCode() & 0x7fffffff) % LOAD_STRIPES]) {
+				page = cachedPage(tid, pid, pin);
+				if (page != null)
+					return page;
+				// still there: it is being evicted, read it again once it left
+				if (!pinCounts.containsKey(pid))
+					return readPage(tid, pid, pin);
 			}
+			Thread.yield();
+		}
+	}
+
+	/**
+	 * @return the page if it is in the pool and not being evicted, pinned by
+	 *         tid if pin is true, null otherwise
+	 */
+	private Page cachedPage(TransactionId tid, PageId pid, boolean pin) {
+		AtomicInteger pins = pinCounts.get(pid);
+		if (pins == null)
+			return null;
+		while (true) {
+			int n = pins.get();
+			if (n < 0)
+				return null;
+			if (!pin || pins.compareAndSet(n, n + 1))
+				break;
+		}
+		if (pin)
+			addPin(tid, pid);
+		policy.access(pid);
+		return pageMap.get(pid);
+	}
+
+	private void addPin(TransactionId tid, PageId pid) {
+		List<PageId> pins = pinsOf.get(tid);
+		if (pins == null) {
+			pinsOf.putIfAbsent(tid, Collections.synchronizedList(new ArrayList<PageId>()));
+			pins = pinsOf.get(tid);
+		}
+		pins.add(pid);
+	}
+
+	/**
+	 * Reads a page that is not in the pool into a free frame, evicting a page
+	 * if there is none. Called holding the latch of the stripe of the page.
+	 */
+	private Page readPage(TransactionId tid, PageId pid, boolean pin) throws DbException {
+		int fileId = pid.getTableId();
 
+		// the file of the page is a table or an index of the catalog
+		DbFile file;
+		try {
+			file = Database.getCatalog().getDbFile(fileId);
+		} catch (NoSuchElementException e) {
 			throw new DbException("file not in catalog");
+		}
+
+		reserveFrame();
+		// disk！！！！！
+		Page newpage;
+		try {
+			newpage = file.readPage(pid);
+		} catch (RuntimeException e) {
+			usedFrames.decrementAndGet();
+			throw e;
+		}
+		// page bufferpool
+		pageMap.put(pid, newpage);
+		pinCounts.put(pid, new AtomicInteger(pin ? 1 : 0));
+		if (pin)
+			addPin(tid, pid);
+		policy.add(pid);
+
+		return newpage;
+	}
+
+	/**
+	 * Replaces the cached copy of a page, if the page is in the pool, with
+	 * one read from the log. Used by the recovery manager after it wrote the
+	 * page to disk, so a page that is not cached is left on disk.
+	 */
+	synchronized void replacePage(Page page) {
+		if (pageMap.containsKey(page.getId()))
+			pageMap.put(page.getId(), page);
+	}
+
+	/**
+	 * Reserves a frame for a page about to be read, evicting pages until the
+	 * pool has room.
+	 */
+	private void reserveFrame() throws DbException {
+		while (true) {
+			int used = usedFrames.get();
+			if (used < numPages) {
+				if (usedFrames.compareAndSet(used, used + 1))
+					return;
+			} else if (!evictPage()) {
+				Thread.yield();
+			}
+		}
+	}
+
+	/**
+	 * Reads pages of a file ahead of a scan: the pages start..start+count-1
+	 * that are not in the pool are read into it, with one read of the file
+	 * for each run of consecutive pages missing. Read-ahead is a hint, so no
+	 * lock is taken, and pages are only read into free frames or frames of
+	 * clean pages that need no write; a page is skipped if there is none,
+	 * if a transaction holds an exclusive lock on it, or if the file was
+	 * written while it was read.
+	 *
+	 * @param file
+	 *            the file to read the pages of
+	 * @param start
+	 *            the number of the first page
+	 * @param count
+	 *            the number of pages
+	 * @see Prefetcher
+	 */
+	public void prefetchPages(HeapFile file, int start, int count) throws IOException {
+		int end = Math.min(start + count, file.numPages());
+		int pgno = start;
+		while (pgno < end) {
+			// the next run of pages missing from the pool
+			while (pgno < end && pinCounts.containsKey(new HeapPageId(file.getId(), pgno)))
+				pgno++;
+			List<PageId> run = new ArrayList<PageId>();
+			for (; pgno < end && run.size() < MAX_PREFETCH_RUN; pgno++) {
+				PageId pid = new HeapPageId(file.getId(), pgno);
+				if (pinCounts.containsKey(pid))
+					break;
+				run.add(pid);
+			}
+			if (run.isEmpty())
+				continue;
 
+			long writes = file.pages.writeCount();
+			Page[] pages = file.readPages(run.toArray(new PageId[run.size()]));
+			for (Page page : pages)
+				if (!addPrefetchedPage(page, file, writes))
+					return;// the pool is full
+		}
+	}
+
+	/** The most pages prefetchPages reads at once */
+	static final int MAX_PREFETCH_RUN = 32;
+
+	/**
+	 * Adds a page read ahead to the pool, unless it is no longer the page on
+	 * disk. See prefetchPages.
+	 *
+	 * @param writes
+	 *            the write count of the file before the page was read
+	 * @return false if the pool has no frame for the page
+	 */
+	private boolean addPrefetchedPage(Page page, HeapFile file, long writes) {
+		PageId pid = page.getId();
+		synchronized (loadLatches[(pid.hashCode() & 0x7fffffff) % LOAD_STRIPES]) {
+			// NOTE: the disk copy of a page may only differ from the committed
+			// contents while a transaction holds an exclusive lock on it, and
+			// a page is only written while in the pool or by the recovery
+			if (pinCounts.containsKey(pid) || file.pages.writeCount() != writes
+					|| locker.isExclusivelyLocked(pid))
+				return true;
+			if (!tryReserveFrame())
+				return false;
+			pageMap.put(pid, page);
+			pinCounts.put(pid, new AtomicInteger(0));
+			policy.add(pid);
+			prefetchedPages.incrementAndGet();
+		}
+		return true;
+	}
+
+	/**
+	 * Reserves a frame for a page read ahead: a free one, or the frame of a
+	 * clean page evicted without a write. Gives up rather than wait.
+	 */
+	private boolean tryReserveFrame() {
+		for (int tries = 0; tries < 2; tries++) {
+			int used = usedFrames.get();
+			if (used < numPages) {
+				if (usedFrames.compareAndSet(used, used + 1))
+					return true;
+			} else if (!evictWrittenPage()) {
+				return false;
+			}
 		}
+		return false;
+	}
+
+	/**
+	 * Evicts a clean page whose contents are on disk, unless the pool has a
+	 * free frame.
+	 *
+	 * @return false if there is no such page to evict
+	 */
+	private synchronized boolean evictWrittenPage() {
+		if (usedFrames.get() < numPages)
+			return true;
+		PageId pid = policy.victim(writtenPages);
+		if (pid == null || !pinCounts.get(pid).compareAndSet(0, -1))
+			return false;
+		pageMap.remove(pid);
+		pinCounts.remove(pid);
+		policy.remove(pid);
+		usedFrames.decrementAndGet();
+		return true;
+	}
+
+	/**
+	 * @return the number of pages read ahead into the pool so far
+	 */
+	public int getPrefetchedCount() {
+		return prefetchedPages.get();
 	}
 
 	public void acquireLock(TransactionId tid, PageId pid, Permissions perm) throws TransactionAbortedException {
 		locker.acquireLock(tid, pid, perm);
 	}
 
+	/**
+	 * Locks a page as {@link #acquireLock}, only if tid may have the lock at
+	 * once.
+	 *
+	 * @return true if tid holds the lock, false if it would have to wait
+	 */
+	public boolean tryAcquireLock(TransactionId tid, PageId pid, Permissions perm) {
+		return locker.tryAcquireLock(tid, pid, LockMode.of(perm));
+	}
+
+	/**
+	 * Locks a record, S to read it or X to write it, with the intention locks
+	 * on its page and table. The page must be pinned with a lock in a mode
+	 * that lets tid read it to read the record.
+	 */
+	public void acquireRecordLock(TransactionId tid, RecordId rid, Permissions perm)
+			throws TransactionAbortedException {
+		locker.acquireRecordLock(tid, rid, perm);
+	}
+
 	/**
 	 * Releases the lock on a page. Calling this is very risky, and may result
 	 * in wrong behavior. Think hard about who needs to call this and why, and
@@ -186,23 +735,24 @@ public class BufferPool {
 		// not necessary for lab1|lab2
 		if (commit == true) {// commit
 			Debug.printInfo("-----------Commit transaction-----------");
-			for (Page page : pageMap.values()) {
-				if (page.isDirty() != null && page.isDirty().equals(tid)) {
-					// NOTE: add in lab5-------------------------
-					// use current page contents as the before-image
-					// for the next transaction that modifies this page.
-					page.setBeforeImage();
-					// ------------------------------------------
-					flushPage(page.getId());
-				}
-			}
+			commitPages(tid);
 		} else {// abort
 			Debug.printInfo("-------------Abort transaction----------");
 			for (Page page : pageMap.values()) {
 				if (page.isDirty() != null && page.isDirty().equals(tid))
 					pageMap.put(page.getId(), page.getBeforeImage());
 			}
+			if (versions != null)
+				versions.complete(tid, 0);
 		}
+		if (versions != null)
+			versions.endSnapshot(tid);
+
+		// the pins of iterators the transaction did not close
+		List<PageId> pins = pinsOf.remove(tid);
+		if (pins != null)
+			for (PageId pid : pins)
+				pinCounts.get(pid).decrementAndGet();
 
 		// commit，tid
 		// locker.timeMap.remove(tid);
@@ -230,11 +780,16 @@ public class BufferPool {
 			throws DbException, IOException, TransactionAbortedException {
 		// some code goes here
 		// not necessary for lab1
+		checkWritable(tid);
 		DbFile dbfile = Database.getCatalog().getDbFile(tableId);
 
 		// TODO: need to deal with return modify page
 		// move log operation and write to here??
 		dbfile.addTuple(tid, t);
+
+		// addTuple set the RecordId of t, its index entries can be added
+		for (IndexFile index : Database.getCatalog().getIndexes(tableId))
+			index.addTuple(tid, t);
 	}
 
 	/**
@@ -255,16 +810,36 @@ public class BufferPool {
 	public void deleteTuple(TransactionId tid, Tuple t) throws DbException, TransactionAbortedException {
 		// some code goes here
 		// not necessary for lab1
+		checkWritable(tid);
 		RecordId rid = t.getRecordId();
 		PageId pid = rid.getPageId();
 
 		if (!this.pageMap.containsKey(pid))
 			throw new DbException("the Tuple is not in bufferpool");
+		DbFile file = Database.getCatalog().getDbFile(pid.getTableId());
+		if (file instanceof HeapFile)
+			((HeapFile) file).checkWritable();
 
-		Page page = this.getPage(tid, pid, Permissions.READ_WRITE);
-		HeapPage hpage = (HeapPage) page;
-		hpage.deleteTuple(t);
-		hpage.markDirty(true, tid);
+		LockMode mode = file instanceof HeapFile ? ((HeapFile) file).writeMode() : LockMode.X;
+		Page page = this.pinPage(tid, pid, mode);
+		try {
+			if (mode == LockMode.SIX)
+				acquireRecordLock(tid, rid, Permissions.READ_WRITE);
+			HeapPage hpage = (HeapPage) page;
+			hpage.deleteTuple(t);
+			hpage.markDirty(true, tid);
+		} finally {
+			unpinPage(tid, pid);
+		}
+
+		// the tuple is gone from the table, its index entries can be removed
+		for (IndexFile index : Database.getCatalog().getIndexes(pid.getTableId())) {
+			try {
+				index.deleteTuple(tid, t);
+			} catch (IOException e) {
+				throw new DbException("failed to delete from index: " + e.getMessage());
+			}
+		}
 
 	}
 
@@ -286,6 +861,11 @@ public class BufferPool {
 				flushPage(page.getId());
 			}
 		}
+		for (PageId pid : unwrittenPages()) {
+			Page page = pageMap.get(pid);
+			if (page != null)
+				writeBack(page);
+		}
 
 	}
 
@@ -323,13 +903,16 @@ public class BufferPool {
 		TransactionId dirtier = page.isDirty();
 		if (dirtier != null) {
 			// write-ahead logging
-			Database.getLogFile().logWrite(dirtier, page.getBeforeImage(), page);
+			Database.getLogFile().logWrite(dirtier, page);
 			Database.getLogFile().force();
 		}
 		// -----------------------------------
 		page.markDirty(false, null);
 		// Write to disk
-		file.writePage(page);
+		synchronized (writeLatch) {
+			file.writePage(page);
+			unwritten.remove(pid);
+		}
 		Debug.printInfo("flushPage:" + pid);
 
 	}
@@ -340,53 +923,252 @@ public class BufferPool {
 	public synchronized void flushPages(TransactionId tid) throws IOException {
 		// some code goes here
 		// not necessary for lab1|lab2|lab3
+		commitPages(tid);
+	}
+
+	/**
+	 * Commits the pages tid dirtied. In MVCC mode, the commit is stamped with
+	 * the next timestamp, and the committed contents of the pages tid wrote
+	 * are kept as their versions of that timestamp: those of the pages of the
+	 * pool, and those of the pages tid pinned in the VersionStore because it
+	 * wrote them to disk, stolen or appended to their file.
+	 */
+	private void commitPages(TransactionId tid) throws IOException {
+		VersionStore v = versions;
+		long ts = v == null ? 0 : v.nextTimestamp();
+		Set<PageId> committed = new HashSet<PageId>();
 		for (Page page : pageMap.values()) {
-			if (page.isDirty() != null && page.isDirty().equals(tid)) {
-				// NOTE: add in lab5-------------------------
-				// use current page contents as the before-image
-				// for the next transaction that modifies this page.
-				HeapPage hpage = (HeapPage) page;
-				byte before[] = hpage.oldData;
-				page.setBeforeImage();
+			if (page.isDirty() == null || !page.isDirty().equals(tid))
+				continue;
+			PageId pid = page.getId();
+			if (v != null)
+				v.pin(tid, pid, page.getBeforeImage());
+			commitPage(page, tid);
+			if (v != null)
+				v.add(pid, ts, page.getBeforeImage());
+			committed.add(pid);
+		}
+		if (v == null)
+			return;
+		for (PageId pid : v.getPinned(tid)) {
+			if (!committed.add(pid))
+				continue;
+			Page page = pageMap.get(pid);
+			if (page == null)
+				page = Database.getCatalog().getDbFile(pid.getTableId()).readPage(pid);
+			v.add(pid, ts, page.getBeforeImage());
+		}
+		v.complete(tid, committed.isEmpty() ? 0 : ts);
+	}
 
-				byte data[] = hpage.oldData;
-				// ------------------------------------------
-				flushPage(page.getId());
-			}
+	/**
+	 * Makes the changes of tid to a page durable: by writing the page, or,
+	 * while the cleaner runs, by logging them only (NO-FORCE), the page being
+	 * written back later. The log is what redoes them after a crash, so only
+	 * the pages of transactions whose BEGIN record is logged are not written.
+	 */
+	private void commitPage(Page page, TransactionId tid) throws IOException {
+		if (cleaner != null && Database.getLogFile().isActive(tid)) {
+			Database.getLogFile().logWrite(tid, page);
+			// NOTE: the sequence number changes after the before-image, so a
+			// cleaner that copied the old before-image and then still finds
+			// the old number leaves the page to write again
+			page.setBeforeImage();
+			unwritten.put(page.getId(), commitSeq.incrementAndGet());
+			page.markDirty(false, null);
+			return;
 		}
+		// NOTE: add in lab5-------------------------
+		// use current page contents as the before-image
+		// for the next transaction that modifies this page.
+		page.setBeforeImage();
+		// ------------------------------------------
+		flushPage(page.getId());
 	}
 
 	/**
-	 * Discards a page from the buffer pool. Flushes the page to disk to ensure
-	 * dirty pages are updated on disk.
+	 * Discards a page from the buffer pool. A clean page is chosen first; in
+	 * STEAL mode, a dirty page of a logged transaction is chosen when there is
+	 * none, and written to disk after its update record is forced to the log.
+	 *
+	 * @return true if a page was evicted, false if the caller should try
+	 *         again: the pool has room, or its clean pages are all being read
+	 *         or were referenced again during the sweep of the policy
+	 * @throws DbException
+	 *             if no page of the pool may be evicted
 	 */
-	private synchronized void evictPage() throws DbException {// NO STEAL
+	private synchronized boolean evictPage() throws DbException {
 
 		// cleanPage，pageMap remove。
+		// NOTE: the locks of the page live in the LockManager, transactions
+		// may still hold them after the page is evicted.
 
-		// step 1
-		for (Page pp : clockList) {
-			HeapPage p = (HeapPage) pp;
-			if (p.isDirty() == null && p.getVisit() == false) {
-				clockList.remove(p);
-				pageMap.remove(p.getId());
-				pageIdMap.remove(p.getId());
-				return;
+		// another thread may have evicted a page since the caller found the
+		// pool full
+		if (usedFrames.get() < numPages)
+			return false;
+		PageId pid = policy.victim(cleanPages);
+		if (pid == null && steal)
+			pid = policy.victim(stealablePages);
+		if (pid == null) {
+			if (pageMap.size() < usedFrames.get() || hasEvictablePage())
+				return false;
+			throw new DbException("no clean unpinned page for evict");
+		}
+		// a page pinned since the policy chose it stays
+		if (!pinCounts.get(pid).compareAndSet(0, -1))
+			return false;
+		Page page = pageMap.get(pid);
+		if (page.isDirty() != null) {
+			try {
+				stealPage(page);
+			} catch (IOException e) {
+				pinCounts.get(pid).set(0);
+				throw new DbException("failed to write page " + pid + " for evict: " + e.getMessage());
+			}
+		} else if (unwritten.containsKey(pid)) {
+			try {
+				writeBack(page);
+				writeBackEvictions.incrementAndGet();
+			} catch (IOException e) {
+				pinCounts.get(pid).set(0);
+				throw new DbException("failed to write page " + pid + " for evict: " + e.getMessage());
 			}
-			p.setVisit(false);
 		}
+		pageMap.remove(pid);
+		pinCounts.remove(pid);
+		policy.remove(pid);
+		usedFrames.decrementAndGet();
+		return true;
+	}
 
-		// step 2
-		for (Page pp : clockList) {
-			HeapPage p = (HeapPage) pp;
-			if (p.isDirty() == null && p.getVisit() == false) {
-				clockList.remove(p);
-				pageMap.remove(p.getId());
-				pageIdMap.remove(p.getId());
-				return;
-			}
+	/**
+	 * Writes a dirty page of an uncommitted transaction to disk, write-ahead:
+	 * its update record, with the before-image to undo it, is forced to the
+	 * log first. The page keeps its locks, so no other transaction reads the
+	 * uncommitted data back from disk.
+	 */
+	private void stealPage(Page page) throws IOException {
+		TransactionId dirtier = page.isDirty();
+		// the snapshots read the committed contents from the VersionStore
+		// while the disk holds the uncommitted ones
+		if (versions != null)
+			versions.pin(dirtier, page.getId(), page.getBeforeImage());
+		Database.getLogFile().logWrite(dirtier, page);
+		Database.getLogFile().force();
+		synchronized (writeLatch) {
+			Database.getCatalog().getDbFile(page.getId().getTableId()).writePage(page);
+			unwritten.remove(page.getId());
 		}
-		throw new DbException("no clean page for evict");
+		Debug.printInfo("stealPage:" + page.getId());
 	}
 
+	/**
+	 * Writes the committed contents of a page, its before-image, to disk if
+	 * they are not written yet. The update record of the last commit is
+	 * forced to the log first.
+	 *
+	 * @return false if the page was not written because it was written or
+	 *         committed again meanwhile
+	 */
+	private boolean writeBack(Page page) throws IOException {
+		PageId pid = page.getId();
+		Long seq = unwritten.get(pid);
+		if (seq == null)
+			return false;
+		Page committed = page.getBeforeImage();
+		// NOTE: the log is forced before writeLatch is taken, a checkpoint
+		// holds the log while it writes pages
+		Database.getLogFile().force();
+		synchronized (writeLatch) {
+			// a commit since the copy leaves the page to write again
+			if (!seq.equals(unwritten.get(pid)))
+				return false;
+			Database.getCatalog().getDbFile(pid.getTableId()).writePage(committed);
+			unwritten.remove(pid, seq);
+		}
+		Debug.printInfo("writeBack:" + pid);
+		return true;
+	}
+
+	/**
+	 * Writes back a page for the cleaner, unless it is pinned or being
+	 * evicted. The page is pinned meanwhile, so it is not evicted while it
+	 * is written; the pool is not locked.
+	 *
+	 * @return true if the page was written
+	 */
+	boolean cleanPage(PageId pid) throws IOException {
+		AtomicInteger pins = pinCounts.get(pid);
+		if (pins == null || !pins.compareAndSet(0, 1))
+			return false;
+		try {
+			Page page = pageMap.get(pid);
+			return page != null && writeBack(page);
+		} finally {
+			pins.decrementAndGet();
+		}
+	}
+
+	/**
+	 * @return the pages not written back, ordered by file and page number
+	 */
+	List<PageId> unwrittenPages() {
+		List<PageId> pids = new ArrayList<PageId>(unwritten.keySet());
+		Collections.sort(pids, new Comparator<PageId>() {
+			public int compare(PageId p1, PageId p2) {
+				if (p1.getTableId() != p2.getTableId())
+					return p1.getTableId() < p2.getTableId() ? -1 : 1;
+				return Integer.compare(p1.pageno(), p2.pageno());
+			}
+		});
+		return pids;
+	}
+
+	private boolean hasEvictablePage() {
+		for (PageId pid : pageMap.keySet())
+			if (cleanPages.isEvictable(pid) || (steal && stealablePages.isEvictable(pid)))
+				return true;
+		return false;
+	}
+
+	/**
+	 * The pages the replacement policy may evict: the clean ones, since dirty
+	 * pages may not reach the disk before their transaction commits, that are
+	 * not pinned.
+	 */
+	private final ReplacementPolicy.Evictable cleanPages = new ReplacementPolicy.Evictable() {
+		public boolean isEvictable(PageId pid) {
+			Page page = pageMap.get(pid);
+			AtomicInteger pins = pinCounts.get(pid);
+			return page != null && page.isDirty() == null && pins != null && pins.get() == 0;
+		}
+	};
+
+	/**
+	 * The clean pages whose contents are on disk, which are evicted without a
+	 * write.
+	 */
+	private final ReplacementPolicy.Evictable writtenPages = new ReplacementPolicy.Evictable() {
+		public boolean isEvictable(PageId pid) {
+			return cleanPages.isEvictable(pid) && !unwritten.containsKey(pid);
+		}
+	};
+
+	/**
+	 * The dirty pages the pool may steal: those of transactions whose BEGIN
+	 * record is in the log, since the log is what undoes them if the
+	 * transaction aborts, that are not pinned.
+	 */
+	private final ReplacementPolicy.Evictable stealablePages = new ReplacementPolicy.Evictable() {
+		public boolean isEvictable(PageId pid) {
+			Page page = pageMap.get(pid);
+			AtomicInteger pins = pinCounts.get(pid);
+			if (page == null || pins == null || pins.get() != 0)
+				return false;
+			TransactionId dirtier = page.isDirty();
+			return dirtier != null && Database.getLogFile().isActive(dirtier);
+		}
+	};
+
 }
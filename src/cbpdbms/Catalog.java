@@ -15,6 +15,7 @@ import java.util.*;
 
 public class Catalog {
 	private Map<Integer, TableItem> cataMap;
+	private Map<Integer, IndexFile> indexMap;
 
 	public static class TableItem {
 		private DbFile dbfile;
@@ -45,6 +46,7 @@ public class Catalog {
 	 */
 	public Catalog() {
 		this.cataMap = new HashMap<Integer, TableItem>();
+		this.indexMap = new HashMap<Integer, IndexFile>();
 	}
 
 	/**
@@ -67,8 +69,9 @@ public class Catalog {
 		if (name.equals(null)) {
 			throw new IllegalArgumentException("name cannot be null");
 		} else {
-			if (cataMap.containsKey(tId))
-				cataMap.remove(tId);
+			TableItem old = cataMap.remove(tId);
+			if (old != null && old.getFile() != file)
+				old.getFile().close();
 
 			TableItem t = new TableItem(file, name, pkeyField);
 			cataMap.put(tId, t);
@@ -139,13 +142,60 @@ public class Catalog {
 	public DbFile getDbFile(int tableid) throws NoSuchElementException {
 		if (this.cataMap.containsKey(tableid))
 			return this.cataMap.get(tableid).getFile();
+		else if (this.indexMap.containsKey(tableid))
+			return this.indexMap.get(tableid);
 		else
 			throw new NoSuchElementException();
 	}
 
-	/** Delete all tables from the catalog */
+	/**
+	 * Add an index on a table of the catalog. The index is maintained by
+	 * BufferPool.insertTuple and deleteTuple from then on, and its pages are
+	 * found by getDbFile(index.getId()).
+	 * 
+	 * @param index
+	 *            the index to add, empty or up to date with its table
+	 */
+	public void addIndex(IndexFile index) {
+		if (!this.cataMap.containsKey(index.getTableId()))
+			throw new NoSuchElementException();
+		IndexFile old = this.indexMap.put(index.getId(), index);
+		if (old != null && old != index)
+			old.close();
+	}
+
+	/**
+	 * Returns the indexes on the specified table, an empty list if there is
+	 * none.
+	 */
+	public List<IndexFile> getIndexes(int tableid) {
+		List<IndexFile> indexes = new ArrayList<IndexFile>();
+		for (IndexFile index : this.indexMap.values())
+			if (index.getTableId() == tableid)
+				indexes.add(index);
+		return indexes;
+	}
+
+	/**
+	 * Returns the indexes on field of the specified table, an empty list if
+	 * there is none.
+	 */
+	public List<IndexFile> getIndexes(int tableid, int field) {
+		List<IndexFile> indexes = new ArrayList<IndexFile>();
+		for (IndexFile index : getIndexes(tableid))
+			if (index.getKeyField() == field)
+				indexes.add(index);
+		return indexes;
+	}
+
+	/** Delete all tables and indexes from the catalog, closing their files */
 	public void clear() {
+		for (TableItem t : this.cataMap.values())
+			t.getFile().close();
+		for (IndexFile index : this.indexMap.values())
+			index.close();
 		this.cataMap.clear();
+		this.indexMap.clear();
 	}
 
 	public String getPrimaryKey(int tableid) throws NoSuchElementException {
@@ -170,6 +220,12 @@ public class Catalog {
 	/**
 	 * Reads the schema from a file and creates the appropriate tables in the
 	 * database.
+	 * <p>
+	 * Each line of the file describes a table, as name (field type [pk], ...)
+	 * [mmap]: the pk annotation adds a hash index on the field, the mmap one
+	 * maps the table read-only, see {@link HeapFile#isMapped}. A type is int,
+	 * string or varchar(n), a string of at most n characters stored with its
+	 * length only, see {@link SlottedPage}.
 	 * 
 	 * @param catalogFile
 	 */
@@ -183,19 +239,30 @@ public class Catalog {
 				// ...)
 				String name = line.substring(0, line.indexOf("(")).trim();
 				// System.out.println("TABLE NAME: " + name);
-				String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
+				String fields = line.substring(line.indexOf("(") + 1, line.lastIndexOf(")")).trim();
 				String[] els = fields.split(",");
 				ArrayList<String> names = new ArrayList<String>();
 				ArrayList<Type> types = new ArrayList<Type>();
+				ArrayList<Integer> lengths = new ArrayList<Integer>();
 				String primaryKey = "";
 				for (String e : els) {
 					String[] els2 = e.trim().split(" ");
 					names.add(els2[0].trim());
-					if (els2[1].trim().toLowerCase().equals("int"))
+					String type = els2[1].trim().toLowerCase();
+					lengths.add(Type.STRING_LEN);
+					if (type.equals("int"))
 						types.add(Type.INT_TYPE);
-					else if (els2[1].trim().toLowerCase().equals("string"))
+					else if (type.equals("string"))
 						types.add(Type.STRING_TYPE);
-					else {
+					else if (type.matches("varchar\\(\\d+\\)")) {
+						int n = Integer.parseInt(type.substring("varchar(".length(), type.length() - 1));
+						if (n < 1 || n > Type.STRING_LEN) {
+							System.out.println("VARCHAR length must be between 1 and " + Type.STRING_LEN + ": " + els2[1]);
+							System.exit(0);
+						}
+						types.add(Type.VARCHAR_TYPE);
+						lengths.set(lengths.size() - 1, n);
+					} else {
 						System.out.println("Unknown type " + els2[1]);
 						System.exit(0);
 					}
@@ -208,12 +275,30 @@ public class Catalog {
 						}
 					}
 				}
+				// annotations of the table follow its fields
+				boolean mapped = false;
+				String annotations = line.substring(line.lastIndexOf(")") + 1).trim();
+				for (String annotation : annotations.split("\\s+")) {
+					if (annotation.equals("mmap"))
+						mapped = true;
+					else if (!annotation.equals("")) {
+						System.out.println("Unknown annotation " + annotation);
+						System.exit(0);
+					}
+				}
 				Type[] typeAr = types.toArray(new Type[0]);
 				String[] namesAr = names.toArray(new String[0]);
-				TupleDesc t = new TupleDesc(typeAr, namesAr);
-				HeapFile tabHf = new HeapFile(new File(name + ".dat"), t);
+				int[] lengthAr = new int[lengths.size()];
+				for (int i = 0; i < lengthAr.length; i++)
+					lengthAr[i] = lengths.get(i);
+				TupleDesc t = new TupleDesc(typeAr, namesAr, lengthAr);
+				HeapFile tabHf = new HeapFile(new File(name + ".dat"), t, mapped);
 				addTable(tabHf, name, primaryKey);
 				System.out.println("Added table : " + name + " with schema " + t);
+				if (!primaryKey.equals("")) {
+					addPrimaryKeyIndex(new File(name + ".pk.idx"), tabHf, t.nameToId(primaryKey));
+					System.out.println("Added hash index on " + name + "." + primaryKey);
+				}
 			}
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -224,6 +309,101 @@ public class Catalog {
 		}
 	}
 
+	/**
+	 * Adds the hash index on the primary key of a table, stored in f. The
+	 * index is built from the table if f does not exist yet, or rebuilt if it
+	 * does not hold as many entries as the table holds tuples, e.g. because
+	 * the table was written without it.
+	 */
+	private void addPrimaryKeyIndex(File f, HeapFile table, int keyField) throws IOException {
+		HashIndexFile index = new HashIndexFile(f, table, keyField);
+		addIndex(index);
+		if (f.length() > 0) {
+			if (index.readNumEntries() == countTuples(table))
+				return;
+			index.close();
+			if (!f.delete())
+				throw new IOException("cannot rebuild out of date index " + f);
+			index = new HashIndexFile(f, table, keyField);
+			addIndex(index);
+		}
+		buildIndex(index);
+	}
+
+	/**
+	 * @return the number of tuples of table, read through the BufferPool
+	 */
+	private int countTuples(DbFile table) throws IOException {
+		TransactionId tid = new TransactionId();
+		try {
+			DbFileIterator it = table.iterator(tid);
+			int n = 0;
+			it.open();
+			while (it.hasNext()) {
+				it.next();
+				n++;
+			}
+			it.close();
+			return n;
+		} catch (DbException e) {
+			throw new IOException("failed to scan " + getTableName(table.getId()) + ": " + e.getMessage());
+		} catch (TransactionAbortedException e) {
+			throw new IOException("failed to scan " + getTableName(table.getId()));
+		} finally {
+			Database.getBufferPool().transactionComplete(tid);
+		}
+	}
+
+	/**
+	 * Returns the index on field of the specified table that reads the fewest
+	 * pages per lookup, null if there is none.
+	 */
+	public IndexFile getBestIndex(int tableid, int field) {
+		int ntups = getDbFile(tableid).numPages() * SpillFile.tuplesPerPage(getTupleDesc(tableid));
+		IndexFile best = null;
+		for (IndexFile index : getIndexes(tableid, field))
+			if (best == null || index.estimateLookupPages(ntups) < best.estimateLookupPages(ntups))
+				best = index;
+		return best;
+	}
+
+	/**
+	 * Adds the entries of all the tuples of its table to an empty index.
+	 * Entries are added by batches of transactions of their own, of half as
+	 * many entries as the BufferPool has pages, so that the pages each batch
+	 * dirties fit in the pool with those of the scan.
+	 */
+	public void buildIndex(IndexFile index) throws IOException {
+		DbFile table = getDbFile(index.getTableId());
+		if (table.numPages() == 0)
+			return;
+
+		BufferPool bp = Database.getBufferPool();
+		int batch = Math.max(1, bp.numPages / 2);
+		TransactionId scanTid = new TransactionId();
+		TransactionId tid = new TransactionId();
+		try {
+			DbFileIterator it = table.iterator(scanTid);
+			it.open();
+			for (int n = 1; it.hasNext(); n++) {
+				index.addTuple(tid, it.next());
+				if (n % batch == 0) {
+					bp.transactionComplete(tid);
+					tid = new TransactionId();
+				}
+			}
+			it.close();
+		} catch (DbException e) {
+			throw new IOException("failed to build index on " + getTableName(index.getTableId()) + ": "
+					+ e.getMessage());
+		} catch (TransactionAbortedException e) {
+			throw new IOException("failed to build index on " + getTableName(index.getTableId()));
+		} finally {
+			bp.transactionComplete(tid);
+			bp.transactionComplete(scanTid);
+		}
+	}
+
 	public List<TableItem> getTableItem() {
 		List<TableItem> tlist = new ArrayList<TableItem>();
 		for (TableItem ti : this.cataMap.values())
@@ -19,6 +19,8 @@ public class CbpDbms {
 							ts.add(Type.INT_TYPE);
 						else if (s.toLowerCase().equals("string"))
 							ts.add(Type.STRING_TYPE);
+						else if (s.toLowerCase().equals("varchar"))
+							ts.add(Type.VARCHAR_TYPE);
 						else {
 							System.out.println("Unknown type " + s);
 							return;
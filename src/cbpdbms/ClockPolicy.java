@@ -0,0 +1,83 @@
+package cbpdbms;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * ClockPolicy is the CLOCK replacement policy: the pages of the pool sit in a
+ * fixed array of frames, each with a reference bit set when the page is
+ * accessed. To choose a victim, a hand sweeps the frames circularly, clearing
+ * the bits it finds set, and stops at the first evictable page whose bit is
+ * clear.
+ * <p>
+ * access only sets a bit, without any lock, so hits do not contend; the other
+ * operations are synchronized. A victim is found after one sweep of the
+ * frames at worst and, since the hand keeps its position, after a few frames
+ * on average.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+	PageId[] frames;
+	AtomicIntegerArray refBits;
+	Map<PageId, Integer> frameOf;
+	ArrayDeque<Integer> freeFrames;
+	int hand;
+
+	/**
+	 * @param numPages
+	 *            the number of pages of the pool
+	 */
+	public ClockPolicy(int numPages) {
+		this.frames = new PageId[numPages];
+		this.refBits = new AtomicIntegerArray(numPages);
+		this.frameOf = new ConcurrentHashMap<PageId, Integer>();
+		this.freeFrames = new ArrayDeque<Integer>();
+		for (int i = 0; i < numPages; i++)
+			freeFrames.add(i);
+		this.hand = 0;
+	}
+
+	public synchronized void add(PageId pid) {
+		if (frameOf.containsKey(pid))
+			return;
+		Integer f = freeFrames.poll();
+		if (f == null)
+			throw new IllegalStateException("no free frame for page " + pid);
+		frames[f] = pid;
+		refBits.set(f, 1);
+		frameOf.put(pid, f);
+	}
+
+	public void access(PageId pid) {
+		Integer f = frameOf.get(pid);
+		if (f != null)
+			refBits.set(f, 1);
+	}
+
+	public synchronized void remove(PageId pid) {
+		Integer f = frameOf.remove(pid);
+		if (f == null)
+			return;
+		frames[f] = null;
+		refBits.set(f, 0);
+		freeFrames.push(f);
+	}
+
+	public synchronized PageId victim(Evictable evictable) {
+		// the first sweep clears the bits, the second one finds any evictable
+		// page whose bit was not set again meanwhile
+		for (int i = 0; i < 2 * frames.length; i++) {
+			int f = hand;
+			hand = (hand + 1) % frames.length;
+			PageId pid = frames[f];
+			if (pid == null)
+				continue;
+			if (refBits.getAndSet(f, 0) == 1)
+				continue;
+			if (evictable.isEvictable(pid))
+				return pid;
+		}
+		return null;
+	}
+}
@@ -56,8 +56,10 @@ public class Database {
 		return _instance._bufferpool;
 	}
 
-	// reset the database, used for unit tests only.
+	// reset the database, used for unit tests only. The files of the old
+	// catalog are closed.
 	public static void reset() {
+		_instance._catalog.clear();
 		_instance = new Database();
 	}
 
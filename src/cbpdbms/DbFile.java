@@ -95,4 +95,10 @@ public interface DbFile {
 	 * @return TupleDesc of this DbFile.
 	 */
 	public TupleDesc getTupleDesc();
+
+	/**
+	 * Releases the open file of this DbFile, e.g. once it leaves the Catalog.
+	 * A DbFile used again after close opens its file again.
+	 */
+	public void close();
 }
@@ -0,0 +1,137 @@
+package cbpdbms;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * DeadlockDetector lets transactions wait without any check, and searches
+ * the wait-for graph for cycles every INTERVAL milliseconds in a background
+ * thread. The graph is built from the queues of the lock table when the
+ * search starts, see LockManager#waitsFor, so nothing is kept up to date
+ * while transactions lock pages. The youngest transaction of each cycle is
+ * aborted, see LockManager#abort.
+ * <p>
+ * The thread only runs while some transaction waits, and a deadlock lasts at
+ * most about INTERVAL milliseconds.
+ */
+public class DeadlockDetector implements DeadlockPolicy {
+	/** The default time between two searches, in milliseconds */
+	public static final long DEFAULT_INTERVAL = 50;
+
+	private final long interval;
+	private int waiting;// the transactions waiting
+	private Thread thread;// the detector, null while nobody waits
+
+	public DeadlockDetector() {
+		this(DEFAULT_INTERVAL);
+	}
+
+	/**
+	 * @param interval
+	 *            the time between two searches for cycles, in milliseconds
+	 */
+	public DeadlockDetector(long interval) {
+		if (interval <= 0)
+			throw new IllegalArgumentException("interval must be positive");
+		this.interval = interval;
+	}
+
+	public synchronized void beforeWait(final LockManager locker, TransactionId tid, Set<TransactionId> blockers) {
+		waiting++;
+		if (thread != null)
+			return;
+		thread = new Thread("DeadlockDetector") {
+			public void run() {
+				while (true) {
+					try {
+						Thread.sleep(interval);
+					} catch (InterruptedException e) {
+						// look at once
+					}
+					synchronized (DeadlockDetector.this) {
+						if (waiting == 0) {
+							thread = null;
+							return;
+						}
+					}
+					for (TransactionId victim : victims(locker.waitsFor()))
+						locker.abort(victim);
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public synchronized void afterWait(LockManager locker, TransactionId tid, Set<TransactionId> blockers) {
+		waiting--;
+	}
+
+	public long maxWait() {
+		return 0;
+	}
+
+	public void transactionComplete(TransactionId tid) {
+	}
+
+	/**
+	 * Breaks the cycles of a wait-for graph.
+	 *
+	 * @param graph
+	 *            for each waiting transaction, the transactions it waits for
+	 * @return the transactions to abort so that no cycle is left, the
+	 *         youngest of each cycle
+	 */
+	static List<TransactionId> victims(Map<TransactionId, Set<TransactionId>> graph) {
+		List<TransactionId> victims = new ArrayList<TransactionId>();
+		Set<TransactionId> done = new HashSet<TransactionId>();// no cycle through them
+		while (true) {
+			List<TransactionId> cycle = null;
+			for (TransactionId t : graph.keySet()) {
+				if (done.contains(t))
+					continue;
+				cycle = findCycle(graph, t, new ArrayList<TransactionId>(), new HashSet<TransactionId>(), done);
+				if (cycle != null)
+					break;
+			}
+			if (cycle == null)
+				return victims;
+
+			TransactionId youngest = cycle.get(0);
+			for (TransactionId t : cycle)
+				if (t.getId() > youngest.getId())
+					youngest = t;
+			victims.add(youngest);
+			graph.remove(youngest);
+			done.clear();
+		}
+	}
+
+	/**
+	 * Depth-first search from t for a cycle, the transactions on the path
+	 * from the start in path.
+	 *
+	 * @return the transactions of a cycle, null if none is reachable from t
+	 */
+	private static List<TransactionId> findCycle(Map<TransactionId, Set<TransactionId>> graph, TransactionId t,
+			List<TransactionId> path, Set<TransactionId> onPath, Set<TransactionId> done) {
+		if (onPath.contains(t))
+			return new ArrayList<TransactionId>(path.subList(path.indexOf(t), path.size()));
+		if (done.contains(t) || !graph.containsKey(t))
+			return null;
+		path.add(t);
+		onPath.add(t);
+		for (TransactionId next : graph.get(t)) {
+			List<TransactionId> cycle = findCycle(graph, next, path, onPath, done);
+			if (cycle != null)
+				return cycle;
+		}
+		path.remove(path.size() - 1);
+		onPath.remove(t);
+		done.add(t);
+		return null;
+	}
+}
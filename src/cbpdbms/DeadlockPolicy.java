@@ -0,0 +1,51 @@
+package cbpdbms;
+
+import java.util.Set;
+
+/**
+ * The interface for the deadlock policies of the LockManager. A policy is
+ * told when a transaction is about to sleep in the queue of a page and when
+ * it stops waiting, and either keeps deadlocks from forming or breaks them by
+ * aborting a transaction.
+ * <p>
+ * The LockManager only calls a policy for requests that cannot be granted at
+ * once, so an uncontended lock costs nothing. The policy of the LockManager
+ * of a BufferPool is chosen when the pool is made, with the system property
+ * cbpdbms.Deadlock unless it is given, see LockManager#newDeadlockPolicy.
+ * Implementations are thread-safe.
+ *
+ * @see WaitForGraphPolicy
+ * @see TimeoutPolicy
+ * @see WaitDiePolicy
+ * @see WoundWaitPolicy
+ * @see DeadlockDetector
+ */
+public interface DeadlockPolicy {
+	/**
+	 * tid is about to sleep until the transactions in blockers release the
+	 * page it asked for, or give up their place in its queue. The policy may
+	 * abort other transactions with LockManager#abort.
+	 *
+	 * @throws TransactionAbortedException
+	 *             if tid must abort instead of waiting
+	 */
+	public void beforeWait(LockManager locker, TransactionId tid, Set<TransactionId> blockers)
+			throws TransactionAbortedException;
+
+	/**
+	 * tid stopped waiting, with the lock or without it. Called once for each
+	 * call of beforeWait, even if beforeWait threw.
+	 */
+	public void afterWait(LockManager locker, TransactionId tid, Set<TransactionId> blockers);
+
+	/**
+	 * @return the longest a transaction waits for a lock before it aborts, in
+	 *         milliseconds, 0 for no limit
+	 */
+	public long maxWait();
+
+	/**
+	 * tid committed or aborted, and released its locks.
+	 */
+	public void transactionComplete(TransactionId tid);
+}
@@ -0,0 +1,265 @@
+package cbpdbms;
+
+import java.util.*;
+
+/**
+ * ExternalSort sorts the tuples of its child on one field within a memory
+ * budget (an external merge sort).
+ * <p>
+ * The child is read in runs of as many tuples as fit in the budget; each run
+ * is sorted in memory and written to a {@link SpillFile}. Runs are then merged
+ * with a priority queue, at most memPages - 1 at a time, until few enough are
+ * left to be merged while the output is read. If the whole child fits in the
+ * budget, nothing is written to disk.
+ */
+public class ExternalSort extends AbstractDbIterator implements OrderedDbIterator {
+	/**
+	 * Default memory budget, in pages.
+	 */
+	public static final int DEFAULT_MEM_PAGES = 50;
+
+	DbIterator child;
+	int orderByField;
+	boolean asc;
+	int memPages;
+	TupleComparator comparator;
+
+	ArrayList<Tuple> memRun;// the sorted child, if it fits in memory
+	int memPos;
+	List<SpillFile> runs;// the sorted runs, if the child was spilled
+	PriorityQueue<RunHead> heap;// heads of the runs being merged
+	List<DbIterator> runIts;
+	int mergePasses;
+
+	/**
+	 * Creates a new ExternalSort node with the default memory budget.
+	 *
+	 * @param orderByField
+	 *            the field to which the sort is applied.
+	 * @param asc
+	 *            true if the sort order is ascending.
+	 * @param child
+	 *            the tuples to sort.
+	 */
+	public ExternalSort(int orderByField, boolean asc, DbIterator child) {
+		this(orderByField, asc, child, DEFAULT_MEM_PAGES);
+	}
+
+	/**
+	 * Creates a new ExternalSort node.
+	 *
+	 * @param orderByField
+	 *            the field to which the sort is applied.
+	 * @param asc
+	 *            true if the sort order is ascending.
+	 * @param child
+	 *            the tuples to sort.
+	 * @param memPages
+	 *            the number of pages of tuples that may be held in memory, at
+	 *            least 3
+	 */
+	public ExternalSort(int orderByField, boolean asc, DbIterator child, int memPages) {
+		if (memPages < 3)
+			throw new IllegalArgumentException("memPages must be at least 3");
+
+		this.child = child;
+		this.orderByField = orderByField;
+		this.asc = asc;
+		this.memPages = memPages;
+		this.comparator = new TupleComparator(orderByField, asc);
+	}
+
+	public TupleDesc getTupleDesc() {
+		return child.getTupleDesc();
+	}
+
+	public int getOrderByField() {
+		return orderByField;
+	}
+
+	public boolean isAsc() {
+		return asc;
+	}
+
+	/**
+	 * @return true if the child did not fit in memory and was sorted on disk
+	 *         by the last open()
+	 */
+	public boolean hasSpilled() {
+		return runs != null;
+	}
+
+	/**
+	 * @return the number of merge passes written to disk by the last open(),
+	 *         not counting the final merge that produces the output
+	 */
+	public int getMergePasses() {
+		return mergePasses;
+	}
+
+	public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+		child.open();
+
+		int runTuples = memPages * SpillFile.tuplesPerPage(getTupleDesc());
+		ArrayList<Tuple> run = new ArrayList<Tuple>();
+		memRun = null;
+		runs = null;
+		mergePasses = 0;
+		while (child.hasNext()) {
+			if (run.size() >= runTuples) {
+				spillRun(run);
+				run = new ArrayList<Tuple>();
+			}
+			run.add(child.next());
+		}
+		Collections.sort(run, comparator);
+
+		if (runs == null) {
+			memRun = run;
+			memPos = 0;
+			return;
+		}
+		spillRun(run);
+
+		// one page is kept for the output of a merge
+		int fanIn = memPages - 1;
+		while (runs.size() > fanIn) {
+			List<SpillFile> merged = new ArrayList<SpillFile>();
+			for (int i = 0; i < runs.size(); i += fanIn) {
+				List<SpillFile> group = runs.subList(i, Math.min(i + fanIn, runs.size()));
+				if (group.size() == 1) {
+					merged.add(group.get(0));
+					continue;
+				}
+
+				SpillFile dest = new SpillFile(getTupleDesc());
+				startMerge(group);
+				RunHead h;
+				while ((h = nextHead()) != null)
+					dest.add(h.t);
+				dest.seal();
+				closeMerge();
+				for (SpillFile f : group)
+					f.delete();
+				merged.add(dest);
+			}
+			runs = merged;
+			mergePasses++;
+		}
+		startMerge(runs);
+	}
+
+	public void close() {
+		super.close();
+		child.close();
+		closeMerge();
+		if (runs != null) {
+			for (SpillFile f : runs)
+				f.delete();
+		}
+		runs = null;
+		memRun = null;
+	}
+
+	/**
+	 * The child is not read again, the sorted tuples are read from the start.
+	 */
+	public void rewind() throws DbException, TransactionAbortedException {
+		super.close();
+		if (runs != null) {
+			closeMerge();
+			startMerge(runs);
+		} else {
+			memPos = 0;
+		}
+	}
+
+	/**
+	 * AbstractDbIterator.readNext implementation. Returns tuples from the child
+	 * operator in order
+	 *
+	 * @return The next tuple in the ordering, or null if there are no more
+	 *         tuples
+	 */
+	protected Tuple readNext() throws NoSuchElementException, TransactionAbortedException, DbException {
+		if (memRun != null)
+			return memPos < memRun.size() ? memRun.get(memPos++) : null;
+		if (heap == null)
+			return null;
+
+		RunHead h = nextHead();
+		return h == null ? null : h.t;
+	}
+
+	private void spillRun(ArrayList<Tuple> run) throws DbException {
+		Collections.sort(run, comparator);
+		SpillFile f = new SpillFile(getTupleDesc());
+		for (Tuple t : run)
+			f.add(t);
+		f.seal();
+
+		if (runs == null)
+			runs = new ArrayList<SpillFile>();
+		runs.add(f);
+	}
+
+	/**
+	 * Opens the specified runs and puts their first tuples in the heap.
+	 */
+	private void startMerge(List<SpillFile> group) throws DbException, TransactionAbortedException {
+		heap = new PriorityQueue<RunHead>(group.size());
+		runIts = new ArrayList<DbIterator>(group.size());
+		for (SpillFile f : group) {
+			DbIterator it = f.iterator();
+			it.open();
+			runIts.add(it);
+			if (it.hasNext())
+				heap.add(new RunHead(it.next(), runIts.size() - 1));
+		}
+	}
+
+	/**
+	 * Removes the smallest head from the heap and replaces it with the next
+	 * tuple of its run.
+	 *
+	 * @return the smallest head, or null if all the runs are exhausted
+	 */
+	private RunHead nextHead() throws DbException, TransactionAbortedException {
+		RunHead h = heap.poll();
+		if (h == null)
+			return null;
+
+		DbIterator it = runIts.get(h.run);
+		if (it.hasNext())
+			heap.add(new RunHead(it.next(), h.run));
+		return h;
+	}
+
+	private void closeMerge() {
+		if (runIts != null) {
+			for (DbIterator it : runIts)
+				it.close();
+		}
+		runIts = null;
+		heap = null;
+	}
+
+	/**
+	 * The current tuple of a run being merged. Ties are broken on the run
+	 * number, so that equal tuples come out in the order of the child.
+	 */
+	class RunHead implements Comparable<RunHead> {
+		Tuple t;
+		int run;
+
+		RunHead(Tuple t, int run) {
+			this.t = t;
+			this.run = run;
+		}
+
+		public int compareTo(RunHead o) {
+			int c = comparator.compare(t, o.t);
+			return c != 0 ? c : run - o.run;
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package cbpdbms;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Interface for values of fields in tuples in SimpleDB.
@@ -16,6 +17,17 @@ public interface Field {
 	 */
 	void serialize(DataOutputStream dos) throws IOException;
 
+	/**
+	 * Write the bytes representing this field to the specified buffer, the
+	 * same bytes as serialize(DataOutputStream).
+	 * 
+	 * @param buf
+	 *            The buffer to write to; its position does not change
+	 * @param offset
+	 *            The index in buf of the first byte written
+	 */
+	void serialize(ByteBuffer buf, int offset);
+
 	/**
 	 * Compare the value of this field object to the passed in value.
 	 * 
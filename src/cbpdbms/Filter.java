@@ -24,6 +24,14 @@ public class Filter extends AbstractDbIterator {
 		this.child = child;
 	}
 
+	public Predicate getPredicate() {
+		return this.p;
+	}
+
+	public DbIterator getChild() {
+		return this.child;
+	}
+
 	public TupleDesc getTupleDesc() {
 		// some code goes here
 		return this.child.getTupleDesc();
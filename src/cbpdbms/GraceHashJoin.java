@@ -0,0 +1,363 @@
+package cbpdbms;
+
+import java.util.*;
+
+/**
+ * The GraceHashJoin operator implements an equi-join whose build side may not
+ * fit in memory (a hybrid hash join).
+ * <p>
+ * The build child is read into an in-memory hash table until it outgrows the
+ * memory budget. From then on both children are hash-partitioned on the join
+ * field into {@link SpillFile}s, except partition 0 which stays resident as
+ * long as it fits in its share of the budget: probe tuples that fall into it
+ * are joined right away. Afterwards each pair of spilled partitions is joined
+ * by a nested GraceHashJoin, which partitions again (with another hash
+ * function) if a build partition still does not fit.
+ * <p>
+ * If the build child fits in the budget, nothing is written to disk and this
+ * behaves like {@link HashJoin}.
+ */
+public class GraceHashJoin extends AbstractDbIterator {
+	/**
+	 * Default memory budget, in pages, for the build side.
+	 */
+	public static final int DEFAULT_MEM_PAGES = 50;
+
+	/**
+	 * Partitions are not split any further below this depth; a partition that
+	 * is still too big at this point (e.g. one heavily duplicated key) is
+	 * joined in memory.
+	 */
+	static final int MAX_DEPTH = 8;
+
+	JoinPredicate p;
+	DbIterator child1;
+	DbIterator child2;
+	boolean buildLeft;
+	int memPages;
+	int depth;
+
+	boolean opened;
+	/**
+	 * hash table of partition 0, null once partition 0 has been spilled
+	 */
+	HashMap<Field, List<Tuple>> resident;
+	int residentCount;
+	int residentBudget;// in tuples
+
+	/**
+	 * number of partitions besides partition 0, 0 if nothing was spilled
+	 */
+	int numPartitions;
+	SpillFile[] buildParts;
+	SpillFile[] probeParts;
+
+	boolean probing;// true while the probe child is being read
+	Tuple probeTup;
+	Iterator<Tuple> matches;
+
+	int nextPart;
+	DbIterator partJoin;// join of the spilled partition pair being read
+
+	/**
+	 * Constructor. Builds on child1 with the default memory budget.
+	 *
+	 * @param p
+	 *            The predicate to use to join the children, its op must be
+	 *            Predicate.Op.EQUALS
+	 * @param child1
+	 *            Iterator for the left(outer) relation to join
+	 * @param child2
+	 *            Iterator for the right(inner) relation to join
+	 */
+	public GraceHashJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+		this(p, child1, child2, true, DEFAULT_MEM_PAGES);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param p
+	 *            The predicate to use to join the children, its op must be
+	 *            Predicate.Op.EQUALS
+	 * @param child1
+	 *            Iterator for the left(outer) relation to join
+	 * @param child2
+	 *            Iterator for the right(inner) relation to join
+	 * @param buildLeft
+	 *            true to build on child1 and probe with child2, false for the
+	 *            other way round
+	 * @param memPages
+	 *            the number of pages of build tuples that may be held in
+	 *            memory, at least 2
+	 */
+	public GraceHashJoin(JoinPredicate p, DbIterator child1, DbIterator child2, boolean buildLeft, int memPages) {
+		this(p, child1, child2, buildLeft, memPages, 0);
+	}
+
+	GraceHashJoin(JoinPredicate p, DbIterator child1, DbIterator child2, boolean buildLeft, int memPages,
+			int depth) {
+		if (p.getOperator() != Predicate.Op.EQUALS)
+			throw new IllegalArgumentException("GraceHashJoin only supports EQUALS");
+		if (memPages < 2)
+			throw new IllegalArgumentException("memPages must be at least 2");
+
+		this.p = p;
+		this.child1 = child1;
+		this.child2 = child2;
+		this.buildLeft = buildLeft;
+		this.memPages = memPages;
+		this.depth = depth;
+	}
+
+	/**
+	 * @see cbpdbms.TupleDesc#combine(TupleDesc, TupleDesc) for possible
+	 *      implementation logic.
+	 */
+	public TupleDesc getTupleDesc() {
+		return TupleDesc.combine(child1.getTupleDesc(), child2.getTupleDesc());
+	}
+
+	/**
+	 * @return true if the inputs were partitioned to disk by the last open()
+	 */
+	public boolean hasSpilled() {
+		return numPartitions > 0;
+	}
+
+	public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+		child1.open();
+		child2.open();
+
+		DbIterator build = buildLeft ? child1 : child2;
+		int memTuples = memPages * SpillFile.tuplesPerPage(build.getTupleDesc());
+
+		resident = new HashMap<Field, List<Tuple>>();
+		residentCount = 0;
+		numPartitions = 0;
+		while (build.hasNext()) {
+			if (numPartitions == 0 && residentCount >= memTuples && depth < MAX_DEPTH)
+				startPartitioning();
+			addBuild(build.next());
+		}
+
+		opened = true;
+		probing = true;
+		probeTup = null;
+		matches = null;
+		nextPart = 0;
+		partJoin = null;
+	}
+
+	public void close() {
+		super.close();
+		child1.close();
+		child2.close();
+		if (partJoin != null)
+			partJoin.close();
+		deletePartitions();
+
+		opened = false;
+		resident = null;
+		numPartitions = 0;
+		probeTup = null;
+		matches = null;
+		partJoin = null;
+	}
+
+	/**
+	 * If nothing was spilled only the probe side is rewound, otherwise the
+	 * join is started over.
+	 */
+	public void rewind() throws DbException, TransactionAbortedException {
+		if (numPartitions > 0) {
+			close();
+			open();
+			return;
+		}
+
+		super.close();
+		if (buildLeft)
+			child2.rewind();
+		else
+			child1.rewind();
+		probing = true;
+		probeTup = null;
+		matches = null;
+	}
+
+	/**
+	 * Returns the next tuple generated by the join, or null if there are no
+	 * more tuples. First the probe child is read, joining the tuples of the
+	 * resident partition and spilling the others; then the spilled partition
+	 * pairs are joined one after another.
+	 *
+	 * @return The next matching tuple.
+	 * @see JoinPredicate#filter
+	 */
+	protected Tuple readNext() throws TransactionAbortedException, DbException {
+		if (!opened)
+			throw new DbException("Iterator not init");
+
+		DbIterator probe = buildLeft ? child2 : child1;
+		int probeField = buildLeft ? p.getField2() : p.getField1();
+
+		while (true) {
+			if (matches != null && matches.hasNext()) {
+				Tuple t = matches.next();
+				return buildLeft ? Tuple.simpleCombine(t, probeTup) : Tuple.simpleCombine(probeTup, t);
+			}
+			matches = null;
+
+			if (probing) {
+				if (!probe.hasNext()) {
+					probing = false;
+					sealPartitions();
+					continue;
+				}
+
+				probeTup = probe.next();
+				Field key = probeTup.getField(probeField);
+				int part = numPartitions == 0 ? 0 : partition(key);
+				if (part == 0 && resident != null) {
+					List<Tuple> list = resident.get(key);
+					if (list != null)
+						matches = list.iterator();
+				} else {
+					probeParts[part].add(probeTup);
+				}
+				continue;
+			}
+
+			if (partJoin != null) {
+				if (partJoin.hasNext())
+					return partJoin.next();
+
+				partJoin.close();
+				partJoin = null;
+				buildParts[nextPart - 1].delete();
+				probeParts[nextPart - 1].delete();
+			}
+
+			if (nextPart > numPartitions || numPartitions == 0)
+				return null;
+
+			int i = nextPart++;
+			if (buildParts[i] == null || buildParts[i].numTuples() == 0 || probeParts[i].numTuples() == 0)
+				continue;
+
+			DbIterator b = buildParts[i].iterator();
+			DbIterator pr = probeParts[i].iterator();
+			if (buildLeft)
+				partJoin = new GraceHashJoin(p, b, pr, true, memPages, depth + 1);
+			else
+				partJoin = new GraceHashJoin(p, pr, b, false, memPages, depth + 1);
+			partJoin.open();
+		}
+	}
+
+	/**
+	 * Adds a tuple of the build side to the resident hash table or to its
+	 * spilled partition.
+	 */
+	private void addBuild(Tuple t) throws DbException {
+		int buildField = buildLeft ? p.getField1() : p.getField2();
+		Field key = t.getField(buildField);
+		int part = numPartitions == 0 ? 0 : partition(key);
+
+		if (part != 0 || resident == null) {
+			buildParts[part].add(t);
+			return;
+		}
+
+		List<Tuple> list = resident.get(key);
+		if (list == null) {
+			list = new ArrayList<Tuple>(1);
+			resident.put(key, list);
+		}
+		list.add(t);
+		residentCount++;
+
+		if (numPartitions > 0 && residentCount > residentBudget)
+			spillResident();
+	}
+
+	/**
+	 * Called when the build side outgrows the memory budget: creates the spill
+	 * files and moves the resident tuples that do not belong to partition 0
+	 * out to them. Half of the budget is kept for partition 0, the rest backs
+	 * the write buffers of the partitions.
+	 */
+	private void startPartitioning() throws DbException {
+		TupleDesc buildTd = (buildLeft ? child1 : child2).getTupleDesc();
+		TupleDesc probeTd = (buildLeft ? child2 : child1).getTupleDesc();
+
+		numPartitions = Math.max(1, memPages / 2);
+		residentBudget = (memPages - numPartitions) * SpillFile.tuplesPerPage(buildTd);
+		buildParts = new SpillFile[numPartitions + 1];
+		probeParts = new SpillFile[numPartitions + 1];
+		for (int i = 1; i <= numPartitions; i++) {
+			buildParts[i] = new SpillFile(buildTd);
+			probeParts[i] = new SpillFile(probeTd);
+		}
+
+		HashMap<Field, List<Tuple>> old = resident;
+		resident = new HashMap<Field, List<Tuple>>();
+		residentCount = 0;
+		for (List<Tuple> list : old.values())
+			for (Tuple t : list)
+				addBuild(t);
+	}
+
+	/**
+	 * Partition 0 no longer fits in its budget, write it out like the others.
+	 */
+	private void spillResident() throws DbException {
+		buildParts[0] = new SpillFile((buildLeft ? child1 : child2).getTupleDesc());
+		probeParts[0] = new SpillFile((buildLeft ? child2 : child1).getTupleDesc());
+		for (List<Tuple> list : resident.values())
+			for (Tuple t : list)
+				buildParts[0].add(t);
+		resident = null;
+		residentCount = 0;
+	}
+
+	private void sealPartitions() throws DbException {
+		if (buildParts == null)
+			return;
+
+		for (int i = 0; i <= numPartitions; i++) {
+			if (buildParts[i] != null)
+				buildParts[i].seal();
+			if (probeParts[i] != null)
+				probeParts[i].seal();
+		}
+	}
+
+	private void deletePartitions() {
+		if (buildParts == null)
+			return;
+
+		for (int i = 0; i < buildParts.length; i++) {
+			if (buildParts[i] != null)
+				buildParts[i].delete();
+			if (probeParts[i] != null)
+				probeParts[i].delete();
+		}
+		buildParts = null;
+		probeParts = null;
+	}
+
+	/**
+	 * @return the partition, 0 to numPartitions, of a join field value. Each
+	 *         depth uses a different hash function so that a partition is
+	 *         split again when it is joined.
+	 */
+	private int partition(Field key) {
+		int h = key.hashCode() ^ (depth * 0x9e3779b9);
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		return (h & 0x7fffffff) % (numPartitions + 1);
+	}
+}
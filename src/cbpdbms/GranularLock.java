@@ -0,0 +1,330 @@
+package cbpdbms;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import util.Debug;
+
+/**
+ * The lock of a table, a page or a record, held by transactions in the modes
+ * of LockMode. A transaction that cannot have its lock at once waits in the
+ * FIFO queue of the lock, asleep on a Condition of its own, until the
+ * transactions before it release theirs.
+ * <p>
+ * A new request is granted at once only if its mode is compatible with the
+ * modes held and no request waits before it, so that a stream of readers
+ * cannot starve a writer. The conversion of a lock a transaction holds to a
+ * stronger mode, e.g. the upgrade of S to X, goes to the front of the queue,
+ * after the conversions already there: its transaction holds the lock, and
+ * every request behind waits for it anyway.
+ * <p>
+ * The lock of an item is an entry of the lock table of the LockManager, which
+ * reuses the entry for another item once it is free.
+ */
+public class GranularLock {
+	Map<TransactionId, LockMode> holders;// the mode each holder holds
+	Lock lock;
+
+	LinkedList<Waiter> queue;// the requests waiting, in the order they are granted
+	int users;// the threads using the entry, guarded by its partition of the lock table
+
+	public GranularLock() {
+		holders = new HashMap<TransactionId, LockMode>();
+		lock = new ReentrantLock();
+		queue = new LinkedList<Waiter>();
+	}
+
+	/**
+	 * @return true if no transaction holds or waits for this lock
+	 */
+	boolean isFree() {
+		lock.lock();
+		try {
+			return holders.isEmpty() && queue.isEmpty();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the mode tid holds this lock in, null if it does not hold it
+	 */
+	LockMode heldBy(TransactionId tid) {
+		lock.lock();
+		try {
+			return holders.get(tid);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return true if a transaction holds the lock in a mode that lets it
+	 *         write the item, SIX or X
+	 */
+	boolean isWriteLocked() {
+		lock.lock();
+		try {
+			for (LockMode mode : holders.values())
+				if (mode == LockMode.SIX || mode == LockMode.X)
+					return true;
+			return false;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * A request waiting in the queue of the lock.
+	 */
+	class Waiter {
+		final TransactionId tid;
+		final LockMode mode;// the mode tid holds once granted
+		final boolean conversion;
+		final Condition condition;
+		boolean granted;
+		boolean cancelled;
+
+		Waiter(TransactionId tid, LockMode mode, boolean conversion) {
+			this.tid = tid;
+			this.mode = mode;
+			this.conversion = conversion;
+			this.condition = lock.newCondition();
+		}
+	}
+
+	/**
+	 * @return true if the modes held by the other transactions let tid hold
+	 *         the lock in mode
+	 */
+	private boolean compatible(TransactionId tid, LockMode mode) {
+		for (Map.Entry<TransactionId, LockMode> e : holders.entrySet())
+			if (!e.getKey().equals(tid) && !mode.compatibleWith(e.getValue()))
+				return false;
+		return true;
+	}
+
+	/**
+	 * Grants the requests at the head of the queue, as long as they are
+	 * compatible with the modes held, and wakes their transactions up.
+	 */
+	private void grantWaiting() {
+		while (!queue.isEmpty()) {
+			Waiter w = queue.getFirst();
+			if (!compatible(w.tid, w.mode))
+				break;
+			queue.removeFirst();
+			holders.put(w.tid, w.mode);
+			w.granted = true;
+			w.condition.signal();
+		}
+	}
+
+	/**
+	 * Grants tid the lock in mode if it may have it at once, else queues the
+	 * request. A transaction holding the lock asks for the join of the mode
+	 * it holds and mode.
+	 *
+	 * @return null if the lock is granted, the request to wait for otherwise
+	 */
+	Waiter request(TransactionId tid, LockMode mode) {
+		lock.lock();
+		try {
+			LockMode held = holders.get(tid);
+			if (held != null && held.covers(mode))
+				return null;
+			LockMode target = held == null ? mode : held.join(mode);
+			Waiter w = new Waiter(tid, target, held != null);
+			if (w.conversion) {
+				if (compatible(tid, target)) {
+					holders.put(tid, target);
+					return null;
+				}
+				int i = 0;
+				while (i < queue.size() && queue.get(i).conversion)
+					i++;
+				queue.add(i, w);
+			} else {
+				if (queue.isEmpty() && compatible(tid, target)) {
+					holders.put(tid, target);
+					return null;
+				}
+				queue.addLast(w);
+			}
+			Debug.printInfo(tid + " waits for " + target + " lock");
+			return w;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Grants tid the lock in mode if it may have it at once, without waiting.
+	 *
+	 * @return true if tid holds the lock in mode, false if it would have to
+	 *         wait
+	 */
+	boolean tryLock(TransactionId tid, LockMode mode) {
+		lock.lock();
+		try {
+			LockMode held = holders.get(tid);
+			if (held != null && held.covers(mode))
+				return true;
+			LockMode target = held == null ? mode : held.join(mode);
+			if ((held == null && !queue.isEmpty()) || !compatible(tid, target))
+				return false;
+			holders.put(tid, target);
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Releases the lock tid holds, whatever its mode.
+	 */
+	void unlock(TransactionId tid) {
+		lock.lock();
+		try {
+			if (holders.remove(tid) != null)
+				grantWaiting();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the transactions the request w waits for: those holding the
+	 *         lock in a mode it conflicts with, and those of the requests
+	 *         before it it conflicts with. Empty if it has been granted.
+	 */
+	Set<TransactionId> blockers(Waiter w) {
+		Set<TransactionId> blockers = new HashSet<TransactionId>();
+		lock.lock();
+		try {
+			if (w.granted || w.cancelled)
+				return blockers;
+			for (Map.Entry<TransactionId, LockMode> e : holders.entrySet())
+				if (!w.mode.compatibleWith(e.getValue()))
+					blockers.add(e.getKey());
+			for (Waiter before : queue) {
+				if (before == w)
+					break;
+				if (!w.mode.compatibleWith(before.mode))
+					blockers.add(before.tid);
+			}
+			blockers.remove(w.tid);
+			return blockers;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Sleeps until the request w is granted or cancelled, or for millis
+	 * milliseconds at most. The request is cancelled if it is not granted by
+	 * then, or if the thread dies while waiting.
+	 *
+	 * @param millis
+	 *            the longest to wait, 0 for no limit
+	 * @return true if the lock has been granted, false if the request was
+	 *         cancelled
+	 */
+	boolean await(Waiter w, long millis) {
+		boolean interrupted = false;
+		long nanos = TimeUnit.MILLISECONDS.toNanos(millis);
+		lock.lock();
+		try {
+			while (!w.granted && !w.cancelled) {
+				try {
+					if (millis == 0)
+						w.condition.await();
+					else if (nanos > 0)
+						nanos = w.condition.awaitNanos(nanos);
+					else
+						cancel(w);
+				} catch (InterruptedException e) {
+					interrupted = true;
+					cancel(w);
+				}
+			}
+			return w.granted;
+		} finally {
+			if (!w.granted)
+				cancel(w);
+			lock.unlock();
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Withdraws the request w if it still waits; the requests behind it may
+	 * then be granted.
+	 *
+	 * @return true if w was granted before it could be withdrawn
+	 */
+	boolean cancel(Waiter w) {
+		lock.lock();
+		try {
+			if (w.granted || w.cancelled)
+				return w.granted;
+			w.cancelled = true;
+			queue.remove(w);
+			w.condition.signal();
+			grantWaiting();
+			return false;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Adds the requests waiting for this lock to a wait-for graph: an edge
+	 * from the transaction of each to those of its blockers.
+	 */
+	void waitsFor(Map<TransactionId, Set<TransactionId>> graph) {
+		lock.lock();
+		try {
+			for (Waiter w : queue) {
+				Set<TransactionId> edges = graph.get(w.tid);
+				if (edges == null) {
+					edges = new HashSet<TransactionId>();
+					graph.put(w.tid, edges);
+				}
+				edges.addAll(blockers(w));
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Withdraws every request of tid waiting for this lock, e.g. when it
+	 * aborts.
+	 */
+	void cancelAll(TransactionId tid) {
+		lock.lock();
+		try {
+			for (Iterator<Waiter> it = queue.iterator(); it.hasNext();) {
+				Waiter w = it.next();
+				if (w.tid.equals(tid)) {
+					it.remove();
+					w.cancelled = true;
+					w.condition.signal();
+				}
+			}
+			grantWaiting();
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package cbpdbms;
+
+import java.io.*;
+
+/**
+ * HashBucketPage stores the entries of a bucket of a HashIndexFile: a key and
+ * the page number and slot of the tuple of the indexed table that has this
+ * key, in no particular order. A bucket is a chain of pages, each pointing to
+ * the next (overflow) page of the chain.
+ * <p>
+ * The format of a bucket page is the number of entries (an int), the page
+ * number of the overflow page (an int, 0 if none), then the entries.
+ *
+ * @see HashIndexFile
+ */
+public class HashBucketPage extends IndexPage {
+	int numEntries;
+	int overflow;
+	Field keys[];
+	int pgNos[];
+	int slots[];
+
+	/**
+	 * Create a HashBucketPage from a set of bytes of data read from disk. The
+	 * number of entries that fit on a bucket page is
+	 * <p>
+	 * floor((BufferPool.PAGE_SIZE - 8) / (key size + 8))
+	 */
+	public HashBucketPage(HeapPageId id, byte[] data) throws IOException {
+		super(id);
+		int max = getMaxEntries();
+		keys = new Field[max];
+		pgNos = new int[max];
+		slots = new int[max];
+
+		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+		numEntries = dis.readInt();
+		overflow = dis.readInt();
+		for (int i = 0; i < numEntries; i++) {
+			keys[i] = readKey(dis);
+			pgNos[i] = dis.readInt();
+			slots[i] = dis.readInt();
+		}
+		dis.close();
+
+		setBeforeImage();
+	}
+
+	/**
+	 * @return the number of entries that fit on this page
+	 */
+	public int getMaxEntries() {
+		return (BufferPool.PAGE_SIZE - 8) / (keyType.getLen() + 8);
+	}
+
+	public int getNumEntries() {
+		return numEntries;
+	}
+
+	public Field getKey(int i) {
+		return keys[i];
+	}
+
+	/**
+	 * @return the page number, in the indexed table, of the tuple of entry i
+	 */
+	public int getPageNo(int i) {
+		return pgNos[i];
+	}
+
+	/**
+	 * @return the slot, on its page of the indexed table, of the tuple of
+	 *         entry i
+	 */
+	public int getSlot(int i) {
+		return slots[i];
+	}
+
+	/**
+	 * @return the page number of the next page of the bucket, 0 if this is the
+	 *         last one
+	 */
+	public int getOverflow() {
+		return overflow;
+	}
+
+	public void setOverflow(int pgNo) {
+		this.overflow = pgNo;
+	}
+
+	/**
+	 * Appends an entry.
+	 *
+	 * @throws DbException
+	 *             if the page is full
+	 */
+	public void insertEntry(Field key, int pgNo, int slot) throws DbException {
+		if (numEntries == getMaxEntries())
+			throw new DbException("page is full");
+
+		keys[numEntries] = key;
+		pgNos[numEntries] = pgNo;
+		slots[numEntries] = slot;
+		numEntries++;
+	}
+
+	/**
+	 * Removes entry i, the last entry takes its place.
+	 */
+	public void deleteEntry(int i) {
+		numEntries--;
+		keys[i] = keys[numEntries];
+		pgNos[i] = pgNos[numEntries];
+		slots[i] = slots[numEntries];
+		keys[numEntries] = null;
+	}
+
+	/**
+	 * Removes all the entries, the overflow page is kept.
+	 */
+	public void clear() {
+		for (int i = 0; i < numEntries; i++)
+			keys[i] = null;
+		numEntries = 0;
+	}
+
+	public byte[] getPageData() {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.PAGE_SIZE);
+		DataOutputStream dos = new DataOutputStream(baos);
+		try {
+			dos.writeInt(numEntries);
+			dos.writeInt(overflow);
+			for (int i = 0; i < numEntries; i++) {
+				keys[i].serialize(dos);
+				dos.writeInt(pgNos[i]);
+				dos.writeInt(slots[i]);
+			}
+			dos.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return toPageData(baos);
+	}
+
+	/**
+	 * Return a view of this page before it was modified -- used by recovery
+	 */
+	public HashBucketPage getBeforeImage() {
+		try {
+			return new HashBucketPage(getId(), oldData);
+		} catch (IOException e) {
+			e.printStackTrace();
+			// should never happen -- we parsed it OK before!
+			System.exit(1);
+		}
+		return null;
+	}
+}
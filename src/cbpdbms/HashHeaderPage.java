@@ -0,0 +1,142 @@
+package cbpdbms;
+
+import java.io.*;
+
+/**
+ * HashHeaderPage is page 0 of every HashIndexFile. It holds the state of the
+ * linear hashing scheme: the level, the next bucket to split, the number of
+ * entries and the page number of the primary page of each bucket.
+ * <p>
+ * With n = 2^level, there are n + next buckets. A key whose hash is h belongs
+ * to bucket h mod n, or to bucket h mod 2n if that bucket was already split
+ * (h mod n &lt; next).
+ *
+ * @see HashIndexFile
+ */
+public class HashHeaderPage extends IndexPage {
+	/**
+	 * The number of buckets whose primary page number fits on the header.
+	 */
+	public static final int MAX_BUCKETS = (BufferPool.PAGE_SIZE - 12) / 4;
+
+	int level;
+	int next;
+	int numEntries;
+	int buckets[];
+	int numBuckets;
+
+	/**
+	 * Create a HashHeaderPage from a set of bytes of data read from disk: the
+	 * level, next bucket to split and number of entries, then the primary
+	 * page of each bucket. A page of zeros is an empty index, without buckets.
+	 */
+	public HashHeaderPage(HeapPageId id, byte[] data) throws IOException {
+		super(id);
+		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+		level = dis.readInt();
+		next = dis.readInt();
+		numEntries = dis.readInt();
+
+		buckets = new int[MAX_BUCKETS];
+		numBuckets = 0;
+		while (numBuckets < MAX_BUCKETS) {
+			int pgNo = dis.readInt();
+			if (pgNo == 0)
+				break;
+			buckets[numBuckets++] = pgNo;
+		}
+		dis.close();
+
+		setBeforeImage();
+	}
+
+	public int getNumEntries() {
+		return numEntries;
+	}
+
+	public void setNumEntries(int numEntries) {
+		this.numEntries = numEntries;
+	}
+
+	public int getNumBuckets() {
+		return numBuckets;
+	}
+
+	/**
+	 * @return the page number of the primary page of bucket i
+	 */
+	public int getBucketPage(int i) {
+		return buckets[i];
+	}
+
+	/**
+	 * @return the bucket of key, the index is not empty
+	 */
+	public int bucketOf(Field key) {
+		int h = key.hashCode() & 0x7fffffff;
+		int b = h % (1 << level);
+		if (b < next)
+			b = h % (1 << (level + 1));
+		return b;
+	}
+
+	/**
+	 * @return the bucket split by the next call to addBucket, or -1 if the
+	 *         index has no bucket yet
+	 */
+	public int getNextSplit() {
+		return numBuckets == 0 ? -1 : next;
+	}
+
+	/**
+	 * Adds a bucket whose primary page is pgNo. The first bucket holds all the
+	 * keys; every later one is the image of the next bucket to split, whose
+	 * entries must then be rehashed with bucketOf.
+	 *
+	 * @throws DbException
+	 *             if there are already MAX_BUCKETS buckets
+	 */
+	public void addBucket(int pgNo) throws DbException {
+		if (numBuckets == MAX_BUCKETS)
+			throw new DbException("too many buckets");
+
+		buckets[numBuckets++] = pgNo;
+		if (numBuckets == 1)
+			return;
+		next++;
+		if (next == (1 << level)) {
+			level++;
+			next = 0;
+		}
+	}
+
+	public byte[] getPageData() {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.PAGE_SIZE);
+		DataOutputStream dos = new DataOutputStream(baos);
+		try {
+			dos.writeInt(level);
+			dos.writeInt(next);
+			dos.writeInt(numEntries);
+			for (int i = 0; i < numBuckets; i++)
+				dos.writeInt(buckets[i]);
+			dos.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return toPageData(baos);
+	}
+
+	/**
+	 * Return a view of this page before it was modified -- used by recovery
+	 */
+	public HashHeaderPage getBeforeImage() {
+		try {
+			return new HashHeaderPage(getId(), oldData);
+		} catch (IOException e) {
+			e.printStackTrace();
+			// should never happen -- we parsed it OK before!
+			System.exit(1);
+		}
+		return null;
+	}
+}
@@ -0,0 +1,542 @@
+package cbpdbms;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HashIndexFile is a DbFile that stores a linear hash index on one field of a
+ * table, for equality lookups. Each entry of the index is a key and the
+ * RecordId of the tuple of the table that has this key.
+ * <p>
+ * Page 0 is a {@link HashHeaderPage}, every other page a
+ * {@link HashBucketPage}. Once the index holds more than LOAD_FACTOR entries
+ * per bucket page, the next bucket in turn is split in two, so that buckets
+ * stay about one page long without ever rehashing the whole index. Past
+ * HashHeaderPage.MAX_BUCKETS buckets, the buckets grow chains of overflow
+ * pages instead.
+ * <p>
+ * Bucket pages are read through the BufferPool: writers lock the pages of one
+ * bucket exclusively, lookups share them. The header is not, so that writers
+ * of different buckets do not wait for each other: it is kept in memory under
+ * a latch held only while it is read or changed, and written to page 0 when a
+ * bucket is added. A bucket is split by a transaction of its own, committed at
+ * once, and only if no other transaction locks its pages; otherwise a later
+ * insert splits it.
+ *
+ * @see Catalog#addIndex
+ * @see IndexLookup
+ */
+public class HashIndexFile implements IndexFile {
+	/**
+	 * The number of entries per bucket page, as a fraction of the entries a
+	 * page holds, above which a bucket is split.
+	 */
+	public static final double LOAD_FACTOR = 0.75;
+
+	File f;
+	PageChannel pages;
+	int tableid;// the indexed table
+	int keyField;
+	Type keyType;
+	TupleDesc td;
+
+	HashHeaderPage header;// read from page 0 on first use
+	Object headerLatch;// held while the header is read or changed
+
+	/**
+	 * Constructs a hash index backed by the specified file.
+	 *
+	 * @param f
+	 *            the file that stores the on-disk backing store for this
+	 *            index, empty for a new index
+	 * @param table
+	 *            the indexed table
+	 * @param keyField
+	 *            the index of the indexed field in the tuples of table
+	 */
+	public HashIndexFile(File f, DbFile table, int keyField) {
+		this.f = f;
+		this.pages = new PageChannel(f);
+		this.tableid = table.getId();
+		this.keyField = keyField;
+
+		TupleDesc tableTd = table.getTupleDesc();
+		this.keyType = tableTd.getType(keyField);
+		this.td = new TupleDesc(new Type[] { keyType, Type.INT_TYPE, Type.INT_TYPE },
+				new String[] { tableTd.getFieldName(keyField), "pgno", "slot" });
+		this.header = null;
+		this.headerLatch = new Object();
+	}
+
+	/**
+	 * Returns the File backing this HashIndexFile on disk.
+	 */
+	public File getFile() {
+		return this.f;
+	}
+
+	/**
+	 * Returns an ID uniquely identifying this HashIndexFile, the hash of the
+	 * absolute name of its file like a HeapFile.
+	 */
+	public int getId() {
+		return this.f.getAbsoluteFile().hashCode();
+	}
+
+	public void close() {
+		pages.close();
+	}
+
+	public int getTableId() {
+		return this.tableid;
+	}
+
+	public int getKeyField() {
+		return this.keyField;
+	}
+
+	public Type getKeyType() {
+		return this.keyType;
+	}
+
+	/**
+	 * Returns the TupleDesc of the entries of this index: the key, then the
+	 * page number and slot of the indexed tuple.
+	 */
+	public TupleDesc getTupleDesc() {
+		return this.td;
+	}
+
+	/**
+	 * Returns the number of pages in this HashIndexFile.
+	 */
+	public int numPages() {
+		return (int) (pages.length() / BufferPool.PAGE_SIZE);
+	}
+
+	public Page readPage(PageId pid) {
+		HeapPageId id = (HeapPageId) pid;
+		try {
+			byte[] data = pages.readPage(id.pageno());
+
+			if (id.pageno() == 0)
+				return new HashHeaderPage(id, data);
+			return new HashBucketPage(id, data);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		throw new IllegalArgumentException();
+	}
+
+	// see DbFile.java for javadocs
+	public void writePage(Page page) throws IOException {
+		pages.writePage(page.getId().pageno(), page.getPageData());
+	}
+
+	/**
+	 * Appends an empty page to the file, after the header page if the file is
+	 * new.
+	 *
+	 * @return the page number of the new page
+	 */
+	synchronized int allocatePage() throws IOException {
+		int pgNo = numPages();
+		if (pgNo == 0)
+			pgNo = 1;
+		pages.extendToPages(pgNo + 1);
+		return pgNo;
+	}
+
+	/**
+	 * @return the header, read from page 0 if it is not in memory yet. Called
+	 *         holding headerLatch.
+	 */
+	private HashHeaderPage header() throws DbException {
+		if (header == null) {
+			try {
+				byte[] data = numPages() == 0 ? new byte[BufferPool.PAGE_SIZE] : pages.readPage(0);
+				header = new HashHeaderPage(new HeapPageId(getId(), 0), data);
+			} catch (IOException e) {
+				throw new DbException("failed to read the index header: " + e.getMessage());
+			}
+		}
+		return header;
+	}
+
+	private HashBucketPage getBucketPage(TransactionId tid, int pgNo, Permissions perm, ArrayList<PageId> pinned)
+			throws TransactionAbortedException, DbException {
+		HeapPageId pid = new HeapPageId(getId(), pgNo);
+		// NOTE: pages fetched to be modified are pinned, and added to pinned,
+		// until the update is done, so the copy modified is never one evicted
+		// meanwhile. Once unpinned, a dirty page stays in the pool, or under
+		// STEAL is written after its update record is logged.
+		if (perm == Permissions.READ_WRITE) {
+			Page page = Database.getBufferPool().pinPage(tid, pid, perm);
+			pinned.add(pid);
+			return (HashBucketPage) page;
+		}
+		return (HashBucketPage) Database.getBufferPool().getPage(tid, pid, perm);
+	}
+
+	private void unpinPages(TransactionId tid, ArrayList<PageId> pinned) {
+		for (PageId pid : pinned)
+			Database.getBufferPool().unpinPage(tid, pid);
+	}
+
+	/**
+	 * Fetches the primary page of the bucket of key with perm. The bucket is
+	 * looked up again once the page is locked, since it may have been split
+	 * meanwhile; it is not split later, as a split locks its pages.
+	 *
+	 * @param create
+	 *            whether to add the first bucket if the index has none
+	 * @return the page, or null if the index has no bucket
+	 */
+	private HashBucketPage getBucketOf(TransactionId tid, Field key, Permissions perm, ArrayList<PageId> pinned,
+			boolean create) throws DbException, TransactionAbortedException, IOException {
+		while (true) {
+			int bucket;
+			int pgNo;
+			synchronized (headerLatch) {
+				HashHeaderPage header = header();
+				if (header.getNumBuckets() == 0) {
+					if (!create)
+						return null;
+					header.addBucket(allocatePage());
+					pages.writePage(0, header.getPageData());
+				}
+				bucket = header.bucketOf(key);
+				pgNo = header.getBucketPage(bucket);
+			}
+			HashBucketPage p = getBucketPage(tid, pgNo, perm, pinned);
+			synchronized (headerLatch) {
+				if (header.bucketOf(key) == bucket)
+					return p;
+			}
+		}
+	}
+
+	/**
+	 * Counts the entries of the index on disk, without the BufferPool: those
+	 * of the buckets of the header page. The index must be in the catalog.
+	 *
+	 * @return that number, 0 if the file is empty
+	 */
+	public int readNumEntries() throws IOException {
+		if (numPages() == 0)
+			return 0;
+		HashHeaderPage h = new HashHeaderPage(new HeapPageId(getId(), 0), pages.readPage(0));
+		int entries = 0;
+		for (int i = 0; i < h.getNumBuckets(); i++) {
+			for (int pgNo = h.getBucketPage(i); pgNo != 0;) {
+				HashBucketPage p = new HashBucketPage(new HeapPageId(getId(), pgNo), pages.readPage(pgNo));
+				entries += p.getNumEntries();
+				pgNo = p.getOverflow();
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * Adds the entry of a tuple of the indexed table. The index is first
+	 * grown by splitting buckets if it is over its load factor, while tid
+	 * may not lock the next bucket to split yet.
+	 *
+	 * @param t
+	 *            a tuple of the indexed table, with its RecordId
+	 * @return the pages that were modified
+	 */
+	public ArrayList<Page> addTuple(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		RecordId rid = t.getRecordId();
+		if (rid == null)
+			throw new DbException("tuple has no RecordId");
+		splitBuckets();
+
+		ArrayList<Page> modifiedPage = new ArrayList<Page>();
+		ArrayList<PageId> pinned = new ArrayList<PageId>();
+		try {
+			Field key = t.getField(keyField);
+			HashBucketPage p = getBucketOf(tid, key, Permissions.READ_WRITE, pinned, true);
+			insertEntry(tid, p.getId().pageno(), key, rid.getPageId().pageno(), rid.tupleno(), modifiedPage,
+					pinned);
+		} finally {
+			unpinPages(tid, pinned);
+		}
+		synchronized (headerLatch) {
+			header.setNumEntries(header.getNumEntries() + 1);
+		}
+		return modifiedPage;
+	}
+
+	/**
+	 * Inserts an entry in the first page of the bucket starting at page pgNo
+	 * that has room, adding an overflow page if they are all full.
+	 */
+	private void insertEntry(TransactionId tid, int pgNo, Field key, int tuplePgNo, int slot,
+			ArrayList<Page> modifiedPage, ArrayList<PageId> pinned)
+			throws DbException, IOException, TransactionAbortedException {
+		HashBucketPage p = getBucketPage(tid, pgNo, Permissions.READ_WRITE, pinned);
+		while (p.getNumEntries() == p.getMaxEntries()) {
+			if (p.getOverflow() == 0) {
+				markDirty(p, tid, modifiedPage);
+				p.setOverflow(allocatePage());
+			}
+			p = getBucketPage(tid, p.getOverflow(), Permissions.READ_WRITE, pinned);
+		}
+		markDirty(p, tid, modifiedPage);
+		p.insertEntry(key, tuplePgNo, slot);
+	}
+
+	/**
+	 * Splits the next bucket while the index holds more than LOAD_FACTOR
+	 * entries per bucket page, until one cannot be split yet.
+	 */
+	private void splitBuckets() throws DbException, IOException {
+		int pageEntries = (BufferPool.PAGE_SIZE - 8) / (keyType.getLen() + 8);
+		synchronized (headerLatch) {
+			while (header().getNumBuckets() > 0 && header.getNumBuckets() < HashHeaderPage.MAX_BUCKETS
+					&& header.getNumEntries() > LOAD_FACTOR * pageEntries * header.getNumBuckets()) {
+				if (!split())
+					return;
+			}
+		}
+	}
+
+	/**
+	 * Splits the next bucket in a transaction of its own: a new bucket is
+	 * added, then the entries of the split bucket are rehashed between the
+	 * two. Called holding headerLatch, so that the new header is seen once
+	 * the transaction committed.
+	 *
+	 * @return false if the bucket was not split because another transaction
+	 *         locks one of its pages
+	 */
+	private boolean split() throws DbException, IOException {
+		BufferPool bp = Database.getBufferPool();
+		Transaction t = new Transaction();
+		TransactionId tid = t.getId();
+		byte[] before = header.getPageData();
+		boolean split = false;
+		try {
+			// the pages of the bucket are locked without waiting: their
+			// holders may wait for headerLatch
+			ArrayList<Integer> pgNos = new ArrayList<Integer>();
+			for (int pgNo = header.getBucketPage(header.getNextSplit()); pgNo != 0;) {
+				if (!bp.tryAcquireLock(tid, new HeapPageId(getId(), pgNo), Permissions.READ_WRITE))
+					return false;
+				pgNos.add(pgNo);
+				pgNo = getBucketPage(tid, pgNo, Permissions.READ_ONLY, null).getOverflow();
+			}
+			t.start();
+			header.addBucket(allocatePage());
+
+			ArrayList<Page> modifiedPage = new ArrayList<Page>();
+			ArrayList<Field> keys = new ArrayList<Field>();
+			ArrayList<Integer> tuplePgNos = new ArrayList<Integer>();
+			ArrayList<Integer> slots = new ArrayList<Integer>();
+			for (int pgNo : pgNos) {
+				ArrayList<PageId> pinned = new ArrayList<PageId>();
+				try {
+					HashBucketPage p = getBucketPage(tid, pgNo, Permissions.READ_WRITE, pinned);
+					markDirty(p, tid, modifiedPage);
+					for (int i = 0; i < p.getNumEntries(); i++) {
+						keys.add(p.getKey(i));
+						tuplePgNos.add(p.getPageNo(i));
+						slots.add(p.getSlot(i));
+					}
+					p.clear();
+				} finally {
+					unpinPages(tid, pinned);
+				}
+			}
+
+			for (int i = 0; i < keys.size(); i++) {
+				Field key = keys.get(i);
+				ArrayList<PageId> pinned = new ArrayList<PageId>();
+				try {
+					insertEntry(tid, header.getBucketPage(header.bucketOf(key)), key, tuplePgNos.get(i),
+							slots.get(i), modifiedPage, pinned);
+				} finally {
+					unpinPages(tid, pinned);
+				}
+			}
+			t.commit();
+			split = true;
+		} catch (TransactionAbortedException e) {
+			throw new DbException("failed to split a bucket: " + e.getMessage());
+		} finally {
+			if (!split) {
+				header = new HashHeaderPage(header.getId(), before);
+				if (t.started)
+					t.transactionComplete(true);
+				else
+					bp.transactionComplete(tid, false);
+			}
+		}
+		pages.writePage(0, header.getPageData());
+		return true;
+	}
+
+	private void markDirty(IndexPage p, TransactionId tid, ArrayList<Page> modifiedPage) {
+		p.markDirty(true, tid);
+		if (!modifiedPage.contains(p))
+			modifiedPage.add(p);
+	}
+
+	/**
+	 * Removes the entry of a tuple of the indexed table.
+	 *
+	 * @param t
+	 *            a tuple of the indexed table, with its RecordId
+	 * @return the bucket page that was modified
+	 * @throws DbException
+	 *             if the tuple is not in the index
+	 */
+	public Page deleteTuple(TransactionId tid, Tuple t) throws DbException, TransactionAbortedException, IOException {
+		RecordId rid = t.getRecordId();
+		if (rid == null)
+			throw new DbException("tuple has no RecordId");
+
+		ArrayList<PageId> pinned = new ArrayList<PageId>();
+		try {
+			Field key = t.getField(keyField);
+			HashBucketPage p = getBucketOf(tid, key, Permissions.READ_WRITE, pinned, false);
+			while (p != null) {
+				for (int i = 0; i < p.getNumEntries(); i++) {
+					if (p.getPageNo(i) == rid.getPageId().pageno() && p.getSlot(i) == rid.tupleno()
+							&& p.getKey(i).equals(key)) {
+						p.deleteEntry(i);
+						p.markDirty(true, tid);
+						synchronized (headerLatch) {
+							header.setNumEntries(header.getNumEntries() - 1);
+						}
+						return p;
+					}
+				}
+				p = p.getOverflow() == 0 ? null : getBucketPage(tid, p.getOverflow(), Permissions.READ_WRITE, pinned);
+			}
+		} finally {
+			unpinPages(tid, pinned);
+		}
+		throw new DbException("the tuple is not in this index");
+	}
+
+	/**
+	 * @return an iterator over all the entries of this index, in no
+	 *         particular order
+	 */
+	public DbFileIterator iterator(TransactionId tid) throws DbException, TransactionAbortedException {
+		return new HashIndexIterator(tid, null);
+	}
+
+	/**
+	 * Returns an iterator over the entries whose key equals key, which reads
+	 * the pages of a single bucket.
+	 */
+	public DbFileIterator lookup(TransactionId tid, Field key) {
+		return new HashIndexIterator(tid, key);
+	}
+
+	/**
+	 * A lookup reads the pages of one bucket, the header being in memory: a
+	 * single page unless there are too many entries for MAX_BUCKETS buckets.
+	 */
+	public int estimateLookupPages(int ntups) {
+		return estimateLookupPages(keyType, ntups);
+	}
+
+	/**
+	 * @return the number of pages read by a lookup in a hash index of ntups
+	 *         entries whose keys are of type keyType
+	 */
+	public static int estimateLookupPages(Type keyType, int ntups) {
+		int pageEntries = (int) (LOAD_FACTOR * ((BufferPool.PAGE_SIZE - 8) / (keyType.getLen() + 8)));
+		int bucketPages = (ntups + pageEntries - 1) / pageEntries;
+		return Math.max(1, (bucketPages + HashHeaderPage.MAX_BUCKETS - 1) / HashHeaderPage.MAX_BUCKETS);
+	}
+
+	/**
+	 * Reads the entries of one bucket (those with a key, if one is given) or
+	 * of all the buckets, one page at a time.
+	 */
+	class HashIndexIterator extends AbstractDbFileIterator {
+		TransactionId tid;
+		Field key;// null for all the entries
+
+		int bucket;// the bucket read, when reading all of them
+		HashBucketPage page;
+		int pos;
+
+		HashIndexIterator(TransactionId tid, Field key) {
+			this.tid = tid;
+			this.key = key;
+		}
+
+		public void open() throws DbException, TransactionAbortedException {
+			bucket = 0;
+			pos = 0;
+			if (key == null) {
+				page = getPrimaryPage(bucket);
+				return;
+			}
+			try {
+				page = getBucketOf(tid, key, Permissions.READ_ONLY, null, false);
+			} catch (IOException e) {
+				throw new DbException("failed to read the index header: " + e.getMessage());
+			}
+		}
+
+		/**
+		 * @return the primary page of bucket i, null if there are not as many
+		 *         buckets
+		 */
+		private HashBucketPage getPrimaryPage(int i) throws DbException, TransactionAbortedException {
+			int pgNo;
+			synchronized (headerLatch) {
+				if (i >= header().getNumBuckets())
+					return null;
+				pgNo = header.getBucketPage(i);
+			}
+			return getBucketPage(tid, pgNo, Permissions.READ_ONLY, null);
+		}
+
+		protected Tuple readNext() throws DbException, TransactionAbortedException {
+			while (page != null) {
+				if (pos >= page.getNumEntries()) {
+					// NOTE: the number of buckets is read as each is reached: a
+					// bucket split meanwhile moves entries to the last one
+					if (page.getOverflow() != 0)
+						page = getBucketPage(tid, page.getOverflow(), Permissions.READ_ONLY, null);
+					else if (key == null)
+						page = getPrimaryPage(++bucket);
+					else
+						page = null;
+					pos = 0;
+					continue;
+				}
+
+				int i = pos++;
+				if (key != null && !page.getKey(i).equals(key))
+					continue;
+
+				Tuple t = new Tuple(td);
+				t.setField(0, page.getKey(i));
+				t.setField(1, new IntField(page.getPageNo(i)));
+				t.setField(2, new IntField(page.getSlot(i)));
+				return t;
+			}
+			return null;
+		}
+
+		public void rewind() throws DbException, TransactionAbortedException {
+			close();
+			open();
+		}
+
+		public void close() {
+			super.close();
+			page = null;
+		}
+	}
+}
@@ -0,0 +1,150 @@
+package cbpdbms;
+
+import java.util.*;
+
+/**
+ * The HashJoin operator implements an equi-join. It reads one child (the build
+ * side) into an in-memory hash table keyed on the join field, then streams the
+ * other child (the probe side) and looks each tuple up in that table.
+ * <p>
+ * The build side should be the smaller input; JoinOptimizer decides which one
+ * it is. Whichever side is built, the output tuples are always the fields of
+ * child1 followed by the fields of child2, the same as {@link Join}.
+ */
+public class HashJoin extends AbstractDbIterator {
+	JoinPredicate p;
+	DbIterator child1;
+	DbIterator child2;
+	/**
+	 * true if the hash table is built on child1 and child2 is probed
+	 */
+	boolean buildLeft;
+
+	HashMap<Field, List<Tuple>> table;
+	Tuple probeTup;
+	Iterator<Tuple> matches;
+
+	/**
+	 * Constructor. Builds the hash table on child1 (the left relation).
+	 *
+	 * @param p
+	 *            The predicate to use to join the children, its op must be
+	 *            Predicate.Op.EQUALS
+	 * @param child1
+	 *            Iterator for the left(outer) relation to join
+	 * @param child2
+	 *            Iterator for the right(inner) relation to join
+	 */
+	public HashJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+		this(p, child1, child2, true);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param p
+	 *            The predicate to use to join the children, its op must be
+	 *            Predicate.Op.EQUALS
+	 * @param child1
+	 *            Iterator for the left(outer) relation to join
+	 * @param child2
+	 *            Iterator for the right(inner) relation to join
+	 * @param buildLeft
+	 *            true to build the hash table on child1, false to build it on
+	 *            child2
+	 */
+	public HashJoin(JoinPredicate p, DbIterator child1, DbIterator child2, boolean buildLeft) {
+		if (p.getOperator() != Predicate.Op.EQUALS)
+			throw new IllegalArgumentException("HashJoin only supports EQUALS");
+
+		this.p = p;
+		this.child1 = child1;
+		this.child2 = child2;
+		this.buildLeft = buildLeft;
+	}
+
+	/**
+	 * @see cbpdbms.TupleDesc#combine(TupleDesc, TupleDesc) for possible
+	 *      implementation logic.
+	 */
+	public TupleDesc getTupleDesc() {
+		return TupleDesc.combine(child1.getTupleDesc(), child2.getTupleDesc());
+	}
+
+	public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+		child1.open();
+		child2.open();
+
+		DbIterator build = buildLeft ? child1 : child2;
+		int buildField = buildLeft ? p.getField1() : p.getField2();
+
+		this.table = new HashMap<Field, List<Tuple>>();
+		while (build.hasNext()) {
+			Tuple t = build.next();
+			Field key = t.getField(buildField);
+			List<Tuple> list = table.get(key);
+			if (list == null) {
+				list = new ArrayList<Tuple>(1);
+				table.put(key, list);
+			}
+			list.add(t);
+		}
+
+		this.probeTup = null;
+		this.matches = null;
+	}
+
+	public void close() {
+		super.close();
+		child1.close();
+		child2.close();
+		this.table = null;
+		this.probeTup = null;
+		this.matches = null;
+	}
+
+	/**
+	 * Only the probe side is rewound, the hash table is kept.
+	 */
+	public void rewind() throws DbException, TransactionAbortedException {
+		super.close();
+		if (buildLeft)
+			child2.rewind();
+		else
+			child1.rewind();
+
+		this.probeTup = null;
+		this.matches = null;
+	}
+
+	/**
+	 * Returns the next tuple generated by the join, or null if there are no
+	 * more tuples. Tuples are produced one probe tuple at a time, nothing but
+	 * the build side is buffered.
+	 *
+	 * @return The next matching tuple.
+	 * @see JoinPredicate#filter
+	 */
+	protected Tuple readNext() throws TransactionAbortedException, DbException {
+		if (table == null)
+			throw new DbException("Iterator not init");
+
+		DbIterator probe = buildLeft ? child2 : child1;
+		int probeField = buildLeft ? p.getField2() : p.getField1();
+
+		while (matches == null || !matches.hasNext()) {
+			if (!probe.hasNext())
+				return null;
+
+			probeTup = probe.next();
+			List<Tuple> list = table.get(probeTup.getField(probeField));
+			matches = list == null ? null : list.iterator();
+		}
+
+		Tuple t = matches.next();
+		if (buildLeft)
+			return Tuple.simpleCombine(t, probeTup);
+		else
+			return Tuple.simpleCombine(probeTup, t);
+	}
+}
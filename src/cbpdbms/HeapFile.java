@@ -1,6 +1,7 @@
 package cbpdbms;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -8,14 +9,18 @@ import java.util.*;
  * in no particular order. Tuples are stored on pages, each of which is a fixed
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
- * constructor.
+ * constructor. The pages of a table with fields of variable length are
+ * SlottedPages instead.
  *
  * @see cbpdbms.HeapPage#HeapPage
+ * @see cbpdbms.SlottedPage
  * @author Sam Madden
  */
 public class HeapFile implements DbFile {
 	File f;
 	TupleDesc td;
+	PageChannel pages;
+	boolean mapped;
 
 	/**
 	 * Constructs a heap file backed by the specified file.
@@ -25,8 +30,34 @@ public class HeapFile implements DbFile {
 	 *            file.
 	 */
 	public HeapFile(File f, TupleDesc td) {
+		this(f, td, false);
+	}
+
+	/**
+	 * Constructs a heap file backed by the specified file, memory-mapped if
+	 * mapped is true. The pages of a mapped file are read from the mapping
+	 * without a copy nor a system call, the page cache of the operating system
+	 * acting as a second buffer pool behind the BufferPool. A mapped file is
+	 * read-only: adding or deleting tuples throws a DbException.
+	 *
+	 * @param f
+	 *            the file that stores the on-disk backing store for this heap
+	 *            file.
+	 * @param mapped
+	 *            true to map the file, read-only
+	 */
+	public HeapFile(File f, TupleDesc td, boolean mapped) {
 		this.f = f;
 		this.td = td;
+		this.pages = new PageChannel(f);
+		this.mapped = mapped;
+	}
+
+	/**
+	 * @return true if this file is memory-mapped, and read-only
+	 */
+	public boolean isMapped() {
+		return this.mapped;
 	}
 
 	/**
@@ -52,6 +83,10 @@ public class HeapFile implements DbFile {
 		return this.f.getAbsoluteFile().hashCode();
 	}
 
+	public void close() {
+		pages.close();
+	}
+
 	/**
 	 * Returns the TupleDesc of the table stored in this DbFile.
 	 * 
@@ -64,48 +99,67 @@ public class HeapFile implements DbFile {
 
 	public Page readPage(PageId pid) {
 		try {
-			
-			RandomAccessFile rAf = new RandomAccessFile(f, "r");
-			// page
-			int offset = pid.pageno() * BufferPool.PAGE_SIZE;
-			
-			rAf.seek(offset);
-			// page
-			byte[] page = new byte[BufferPool.PAGE_SIZE];
-			// BufferPool.PAGE_SIZE
-			rAf.read(page, 0, BufferPool.PAGE_SIZE);
-			rAf.close();
-
 			HeapPageId id = (HeapPageId) pid;
+			if (mapped)
+				return newPage(id, pages.mapPage(pid.pageno()));
+
+			byte[] page = pages.readPage(pid.pageno());
 
-			return new HeapPage(id, page);
+			return newPage(id, ByteBuffer.wrap(page));
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 		throw new IllegalArgumentException();
 	}
 
+	/**
+	 * @return a page of this file holding data, a SlottedPage if the tuples
+	 *         have fields of variable length, a HeapPage otherwise
+	 */
+	HeapPage newPage(HeapPageId id, ByteBuffer data) throws IOException {
+		if (td.hasVariableLength())
+			return new SlottedPage(id, data, td);
+		return new HeapPage(id, data, td);
+	}
+
+	/**
+	 * Reads consecutive pages with one read of the file, e.g. to read them
+	 * ahead of a scan.
+	 *
+	 * @param pids
+	 *            the ids of the pages, of consecutive page numbers
+	 * @see BufferPool#prefetchPages
+	 */
+	Page[] readPages(PageId[] pids) throws IOException {
+		byte[] data = pages.readPages(pids[0].pageno(), pids.length);
+		Page[] read = new Page[pids.length];
+		for (int i = 0; i < pids.length; i++) {
+			// NOTE: the pages are slices of data, which is never written
+			ByteBuffer page = ByteBuffer.wrap(data, i * BufferPool.PAGE_SIZE, BufferPool.PAGE_SIZE).slice();
+			read[i] = newPage((HeapPageId) pids[i], page);
+		}
+		return read;
+	}
+
 	// see DbFile.java for javadocs
 	public void writePage(Page page) throws IOException {
 		// some code goes here
 		// not necessary for lab1
+		if (mapped)
+			throw new IOException("mapped file " + f.getName() + " is read-only");
 		PageId pid = page.getId();
 		// int tableid = pid.getTableId();
 		int pgno = pid.pageno();
 		byte[] data = page.getPageData();
 
-		RandomAccessFile rAf = new RandomAccessFile(this.f, "rw");
-		rAf.seek(pgno * BufferPool.PAGE_SIZE);
-		rAf.write(data, 0, BufferPool.PAGE_SIZE);
-		rAf.close();
-
+		pages.writePage(pgno, data);
 	}
 
 	/**
 	 * Returns the number of pages in this HeapFile.
 	 */
 	public int numPages() {
-		long file_size = this.f.length();
+		long file_size = pages.length();
 		int num = (int) (file_size / BufferPool.PAGE_SIZE);
 		if (file_size % BufferPool.PAGE_SIZE > 0)
 			num++;
@@ -113,26 +167,50 @@ public class HeapFile implements DbFile {
 	}
 
 	/**
-	 * 
-	 * @return
+	 * @throws DbException
+	 *             if this file is mapped, and thus read-only
 	 */
-	public ArrayList<Page> getEmptyPageList(TransactionId tid) {
-		ArrayList<Page> emptylist = new ArrayList<Page>();
+	void checkWritable() throws DbException {
+		if (mapped)
+			throw new DbException("mapped file " + f.getName() + " is read-only");
+	}
 
+	/**
+	 * @return the mode of the page lock a transaction writing tuples of this
+	 *         file takes: SIX, the tuples themselves being locked with record
+	 *         locks, so that other transactions may read the other tuples of
+	 *         the page, but not write them, since aborts and recovery restore
+	 *         whole pages; X if the tuples have fields of variable length,
+	 *         since a SlottedPage moves the tuples it holds when it is written
+	 */
+	LockMode writeMode() {
+		return td.hasVariableLength() ? LockMode.X : LockMode.SIX;
+	}
+
+	/**
+	 * Returns the first page of this file with room for t, pinned in the
+	 * BufferPool with a lock in writeMode, null if all the pages are full.
+	 * A page is first looked at under an IS lock, so that the full pages
+	 * are not locked against the readers.
+	 * 
+	 * @see BufferPool#pinPage
+	 */
+	private HeapPage pinPageWithRoom(TransactionId tid, Tuple t) throws DbException, TransactionAbortedException {
+		BufferPool bp = Database.getBufferPool();
 		for (int i = 0; i < this.numPages(); i++) {
 			PageId pid = new HeapPageId(this.getId(), i);
-			try {
-				// NOTE: intertTuple need exclusive lock
-				Page page = Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
-				HeapPage hpage = (HeapPage) page;
-				if (hpage.getNumEmptySlots() > 0)
-					emptylist.add(page);
-			} catch (TransactionAbortedException | DbException e) {
-				e.printStackTrace();
-			}
-
+			HeapPage hpage = (HeapPage) bp.pinPage(tid, pid, LockMode.IS);
+			boolean room = hpage.hasRoomFor(t);
+			bp.unpinPage(tid, pid);
+			if (!room)
+				continue;
+			// NOTE: the page may have been filled meanwhile, look again
+			hpage = (HeapPage) bp.pinPage(tid, pid, writeMode());
+			if (hpage.hasRoomFor(t))
+				return hpage;
+			bp.unpinPage(tid, pid);
 		}
-		return emptylist;
+		return null;
 	}
 
 	/**
@@ -140,14 +218,26 @@ public class HeapFile implements DbFile {
 	 */
 	public ArrayList<Page> addTuple(TransactionId tid, Tuple t)
 			throws DbException, IOException, TransactionAbortedException {
-		ArrayList<Page> emptyPage = getEmptyPageList(tid);
+		checkWritable();
+		HeapPage emptyPage = pinPageWithRoom(tid, t);
 		ArrayList<Page> modifiedPage = new ArrayList<Page>();
 		Page page;
-		if (emptyPage.isEmpty()) {
+		HeapPageId pid = null;
+		while (emptyPage == null) {
+			// NOTE: the full pages are looked at under IS locks, so other
+			// transactions may be appending the same page: the one that gets
+			// its lock first appends it, the others look for room again
+			int pgNo = this.numPages();
+			pid = new HeapPageId(this.getId(), pgNo);
+			Database.getBufferPool().acquireLock(tid, pid, Permissions.READ_WRITE);
+			if (this.numPages() == pgNo)
+				break;
+			pid = null;
+			emptyPage = pinPageWithRoom(tid, t);
+		}
+		if (emptyPage == null) {
 			// create new emptypage in current file
-			
-			HeapPageId pid = new HeapPageId(this.getId(), this.numPages());
-			page = new HeapPage(pid, HeapPage.createEmptyPageData());
+			page = newPage(pid, ByteBuffer.wrap(HeapPage.createEmptyPageData()));
 			HeapPage hpage = (HeapPage) page;
 			hpage.addTuple(t);
 
@@ -159,11 +249,16 @@ public class HeapFile implements DbFile {
 			TransactionId dirtier = page.isDirty();
 			if (dirtier != null) {
 				// write-ahead logging
-				Database.getLogFile().logWrite(dirtier, page.getBeforeImage(), page);
+				Database.getLogFile().logWrite(dirtier, page);
 				Database.getLogFile().force();
 			}
 			// -----------------------------------
 
+			// the snapshots read the page empty until tid commits
+			VersionStore versions = Database.getBufferPool().getVersionStore();
+			if (versions != null)
+				versions.pin(tid, pid, newPage(pid, ByteBuffer.wrap(HeapPage.createEmptyPageData())));
+
 			/*
 			 * NOTE: this.writePage should not in here. But some Test not in
 			 * consideration of transaction.
@@ -176,18 +271,26 @@ public class HeapFile implements DbFile {
 
 		} else {
 			// get a page
-			page = emptyPage.get(0);
-			HeapPage hpage = (HeapPage) page;
-			hpage.addTuple(t);
-			hpage.markDirty(true, tid);
-
-			TransactionId dirtier = page.isDirty();
-			if (dirtier != null) {
-				// write-ahead logging
-				Database.getLogFile().logWrite(dirtier, page.getBeforeImage(), page);
-				Database.getLogFile().force();
+			page = emptyPage;
+			HeapPage hpage = emptyPage;
+			try {
+				if (writeMode() == LockMode.SIX) {
+					RecordId rid = new RecordId(hpage.getId(), hpage.getEmptySlot());
+					Database.getBufferPool().acquireRecordLock(tid, rid, Permissions.READ_WRITE);
+				}
+				hpage.addTuple(t);
+				hpage.markDirty(true, tid);
+
+				TransactionId dirtier = page.isDirty();
+				if (dirtier != null) {
+					// write-ahead logging
+					Database.getLogFile().logWrite(dirtier, page);
+					Database.getLogFile().force();
+				}
+				// -----------------------------------
+			} finally {
+				Database.getBufferPool().unpinPage(tid, page.getId());
 			}
-			// -----------------------------------
 			modifiedPage.add(hpage);
 		}
 		return modifiedPage;
@@ -206,6 +309,7 @@ public class HeapFile implements DbFile {
 	 */
 	public Page deleteTuple(TransactionId tid, Tuple t) throws DbException, TransactionAbortedException, IOException {
 		// some code goes here
+		checkWritable();
 		RecordId rid = t.getRecordId();
 		PageId pid = rid.getPageId();
 
@@ -214,48 +318,68 @@ public class HeapFile implements DbFile {
 		if (this.numPages() <= pid.pageno())
 			throw new DbException("the tuple's pgno is wrong");
 
-		Page page = Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+		Page page = Database.getBufferPool().pinPage(tid, pid, writeMode());
+		try {
+			if (writeMode() == LockMode.SIX)
+				Database.getBufferPool().acquireRecordLock(tid, rid, Permissions.READ_WRITE);
+			HeapPage hpage = (HeapPage) page;
+			hpage.deleteTuple(t);
+			hpage.markDirty(true, tid);
 
-		HeapPage hpage = (HeapPage) page;
-		hpage.deleteTuple(t);
-		hpage.markDirty(true, tid);
+			// add in branch 5
+			TransactionId dirtier = page.isDirty();
+			if (dirtier != null) {
+				// write-ahead logging
+				Database.getLogFile().logWrite(dirtier, page);
+				Database.getLogFile().force();
+			}
+			// -----------------------------------
 
-		// add in branch 5
-		TransactionId dirtier = page.isDirty();
-		if (dirtier != null) {
-			// write-ahead logging
-			Database.getLogFile().logWrite(dirtier, page.getBeforeImage(), page);
-			Database.getLogFile().force();
+			this.writePage(page);
+		} finally {
+			Database.getBufferPool().unpinPage(tid, pid);
 		}
-		// -----------------------------------
-
-		this.writePage(page);
 
 		return page;
 		// not necessary for lab1
 	}
 
 	/**
-	 * @return a HeapFileIterator that contains all tuple in the file
+	 * @return a HeapFileIterator that fetches the pages of this file one at a
+	 *         time through the BufferPool
 	 */
 	public DbFileIterator iterator(TransactionId tid) throws DbException, TransactionAbortedException {
-		// page Tuple list。
-		List<Tuple> ftupleList = new ArrayList<Tuple>();
-		int page_count = this.numPages();
-
-		for (int i = 0; i < page_count; i++) {
-			// HeapPageId hashcode，PageId
-			// Map get
-			PageId pid = new HeapPageId(getId(), i);
-
-			// NOTE:Scan only need to acquire sharedLock.
-			HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
-			Iterator<Tuple> it = page.iterator();
-			while (it.hasNext())
-				ftupleList.add(it.next());
-		}
-
-		return new HeapFileIterator(tid, ftupleList);
+		return new HeapFileIterator(tid, this);
 	}
 
+
+	/**
+	 * Returns a tuple of this file from its position, as recorded by an
+	 * index. The tuple is locked with a record lock and its page read through
+	 * the BufferPool with an IS lock, so that it may be read while another
+	 * transaction writes other tuples of the page; the page is locked with a
+	 * shared lock if the tuples have fields of variable length. A snapshot
+	 * transaction reads the tuple in the version of the page of its snapshot,
+	 * without locks.
+	 * 
+	 * @return the tuple in slot of page pgNo, or null if the slot is empty
+	 */
+	public Tuple getTuple(TransactionId tid, int pgNo, int slot)
+			throws DbException, TransactionAbortedException {
+		HeapPageId pid = new HeapPageId(getId(), pgNo);
+		BufferPool bp = Database.getBufferPool();
+		if (bp.isSnapshot(tid))
+			return ((HeapPage) bp.getPageVersion(tid, pid)).getTuple(slot);
+		LockMode mode = LockMode.S;
+		if (writeMode() == LockMode.SIX) {
+			bp.acquireRecordLock(tid, new RecordId(pid, slot), Permissions.READ_ONLY);
+			mode = LockMode.IS;
+		}
+		HeapPage page = (HeapPage) bp.pinPage(tid, pid, mode);
+		try {
+			return page.getTuple(slot);
+		} finally {
+			Database.getBufferPool().unpinPage(tid, pid);
+		}
+	}
 }
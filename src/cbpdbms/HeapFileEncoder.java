@@ -1,6 +1,7 @@
 package cbpdbms;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 
 /**
@@ -74,10 +75,11 @@ public class HeapFileEncoder {
 	 * where each row represents a tuple.<br>
 	 * <p>
 	 * The format of the output file will be as specified in HeapPage and
-	 * HeapFile.
+	 * HeapFile, or in SlottedPage if there are VARCHAR fields.
 	 *
 	 * @see HeapPage
 	 * @see HeapFile
+	 * @see SlottedPage
 	 * @param inFile
 	 *            The input file to read data from
 	 * @param outFile
@@ -92,6 +94,10 @@ public class HeapFileEncoder {
 	 */
 	public static void convert(File inFile, File outFile, int npagebytes, int numFields, Type[] typeAr)
 			throws IOException {
+		if (new TupleDesc(typeAr).hasVariableLength()) {
+			convertSlotted(inFile, outFile, npagebytes, typeAr);
+			return;
+		}
 
 		int nrecbytes = 0;// the number of bytes required to store all field
 		for (int i = 0; i < numFields; i++) {
@@ -227,4 +233,58 @@ public class HeapFileEncoder {
 		br.close();
 		os.close();
 	}
+
+	/**
+	 * Converts the specified input text file into a file of SlottedPages, for
+	 * tables with VARCHAR fields. Each page is filled with as many tuples as it
+	 * holds before the next one is started.
+	 */
+	private static void convertSlotted(File inFile, File outFile, int npagebytes, Type[] typeAr)
+			throws IOException {
+		if (npagebytes != BufferPool.PAGE_SIZE)
+			throw new IllegalArgumentException("slotted pages are " + BufferPool.PAGE_SIZE + " bytes");
+		TupleDesc td = new TupleDesc(typeAr);
+		BufferedReader br = new BufferedReader(new FileReader(inFile));
+		FileOutputStream os = new FileOutputStream(outFile);
+		SlottedPage page = null;
+		int npages = 0;
+		try {
+			String line;
+			while ((line = br.readLine()) != null) {
+				if (line.trim().equals(""))
+					continue;
+				String[] values = line.split(",", -1);
+				Tuple t = new Tuple(td);
+				for (int i = 0; i < typeAr.length; i++) {
+					String s = i < values.length ? values[i].trim() : "";
+					if (typeAr[i] == Type.INT_TYPE) {
+						try {
+							t.setField(i, new IntField(Integer.parseInt(s)));
+						} catch (NumberFormatException e) {
+							System.out.println("BAD LINE : " + s);
+							t.setField(i, new IntField(0));
+						}
+					} else {
+						t.setField(i, new StringField(s, Type.STRING_LEN));
+					}
+				}
+				if (page == null || !page.hasRoomFor(t)) {
+					if (page != null)
+						os.write(page.getPageData());
+					page = new SlottedPage(new HeapPageId(0, npages++),
+							ByteBuffer.wrap(HeapPage.createEmptyPageData()), td);
+				}
+				try {
+					page.addTuple(t);
+				} catch (DbException e) {
+					throw new IOException(e.getMessage());
+				}
+			}
+			// a table without rows still has one, empty, page
+			os.write(page == null ? HeapPage.createEmptyPageData() : page.getPageData());
+		} finally {
+			br.close();
+			os.close();
+		}
+	}
 }
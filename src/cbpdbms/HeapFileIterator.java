@@ -1,37 +1,84 @@
 package cbpdbms;
 
 import java.util.Iterator;
-import java.util.List;
-import java.util.NoSuchElementException;
 
-public class HeapFileIterator implements DbFileIterator {
+/**
+ * HeapFileIterator walks a HeapFile one page at a time. Pages are fetched
+ * through the BufferPool only when the tuples of the previous page are used
+ * up, so a scan holds at most one page worth of tuples no matter how large the
+ * table is. The page being read stays pinned in the BufferPool until the
+ * iterator moves past it or is closed.
+ * <p>
+ * Once a scan reads past its first page, the next pages are read ahead by the
+ * Prefetcher. The read-ahead window starts at MIN_WINDOW pages and doubles
+ * each time the scan consumes half of it, up to MAX_WINDOW pages or a quarter
+ * of the pool, so short scans read little they do not use. Mapped files are
+ * not read ahead, the operating system already does, and neither are files
+ * of pools with read-ahead turned off, see BufferPool#setReadAhead.
+ * <p>
+ * The scan of a snapshot transaction reads the versions of the pages of its
+ * snapshot instead, without locks or pins, see BufferPool#getPageVersion.
+ */
+public class HeapFileIterator extends AbstractDbFileIterator {
+	/** The first number of pages read ahead */
+	static final int MIN_WINDOW = 2;
+	/** The most pages read ahead at once */
+	static final int MAX_WINDOW = 32;
+
 	TransactionId tid;
+	HeapFile file;
+
+	/**
+	 * the number of the next page to fetch, -1 if the iterator is not open
+	 */
+	int nextPgNo;
 	Iterator<Tuple> it;
-	List<Tuple> list;
+	PageId pinned;// the page being read
+	int window;// the number of pages read ahead at once
+	int prefetchedTo;// the pages before it were read ahead
+	boolean snapshot;// tid reads a snapshot
 
-	public HeapFileIterator(TransactionId tid, List<Tuple> list) {
+	public HeapFileIterator(TransactionId tid, HeapFile file) {
 		this.tid = tid;
-		this.list = list;
+		this.file = file;
+		this.nextPgNo = -1;
 	}
 
 	@Override
 	public void open() throws DbException, TransactionAbortedException {
-		it = this.list.iterator();
-
+		nextPgNo = 0;
+		it = null;
+		window = MIN_WINDOW;
+		prefetchedTo = 1;
+		snapshot = Database.getBufferPool().isSnapshot(tid);
 	}
 
 	@Override
-	public boolean hasNext() throws DbException, TransactionAbortedException {
-		if (it == null)
-			return false;
+	protected Tuple readNext() throws DbException, TransactionAbortedException {
+		if (nextPgNo < 0)
+			return null;
 
-		return it.hasNext();
-	}
+		while (it == null || !it.hasNext()) {
+			// NOTE: numPages is checked on every page, the file may grow while
+			// the scan is running (e.g. Insert in the same transaction)
+			if (nextPgNo >= file.numPages()) {
+				unpin();
+				return null;
+			}
 
-	@Override
-	public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
-		if (it == null)
-			throw new NoSuchElementException("tuple is null");
+			unpin();
+			readAhead(nextPgNo);
+			PageId pid = new HeapPageId(file.getId(), nextPgNo++);
+			if (snapshot) {
+				it = ((HeapPage) Database.getBufferPool().getPageVersion(tid, pid)).iterator();
+				continue;
+			}
+
+			// NOTE:Scan only need to acquire sharedLock.
+			HeapPage page = (HeapPage) Database.getBufferPool().pinPage(tid, pid, Permissions.READ_ONLY);
+			pinned = pid;
+			it = page.iterator();
+		}
 
 		return it.next();
 	}
@@ -40,12 +87,45 @@ public class HeapFileIterator implements DbFileIterator {
 	public void rewind() throws DbException, TransactionAbortedException {
 		close();
 		open();
-
 	}
 
 	@Override
 	public void close() {
+		super.close();
+		unpin();
+		nextPgNo = -1;
 		it = null;
 	}
 
+	/**
+	 * Reads the pages after pgno ahead once the scan has consumed half of the
+	 * last window read ahead, with a window twice as large.
+	 *
+	 * @param pgno
+	 *            the number of the page about to be read
+	 */
+	private void readAhead(int pgno) {
+		// NOTE: pages are read ahead with HeapFile.readPages, so files of
+		// subclasses, which may read pages their own way, are not read ahead
+		if (pgno == 0 || file.isMapped() || file.getClass() != HeapFile.class || pgno + window / 2 < prefetchedTo)
+			return;
+		BufferPool bp = Database.getBufferPool();
+		if (!bp.isReadAhead())
+			return;
+		int start = Math.max(prefetchedTo, pgno + 1);
+		int count = Math.min(window, file.numPages() - start);
+		if (count <= 0)
+			return;
+		if (Prefetcher.prefetch(bp, file, start, count)) {
+			prefetchedTo = start + count;
+			window = Math.max(MIN_WINDOW, Math.min(2 * window, Math.min(MAX_WINDOW, bp.numPages / 4)));
+		}
+	}
+
+	private void unpin() {
+		if (pinned != null)
+			Database.getBufferPool().unpinPage(tid, pinned);
+		pinned = null;
+	}
+
 }
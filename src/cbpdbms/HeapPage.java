@@ -2,10 +2,26 @@ package cbpdbms;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * HeapPage stores pages of HeapFiles and implements the Page interface that is
  * used by BufferPool.
+ * <p>
+ * The bytes of the page are the page: the header and the fields of the tuples
+ * are read from and written to them in place, at offsets computed from the
+ * TupleDesc. A tuple is decoded the first time it is asked for and cached,
+ * so a page that is read and written back without looking at its tuples
+ * never decodes them, and getPageData returns the bytes without encoding
+ * them again.
+ * <p>
+ * The bytes a page is created from are shared with its creator, e.g. a
+ * mapped file, and are not written to: the first change to the page copies
+ * them to an array of its own. The before image works the same way: it is
+ * the bytes of the page when it was read or last committed, which the page
+ * stops writing to, so the copy is only made when a transaction first
+ * changes the page.
  *
  * @see HeapFile
  * @see BufferPool
@@ -14,9 +30,12 @@ public class HeapPage implements Page {
 
 	HeapPageId pid;
 	TupleDesc td;
-	byte header[];
-	Tuple tuples[];
 	int numSlots;
+	int headerSize;
+
+	ByteBuffer data;// the bytes of the page, PAGE_SIZE from index 0
+	boolean shared;// data belongs to the creator of the page, see above
+	AtomicReferenceArray<Tuple> tuples;// the tuples decoded so far
 
 	TransactionId tid;
 
@@ -29,9 +48,8 @@ public class HeapPage implements Page {
 	 * 
 	 * @see BufferPool.java evictPage()
 	 */
-	boolean isVisited;// for page replacement
 
-	byte[] oldData;
+	volatile ByteBuffer before;// the bytes of the before image, not written
 
 	/**
 	 * Create a HeapPage from a set of bytes of data read from disk. The format
@@ -47,38 +65,70 @@ public class HeapPage implements Page {
 	 * <p>
 	 * ceiling(no. tuple slots / 8)
 	 * <p>
+	 * The page reads data without copying it, and never writes to it, so it
+	 * must not be changed while the page is in use.
 	 * 
 	 * @see Database#getCatalog
 	 * @see Catalog#getTupleDesc
 	 * @see BufferPool#PAGE_SIZE
 	 */
 	public HeapPage(HeapPageId id, byte[] data) throws IOException {
-		this.isVisited = true;
-		this.pid = id;
-
 		// search from catalog using talbeId
-		this.td = Database.getCatalog().getTupleDesc(id.getTableId());
-		this.numSlots = getNumTuples();
-		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+		this(id, data, Database.getCatalog().getTupleDesc(id.getTableId()));
+	}
 
-		// allocate and read the header slots of this page
-		header = new byte[getHeaderSize()];
-		for (int i = 0; i < header.length; i++)
-			header[i] = dis.readByte();
+	/**
+	 * Create a HeapPage whose tuples are described by td instead of the
+	 * catalog entry of id's table. Used for pages of files that are not in the
+	 * catalog, e.g. the temporary files operators spill to.
+	 * 
+	 * @see SpillFile
+	 */
+	public HeapPage(HeapPageId id, byte[] data, TupleDesc td) throws IOException {
+		this(id, ByteBuffer.wrap(data), td);
+	}
 
-		try {
-			// allocate and read the actual records of this page
-			tuples = new Tuple[numSlots];
-			for (int i = 0; i < tuples.length; i++)
-				tuples[i] = readNextTuple(dis, i);
-		} catch (NoSuchElementException e) {
-			e.printStackTrace();
-		}
-		dis.close();
+	/**
+	 * Create a HeapPage from a buffer holding its bytes, from its position on,
+	 * e.g. a slice of a mapped file, without copying them. Like the array of
+	 * HeapPage(HeapPageId, byte[]), the bytes must not change while the page
+	 * is in use.
+	 * 
+	 * @see HeapFile#isMapped
+	 */
+	public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+		this(id, data, Database.getCatalog().getTupleDesc(id.getTableId()));
+	}
 
-		// This ensures that the before image is properly set
-		// when a HeapPage is initialized.
-		setBeforeImage();
+	HeapPage(HeapPageId id, ByteBuffer data, TupleDesc td) throws IOException {
+		if (data.remaining() < BufferPool.PAGE_SIZE)
+			throw new IOException("page is shorter than " + BufferPool.PAGE_SIZE + " bytes");
+		this.pid = id;
+		this.td = td;
+		this.numSlots = getNumTuples();
+		this.headerSize = getHeaderSize();
+		ByteBuffer page = data.slice();
+		page.limit(BufferPool.PAGE_SIZE);
+		this.data = page.slice();
+		this.shared = true;
+		this.tuples = new AtomicReferenceArray<Tuple>(numSlots);
+		// the bytes are not written to, they are the before image as well
+		this.before = this.data;
+	}
+
+	/**
+	 * Gives the page bytes of its own before the first change since it was
+	 * read or committed, see the class comment.
+	 */
+	void ensureWritable() {
+		if (!shared)
+			return;
+		byte[] copy = new byte[BufferPool.PAGE_SIZE];
+		ByteBuffer src = data.duplicate();
+		src.clear();
+		src.get(copy);
+		data = ByteBuffer.wrap(copy);
+		shared = false;
 	}
 
 	/**
@@ -113,7 +163,7 @@ public class HeapPage implements Page {
 	 */
 	public HeapPage getBeforeImage() {
 		try {
-			return new HeapPage(pid, oldData);
+			return new HeapPage(pid, before, td);
 		} catch (IOException e) {
 			e.printStackTrace();
 			// should never happen -- we parsed it OK before!
@@ -122,11 +172,18 @@ public class HeapPage implements Page {
 		return null;
 	}
 
+	public byte[] getBeforeImageData() {
+		return toArray(before);
+	}
+
 	/**
-	 * set the oldData for this page
+	 * Makes the current bytes of this page its before image. They are not
+	 * copied: the page stops writing to them, and the next change copies
+	 * them, see ensureWritable.
 	 */
 	public void setBeforeImage() {
-		oldData = getPageData().clone();
+		before = data;
+		shared = true;
 	}
 
 	/**
@@ -137,36 +194,38 @@ public class HeapPage implements Page {
 	}
 
 	/**
-	 * Suck up tuples from the source file.
+	 * @return the index in data of the first byte of the tuple in slot i
 	 */
-	private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-		// if associated bit is not set, read forward to the next tuple, and
-		// return null.
-		if (!getSlot(slotId)) {
-			for (int i = 0; i < td.getSize(); i++) {
-				try {
-					dis.readByte();
-				} catch (IOException e) {
-					throw new NoSuchElementException("error reading empty tuple");
-				}
-			}
-			return null;
-		}
+	private int tupleOffset(int i) {
+		return headerSize + i * td.getSize();
+	}
+
+	/**
+	 * @return the tuple in slot i, a filled slot, decoded from data the first
+	 *         time it is asked for
+	 */
+	Tuple decodedTuple(int i) {
+		Tuple t = tuples.get(i);
+		if (t != null)
+			return t;
+		t = decodeTuple(i);
+		// NOTE: readers decoding the same slot at once cache equal tuples
+		if (!tuples.compareAndSet(i, null, t))
+			return tuples.get(i);
+		return t;
+	}
 
-		// read fields in the tuple
+	/**
+	 * @return the tuple in slot i, a filled slot, decoded from data
+	 */
+	Tuple decodeTuple(int i) {
 		Tuple t = new Tuple(td);
-		RecordId rid = new RecordId(pid, slotId);
-		t.setRecordId(rid);
-		try {
-			for (int j = 0; j < td.numFields(); j++) {
-				Field f = td.getType(j).parse(dis);
-				t.setField(j, f);
-			}
-		} catch (java.text.ParseException e) {
-			e.printStackTrace();
-			throw new NoSuchElementException("parsing error!");
+		t.setRecordId(new RecordId(pid, i));
+		int offset = tupleOffset(i);
+		for (int j = 0; j < td.numFields(); j++) {
+			t.setField(j, td.getType(j).parse(data, offset));
+			offset += td.getType(j).getLen();
 		}
-
 		return t;
 	}
 
@@ -177,72 +236,29 @@ public class HeapPage implements Page {
 	 * The invariant here is that it should be possible to pass the byte array
 	 * generated by getPageData to the HeapPage constructor and have it produce
 	 * an identical HeapPage object.
+	 * <p>
+	 * The array returned is the one the page is read from and written to
+	 * when it has one, not a copy, so it must not be changed.
 	 *
 	 * @see #HeapPage
 	 * @return A byte array correspond to the bytes of this page.
 	 */
 	public byte[] getPageData() {
-		int len = BufferPool.PAGE_SIZE;
-		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-		DataOutputStream dos = new DataOutputStream(baos);
-
-		// create the header of the page
-		for (int i = 0; i < header.length; i++) {
-			try {
-				dos.writeByte(header[i]);
-			} catch (IOException e) {
-				// this really shouldn't happen
-				e.printStackTrace();
-			}
-		}
-
-		// create the tuples
-		for (int i = 0; i < tuples.length; i++) {
-
-			// empty slot
-			if (!getSlot(i)) {
-				for (int j = 0; j < td.getSize(); j++) {
-					try {
-						dos.writeByte(0);
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-
-				}
-				continue;
-			}
-
-			// non-empty slot
-			for (int j = 0; j < td.numFields(); j++) {
-				Field f = tuples[i].getField(j);
-				try {
-					f.serialize(dos);
-
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-			}
-		}
-
-		// padding
-		int zerolen = BufferPool.PAGE_SIZE - (header.length + td.getSize() * tuples.length); // -
-		// numSlots
-		// *
-		// td.getSize();
-		byte[] zeroes = new byte[zerolen];
-		try {
-			dos.write(zeroes, 0, zerolen);
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		try {
-			dos.flush();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		return toArray(data);
+	}
 
-		return baos.toByteArray();
+	/**
+	 * @return the array of buf if it is exactly the PAGE_SIZE bytes of buf,
+	 *         a copy of them otherwise
+	 */
+	private static byte[] toArray(ByteBuffer buf) {
+		if (buf.hasArray() && buf.arrayOffset() == 0 && buf.array().length == BufferPool.PAGE_SIZE)
+			return buf.array();
+		byte[] copy = new byte[BufferPool.PAGE_SIZE];
+		ByteBuffer src = buf.duplicate();
+		src.clear();
+		src.get(copy);
+		return copy;
 	}
 
 	/**
@@ -281,10 +297,11 @@ public class HeapPage implements Page {
 		if (!pid.equals(this.pid))
 			throw new DbException("tuple is not on this page");
 
-		if (this.tuples[idx] == null)
+		if (idx < 0 || idx >= numSlots || !getSlot(idx))
 			throw new DbException("tuple slot is already empty");
 
-		this.tuples[idx] = null;
+		ensureWritable();
+		this.tuples.set(idx, null);
 		setSlot(idx, false);
 	}
 
@@ -308,7 +325,13 @@ public class HeapPage implements Page {
 		int idx = getEmptySlot();
 		// recordId，slot.
 		t.setRecordId(new RecordId(this.pid, idx));
-		this.tuples[idx] = t;
+		ensureWritable();
+		int offset = tupleOffset(idx);
+		for (int j = 0; j < td.numFields(); j++) {
+			t.getField(j).serialize(data, offset);
+			offset += td.getType(j).getLen();
+		}
+		this.tuples.set(idx, t);
 
 		// header
 		setSlot(idx, true);
@@ -343,30 +366,18 @@ public class HeapPage implements Page {
 	 */
 	public int getNumEmptySlots() {
 		int num = this.numSlots;
-
-		// more fast
-		for (byte b : this.header) {
-			if ((b & 0x01) != 0)
-				num--;
-			if ((b & 0x02) != 0)
-				num--;
-			if ((b & 0x04) != 0)
-				num--;
-			if ((b & 0x08) != 0)
-				num--;
-			if ((b & 0x10) != 0)
-				num--;
-			if ((b & 0x20) != 0)
-				num--;
-			if ((b & 0x40) != 0)
-				num--;
-			if ((b & 0x80) != 0)
-				num--;
-		}
-
+		for (int i = 0; i < headerSize; i++)
+			num -= Integer.bitCount(data.get(i) & 0xff);
 		return num;
 	}
 
+	/**
+	 * @return true if t can be added to this page
+	 */
+	public boolean hasRoomFor(Tuple t) {
+		return getNumEmptySlots() > 0;
+	}
+
 	/**
 	 * get a empty slot index
 	 * 
@@ -386,106 +397,28 @@ public class HeapPage implements Page {
 	 * Returns true if associated slot on this page is filled.
 	 */
 	public boolean getSlot(int i) {
-		int headIdx = i / 8;
-		int idx = i % 8;
-		byte header = this.header[headIdx];
-		switch (idx) {
-		case 0:
-			if ((header & 0x01) != 0)
-				return true;
-			break;
-		case 1:
-			if ((header & 0x02) != 0)
-				return true;
-			break;
-		case 2:
-			if ((header & 0x04) != 0)
-				return true;
-			break;
-		case 3:
-			if ((header & 0x08) != 0)
-				return true;
-			break;
-		case 4:
-			if ((header & 0x10) != 0)
-				return true;
-			break;
-		case 5:
-			if ((header & 0x20) != 0)
-				return true;
-			break;
-		case 6:
-			if ((header & 0x40) != 0)
-				return true;
-			break;
-		case 7:
-			if ((header & 0x80) != 0)
-				return true;
-			break;
-		default:
-		}
-		return false;
+		return (data.get(i / 8) & (1 << (i % 8))) != 0;
 	}
 
 	/**
 	 * Abstraction to fill or clear a slot on this page.
 	 */
 	private void setSlot(int i, boolean value) {
-		// some code goes here
-		// not necessary for lab1
-		int headIdx = i / 8;
-		int idx = i % 8;
-		switch (idx) {
-		case 0:
-			if (value == true)
-				header[headIdx] = (byte) (header[headIdx] | 0x01);
-			else
-				header[headIdx] = (byte) (header[headIdx] & 0xfe);
-			break;
-		case 1:
-			if (value == true)
-				header[headIdx] = (byte) (header[headIdx] | 0x02);
-			else
-				header[headIdx] = (byte) (header[headIdx] & 0xfd);
-			break;
-		case 2:
-			if (value == true)
-				header[headIdx] = (byte) (header[headIdx] | 0x04);
-			else
-				header[headIdx] = (byte) (header[headIdx] & 0xfb);
-			break;
-		case 3:
-			if (value == true)
-				header[headIdx] = (byte) (header[headIdx] | 0x08);
-			else
-				header[headIdx] = (byte) (header[headIdx] & 0xf7);
-			break;
-		case 4:
-			if (value == true)
-				header[headIdx] = (byte) (header[headIdx] | 0x10);
-			else
-				header[headIdx] = (byte) (header[headIdx] & 0xef);
-			break;
-		case 5:
-			if (value == true)
-				header[headIdx] = (byte) (header[headIdx] | 0x20);
-			else
-				header[headIdx] = (byte) (header[headIdx] & 0xdf);
-			break;
-		case 6:
-			if (value == true)
-				header[headIdx] = (byte) (header[headIdx] | 0x40);
-			else
-				header[headIdx] = (byte) (header[headIdx] & 0xbf);
-			break;
-		case 7:
-			if (value == true)
-				header[headIdx] = (byte) (header[headIdx] | 0x80);
-			else
-				header[headIdx] = (byte) (header[headIdx] & 0x7f);
-			break;
-		default:
-		}
+		byte b = data.get(i / 8);
+		if (value)
+			b |= 1 << (i % 8);
+		else
+			b &= ~(1 << (i % 8));
+		data.put(i / 8, b);
+	}
+
+	/**
+	 * @return the tuple in slot i, or null if the slot is empty
+	 */
+	public Tuple getTuple(int i) {
+		if (i < 0 || i >= numSlots || !getSlot(i))
+			return null;
+		return decodedTuple(i);
 	}
 
 	/**
@@ -494,24 +427,32 @@ public class HeapPage implements Page {
 	 *         iterator shouldn't return tuples in empty slots!)
 	 */
 	public Iterator<Tuple> iterator() {
-		// some code goes here
-		ArrayList<Tuple> t = new ArrayList<Tuple>();
+		// NOTE: the slots filled when the iterator is created, the tuples are
+		// decoded as the iterator reaches them
+		final BitSet filled = new BitSet(numSlots);
+		for (int i = 0; i < numSlots; i++)
+			if (getSlot(i))
+				filled.set(i);
 
-		for (int i = 0; i < this.tuples.length; i++) {
-			if (!getSlot(i))
-				continue;
-			t.add(tuples[i]);
-		}
+		return new Iterator<Tuple>() {
+			int next = filled.nextSetBit(0);
 
-		return t.iterator();
-	}
+			public boolean hasNext() {
+				return next >= 0;
+			}
 
-	public void setVisit(boolean v) {
-		this.isVisited = v;
-	}
+			public Tuple next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				Tuple t = decodedTuple(next);
+				next = filled.nextSetBit(next + 1);
+				return t;
+			}
 
-	public boolean getVisit() {
-		return this.isVisited;
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
 	}
 
 }
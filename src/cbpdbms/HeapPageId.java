@@ -1,20 +1,11 @@
 package cbpdbms;
 
-import cbpdbms.PageSharedExclusiveLock.ExclusiveLock;
-import cbpdbms.PageSharedExclusiveLock.SharedLock;
-
 /** Unique identifier for HeapPage objects. */
 public class HeapPageId implements PageId {
 
-	int tableid;// hashcode
-	int pgNo;
-
-	/**
-	 * We choose page as the db element
-	 */
-	PageSharedExclusiveLock lock;
-	SharedLock sharedLock;
-	ExclusiveLock exclusiveLock;
+	final int tableid;// hashcode
+	final int pgNo;
+	private final int hash;
 
 	/**
 	 * Constructor. Create a page id structure for a specific page of a specific
@@ -28,9 +19,19 @@ public class HeapPageId implements PageId {
 	public HeapPageId(int tableId, int pgNo) {
 		this.tableid = tableId;// file's hashcode
 		this.pgNo = pgNo;
-		this.lock = new PageSharedExclusiveLock();
-		this.sharedLock = lock.sharedLock;
-		this.exclusiveLock = lock.exclusiveLock;
+		this.hash = concatHash(tableId, pgNo);
+	}
+
+	/**
+	 * @return the hash code of the long whose digits are those of tableId
+	 *         followed by those of pgNo, without building the string
+	 */
+	private static int concatHash(int tableId, int pgNo) {
+		long shift = 10;
+		while (shift <= pgNo)
+			shift *= 10;
+		long l = tableId < 0 ? tableId * shift - pgNo : tableId * shift + pgNo;
+		return (int) (l ^ (l >>> 32));
 	}
 
 	/** @return the table associated with this PageId */
@@ -53,12 +54,7 @@ public class HeapPageId implements PageId {
 	 * @see BufferPool
 	 */
 	public int hashCode() {
-		String s1 = String.valueOf(tableid);
-		String s2 = String.valueOf(pgNo);
-		String s = s1 + s2;
-		Long l = Long.parseLong(s);
-		int ihashcode = l.hashCode();
-		return ihashcode;
+		return hash;
 	}
 
 	/**
@@ -0,0 +1,37 @@
+package cbpdbms;
+
+/**
+ * The interface for the index files of a table. An index maps the values of
+ * one field of the table to the RecordIds of the tuples that have them; its
+ * entries, as returned by its iterators, are the key, then the page number
+ * and slot of the indexed tuple.
+ * <p>
+ * addTuple and deleteTuple take a tuple of the indexed table, with its
+ * RecordId, and add or remove its entry. Indexes registered with
+ * {@link Catalog#addIndex} are maintained by
+ * {@link BufferPool#insertTuple} and {@link BufferPool#deleteTuple}.
+ */
+public interface IndexFile extends DbFile {
+	/**
+	 * @return the id of the indexed table
+	 */
+	public int getTableId();
+
+	/**
+	 * @return the index of the indexed field in the tuples of the table
+	 */
+	public int getKeyField();
+
+	public Type getKeyType();
+
+	/**
+	 * Returns an iterator over the entries whose key equals key.
+	 */
+	public DbFileIterator lookup(TransactionId tid, Field key);
+
+	/**
+	 * Estimates the number of pages of this index read by a lookup, for an
+	 * index of ntups entries.
+	 */
+	public int estimateLookupPages(int ntups);
+}
@@ -0,0 +1,106 @@
+package cbpdbms;
+
+import java.util.*;
+
+/**
+ * IndexLookup is an access method that reads the tuples of a table whose
+ * indexed field equals a constant through an {@link IndexFile}, e.g. a
+ * {@link HashIndexFile} on the primary key, instead of reading every page of
+ * the table like {@link SeqScan}.
+ */
+public class IndexLookup extends AbstractDbIterator {
+	TransactionId tid;
+	IndexFile index;
+	String tableAlias;
+	DbFileIterator it;// the matching entries of the index
+
+	/**
+	 * Creates a lookup of the tuples of the table of index whose indexed field
+	 * equals key.
+	 *
+	 * @param tid
+	 *            The transaction this lookup is running as a part of.
+	 * @param index
+	 *            the index to probe
+	 * @param key
+	 *            the value of the indexed field
+	 * @param tableAlias
+	 *            the alias of the table, the returned tupleDesc has fields
+	 *            named tableAlias.fieldName as in SeqScan
+	 */
+	public IndexLookup(TransactionId tid, IndexFile index, Field key, String tableAlias) {
+		this(tid, index, index.lookup(tid, key), tableAlias);
+	}
+
+	/**
+	 * Creates a scan of the tuples of the table of index whose entries are
+	 * returned by it.
+	 */
+	IndexLookup(TransactionId tid, IndexFile index, DbFileIterator it, String tableAlias) {
+		this.tid = tid;
+		this.index = index;
+		this.tableAlias = tableAlias;
+		this.it = it;
+	}
+
+	public IndexFile getIndex() {
+		return index;
+	}
+
+	/**
+	 * @return the TupleDesc of the table, prefixed with the tableAlias string
+	 *         from the constructor
+	 */
+	public TupleDesc getTupleDesc() {
+		return getTupleDesc(index.getTableId(), tableAlias);
+	}
+
+	/**
+	 * @return the TupleDesc of the specified table, with fields named
+	 *         tableAlias.fieldName
+	 */
+	static TupleDesc getTupleDesc(int tableid, String tableAlias) {
+		TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+		String prefix = tableAlias != null ? tableAlias : "noali";
+		Type[] types = new Type[td.numFields()];
+		String[] names = new String[td.numFields()];
+		for (int i = 0; i < td.numFields(); i++) {
+			types[i] = td.getType(i);
+			names[i] = prefix + "." + (td.getFieldName(i) != null ? td.getFieldName(i) : "null");
+		}
+		return new TupleDesc(types, names);
+	}
+
+	public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+		it.open();
+	}
+
+	public void close() {
+		super.close();
+		it.close();
+	}
+
+	public void rewind() throws DbException, TransactionAbortedException {
+		super.close();
+		it.rewind();
+	}
+
+	/**
+	 * Reads the next matching entry of the index and fetches its tuple from
+	 * the table. A tuple whose key is not that of its entry, left by an index
+	 * out of date with the table, is skipped.
+	 */
+	protected Tuple readNext() throws DbException, TransactionAbortedException {
+		HeapFile table = (HeapFile) Database.getCatalog().getDbFile(index.getTableId());
+		while (it.hasNext()) {
+			Tuple entry = it.next();
+			int pgNo = ((IntField) entry.getField(1)).getValue();
+			int slot = ((IntField) entry.getField(2)).getValue();
+
+			Tuple t = table.getTuple(tid, pgNo, slot);
+			if (t != null && t.getField(index.getKeyField()).equals(entry.getField(0)))
+				return t;
+		}
+		return null;
+	}
+}
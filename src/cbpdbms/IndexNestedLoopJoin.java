@@ -0,0 +1,128 @@
+package cbpdbms;
+
+import java.util.*;
+
+/**
+ * The IndexNestedLoopJoin operator implements an equality join whose inner
+ * side is a table with an index on its join field: for each outer tuple, the
+ * index is probed with the key of the outer tuple and only the matching inner
+ * tuples are read, instead of scanning the inner table as {@link Join} does.
+ * Predicates of filters on the inner table are applied to the tuples read.
+ * <p>
+ * The output tuples are the fields of the outer child followed by the fields
+ * of the inner table, the same as {@link Join}.
+ */
+public class IndexNestedLoopJoin extends AbstractDbIterator {
+	JoinPredicate p;
+	DbIterator child1;
+	TransactionId tid;
+	IndexFile index;
+	String tableAlias;
+	List<Predicate> filters;
+
+	Tuple outerTup;
+	DbIterator inner;// the inner tuples whose key is the one of outerTup
+
+	/**
+	 * Constructor.
+	 *
+	 * @param p
+	 *            The EQUALS predicate to use to join the children; its second
+	 *            field is the indexed field of the inner table
+	 * @param child1
+	 *            Iterator for the left(outer) relation to join
+	 * @param tid
+	 *            The transaction the inner table is read as a part of.
+	 * @param index
+	 *            an index on the join field of the inner table
+	 * @param tableAlias
+	 *            the alias of the inner table, its fields are named
+	 *            tableAlias.fieldName as in SeqScan
+	 * @param filters
+	 *            predicates the inner tuples must also satisfy, may be empty
+	 */
+	public IndexNestedLoopJoin(JoinPredicate p, DbIterator child1, TransactionId tid, IndexFile index,
+			String tableAlias, List<Predicate> filters) {
+		if (p.getOperator() != Predicate.Op.EQUALS)
+			throw new IllegalArgumentException("IndexNestedLoopJoin only supports EQUALS");
+		if (p.getField2() != index.getKeyField())
+			throw new IllegalArgumentException("the inner join field is not the indexed field");
+
+		this.p = p;
+		this.child1 = child1;
+		this.tid = tid;
+		this.index = index;
+		this.tableAlias = tableAlias;
+		this.filters = filters;
+	}
+
+	public IndexFile getIndex() {
+		return index;
+	}
+
+	/**
+	 * @see cbpdbms.TupleDesc#combine(TupleDesc, TupleDesc) for possible
+	 *      implementation logic.
+	 */
+	public TupleDesc getTupleDesc() {
+		return TupleDesc.combine(child1.getTupleDesc(), IndexLookup.getTupleDesc(index.getTableId(), tableAlias));
+	}
+
+	public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+		child1.open();
+		outerTup = null;
+		inner = null;
+	}
+
+	public void close() {
+		super.close();
+		child1.close();
+		closeInner();
+	}
+
+	public void rewind() throws DbException, TransactionAbortedException {
+		super.close();
+		child1.rewind();
+		closeInner();
+	}
+
+	private void closeInner() {
+		if (inner != null)
+			inner.close();
+		inner = null;
+		outerTup = null;
+	}
+
+	/**
+	 * Returns the next tuple generated by the join, or null if there are no
+	 * more tuples. The index is probed once per outer tuple.
+	 *
+	 * @return The next matching tuple.
+	 * @see JoinPredicate#filter
+	 */
+	protected Tuple readNext() throws TransactionAbortedException, DbException {
+		while (true) {
+			if (inner != null) {
+				while (inner.hasNext()) {
+					Tuple t = inner.next();
+					if (matches(t))
+						return Tuple.simpleCombine(outerTup, t);
+				}
+				closeInner();
+			}
+
+			if (!child1.hasNext())
+				return null;
+			outerTup = child1.next();
+			inner = new IndexLookup(tid, index, outerTup.getField(p.getField1()), tableAlias);
+			inner.open();
+		}
+	}
+
+	private boolean matches(Tuple t) {
+		for (Predicate f : filters)
+			if (!f.filter(t))
+				return false;
+		return p.filter(outerTup, t);
+	}
+}
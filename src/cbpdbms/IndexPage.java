@@ -0,0 +1,83 @@
+package cbpdbms;
+
+import java.io.*;
+
+/**
+ * IndexPage holds what the pages of the index files have in common: their
+ * id, key type, dirty state and before-image.
+ *
+ * @see IndexFile
+ * @see BufferPool
+ */
+public abstract class IndexPage implements Page {
+	HeapPageId pid;
+	Type keyType;
+
+	TransactionId tid;
+	boolean isDirty;
+
+	byte[] oldData;
+
+	IndexPage(HeapPageId id) {
+		this.pid = id;
+		DbFile file = Database.getCatalog().getDbFile(id.getTableId());
+		if (file instanceof IndexFile)
+			this.keyType = ((IndexFile) file).getKeyType();
+	}
+
+	/**
+	 * @return the PageId associated with this page.
+	 */
+	public HeapPageId getId() {
+		return this.pid;
+	}
+
+	/**
+	 * Marks this page as dirty/not dirty and record that transaction that did
+	 * the dirtying
+	 */
+	public void markDirty(boolean dirty, TransactionId tid) {
+		this.isDirty = dirty;
+		this.tid = tid;
+	}
+
+	/**
+	 * Returns the tid of the transaction that last dirtied this page, or null
+	 * if the page is not dirty
+	 */
+	public TransactionId isDirty() {
+		if (isDirty)
+			return this.tid;
+		else
+			return null;
+	}
+
+	public byte[] getBeforeImageData() {
+		return oldData;
+	}
+
+	/**
+	 * set the oldData for this page
+	 */
+	public void setBeforeImage() {
+		oldData = getPageData().clone();
+	}
+
+	Field readKey(DataInputStream dis) throws IOException {
+		try {
+			return keyType.parse(dis);
+		} catch (java.text.ParseException e) {
+			throw new IOException("parsing error!");
+		}
+	}
+
+	/**
+	 * Pads the page being written to dos to BufferPool.PAGE_SIZE bytes.
+	 */
+	static byte[] toPageData(ByteArrayOutputStream baos) {
+		byte[] data = baos.toByteArray();
+		byte[] page = new byte[BufferPool.PAGE_SIZE];
+		System.arraycopy(data, 0, page, 0, data.length);
+		return page;
+	}
+}
@@ -0,0 +1,37 @@
+package cbpdbms;
+
+/**
+ * IndexScan is an access method that reads the tuples of a table whose
+ * indexed field satisfies <tt>field op constant</tt> through a
+ * {@link BTreeFile}, instead of reading every page of the table like
+ * {@link SeqScan}. Tuples are returned in the order of the indexed field.
+ */
+public class IndexScan extends IndexLookup implements OrderedDbIterator {
+	/**
+	 * Creates a scan of the tuples of the table of index that match a
+	 * predicate on the indexed field.
+	 *
+	 * @param tid
+	 *            The transaction this scan is running as a part of.
+	 * @param index
+	 *            the index to read
+	 * @param op
+	 *            the comparison of the indexed field with constant
+	 * @param constant
+	 *            the value the indexed field is compared to
+	 * @param tableAlias
+	 *            the alias of the table, the returned tupleDesc has fields
+	 *            named tableAlias.fieldName as in SeqScan
+	 */
+	public IndexScan(TransactionId tid, BTreeFile index, Predicate.Op op, Field constant, String tableAlias) {
+		super(tid, index, index.indexIterator(tid, op, constant), tableAlias);
+	}
+
+	public int getOrderByField() {
+		return index.getKeyField();
+	}
+
+	public boolean isAsc() {
+		return true;
+	}
+}
@@ -1,6 +1,7 @@
 package cbpdbms;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Instance of Field that stores a single integer.
@@ -42,6 +43,10 @@ public class IntField implements Field {
 		dos.writeInt(value);
 	}
 
+	public void serialize(ByteBuffer buf, int offset) {
+		buf.putInt(offset, value);
+	}
+
 	/**
 	 * Compare the specified field to the value of this Field. Return semantics
 	 * are as specified by Field.compare
@@ -216,6 +216,25 @@ public class IntHistogram {
 		return -1.0;
 	}
 
+	/**
+	 * Estimate the average selectivity of an equality predicate on a value
+	 * drawn from the histogrammed values themselves, as for the key of an
+	 * equality join: sum over the buckets of the fraction of values in the
+	 * bucket times the selectivity of one of them.
+	 * 
+	 * @return Predicted average selectivity of EQUALS
+	 */
+	public double avgSelectivity() {
+		if (ntups == 0)
+			return 0;
+
+		double selectivity = 0;
+		double w = Math.max(width, 1);
+		for (BucketItem b : this.bucket)
+			selectivity += ((double) b.height / ntups) * ((b.height / w) / ntups);
+		return selectivity;
+	}
+
 	/**
 	 * @return A string describing this histogram, for debugging purposes
 	 */
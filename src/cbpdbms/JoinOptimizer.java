@@ -7,8 +7,6 @@ import javax.swing.tree.*;
 
 import util.Debug;
 
-import com.sun.javafx.tk.PrintPipeline;
-
 /**
  * The JoinOptimizer class is responsible for ordering a series of joins
  * optimally, and for selecting the best instantiation of a join for a given
@@ -17,6 +15,9 @@ import com.sun.javafx.tk.PrintPipeline;
 public class JoinOptimizer {
 	LogicalPlan p;
 	Vector<LogicalJoinNode> joins;
+	// estimated cardinality of each join instantiated so far, so that a join
+	// over its result is sized by it rather than by its base table
+	IdentityHashMap<DbIterator, Integer> joinCards = new IdentityHashMap<DbIterator, Integer>();
 
 	/**
 	 * Constructor
@@ -48,6 +49,26 @@ public class JoinOptimizer {
 	 */
 	public DbIterator instantiateJoin(LogicalJoinNode lj, DbIterator plan1, DbIterator plan2,
 			HashMap<String, TableStats> stats) throws ParsingException {
+		return instantiateJoin(lj, plan1, plan2, stats, null);
+	}
+
+	/**
+	 * Return best iterator for computing a given logical join, as
+	 * {@link #instantiateJoin(LogicalJoinNode, DbIterator, DbIterator, HashMap)}
+	 * . If plan2 is a scan of a base table, possibly filtered, and probing an
+	 * index on its join field once per tuple of plan1 is estimated to be
+	 * cheaper than a hash join, an {@link IndexNestedLoopJoin} is returned.
+	 * Indexes are never built while planning: without one, a hash join is.
+	 * The sides of the join are sized by the estimates of the joins this
+	 * optimizer instantiated for them, or, for base table scans, by their
+	 * filtered cardinality; a side of unknown size is partitioned to disk.
+	 * 
+	 * @param filterSelectivities
+	 *            the selectivities of the filters over each of the tables, may
+	 *            be null if unknown
+	 */
+	public DbIterator instantiateJoin(LogicalJoinNode lj, DbIterator plan1, DbIterator plan2,
+			HashMap<String, TableStats> stats, HashMap<String, Double> filterSelectivities) throws ParsingException {
 
 		int t1id = 0, t2id = 0;
 		DbIterator j;
@@ -70,12 +91,76 @@ public class JoinOptimizer {
 
 		JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-		j = new Join(p, plan1, plan2);
+		int card1 = estimatePlanCardinality(plan1, lj.t1, stats, filterSelectivities);
+		int card2 = lj instanceof LogicalSubplanJoinNode ? Integer.MAX_VALUE : estimatePlanCardinality(plan2, lj.t2,
+				stats, filterSelectivities);
+
+		if (lj.p == Predicate.Op.EQUALS) {
+			j = instantiateIndexJoin(lj, p, plan1, plan2, card1, stats, filterSelectivities);
+			if (j == null) {
+				// build the hash table on the side with fewer tuples
+				boolean buildLeft = card1 <= card2;
+				int buildCard = buildLeft ? card1 : card2;
+
+				// partition to disk unless the build side surely fits in memory
+				if (buildCard <= estimateMemTuples(buildLeft ? plan1 : plan2))
+					j = new HashJoin(p, plan1, plan2, buildLeft);
+				else
+					j = new GraceHashJoin(p, plan1, plan2, buildLeft, GraceHashJoin.DEFAULT_MEM_PAGES);
+			}
+		} else if (SortMergeJoin.supports(lj.p)) {
+			j = new SortMergeJoin(p, plan1, plan2);
+		} else {
+			j = new BlockNestedLoopJoin(p, plan1, plan2);
+		}
+
+		// only a base table keeps its primary key unique
+		boolean t1pkey = isBaseScan(plan1) && this.p.hasTable(lj.t1) && isPkey(lj.t1, lj.f1);
+		boolean t2pkey = !(lj instanceof LogicalSubplanJoinNode) && isBaseScan(plan2) && this.p.hasTable(lj.t2)
+				&& isPkey(lj.t2, lj.f2);
+		joinCards.put(j, estimateJoinCardinality(lj, card1, card2, t1pkey, t2pkey));
 
 		return j;
 
 	}
 
+	/**
+	 * Return an IndexNestedLoopJoin for an equality join whose inner side is a
+	 * base table scan under filters, if the catalog has an index on its join
+	 * field and it is estimated to be cheaper than a hash join, null
+	 * otherwise.
+	 */
+	private DbIterator instantiateIndexJoin(LogicalJoinNode lj, JoinPredicate jp, DbIterator plan1,
+			DbIterator plan2, int card1, HashMap<String, TableStats> stats,
+			HashMap<String, Double> filterSelectivities) throws ParsingException {
+		if (lj instanceof LogicalSubplanJoinNode || stats == null || stats.get(lj.t1) == null
+				|| stats.get(lj.t2) == null)
+			return null;
+
+		// the predicates of the filters over the inner scan are applied by
+		// the join to the tuples read through the index
+		ArrayList<Predicate> filters = new ArrayList<Predicate>();
+		DbIterator inner = plan2;
+		while (inner instanceof Filter) {
+			filters.add(((Filter) inner).getPredicate());
+			inner = ((Filter) inner).getChild();
+		}
+		if (!(inner instanceof SeqScan))
+			return null;
+		SeqScan scan = (SeqScan) inner;
+
+		TableStats s1 = stats.get(lj.t1), s2 = stats.get(lj.t2);
+		int card2 = estimatePlanCardinality(plan2, lj.t2, stats, filterSelectivities);
+		double indexCost = estimateIndexJoinCost(lj, card1, s1.estimateScanCost(), stats);
+		if (indexCost >= estimateJoinCost(lj, card1, card2, s1.estimateScanCost(), s2.estimateScanCost()))
+			return null;
+
+		IndexFile index = Database.getCatalog().getBestIndex(scan.tableid, jp.getField2());
+		if (index == null)
+			return null;
+		return new IndexNestedLoopJoin(jp, plan1, scan.tid, index, scan.tableAlias, filters);
+	}
+
 	/**
 	 * Estimate the cost of a join.
 	 * 
@@ -112,14 +197,109 @@ public class JoinOptimizer {
 			// HINT: You may need to use the variable "j" if you implemented a
 			// join
 			// algorithm that's more complicated than a basic nested-loops join.
+			if (j.p == Predicate.Op.EQUALS) {
+				/*
+				 * hash join: each side is scanned once, every tuple is hashed
+				 * once, into the table (build) or against it (probe).
+				 * 
+				 * joincost(t1 join t2) = scancost(t1) + scancost(t2) //IO cost
+				 * + ntups(t1) + ntups(t2) //CPU cost
+				 * 
+				 * If the smaller side does not fit in memory, the part of both
+				 * sides outside the resident partition is written to a spill
+				 * file and read back once: + 2 x spilled x (scancost(t1) +
+				 * scancost(t2)) //partition IO cost
+				 */
+				double cost = cost1 + cost2 + card1 + card2;
+
+				boolean buildLeft = card1 <= card2;
+				int buildCard = buildLeft ? card1 : card2;
+				int memTuples = estimateMemTuples(buildLeft ? j.t1 : j.t2);
+				if (buildCard > memTuples) {
+					double spilled = 1.0 - (double) memTuples / buildCard;
+					cost += 2 * spilled * (cost1 + cost2);
+				}
+				return cost;
+			}
+			if (SortMergeJoin.supports(j.p)) {
+				/*
+				 * sort-merge join: each side is scanned and sorted once, then
+				 * every output tuple is produced from the buffered right side.
+				 * 
+				 * joincost(t1 join t2) = scancost(t1) + scancost(t2) //IO cost
+				 * + sortcost(t1) + sortcost(t2) + ntups(t1 join t2) //CPU cost
+				 */
+				return cost1 + cost2 + estimateSortCost(j.t1, card1, cost1) + estimateSortCost(j.t2, card2, cost2)
+						+ estimateJoinCardinality(j, card1, card2, false, false);
+			}
 			/*
-			 * joincost(t1 join t2) = scancost(t1) + ntups(t1) x scancost(t2)
-			 * //IO cost + ntups(t1) x ntups(t2) //CPU cost
+			 * block nested loops join: t2 is scanned once per block of t1.
+			 * 
+			 * joincost(t1 join t2) = scancost(t1) + nblocks(t1) x
+			 * scancost(t2) //IO cost + ntups(t1) x ntups(t2) //CPU cost
 			 */
-			return cost1 + card1 * cost2 + card1 * card2;
+			int blockTuples = estimateMemTuples(j.t1, BlockNestedLoopJoin.DEFAULT_BLOCK_PAGES);
+			double blocks = Math.ceil((double) card1 / blockTuples);
+			return cost1 + blocks * cost2 + (double) card1 * card2;
 		}
 	}
 
+	/**
+	 * Estimate the cost of an equality join as an {@link IndexNestedLoopJoin}
+	 * whose inner side is the base table j.t2, probed through an index on
+	 * j.f2, which the catalog must already have.
+	 * 
+	 * joincost(t1 join t2) = scancost(t1) + ntups(t1) x (lookupcost(t2) +
+	 * matches(t2) x iocost) //IO cost + ntups(t1) x matches(t2) //CPU cost
+	 * 
+	 * @param j
+	 *            A LogicalJoinNode representing the join operation being
+	 *            performed.
+	 * @param card1
+	 *            Estimated cardinality of the left-hand side of the query
+	 * @param cost1
+	 *            Estimated cost of one full scan of the left-hand side
+	 * @param stats
+	 *            table statistics for base tables
+	 * @return An estimate of the cost of this join, Double.MAX_VALUE if it
+	 *         cannot be done through an index or the table has none on j.f2
+	 */
+	public double estimateIndexJoinCost(LogicalJoinNode j, int card1, double cost1,
+			HashMap<String, TableStats> stats) {
+		if (j.p != Predicate.Op.EQUALS || j instanceof LogicalSubplanJoinNode || j.t2 == null || !p.hasTable(j.t2)
+				|| stats.get(j.t2) == null)
+			return Double.MAX_VALUE;
+
+		int tableid = p.getTableId(j.t2);
+		TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+		String fieldName = j.f2.startsWith(j.t2 + ".") ? j.f2.substring(j.t2.length() + 1) : j.f2;
+		int field;
+		try {
+			field = td.nameToId(fieldName);
+		} catch (NoSuchElementException e) {
+			return Double.MAX_VALUE;
+		}
+
+		List<IndexFile> indexes = Database.getCatalog().getIndexes(tableid, field);
+		if (indexes.isEmpty())
+			return Double.MAX_VALUE;
+
+		TableStats s2 = stats.get(j.t2);
+		int ntups2 = s2.estimateTableCardinality(1.0);
+		if (ntups2 == 0)
+			return cost1;
+
+		int lookupPages = -1;
+		for (IndexFile index : indexes)
+			if (lookupPages < 0 || index.estimateLookupPages(ntups2) < lookupPages)
+				lookupPages = index.estimateLookupPages(ntups2);
+
+		// each probe reads the inner tuples that match the key of one outer
+		// tuple, a single one if j.f2 is the primary key
+		double sel = isPkey(j.t2, j.f2) ? 1.0 / ntups2 : s2.avgSelectivity(field, Predicate.Op.EQUALS);
+		return cost1 + card1 * s2.estimateIndexScanCost(lookupPages, sel) + card1 * sel * ntups2;
+	}
+
 	/**
 	 * Estimate the cardinality of a join. The cardinality of a join is the
 	 * number of tuples produced by the join.
@@ -381,9 +561,17 @@ public class JoinOptimizer {
 
 		// case where prevbest is left
 		double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+		// probe an index on j.t2 if it is a base relation
+		if (news.isEmpty() || doesJoin(prevBest, j.t1))
+			cost1 = Math.min(cost1, estimateIndexJoinCost(j, t1card, t1cost, stats));
 
 		LogicalJoinNode j2 = j.swapInnerOuter();
 		double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+		// probe an index on j.t1 if it is a base relation
+		if (news.isEmpty())
+			cost2 = Math.min(cost2, estimateIndexJoinCost(j2, t2card, t2cost, stats));
+		else if (doesJoin(prevBest, j.t2))
+			cost2 = Math.min(cost2, estimateIndexJoinCost(j2, t1card, t1cost, stats));
 		if (cost2 < cost1) {
 			boolean tmp;
 			j = j2;
@@ -407,6 +595,91 @@ public class JoinOptimizer {
 		return cc;
 	}
 
+	/**
+	 * Return the estimated number of tuples produced by plan, a side of a join
+	 * over the specified table: the estimate made when plan was instantiated
+	 * if it is a join, the cardinality of the table under its filters if plan
+	 * scans it, Integer.MAX_VALUE otherwise (e.g. a subquery)
+	 */
+	private int estimatePlanCardinality(DbIterator plan, String table, HashMap<String, TableStats> stats,
+			HashMap<String, Double> filterSelectivities) {
+		Integer card = joinCards.get(plan);
+		if (card != null)
+			return card;
+		if (!isBaseScan(plan) || table == null || stats == null || stats.get(table) == null)
+			return Integer.MAX_VALUE;
+
+		double sel = 1.0;
+		if (filterSelectivities != null && filterSelectivities.get(table) != null)
+			sel = filterSelectivities.get(table);
+		return stats.get(table).estimateTableCardinality(sel);
+	}
+
+	/**
+	 * Return true if plan is a scan of a base table, possibly filtered, false
+	 * otherwise
+	 */
+	private boolean isBaseScan(DbIterator plan) {
+		while (plan instanceof Filter)
+			plan = ((Filter) plan).getChild();
+		return plan instanceof SeqScan;
+	}
+
+	/**
+	 * Return the number of tuples of plan that fit in the memory budget of a
+	 * hash join.
+	 */
+	private int estimateMemTuples(DbIterator plan) {
+		return GraceHashJoin.DEFAULT_MEM_PAGES * SpillFile.tuplesPerPage(plan.getTupleDesc());
+	}
+
+	/**
+	 * Return the number of tuples of the specified table that fit in the
+	 * memory budget of a hash join or of a sort. If the table is unknown (e.g.
+	 * a subquery), assume tuples of a single int field.
+	 */
+	private int estimateMemTuples(String table) {
+		return estimateMemTuples(table, GraceHashJoin.DEFAULT_MEM_PAGES);
+	}
+
+	/**
+	 * Return the number of tuples of the specified table that fit in memPages
+	 * pages.
+	 */
+	private int estimateMemTuples(String table, int memPages) {
+		TupleDesc td;
+		if (table != null && p.hasTable(table))
+			td = Database.getCatalog().getTupleDesc(p.getTableId(table));
+		else
+			td = Utility.getTupleDesc(1);
+
+		return memPages * SpillFile.tuplesPerPage(td);
+	}
+
+	/**
+	 * Estimate the cost of sorting one side of a sort-merge join: ntups x
+	 * log2(ntups) comparisons, plus, if it does not fit in memory, writing and
+	 * reading it back once per merge pass.
+	 */
+	private double estimateSortCost(String table, int card, double cost) {
+		if (card <= 1)
+			return 0;
+
+		double sortCost = card * (Math.log(card) / Math.log(2));
+		int memTuples = estimateMemTuples(table);
+		if (card > memTuples) {
+			int runs = (card + memTuples - 1) / memTuples;
+			int fanIn = ExternalSort.DEFAULT_MEM_PAGES - 1;
+			int passes = 1;
+			while (runs > fanIn) {
+				runs = (runs + fanIn - 1) / fanIn;
+				passes++;
+			}
+			sortCost += 2 * passes * cost;
+		}
+		return sortCost;
+	}
+
 	/**
 	 * Return true if the specified table is in the list of joins, false
 	 * otherwise
@@ -46,4 +46,16 @@ public class JoinPredicate {
 		 */
 		return t1.getField(field1Idx).compare(op, t2.getField(field2Idx));
 	}
+
+	public int getField1() {
+		return this.field1Idx;
+	}
+
+	public int getField2() {
+		return this.field2Idx;
+	}
+
+	public Predicate.Op getOperator() {
+		return this.op;
+	}
 }
@@ -1,154 +1,364 @@
 package cbpdbms;
 
-import java.util.HashSet;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
-import util.Graph;
+import util.Debug;
 
 /**
  * Inner class for lock management
+ * <p>
+ * Tables, pages and records are locked in the modes of LockMode, a
+ * transaction taking the intention locks on the table and the page before it
+ * locks a record, and on the table before it locks a page. A lock on a table
+ * or a page in a mode covering the one asked for, e.g. S for reading, makes
+ * the locks on its parts needless. A transaction holding more than
+ * escalationThreshold record locks on a table has them replaced by a lock on
+ * the table.
+ * <p>
+ * Record locks let transactions read the other tuples of a page while one
+ * transaction writes it; they do not let two transactions write one page at
+ * once. Writers lock the page SIX, which excludes the other writers, since
+ * the BufferPool and the LogFile undo and recover whole pages from their
+ * before images, so a page may hold the uncommitted changes of a single
+ * transaction.
+ * <p>
+ * The locks live in a table of the LockManager keyed by the item locked: the
+ * Integer id of a table, a PageId or a RecordId, so any two equal ids name
+ * the same lock. The table is split into partitions by the hash of the id,
+ * each with its own monitor. The entry of an item is made when a transaction
+ * first asks for a lock on it, and goes back to the free list of its
+ * partition once no transaction holds, waits for or uses it.
+ * <p>
+ * A transaction that cannot have its lock at once waits in the queue of the
+ * item, and the DeadlockPolicy of the LockManager keeps the waits from
+ * deadlocking.
  */
 public class LockManager {
-	Map<TransactionId, Set<PageId>> sharedpage;// tid sharedLock page
-	Map<TransactionId, Set<PageId>> exclusivepage;// tid exclusivelock page
-	// Map<TransactionId, Long> timeMap;// tid
-	Lock lock;// acquirelock releaselock
+	/** The number of partitions of the lock table */
+	static final int PARTITIONS = 64;
+	/** The most free entries kept by a partition for reuse */
+	static final int MAX_FREE = 16;
+	/** The default number of record locks on a table a transaction escalates */
+	public static final int ESCALATION_THRESHOLD = 1000;
 
-	Graph<TransactionId> wfGraph;// wait-for graph
+	/**
+	 * A partition of the lock table.
+	 */
+	private static class Partition {
+		final Map<Object, GranularLock> locks = new HashMap<Object, GranularLock>();
+		final ArrayDeque<GranularLock> free = new ArrayDeque<GranularLock>();
+	}
 
+	/**
+	 * The locks of a transaction.
+	 */
+	private static class TransactionLocks {
+		// the items locked and the mode of each
+		final Map<Object, LockMode> held = new ConcurrentHashMap<Object, LockMode>();
+		// the number of records locked in each table
+		final Map<Integer, Integer> records = new ConcurrentHashMap<Integer, Integer>();
+		// the items waited for
+		final Set<Object> waiting = Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+	}
+
+	private final Partition[] table;
+
+	ConcurrentHashMap<TransactionId, TransactionLocks> transactions;
+	volatile int escalationThreshold;
+
+	DeadlockPolicy deadlock;
+	Set<TransactionId> aborted;// the transactions a policy aborted, until they complete
+
+	/**
+	 * Creates a LockManager with the deadlock policy named by the system
+	 * property cbpdbms.Deadlock, see newDeadlockPolicy.
+	 */
 	public LockManager() {
-		sharedpage = new ConcurrentHashMap<TransactionId, Set<PageId>>();
-		exclusivepage = new ConcurrentHashMap<TransactionId, Set<PageId>>();
-		// timeMap = new ConcurrentHashMap<TransactionId, Long>();
-		lock = new ReentrantLock();
-		wfGraph = new Graph<TransactionId>("wait-for");
-	}
-
-	public synchronized boolean holdsLock(TransactionId tid, PageId pid) {
-		if (sharedpage.containsKey(tid)) {
-			Set<PageId> set = sharedpage.get(tid);
-			if (set.contains(pid))
-				return true;
-		}
+		this(newDeadlockPolicy(System.getProperty("cbpdbms.Deadlock")));
+	}
+
+	public LockManager(DeadlockPolicy deadlock) {
+		transactions = new ConcurrentHashMap<TransactionId, TransactionLocks>();
+		escalationThreshold = ESCALATION_THRESHOLD;
+		this.deadlock = deadlock;
+		aborted = Collections.newSetFromMap(new ConcurrentHashMap<TransactionId, Boolean>());
+		table = new Partition[PARTITIONS];
+		for (int i = 0; i < PARTITIONS; i++)
+			table[i] = new Partition();
+	}
 
-		if (exclusivepage.containsKey(tid)) {
-			Set<PageId> set = exclusivepage.get(tid);
-			if (set.contains(pid))
-				return true;
+	/**
+	 * Makes the deadlock policy of a name: "graph" (or null) for a
+	 * WaitForGraphPolicy, "timeout" or "timeout:ms" for a TimeoutPolicy,
+	 * "wait-die", "wound-wait", "detector" or "detector:ms" for a
+	 * DeadlockDetector searching every ms milliseconds.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the name is none of them
+	 */
+	public static DeadlockPolicy newDeadlockPolicy(String name) {
+		if (name == null || name.equals("graph"))
+			return new WaitForGraphPolicy();
+		String[] parts = name.split(":", 2);
+		try {
+			if (parts[0].equals("timeout"))
+				return parts.length == 1 ? new TimeoutPolicy() : new TimeoutPolicy(Long.parseLong(parts[1]));
+			if (parts[0].equals("detector"))
+				return parts.length == 1 ? new DeadlockDetector() : new DeadlockDetector(Long.parseLong(parts[1]));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("bad deadlock policy " + name);
 		}
+		if (name.equals("wait-die"))
+			return new WaitDiePolicy();
+		if (name.equals("wound-wait"))
+			return new WoundWaitPolicy();
+		throw new IllegalArgumentException("unknown deadlock policy " + name);
+	}
 
-		return false;
+	/**
+	 * @return the deadlock policy of this LockManager
+	 */
+	public DeadlockPolicy getDeadlockPolicy() {
+		return deadlock;
 	}
 
 	/**
-	 * 
-	 * @param tid
+	 * Sets the number of record locks on a table past which a transaction
+	 * locks the whole table instead.
 	 */
-	public void releaseAllTransactionLock(TransactionId tid) {
-		// exclusivelock
-		if (exclusivepage.get(tid) != null)
-			for (PageId pid : exclusivepage.get(tid)) {
-				HeapPageId hpid = (HeapPageId) pid;
-				hpid.exclusiveLock.unlock(tid, hpid);
+	public void setEscalationThreshold(int threshold) {
+		if (threshold <= 0)
+			throw new IllegalArgumentException("threshold must be positive");
+		escalationThreshold = threshold;
+	}
+
+	private Partition partition(Object item) {
+		return table[(item.hashCode() & 0x7fffffff) % PARTITIONS];
+	}
+
+	/**
+	 * Returns the entry of item in the lock table, made if there is none, and
+	 * keeps it there until unpin is called.
+	 */
+	private GranularLock pin(Object item) {
+		Partition p = partition(item);
+		synchronized (p) {
+			GranularLock entry = p.locks.get(item);
+			if (entry == null) {
+				entry = p.free.poll();
+				if (entry == null)
+					entry = new GranularLock();
+				p.locks.put(item, entry);
 			}
-		// tid exclusivepage
-		exclusivepage.remove(tid);
-
-		// sharedlock
-		if (sharedpage.get(tid) != null)
-			for (PageId pid : sharedpage.get(tid)) {
-				HeapPageId hpid = (HeapPageId) pid;
-				hpid.sharedLock.unlock(tid, hpid);
+			entry.users++;
+			return entry;
+		}
+	}
+
+	/**
+	 * Lets the entry of item go back to the free list once it is free.
+	 */
+	private void unpin(Object item, GranularLock entry) {
+		Partition p = partition(item);
+		synchronized (p) {
+			if (--entry.users > 0 || !entry.isFree())
+				return;
+			p.locks.remove(item);
+			if (p.free.size() < MAX_FREE)
+				p.free.add(entry);
+		}
+	}
+
+	/**
+	 * @return the entry of item in the lock table, null if there is none
+	 */
+	private GranularLock lookup(Object item) {
+		Partition p = partition(item);
+		synchronized (p) {
+			return p.locks.get(item);
+		}
+	}
+
+	/**
+	 * @return the number of entries of the lock table, the tables, pages and
+	 *         records locked or being locked
+	 */
+	public int getLockCount() {
+		int n = 0;
+		for (Partition p : table) {
+			synchronized (p) {
+				n += p.locks.size();
 			}
-		// tid sharedpage 
-		sharedpage.remove(tid);
+		}
+		return n;
+	}
 
-		// hack : only for HeapFileReadTest
-		// HeapFileReadTest getPage，wfGraph tid。
-		if (wfGraph.findNode(tid) == null)
-			return;
+	/**
+	 * @return the mode tid holds item in, null if it holds no lock on it
+	 */
+	private LockMode held(TransactionId tid, Object item) {
+		TransactionLocks locks = transactions.get(tid);
+		return locks == null ? null : locks.held.get(item);
+	}
 
-		// wait-for graph
-		wfGraph.delNode(tid);
+	private TransactionLocks locksOf(TransactionId tid) {
+		TransactionLocks locks = transactions.get(tid);
+		if (locks == null) {
+			TransactionLocks made = new TransactionLocks();
+			locks = transactions.putIfAbsent(tid, made);
+			if (locks == null)
+				locks = made;
+		}
+		return locks;
 	}
 
 	/**
-	 * 
-	 * @param tid
-	 * @param pid
+	 * @return true if tid holds a lock on pid, or on its table in a mode that
+	 *         lets it read every page
 	 */
-	public void releaseLock(TransactionId tid, PageId pid) {
-		lock.lock();
-		HeapPageId hpid = (HeapPageId) pid;
-		hpid.sharedLock.unlock(tid, pid);
-		hpid.exclusiveLock.unlock(tid, pid);
+	public boolean holdsLock(TransactionId tid, PageId pid) {
+		if (held(tid, pid) != null)
+			return true;
+		LockMode mode = held(tid, pid.getTableId());
+		return mode != null && mode.covers(LockMode.S);
+	}
+
+	/**
+	 * @return true if tid holds a lock on rid, or on its page or table in a
+	 *         mode that lets it read the record
+	 */
+	public boolean holdsLock(TransactionId tid, RecordId rid) {
+		return held(tid, rid) != null || covered(tid, rid.getPageId(), LockMode.S);
+	}
+
+	/**
+	 * @return the mode tid holds the table tableId in, null if none
+	 */
+	public LockMode getTableLock(TransactionId tid, int tableId) {
+		return held(tid, tableId);
+	}
+
+	/**
+	 * @return the mode tid holds pid in, null if none
+	 */
+	public LockMode getPageLock(TransactionId tid, PageId pid) {
+		return held(tid, pid);
+	}
 
-		// wait-for graph
-		// tid node，wait-for graph
-		if (this.exclusivepage.size() == 0 && this.sharedpage.size() == 0)
-			wfGraph.delNode(tid);
-		lock.unlock();
+	/**
+	 * @return true if a transaction holds pid, or its table, in a mode that
+	 *         lets it write the page, SIX or X
+	 */
+	public boolean isExclusivelyLocked(PageId pid) {
+		GranularLock entry = lookup(pid);
+		if (entry != null && entry.isWriteLocked())
+			return true;
+		entry = lookup(pid.getTableId());
+		return entry != null && entry.isWriteLocked();
+	}
+
+	/**
+	 * @return true if a lock tid holds on pid, or on its table, grants mode
+	 *         on every record of the page
+	 */
+	private boolean covered(TransactionId tid, PageId pid, LockMode mode) {
+		TransactionLocks locks = transactions.get(tid);
+		if (locks == null)
+			return false;
+		LockMode t = locks.held.get(pid.getTableId());
+		if (t != null && t.covers(mode))
+			return true;
+		LockMode p = locks.held.get(pid);
+		return p != null && p.covers(mode);
 	}
 
 	/**
 	 * 
 	 * @param tid
-	 * @param pid
-	 * @param perm
-	 * @return true is deadlock, false if nodead
-	 */
-	private boolean deadlockCheck(TransactionId tid, PageId pid, Permissions perm) {
-		HeapPageId hpid = (HeapPageId) pid;
-		// step1 tid node wait-for graph
-		wfGraph.addNode(tid);
-		// step2 lock
-		boolean granted = true;
-		if (perm.equals(Permissions.READ_ONLY))
-			granted = hpid.sharedLock.canlock(tid, hpid);
-		else
-			granted = hpid.exclusiveLock.canlock(tid, hpid);
-
-		// step3 granted wait
-		if (granted) {
-			return false;
-		} else {
-			HashSet<TransactionId> lockedSet = new HashSet<TransactionId>();
+	 */
+	public void releaseAllTransactionLock(TransactionId tid) {
+		// the requests still waiting, e.g. of the threads of an aborted tid
+		cancelWaits(tid);
 
-			// nullset
-			if (hpid.lock.exclusivePage != null)
-				lockedSet.add(hpid.lock.exclusivePage);
+		TransactionLocks locks = transactions.remove(tid);
+		if (locks != null)
+			for (Object item : locks.held.keySet())
+				unlock(tid, item);
 
-			if (perm.equals(Permissions.READ_WRITE))
-				lockedSet.addAll(hpid.lock.sharedPage);
+		deadlock.transactionComplete(tid);
+		aborted.remove(tid);
+	}
 
-			lockedSet.remove(tid);
+	private void unlock(TransactionId tid, Object item) {
+		GranularLock entry = pin(item);
+		entry.unlock(tid);
+		unpin(item, entry);
+	}
 
-			// wait
-			for (TransactionId t : lockedSet) {
-				wfGraph.addEdge(tid, t);
-			}
+	/**
+	 * Withdraws the requests of tid waiting for locks; their threads throw
+	 * TransactionAbortedException.
+	 */
+	private void cancelWaits(TransactionId tid) {
+		TransactionLocks locks = transactions.get(tid);
+		if (locks == null)
+			return;
+		for (Object item : new ArrayList<Object>(locks.waiting)) {
+			GranularLock entry = pin(item);
+			entry.cancelAll(tid);
+			unpin(item, entry);
 		}
+	}
 
-		// step4 
-		
-		boolean isCycle = wfGraph.isCycle(tid);
-		if (isCycle) {
-			// wfGraph.delNode(tid);
-			// Abort
-			return true;
-		} else {
-			
-			return false;
+	/**
+	 * Aborts tid for a deadlock policy: the requests it waits for are
+	 * withdrawn and those it makes until it completes are refused, with a
+	 * TransactionAbortedException. Its locks are held until it completes.
+	 */
+	public void abort(TransactionId tid) {
+		aborted.add(tid);
+		cancelWaits(tid);
+	}
 
+	/**
+	 * @return the wait-for graph of the transactions waiting in the queues
+	 *         of the lock table: for each, the transactions it waits for
+	 */
+	public Map<TransactionId, Set<TransactionId>> waitsFor() {
+		Map<TransactionId, Set<TransactionId>> graph = new HashMap<TransactionId, Set<TransactionId>>();
+		for (Partition p : table) {
+			synchronized (p) {
+				for (GranularLock entry : p.locks.values())
+					entry.waitsFor(graph);
+			}
 		}
+		return graph;
 	}
 
 	/**
-	 * PageSharedExclusiveLock true false，LockManager lock
+	 * Releases the lock tid holds on pid, but not those on its table or its
+	 * records.
+	 * 
+	 * @param tid
+	 * @param pid
+	 */
+	public void releaseLock(TransactionId tid, PageId pid) {
+		TransactionLocks locks = transactions.get(tid);
+		if (locks == null || locks.held.remove(pid) == null)
+			return;
+		unlock(tid, pid);
+	}
+
+	/**
+	 * Grants tid a lock on pid, sleeping in the queue of the page until the
+	 * transactions before it release theirs.
 	 * 
 	 * @param tid
 	 *            the transaction that want to acquire the lock
@@ -156,49 +366,196 @@ public class LockManager {
 	 *            which page the tid want lock-in
 	 * @param perm
 	 *            shared or exclusive
+	 * @throws TransactionAbortedException
+	 *             if the deadlock policy aborts tid, or the request is
+	 *             cancelled because tid completes while it waits
 	 */
 	public void acquireLock(TransactionId tid, PageId pid, Permissions perm) throws TransactionAbortedException {
-		// lock.lock();
-		
-		HeapPageId hpid = (HeapPageId) pid;
+		acquireLock(tid, pid, LockMode.of(perm));
+	}
 
-		try {
-			// wait-for
-			synchronized (this) {  // sync getPage()
-				boolean deadlock = deadlockCheck(tid, pid, perm);
-				if (deadlock)
-					throw new TransactionAbortedException();
-			}
+	/**
+	 * Grants tid a lock on pid in mode, after the intention lock on its table,
+	 * unless tid holds its table in a mode covering mode.
+	 * 
+	 * @throws TransactionAbortedException
+	 *             see acquireLock(TransactionId, PageId, Permissions)
+	 */
+	public void acquireLock(TransactionId tid, PageId pid, LockMode mode) throws TransactionAbortedException {
+		if (aborted.contains(tid))
+			throw new TransactionAbortedException();
+		TransactionLocks locks = locksOf(tid);
+		Integer tableId = pid.getTableId();
+		LockMode t = locks.held.get(tableId);
+		if (t != null && t.covers(mode))
+			return;
+		lock(tid, locks, tableId, mode.intention());
+		lock(tid, locks, pid, mode);
+	}
 
-			if (perm.equals(Permissions.READ_ONLY)) {
-				boolean granted = false;
+	/**
+	 * Grants tid a lock on pid in mode, as acquireLock, only if it may have it
+	 * at once, without waiting.
+	 * 
+	 * @return true if tid holds the lock, false if it would have to wait
+	 */
+	public boolean tryAcquireLock(TransactionId tid, PageId pid, LockMode mode) {
+		if (aborted.contains(tid))
+			return false;
+		TransactionLocks locks = locksOf(tid);
+		Integer tableId = pid.getTableId();
+		LockMode t = locks.held.get(tableId);
+		if (t != null && t.covers(mode))
+			return true;
+		return tryLock(tid, locks, tableId, mode.intention()) && tryLock(tid, locks, pid, mode);
+	}
+
+	/**
+	 * Grants tid a lock on the table tableId in mode, e.g. S to scan it
+	 * without locking its pages.
+	 * 
+	 * @throws TransactionAbortedException
+	 *             see acquireLock(TransactionId, PageId, Permissions)
+	 */
+	public void acquireTableLock(TransactionId tid, int tableId, LockMode mode) throws TransactionAbortedException {
+		if (aborted.contains(tid))
+			throw new TransactionAbortedException();
+		lock(tid, locksOf(tid), tableId, mode);
+	}
+
+	/**
+	 * Grants tid a lock on rid, S to read or X to write the record, after the
+	 * intention locks on its table and page, unless tid holds one of them in
+	 * a mode covering it. Once tid holds escalationThreshold record locks on
+	 * the table, it locks the table instead.
+	 * 
+	 * @throws TransactionAbortedException
+	 *             see acquireLock(TransactionId, PageId, Permissions)
+	 */
+	public void acquireRecordLock(TransactionId tid, RecordId rid, Permissions perm)
+			throws TransactionAbortedException {
+		if (aborted.contains(tid))
+			throw new TransactionAbortedException();
+		LockMode mode = LockMode.of(perm);
+		PageId pid = rid.getPageId();
+		if (covered(tid, pid, mode))
+			return;
+		TransactionLocks locks = locksOf(tid);
+		Integer tableId = pid.getTableId();
+		Integer count = locks.records.get(tableId);
+		if (count != null && count >= escalationThreshold) {
+			escalate(tid, locks, tableId, mode);
+			return;
+		}
+		lock(tid, locks, tableId, mode.intention());
+		lock(tid, locks, pid, mode.intention());
+		if (lock(tid, locks, rid, mode))
+			locks.records.put(tableId, count == null ? 1 : count + 1);
+	}
 
-				while (!granted) {// lock
-					granted = hpid.sharedLock.lock(tid, hpid);
-				}
+	/**
+	 * Replaces the record locks tid holds on a table by a lock on the table:
+	 * S if it only reads records, X if it writes one. The record locks the
+	 * table lock covers are released.
+	 */
+	private void escalate(TransactionId tid, TransactionLocks locks, Integer tableId, LockMode mode)
+			throws TransactionAbortedException {
+		List<RecordId> records = new ArrayList<RecordId>();
+		for (Map.Entry<Object, LockMode> e : locks.held.entrySet()) {
+			if (!(e.getKey() instanceof RecordId))
+				continue;
+			RecordId rid = (RecordId) e.getKey();
+			if (rid.getPageId().getTableId() != tableId)
+				continue;
+			records.add(rid);
+			mode = mode.join(e.getValue());
+		}
+		Debug.printInfo(tid + " escalates " + records.size() + " record locks to " + mode + " on table " + tableId);
+		lock(tid, locks, tableId, mode);
 
-				Set<PageId> set = sharedpage.get(tid);
-				if (set == null)
-					set = new HashSet<PageId>();
-				set.add(pid);
-				sharedpage.put(tid, set);
+		LockMode t = locks.held.get(tableId);
+		int left = 0;
+		for (RecordId rid : records) {
+			if (t.covers(locks.held.get(rid))) {
+				locks.held.remove(rid);
+				unlock(tid, rid);
 			} else {
-				boolean granted = false;
-				while (!granted) {
-					granted = hpid.exclusiveLock.lock(tid, hpid);
-				}
-
-				Set<PageId> set = exclusivepage.get(tid);
-				if (set == null)
-					set = new HashSet<PageId>();
-				set.add(pid);
-				exclusivepage.put(tid, set);
-
-				// wfGraph.delNode(tid);
-				// NOTE: wait-for graph node
-				// see releaseLock()
+				left++;
+			}
+		}
+		locks.records.put(tableId, left);
+	}
+
+	/**
+	 * Grants tid a lock on item in mode, or the join of mode and the mode it
+	 * holds, sleeping in the queue of the item until the transactions before
+	 * it release theirs.
+	 * 
+	 * @return true if tid held no lock on item before
+	 * @throws TransactionAbortedException
+	 *             if the deadlock policy aborts tid, or the request is
+	 *             cancelled because tid completes while it waits
+	 */
+	private boolean lock(TransactionId tid, TransactionLocks locks, Object item, LockMode mode)
+			throws TransactionAbortedException {
+		LockMode held = locks.held.get(item);
+		if (held != null && held.covers(mode))
+			return false;
+		LockMode target = held == null ? mode : held.join(mode);
+		GranularLock entry = pin(item);
+		try {
+			// NOTE: a lock granted at once cannot close a cycle of the wait-for
+			// graph, so the common case skips the deadlock policy.
+			GranularLock.Waiter w = entry.request(tid, mode);
+			if (w == null) {
+				locks.held.put(item, target);
+				return held == null;
+			}
+
+			locks.waiting.add(item);
+			Set<TransactionId> blockers = entry.blockers(w);
+			boolean granted = false;
+			try {
+				// tid may have been aborted before it was listed as waiting
+				if (aborted.contains(tid))
+					throw new TransactionAbortedException();
+				deadlock.beforeWait(this, tid, blockers);
+				granted = entry.await(w, deadlock.maxWait());
+			} finally {
+				// NOTE: the lock may be granted just as tid gives up, it is
+				// then released with the others of tid
+				if (!granted && entry.cancel(w))
+					locks.held.put(item, target);
+				locks.waiting.remove(item);
+				deadlock.afterWait(this, tid, blockers);
 			}
+			if (!granted)
+				throw new TransactionAbortedException();
+			locks.held.put(item, target);
+			return held == null;
+		} finally {
+			unpin(item, entry);
+		}
+	}
+
+	/**
+	 * Grants tid a lock on item in mode, or the join of mode and the mode it
+	 * holds, if it may have it at once.
+	 * 
+	 * @return true if tid holds the lock, false if it would have to wait
+	 */
+	private boolean tryLock(TransactionId tid, TransactionLocks locks, Object item, LockMode mode) {
+		LockMode held = locks.held.get(item);
+		if (held != null && held.covers(mode))
+			return true;
+		GranularLock entry = pin(item);
+		try {
+			if (!entry.tryLock(tid, mode))
+				return false;
+			locks.held.put(item, held == null ? mode : held.join(mode));
+			return true;
 		} finally {
+			unpin(item, entry);
 		}
 	}
 }
@@ -0,0 +1,70 @@
+package cbpdbms;
+
+/**
+ * The modes of the locks of the LockManager, for multi-granularity locking
+ * of tables, pages and records. A transaction reads an item with an S lock
+ * and writes it with an X lock; before locking an item it takes an intention
+ * lock on the items that contain it: IS before S, IX before X. SIX is S and IX
+ * together: its holder reads the whole item and writes some of its parts.
+ */
+public enum LockMode {
+	IS, IX, S, SIX, X;
+
+	private static final boolean[][] COMPATIBLE = {
+			// IS IX S SIX X
+			{ true, true, true, true, false }, // IS
+			{ true, true, false, false, false }, // IX
+			{ true, false, true, false, false }, // S
+			{ true, false, false, false, false }, // SIX
+			{ false, false, false, false, false }, // X
+	};
+
+	/**
+	 * @return true if two transactions may hold this mode and other on the
+	 *         same item at once
+	 */
+	public boolean compatibleWith(LockMode other) {
+		return COMPATIBLE[ordinal()][other.ordinal()];
+	}
+
+	/**
+	 * @return the weakest mode granting all that this mode and other grant,
+	 *         the mode a lock held in this mode becomes when other is asked for
+	 */
+	public LockMode join(LockMode other) {
+		if (this == other)
+			return this;
+		if (this == X || other == X)
+			return X;
+		if (this == SIX || other == SIX)
+			return SIX;
+		if (this == IS)
+			return other;
+		if (other == IS)
+			return this;
+		// IX and S
+		return SIX;
+	}
+
+	/**
+	 * @return true if a lock in this mode grants all that other grants
+	 */
+	public boolean covers(LockMode other) {
+		return join(other) == this;
+	}
+
+	/**
+	 * @return the intention mode to take on the items containing an item
+	 *         locked in this mode
+	 */
+	public LockMode intention() {
+		return this == IS || this == S ? IS : IX;
+	}
+
+	/**
+	 * @return the mode of the lock on an item read or written with perm
+	 */
+	public static LockMode of(Permissions perm) {
+		return perm.equals(Permissions.READ_ONLY) ? S : X;
+	}
+}
@@ -197,6 +197,15 @@ public class LogFile {
 		tidToFirstLogRecord.remove(tid.getId());
 	}
 
+	/**
+	 * @return true if the BEGIN record of tid was logged and tid has neither
+	 *         committed nor aborted since, so that its updates can be rolled
+	 *         back from the log
+	 */
+	synchronized boolean isActive(TransactionId tid) {
+		return tidToFirstLogRecord.containsKey(tid.getId());
+	}
+
 	/**
 	 * Write an UPDATE record to disk for the specified tid and page (with
 	 * provided before and after images.)
@@ -209,7 +218,28 @@ public class LogFile {
 	 *            The after image of the page
 	 * @see cbpdbms.Page#getBeforeImage
 	 */
-	public synchronized void logWrite(TransactionId tid, Page before, Page after) throws IOException {
+	public void logWrite(TransactionId tid, Page before, Page after) throws IOException {
+		logWrite(tid, after, before.getPageData(), after.getPageData());
+	}
+
+	/**
+	 * Write an UPDATE record to the log for the specified tid and page, with
+	 * the before image and the current contents of the page. The bytes are
+	 * written as the page keeps them, no page object is created for the
+	 * before image.
+	 *
+	 * @param tid
+	 *            The transaction performing the write
+	 * @param page
+	 *            The page written
+	 * @see cbpdbms.Page#getBeforeImageData
+	 */
+	public void logWrite(TransactionId tid, Page page) throws IOException {
+		logWrite(tid, page, page.getBeforeImageData(), page.getPageData());
+	}
+
+	private synchronized void logWrite(TransactionId tid, Page page, byte[] before, byte[] after)
+			throws IOException {
 		Debug.printLogInfo("WRITE, offset = " + raf.getFilePointer());
 		preAppend();
 		/*
@@ -221,14 +251,13 @@ public class LogFile {
 		raf.writeInt(UPDATE_RECORD);
 		raf.writeLong(tid.getId());
 
-		writePageData(raf, before);
-		writePageData(raf, after);
+		writePageData(raf, page, before);
+		writePageData(raf, page, after);
 		raf.writeLong(currentOffset);
 		currentOffset = raf.getFilePointer();
 
 		// Debug.printLogInfo("WRITE OFFSET = " + currentOffset);
-		Debug.printLogInfo("<" + tid.getId() + ", before:" + before.getId() + ", after:" + after.getId() + ", "
-				+ currentOffset + ">");
+		Debug.printLogInfo("<" + tid.getId() + ", page:" + page.getId() + ", " + currentOffset + ">");
 	}
 
 	/**
@@ -241,6 +270,14 @@ public class LogFile {
 	 * @throws IOException
 	 */
 	void writePageData(RandomAccessFile raf, Page p) throws IOException {
+		writePageData(raf, p, p.getPageData());
+	}
+
+	/**
+	 * Write page data to log file, with the bytes given rather than those of
+	 * the page, e.g. those of its before image
+	 */
+	void writePageData(RandomAccessFile raf, Page p, byte[] pageData) throws IOException {
 		PageId pid = p.getId();
 		int pageInfo[] = pid.serialize();
 
@@ -266,7 +303,6 @@ public class LogFile {
 		for (int i = 0; i < pageInfo.length; i++) {
 			raf.writeInt(pageInfo[i]);
 		}
-		byte[] pageData = p.getPageData();
 		// data length
 		raf.writeInt(pageData.length);
 		// data
@@ -300,7 +336,13 @@ public class LogFile {
 			}
 			pid = (PageId) idConsts[0].newInstance(idArgs);
 
-			Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
+			// the constructor of the page from its id and its bytes
+			Constructor<?> pageConst = null;
+			for (Constructor<?> c : pageClass.getDeclaredConstructors()) {
+				Class<?>[] params = c.getParameterTypes();
+				if (params.length == 2 && params[0].isInstance(pid) && params[1] == byte[].class)
+					pageConst = c;
+			}
 			int pageSize = raf.readInt();
 
 			byte[] pageData = new byte[pageSize];
@@ -310,7 +352,7 @@ public class LogFile {
 			pageArgs[0] = pid;
 			pageArgs[1] = pageData;
 
-			newPage = (Page) pageConsts[0].newInstance(pageArgs);
+			newPage = (Page) pageConst.newInstance(pageArgs);
 
 			// Debug.printLogInfo("READ PAGE OF TYPE " + pageClassName + ",
 			// table = " + newPage.getId().getTableId() + ", page = " +
@@ -563,17 +605,16 @@ public class LogFile {
 						raf.readUTF();// String pidname
 						raf.readInt();// int info_len
 						int tableid = raf.readInt();
-						int pgno = raf.readInt();
-						HeapPageId pid = new HeapPageId(tableid, pgno);
+						raf.readInt();// int pgno
 
 						// file，file.writePage disk
-						HeapFile file = (HeapFile) Database.getCatalog().getDbFile(tableid);
+						DbFile file = Database.getCatalog().getDbFile(tableid);
 
 						file.writePage(pageq);
 
 						// Page pagee = file.readPage(page.getId());
 
-						Database.getBufferPool().pageMap.put(pid, pageq);
+						Database.getBufferPool().replacePage(pageq);
 
 						break;
 					case BEGIN_RECORD:
@@ -735,10 +776,10 @@ public class LogFile {
 					Page afterpage = lr.page;
 					PageId pid = afterpage.getId();
 					int tableid = pid.getTableId();
-					HeapFile hfile = (HeapFile) Database.getCatalog().getDbFile(tableid);
-					hfile.writePage(afterpage);
+					DbFile file = Database.getCatalog().getDbFile(tableid);
+					file.writePage(afterpage);
 
-					Database.getBufferPool().pageMap.put(pid, afterpage);
+					Database.getBufferPool().replacePage(afterpage);
 				}
 
 				// undo
@@ -750,9 +791,9 @@ public class LogFile {
 					Page beforepage = lr.page;
 					PageId pid = beforepage.getId();
 					int tableid = pid.getTableId();
-					HeapFile hfile = (HeapFile) Database.getCatalog().getDbFile(tableid);
-					hfile.writePage(beforepage);
-					Database.getBufferPool().pageMap.put(pid, beforepage);
+					DbFile file = Database.getCatalog().getDbFile(tableid);
+					file.writePage(beforepage);
+					Database.getBufferPool().replacePage(beforepage);
 				}
 
 			}
@@ -41,6 +41,7 @@ public class LogicalPlan {
 	private String aggField;
 	private boolean oByAsc, hasOrderBy = false;
 	private String oByField;
+	private int limit = OrderBy.NO_LIMIT;
 	private String query;
 
 	/** Constructor -- generate an empty logical plan */
@@ -88,6 +89,13 @@ public class LogicalPlan {
 		return tableMap.get(alias);
 	}
 
+	/**
+	 * @return true if a table with the specified alias is scanned by this plan
+	 */
+	public boolean hasTable(String alias) {
+		return tableMap.containsKey(alias);
+	}
+
 	/**
 	 * Add a new filter to the logical plan
 	 * 
@@ -242,6 +250,16 @@ public class LogicalPlan {
 		hasOrderBy = true;
 	}
 
+	/**
+	 * Only return the first n tuples of the ORDER BY (ORDER BY ... LIMIT n).
+	 * 
+	 * @param n
+	 *            the number of tuples to return
+	 */
+	public void addLimit(int n) {
+		limit = n;
+	}
+
 	/**
 	 * Given a name of a field, try to figure out what table it belongs to by
 	 * looking through all of the tables added via {@link #addScan}.
@@ -383,13 +401,33 @@ public class LogicalPlan {
 			} catch (NoSuchElementException e) {
 				throw new ParsingException("Unknown field " + lf.f);
 			}
-			subplanMap.put(lf.t, new Filter(p, subplan));
 
 			TableStats s = statsMap.get(lf.t);
 
-			double sel = s.estimateSelectivity(subplan.getTupleDesc().nameToId(disambiguateName(lf.f)), lf.p, f);
+			double sel = s.estimateSelectivity(p.getField(), lf.p, f);
 			filterSelectivities.put(lf.t, filterSelectivities.get(lf.t) * sel);
 
+			// read the table through the cheapest index on the filtered field
+			// instead of scanning it, if the filter is selective enough: a
+			// B+-tree for = or a range, any index for =
+			DbIterator indexPlan = null;
+			double bestCost = s.estimateScanCost();
+			if (subplan instanceof SeqScan && lf.p != Predicate.Op.NOT_EQUALS && lf.p != Predicate.Op.LIKE) {
+				for (IndexFile index : Database.getCatalog().getIndexes(getTableId(lf.t), p.getField())) {
+					double cost = s.estimateIndexScanCost(index, sel);
+					if (cost >= bestCost)
+						continue;
+					if (index instanceof BTreeFile) {
+						indexPlan = new IndexScan(t, (BTreeFile) index, lf.p, f, lf.t);
+						bestCost = cost;
+					} else if (lf.p == Predicate.Op.EQUALS) {
+						indexPlan = new IndexLookup(t, index, f, lf.t);
+						bestCost = cost;
+					}
+				}
+			}
+			subplanMap.put(lf.t, indexPlan != null ? indexPlan : new Filter(p, subplan));
+
 			// s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
 		}
 
@@ -432,7 +470,7 @@ public class LogicalPlan {
 				throw new ParsingException("Unknown table in WHERE clause " + lj.t2);
 
 			DbIterator j;
-			j = jo.instantiateJoin(lj, plan1, plan2, statsMap);
+			j = jo.instantiateJoin(lj, plan1, plan2, statsMap, filterSelectivities);
 			subplanMap.put(t1name, j);
 
 			if (!isSubqueryJoin) {
@@ -528,7 +566,7 @@ public class LogicalPlan {
 		}
 
 		if (hasOrderBy) {
-			node = new OrderBy(node.getTupleDesc().nameToId(disambiguateName(oByField)), oByAsc, node);
+			node = new OrderBy(node.getTupleDesc().nameToId(disambiguateName(oByField)), oByAsc, node, limit);
 		}
 
 		return new Project(outFields, outTypes, node);
@@ -0,0 +1,155 @@
+package cbpdbms;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LruKPolicy is the LRU-K replacement policy: the victim is the page whose
+ * K-th most recent access is the oldest. Pages accessed fewer than K times
+ * have an infinite backward K-distance and are evicted first, least recently
+ * used first, so that a page read once by a scan does not push out pages
+ * that are read again and again.
+ * <p>
+ * access only records the time in the history of the page, without any lock,
+ * so hits do not contend; the other operations are synchronized. Pages are
+ * kept in a tree ordered by their K-th most recent access as of when they
+ * were last placed in it, and victim moves the pages accessed since then to
+ * their place before choosing among them, so an access or a victim costs
+ * O(log n) amortized.
+ */
+public class LruKPolicy implements ReplacementPolicy {
+	/** The default K, LRU-2 */
+	public static final int DEFAULT_K = 2;
+
+	/** The accesses to a page, the last K of them. */
+	static class History {
+		PageId pid;
+		AtomicLongArray times;// circular, times[count % K] is the K-th most recent
+		AtomicLong count;// the number of accesses
+		long kth, last;// the times the page is ordered by in the tree
+
+		History(PageId pid, int k) {
+			this.pid = pid;
+			this.times = new AtomicLongArray(k);
+			this.count = new AtomicLong();
+		}
+
+		void access(long time) {
+			times.set((int) (count.getAndIncrement() % times.length()), time);
+		}
+
+		/** @return the time of the K-th most recent access, 0 if none */
+		long kth() {
+			return times.get((int) (count.get() % times.length()));
+		}
+
+		/** @return the time of the most recent access */
+		long last() {
+			return times.get((int) ((count.get() + times.length() - 1) % times.length()));
+		}
+
+		/** @return true if the page was accessed since it was ordered */
+		boolean moved() {
+			return kth() != kth || last() != last;
+		}
+
+		/** Orders the page by its current accesses, out of the tree. */
+		void reorder() {
+			kth = kth();
+			last = last();
+		}
+	}
+
+	int k;
+	AtomicLong clock;// the logical time of the last access
+	Map<PageId, History> histories;
+	TreeSet<History> order;
+
+	/**
+	 * @param numPages
+	 *            the number of pages of the pool
+	 */
+	public LruKPolicy(int numPages) {
+		this(numPages, DEFAULT_K);
+	}
+
+	/**
+	 * @param numPages
+	 *            the number of pages of the pool
+	 * @param k
+	 *            the number of accesses remembered per page
+	 */
+	public LruKPolicy(int numPages, int k) {
+		if (k < 1)
+			throw new IllegalArgumentException("k must be at least 1");
+		this.k = k;
+		this.clock = new AtomicLong();
+		this.histories = new ConcurrentHashMap<PageId, History>(2 * numPages);
+		// times are unique, a page is ordered by its K-th access, then by its
+		// last one when it was accessed fewer than K times
+		this.order = new TreeSet<History>(new Comparator<History>() {
+			public int compare(History h1, History h2) {
+				if (h1.kth != h2.kth)
+					return h1.kth < h2.kth ? -1 : 1;
+				return Long.compare(h1.last, h2.last);
+			}
+		});
+	}
+
+	public synchronized void add(PageId pid) {
+		if (histories.containsKey(pid)) {
+			access(pid);
+			return;
+		}
+		History h = new History(pid, k);
+		h.access(clock.incrementAndGet());
+		h.reorder();
+		histories.put(pid, h);
+		order.add(h);
+	}
+
+	public void access(PageId pid) {
+		History h = histories.get(pid);
+		if (h != null)
+			h.access(clock.incrementAndGet());
+	}
+
+	public synchronized void remove(PageId pid) {
+		History h = histories.remove(pid);
+		if (h != null)
+			order.remove(h);
+	}
+
+	public synchronized PageId victim(Evictable evictable) {
+		// the pages accessed since they were ordered are skipped and moved
+		// back in the tree; those accessed again meanwhile are taken as they
+		// are by the second pass
+		for (int pass = 0; pass < 2; pass++) {
+			ArrayList<History> moved = new ArrayList<History>();
+			PageId victim = null;
+			for (History h : order) {
+				if (pass == 0 && h.moved()) {
+					moved.add(h);
+					continue;
+				}
+				if (evictable.isEvictable(h.pid)) {
+					victim = h.pid;
+					break;
+				}
+			}
+			for (History h : moved) {
+				order.remove(h);
+				h.reorder();
+				order.add(h);
+			}
+			if (victim != null || moved.isEmpty())
+				return victim;
+		}
+		return null;
+	}
+}
@@ -4,14 +4,33 @@ import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * The child is sorted with an {@link ExternalSort}, so only memPages pages of
+ * tuples are held in memory and larger inputs are sorted on disk. With a
+ * limit (ORDER BY ... LIMIT n) that fits in the memory budget only the first
+ * n tuples are kept, in a bounded priority queue, and nothing is written to
+ * disk; a larger limit is sorted externally, and the sort is stopped after n
+ * tuples.
  */
-public class OrderBy extends AbstractDbIterator {
+public class OrderBy extends AbstractDbIterator implements OrderedDbIterator {
+	/**
+	 * Limit meaning that all the tuples of the child are returned.
+	 */
+	public static final int NO_LIMIT = -1;
+
+	/** The most slots the priority queue of a limit allocates up front */
+	static final int MAX_INITIAL_CAPACITY = 1024;
+
 	DbIterator child;
 	TupleDesc td;
-	ArrayList<Tuple> childTups = new ArrayList<Tuple>();
 	int orderByField;
-	Iterator<Tuple> it;
 	boolean asc;
+	int limit;
+
+	ExternalSort sort;// used if there is no limit, or it does not fit in memory
+	int returned;// the tuples of sort returned so far
+	ArrayList<Tuple> topTups;// the first limit tuples, if they fit in memory
+	Iterator<Tuple> it;
 
 	/**
 	 * Creates a new OrderBy node over the tuples from the iterator.
@@ -24,31 +43,116 @@ public class OrderBy extends AbstractDbIterator {
 	 *            the tuples to sort.
 	 */
 	public OrderBy(int orderbyField, boolean asc, DbIterator child) {
+		this(orderbyField, asc, child, NO_LIMIT, ExternalSort.DEFAULT_MEM_PAGES);
+	}
+
+	/**
+	 * Creates a new OrderBy node that only returns the first limit tuples.
+	 *
+	 * @param orderbyField
+	 *            the field to which the sort is applied.
+	 * @param asc
+	 *            true if the sort order is ascending.
+	 * @param child
+	 *            the tuples to sort.
+	 * @param limit
+	 *            the number of tuples to return, or NO_LIMIT
+	 */
+	public OrderBy(int orderbyField, boolean asc, DbIterator child, int limit) {
+		this(orderbyField, asc, child, limit, ExternalSort.DEFAULT_MEM_PAGES);
+	}
+
+	/**
+	 * Creates a new OrderBy node.
+	 *
+	 * @param orderbyField
+	 *            the field to which the sort is applied.
+	 * @param asc
+	 *            true if the sort order is ascending.
+	 * @param child
+	 *            the tuples to sort.
+	 * @param limit
+	 *            the number of tuples to return, or NO_LIMIT
+	 * @param memPages
+	 *            the number of pages of tuples the sort may hold in memory, at
+	 *            least 3
+	 */
+	public OrderBy(int orderbyField, boolean asc, DbIterator child, int limit, int memPages) {
+		if (limit < 0 && limit != NO_LIMIT)
+			throw new IllegalArgumentException("limit must not be negative");
+
 		this.child = child;
 		td = child.getTupleDesc();
 		this.orderByField = orderbyField;
 		this.asc = asc;
+		this.limit = limit;
+		if (limit == NO_LIMIT || limit > (long) memPages * SpillFile.tuplesPerPage(td))
+			sort = new ExternalSort(orderbyField, asc, child, memPages);
 	}
 
 	public TupleDesc getTupleDesc() {
 		return td;
 	}
 
+	public int getOrderByField() {
+		return orderByField;
+	}
+
+	public boolean isAsc() {
+		return asc;
+	}
+
+	/**
+	 * @return the number of tuples returned, or NO_LIMIT
+	 */
+	public int getLimit() {
+		return limit;
+	}
+
 	public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+		if (sort != null) {
+			sort.open();
+			returned = 0;
+			return;
+		}
+
 		child.open();
-		// load all the tuples in a collection, and sort it
-		while (child.hasNext())
-			childTups.add((Tuple) child.next());
-		Collections.sort(childTups, new TupleComparator(orderByField, asc));
-		it = childTups.iterator();
+		// keep the first limit tuples, the head of the queue is the last of
+		// them in the ordering
+		Comparator<Tuple> cmp = new TupleComparator(orderByField, asc);
+		PriorityQueue<Tuple> top = new PriorityQueue<Tuple>(Math.max(1, Math.min(limit, MAX_INITIAL_CAPACITY)),
+				Collections.reverseOrder(cmp));
+		while (child.hasNext()) {
+			Tuple t = child.next();
+			if (top.size() < limit) {
+				top.add(t);
+			} else if (limit > 0 && cmp.compare(t, top.peek()) < 0) {
+				top.poll();
+				top.add(t);
+			}
+		}
+		topTups = new ArrayList<Tuple>(top);
+		Collections.sort(topTups, cmp);
+		it = topTups.iterator();
 	}
 
 	public void close() {
+		super.close();
+		if (sort != null)
+			sort.close();
+		else
+			child.close();
+		topTups = null;
 		it = null;
 	}
 
 	public void rewind() throws DbException, TransactionAbortedException {
-		it = childTups.iterator();
+		super.close();
+		if (sort != null) {
+			sort.rewind();
+			returned = 0;
+		} else
+			it = topTups.iterator();
 	}
 
 	/**
@@ -59,31 +163,17 @@ public class OrderBy extends AbstractDbIterator {
 	 *         tuples
 	 */
 	protected Tuple readNext() throws NoSuchElementException, TransactionAbortedException, DbException {
+		if (sort != null) {
+			if (limit != NO_LIMIT && returned >= limit)
+				return null;
+			if (!sort.hasNext())
+				return null;
+			returned++;
+			return sort.next();
+		}
 		if (it != null && it.hasNext()) {
 			return it.next();
 		} else
 			return null;
 	}
 }
-
-class TupleComparator implements Comparator<Tuple> {
-	int field;
-	boolean asc;
-
-	public TupleComparator(int field, boolean asc) {
-		this.field = field;
-		this.asc = asc;
-	}
-
-	public int compare(Tuple o1, Tuple o2) {
-		Field t1 = (o1).getField(field);
-		Field t2 = (o2).getField(field);
-		if (t1.compare(Predicate.Op.EQUALS, t2))
-			return 0;
-		if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-			return asc ? 1 : -1;
-		else
-			return asc ? -1 : 1;
-	}
-
-}
@@ -0,0 +1,20 @@
+package cbpdbms;
+
+/**
+ * OrderedDbIterator is implemented by operators whose output is sorted on one
+ * field, such as {@link OrderBy} and {@link ExternalSort}. Operators that need
+ * sorted input (e.g. {@link SortMergeJoin}) check for it so that they do not
+ * sort an input again.
+ */
+public interface OrderedDbIterator extends DbIterator {
+	/**
+	 * @return the index of the field the tuples are sorted on
+	 */
+	public int getOrderByField();
+
+	/**
+	 * @return true if the tuples are in ascending order, false if they are in
+	 *         descending order
+	 */
+	public boolean isAsc();
+}
@@ -53,6 +53,16 @@ public interface Page {
 	 */
 	public Page getBeforeImage();
 
+	/**
+	 * Returns the bytes of the before image, those getBeforeImage().getPageData()
+	 * returns, without creating the page. Used to log the before image.
+	 * <p>
+	 * The array may be the one the page keeps, so it must not be changed.
+	 *
+	 * @return the bytes of the before image of this page
+	 */
+	public byte[] getBeforeImageData();
+
 	/*
 	 * a transaction that wrote this page just committed it. copy current
 	 * content to the before image.
@@ -0,0 +1,199 @@
+package cbpdbms;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PageChannel reads and writes the pages of a file through a FileChannel kept
+ * open, rather than a RandomAccessFile opened for each page. Reads and writes
+ * are positional, so threads reading pages of the same file in parallel do
+ * not share a file pointer, and the length of the file is kept in memory.
+ * <p>
+ * The channel is opened on the first access, so a file may be written by
+ * other means, e.g. HeapFileEncoder, before the DbFile reading it is used.
+ * After that, all the writes to the file must go through the PageChannel,
+ * until it is closed; an access after close opens the channel again.
+ * <p>
+ * Pages may also be mapped, see {@link #mapPage}: the file is then mapped
+ * read-only in chunks of MAP_CHUNK bytes, each mapped on the first access to
+ * one of its pages.
+ */
+class PageChannel {
+	/** The size of the regions of the file mapped at once, 16384 pages */
+	static final long MAP_CHUNK = 64L << 20;
+
+	File f;
+	volatile FileChannel channel;
+	AtomicLong length;// the length of the file, valid once the channel is open
+	Map<Integer, MappedByteBuffer> chunks;// the mapped chunks, by number
+	AtomicLong writes;// the number of pages written so far
+
+	/**
+	 * @param f
+	 *            the file of the pages
+	 */
+	PageChannel(File f) {
+		this.f = f;
+		this.channel = null;
+		this.length = new AtomicLong(0);
+		this.chunks = new ConcurrentHashMap<Integer, MappedByteBuffer>();
+		this.writes = new AtomicLong(0);
+	}
+
+	/**
+	 * @return the open channel of the file, opened again if an interrupt of
+	 *         a thread using it closed it
+	 */
+	private FileChannel channel() throws IOException {
+		FileChannel ch = channel;
+		if (ch != null && ch.isOpen())
+			return ch;
+		synchronized (this) {
+			if (channel == null || !channel.isOpen()) {
+				FileChannel opened = new RandomAccessFile(f, "rw").getChannel();
+				length.set(opened.size());
+				channel = opened;
+			}
+			return channel;
+		}
+	}
+
+	/**
+	 * Reads a page. The bytes of the page past the end of the file are 0.
+	 *
+	 * @param pgno
+	 *            the number of the page
+	 * @return the PAGE_SIZE bytes of the page
+	 */
+	byte[] readPage(int pgno) throws IOException {
+		return readPages(pgno, 1);
+	}
+
+	/**
+	 * Reads consecutive pages with one read of the file. The bytes of the
+	 * pages past the end of the file are 0.
+	 *
+	 * @param pgno
+	 *            the number of the first page
+	 * @param count
+	 *            the number of pages
+	 * @return the count * PAGE_SIZE bytes of the pages
+	 */
+	byte[] readPages(int pgno, int count) throws IOException {
+		byte[] data = new byte[count * BufferPool.PAGE_SIZE];
+		ByteBuffer buf = ByteBuffer.wrap(data);
+		FileChannel ch = channel();
+		long pos = (long) pgno * BufferPool.PAGE_SIZE;
+		while (buf.hasRemaining()) {
+			int n = ch.read(buf, pos + buf.position());
+			if (n < 0)
+				break;
+		}
+		return data;
+	}
+
+	/**
+	 * Returns a page as a read-only slice of the mapping of the file, without
+	 * copying it. The slice reflects later writes to the page. A page that is
+	 * not entirely in the file is read like {@link #readPage} instead.
+	 *
+	 * @param pgno
+	 *            the number of the page
+	 * @return the PAGE_SIZE bytes of the page
+	 */
+	ByteBuffer mapPage(int pgno) throws IOException {
+		long pos = (long) pgno * BufferPool.PAGE_SIZE;
+		if (pos + BufferPool.PAGE_SIZE > length())
+			return ByteBuffer.wrap(readPage(pgno)).asReadOnlyBuffer();
+
+		int chunk = (int) (pos / MAP_CHUNK);
+		long start = chunk * MAP_CHUNK;
+		MappedByteBuffer map = chunks.get(chunk);
+		// a chunk mapped when the file was shorter is mapped again
+		if (map == null || start + map.capacity() < pos + BufferPool.PAGE_SIZE) {
+			map = channel().map(FileChannel.MapMode.READ_ONLY, start, Math.min(MAP_CHUNK, length() - start));
+			chunks.put(chunk, map);
+		}
+		ByteBuffer page = map.duplicate();
+		page.position((int) (pos - start));
+		page.limit((int) (pos - start) + BufferPool.PAGE_SIZE);
+		return page.slice();
+	}
+
+	/**
+	 * Writes a page, extending the file if the page is past its end.
+	 *
+	 * @param pgno
+	 *            the number of the page
+	 * @param data
+	 *            the PAGE_SIZE bytes of the page
+	 */
+	void writePage(int pgno, byte[] data) throws IOException {
+		ByteBuffer buf = ByteBuffer.wrap(data, 0, BufferPool.PAGE_SIZE);
+		FileChannel ch = channel();
+		long pos = (long) pgno * BufferPool.PAGE_SIZE;
+		while (buf.hasRemaining())
+			ch.write(buf, pos + buf.position());
+		extendTo(pos + BufferPool.PAGE_SIZE);
+		writes.incrementAndGet();
+	}
+
+	/**
+	 * @return the number of pages written so far, to tell whether the file
+	 *         changed while it was read
+	 */
+	long writeCount() {
+		return writes.get();
+	}
+
+	private void extendTo(long end) {
+		while (true) {
+			long len = length.get();
+			if (len >= end || length.compareAndSet(len, end))
+				return;
+		}
+	}
+
+	/**
+	 * @return the length of the file, in bytes
+	 */
+	long length() {
+		if (channel == null && !f.exists())
+			return 0;
+		try {
+			channel();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return length.get();
+	}
+
+	/**
+	 * Closes the channel, if it is open. The pages already mapped stay valid.
+	 */
+	synchronized void close() {
+		if (channel == null)
+			return;
+		try {
+			channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		channel = null;
+	}
+
+	/**
+	 * Extends the file with pages of zeros up to numPages pages, if it is
+	 * shorter.
+	 */
+	void extendToPages(int numPages) throws IOException {
+		long end = (long) numPages * BufferPool.PAGE_SIZE;
+		if (length() < end)
+			writePage(numPages - 1, new byte[BufferPool.PAGE_SIZE]);
+	}
+}
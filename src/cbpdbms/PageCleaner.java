@@ -0,0 +1,98 @@
+package cbpdbms;
+
+import java.io.IOException;
+
+/**
+ * PageCleaner is a background thread writing back the pages of a BufferPool
+ * whose committed contents are not on disk yet, so that evictions find pages
+ * they can drop without a write, and checkpoints have few pages left to
+ * write.
+ * <p>
+ * The cleaner wakes up every PERIOD_MS milliseconds. Once more than the high
+ * water mark of the pool is not written back, it writes pages, in file and
+ * page number order so that the writes are mostly sequential, until no more
+ * than the low water mark is left. It writes at most rate pages per second,
+ * and skips the pinned pages, which are in use.
+ *
+ * @see BufferPool#startCleaner
+ */
+public class PageCleaner extends Thread {
+	/** The time the cleaner sleeps between two rounds, in milliseconds */
+	static final long PERIOD_MS = 20;
+
+	BufferPool bp;
+	int pagesPerRound;
+	int lowPages;
+	int highPages;
+	volatile boolean running;
+	boolean cleaning;// above the high water mark, not back to the low one yet
+
+	/**
+	 * @param bp
+	 *            the pool to clean
+	 * @param rate
+	 *            the most pages written per second
+	 * @param lowWater
+	 *            the fraction of the pool the cleaner stops at
+	 * @param highWater
+	 *            the fraction of the pool not written back the cleaner starts
+	 *            at
+	 */
+	PageCleaner(BufferPool bp, int rate, double lowWater, double highWater) {
+		if (rate <= 0)
+			throw new IllegalArgumentException("rate must be positive");
+		if (lowWater < 0 || lowWater > highWater || highWater > 1)
+			throw new IllegalArgumentException("water marks must be 0 <= low <= high <= 1");
+		this.bp = bp;
+		this.pagesPerRound = (int) Math.max(1, rate * PERIOD_MS / 1000);
+		this.lowPages = (int) (lowWater * bp.numPages);
+		this.highPages = (int) (highWater * bp.numPages);
+		this.running = true;
+		this.cleaning = false;
+		setName("PageCleaner");
+		setDaemon(true);
+	}
+
+	public void run() {
+		while (running) {
+			try {
+				Thread.sleep(PERIOD_MS);
+				clean();
+			} catch (InterruptedException e) {
+				return;
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Runs a round: writes up to pagesPerRound pages if the pool is above its
+	 * high water mark, or still on its way down to the low one.
+	 */
+	void clean() throws IOException {
+		if (bp.getUnwrittenCount() > highPages)
+			cleaning = true;
+		if (!cleaning)
+			return;
+		int written = 0;
+		for (PageId pid : bp.unwrittenPages()) {
+			if (written == pagesPerRound || bp.getUnwrittenCount() <= lowPages)
+				break;
+			if (bp.cleanPage(pid))
+				written++;
+		}
+		if (bp.getUnwrittenCount() <= lowPages)
+			cleaning = false;
+	}
+
+	/**
+	 * Stops the cleaner and waits for its round to end.
+	 */
+	void shutdown() throws InterruptedException {
+		// NOTE: not interrupted, an interrupt closes the channel of the log
+		// if it comes while the cleaner forces the log
+		running = false;
+		join();
+	}
+}
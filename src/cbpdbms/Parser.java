@@ -4,6 +4,8 @@ import Zql.*;
 
 import java.io.*;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -11,6 +13,11 @@ import jline.SimpleCompletor;
 
 public class Parser {
 	static boolean explain = false;
+	/**
+	 * A trailing LIMIT clause; Zql does not know LIMIT, so it is removed from
+	 * the statement text before Zql sees it, see parseLimit
+	 */
+	static final Pattern LIMIT_PATTERN = Pattern.compile("(?is)^(.*)\\s+limit\\s+(\\d+)\\s*(;?)\\s*$");
 	static HashMap<String, TableStats> statsMap = new HashMap<String, TableStats>();
 	private static final int IOCOSTPERPAGE = 1000;
 
@@ -130,6 +137,15 @@ public class Parser {
 
 	public static LogicalPlan parseQueryLogicalPlan(TransactionId tid, ZQuery q) throws IOException, Zql.ParseException,
 			cbpdbms.ParsingException, DbException, TransactionAbortedException {
+		return parseQueryLogicalPlan(tid, q, OrderBy.NO_LIMIT);
+	}
+
+	/**
+	 * @param limit
+	 *            the LIMIT of the statement of q, or OrderBy.NO_LIMIT
+	 */
+	public static LogicalPlan parseQueryLogicalPlan(TransactionId tid, ZQuery q, int limit) throws IOException,
+			Zql.ParseException, cbpdbms.ParsingException, DbException, TransactionAbortedException {
 		@SuppressWarnings("unchecked")
 		Vector<ZFromItem> from = q.getFrom();
 		LogicalPlan lp = new LogicalPlan();
@@ -248,21 +264,37 @@ public class Parser {
 			lp.addOrderBy(f.getValue(), oby.getAscOrder());
 
 		}
+		if (limit != OrderBy.NO_LIMIT) {
+			if (q.getOrderBy() == null) {
+				throw new cbpdbms.ParsingException("LIMIT without ORDER BY is not supported.");
+			}
+			lp.addLimit(limit);
+		}
 		return lp;
 	}
 
 	public static DbIterator parseQuery(TransactionId tid, ZQuery q) throws IOException, Zql.ParseException,
 			cbpdbms.ParsingException, DbException, TransactionAbortedException {
-		return parseQueryLogicalPlan(tid, q).physicalPlan(tid, statsMap, explain);
+		return parseQuery(tid, q, OrderBy.NO_LIMIT);
+	}
+
+	public static DbIterator parseQuery(TransactionId tid, ZQuery q, int limit) throws IOException,
+			Zql.ParseException, cbpdbms.ParsingException, DbException, TransactionAbortedException {
+		return parseQueryLogicalPlan(tid, q, limit).physicalPlan(tid, statsMap, explain);
 	}
 
 	static Transaction curtrans = null;
 
 	public static void handleQueryStatement(ZQuery s) throws TransactionAbortedException, DbException, IOException,
 			cbpdbms.ParsingException, Zql.ParseException {
+		handleQueryStatement(s, OrderBy.NO_LIMIT);
+	}
+
+	public static void handleQueryStatement(ZQuery s, int limit) throws TransactionAbortedException, DbException,
+			IOException, cbpdbms.ParsingException, Zql.ParseException {
 		// and run it
 		DbIterator node;
-		node = parseQuery(curtrans.getId(), s);
+		node = parseQuery(curtrans.getId(), s, limit);
 
 		Query sdbq = new Query(node, curtrans.getId());
 		TupleDesc td = node.getTupleDesc();
@@ -327,11 +359,11 @@ public class Parser {
 					IntField f = new IntField(new Integer(zc.getValue()));
 					t.setField(i, f);
 				} else if (zc.getType() == ZConstant.STRING) {
-					if (td.getType(i) != Type.STRING_TYPE) {
+					if (td.getType(i) == Type.INT_TYPE) {
 						throw new cbpdbms.ParsingException(
 								"Value " + zc.getValue() + " is a string, expected an integer.");
 					}
-					StringField f = new StringField(zc.getValue(), Type.STRING_LEN);
+					StringField f = new StringField(zc.getValue(), td.getMaxLen(i));
 					t.setField(i, f);
 				} else {
 					throw new cbpdbms.ParsingException("Only string or int fields are supported.");
@@ -412,14 +444,44 @@ public class Parser {
 		}
 	}
 
+	/**
+	 * @return the value of the trailing LIMIT clause of a statement, for its
+	 *         ORDER BY, or OrderBy.NO_LIMIT if it has none
+	 * @throws ParsingException
+	 *             if the LIMIT does not fit in an int
+	 */
+	static int parseLimit(String s) throws cbpdbms.ParsingException {
+		Matcher m = LIMIT_PATTERN.matcher(s);
+		if (!m.matches())
+			return OrderBy.NO_LIMIT;
+		try {
+			return Integer.parseInt(m.group(2));
+		} catch (NumberFormatException e) {
+			throw new cbpdbms.ParsingException("LIMIT " + m.group(2) + " is too large.");
+		}
+	}
+
+	/**
+	 * Removes a trailing LIMIT clause from a statement, see parseLimit.
+	 * 
+	 * @return the statement without its LIMIT clause
+	 */
+	static String stripLimit(String s) {
+		Matcher m = LIMIT_PATTERN.matcher(s);
+		if (!m.matches())
+			return s;
+		return m.group(1) + m.group(3);
+	}
+
 	public static LogicalPlan generateLogicalPlan(TransactionId tid, String s)
 			throws cbpdbms.ParsingException, DbException, TransactionAbortedException {
-		ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+		int limit = parseLimit(s);
+		ByteArrayInputStream bis = new ByteArrayInputStream(stripLimit(s).getBytes());
 		ZqlParser p = new ZqlParser(bis);
 		try {
 			ZStatement stmt = p.readStatement();
 			if (stmt instanceof ZQuery) {
-				LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+				LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt, limit);
 				return lp;
 			}
 		} catch (Zql.ParseException e) {
@@ -440,8 +502,15 @@ public class Parser {
 	}
 
 	public static void processNextStatement(String s) {
+		int limit;
 		try {
-			processNextStatement(new ByteArrayInputStream(s.getBytes("UTF-8")));
+			limit = parseLimit(s);
+		} catch (cbpdbms.ParsingException e) {
+			System.out.println("Invalid SQL expression: \n \t" + e.getMessage());
+			return;
+		}
+		try {
+			processNextStatement(new ByteArrayInputStream(stripLimit(s).getBytes("UTF-8")), limit);
 		} catch (UnsupportedEncodingException e) {
 			e.printStackTrace();
 			throw new RuntimeException(e);
@@ -449,6 +518,15 @@ public class Parser {
 	}
 
 	public static void processNextStatement(InputStream is) {
+		processNextStatement(is, OrderBy.NO_LIMIT);
+	}
+
+	/**
+	 * @param limit
+	 *            the LIMIT of the statement, removed from is, or
+	 *            OrderBy.NO_LIMIT
+	 */
+	static void processNextStatement(InputStream is, int limit) {
 		try {
 			ZqlParser p = new ZqlParser(is);
 			ZStatement s = p.readStatement();
@@ -460,7 +538,7 @@ public class Parser {
 			else if (s instanceof ZDelete)
 				handleDeleteStatement((ZDelete) s);
 			else if (s instanceof ZQuery)
-				handleQueryStatement((ZQuery) s);
+				handleQueryStatement((ZQuery) s, limit);
 			else {
 				System.out.println("Can't parse " + s
 						+ "\n -- parser only handles SQL transactions, insert, delete, and select statements");
@@ -483,7 +561,7 @@ public class Parser {
 
 	// Basic SQL completions
 	static final String[] SQL_COMMANDS = { "select", "from", "where", "group by", "max(", "min(", "avg(", "count",
-			"rollback", "commit", "insert", "delete", "values", "into" };
+			"rollback", "commit", "insert", "delete", "values", "into", "limit" };
 
 	public static void main(String argv[]) throws IOException {
 
@@ -555,7 +633,6 @@ public class Parser {
 				while (line.indexOf(';') >= 0) {
 					int split = line.indexOf(';');
 					buffer.append(line.substring(0, split + 1));
-					byte[] statementBytes = buffer.toString().getBytes("UTF-8");
 
 					// create a transaction for the query
 					if (curtrans == null) {
@@ -564,7 +641,7 @@ public class Parser {
 						System.out.println("Started a new transaction tid = " + curtrans.getId().getId());
 					}
 					long startTime = System.currentTimeMillis();
-					processNextStatement(new ByteArrayInputStream(statementBytes));
+					processNextStatement(buffer.toString());
 					long time = System.currentTimeMillis() - startTime;
 					System.out.printf("----------------\n%.2f seconds\n\n", ((double) time / 1000.0));
 					// Grab the remainder of the line
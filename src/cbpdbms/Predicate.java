@@ -56,6 +56,27 @@ public class Predicate {
 		this.operand = operand;
 	}
 
+	/**
+	 * @return the field number
+	 */
+	public int getField() {
+		return this.fieldno;
+	}
+
+	/**
+	 * @return the operator
+	 */
+	public Op getOp() {
+		return this.op;
+	}
+
+	/**
+	 * @return the operand
+	 */
+	public Field getOperand() {
+		return this.operand;
+	}
+
 	/**
 	 * Compares the field number of t specified in the constructor to the
 	 * operand field specified in the constructor using the operator specific in
@@ -0,0 +1,92 @@
+package cbpdbms;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Prefetcher is a background I/O thread reading pages ahead of sequential
+ * scans, see BufferPool#prefetchPages, so that a scan finds the next pages in
+ * the pool instead of waiting for a read of each page.
+ * <p>
+ * The requests wait in a ring buffer of QUEUE_SIZE requests. Read-ahead is
+ * only a hint: a request made while the buffer is full is dropped, and the
+ * scan reads the pages itself.
+ *
+ * @see HeapFileIterator
+ */
+public class Prefetcher extends Thread {
+	/** The most requests waiting at once */
+	static final int QUEUE_SIZE = 64;
+
+	private static Prefetcher instance;
+
+	/**
+	 * A request to read pages start..start+count-1 of a file into a pool.
+	 */
+	private static class Request {
+		BufferPool bp;
+		HeapFile file;
+		int start;
+		int count;
+
+		Request(BufferPool bp, HeapFile file, int start, int count) {
+			this.bp = bp;
+			this.file = file;
+			this.start = start;
+			this.count = count;
+		}
+	}
+
+	BlockingQueue<Request> requests;
+
+	private Prefetcher() {
+		this.requests = new ArrayBlockingQueue<Request>(QUEUE_SIZE);
+		setName("Prefetcher");
+		setDaemon(true);
+	}
+
+	/**
+	 * Asks for pages of a file to be read into a pool in the background.
+	 *
+	 * @param bp
+	 *            the pool to read the pages into
+	 * @param file
+	 *            the file of the pages
+	 * @param start
+	 *            the number of the first page
+	 * @param count
+	 *            the number of pages
+	 * @return false if the request was dropped
+	 */
+	public static boolean prefetch(BufferPool bp, HeapFile file, int start, int count) {
+		return instance().requests.offer(new Request(bp, file, start, count));
+	}
+
+	private static synchronized Prefetcher instance() {
+		if (instance == null) {
+			instance = new Prefetcher();
+			instance.start();
+		}
+		return instance;
+	}
+
+	public void run() {
+		while (true) {
+			Request r;
+			try {
+				r = requests.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			try {
+				r.bp.prefetchPages(r.file, r.start, r.count);
+			} catch (IOException e) {
+				// NOTE: the scan reads the pages itself, and reports the error
+				// if it comes again
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
@@ -0,0 +1,48 @@
+package cbpdbms;
+
+/**
+ * The interface for the page replacement policies of the BufferPool. A policy
+ * tracks the pages that are in the pool and chooses the one to evict when a
+ * page has to be read into a full pool.
+ * <p>
+ * The BufferPool calls add when a page enters the pool, access on every hit
+ * and remove when a page leaves it. Implementations are thread-safe; access is
+ * called on every getPage, so it should be cheap.
+ *
+ * @see ClockPolicy
+ * @see LruKPolicy
+ * @see TwoQueuePolicy
+ */
+public interface ReplacementPolicy {
+	/**
+	 * Tells whether a page of the pool may be evicted right now, e.g. it is
+	 * not dirty.
+	 */
+	public interface Evictable {
+		public boolean isEvictable(PageId pid);
+	}
+
+	/**
+	 * A page was read into the pool. The pool holds at most the number of
+	 * pages the policy was created for.
+	 */
+	public void add(PageId pid);
+
+	/**
+	 * A page of the pool was accessed.
+	 */
+	public void access(PageId pid);
+
+	/**
+	 * A page left the pool, it is ignored if it is not tracked.
+	 */
+	public void remove(PageId pid);
+
+	/**
+	 * Chooses the page to evict among the pages of the pool that are
+	 * evictable. The page is still tracked until it is removed.
+	 *
+	 * @return the page to evict, null if no page is evictable
+	 */
+	public PageId victim(Evictable evictable);
+}
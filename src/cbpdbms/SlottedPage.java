@@ -0,0 +1,297 @@
+package cbpdbms;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * SlottedPage stores the pages of HeapFiles whose tuples have fields of
+ * variable length, VARCHARs, which take the bytes of their value only rather
+ * than STRING_LEN bytes. The format of a SlottedPage is:
+ * <ul>
+ * <li>the number of entries of the slot directory, a short</li>
+ * <li>the offset of the first byte of the records, a short, 0 for PAGE_SIZE
+ * so that a page of zeros is an empty page</li>
+ * <li>the slot directory: for each slot, the offset and the length of its
+ * record, two shorts, the offset 0 for an empty slot</li>
+ * <li>free space</li>
+ * <li>the records, from the end of the page down</li>
+ * </ul>
+ * A record holds the fields of a tuple in order: a VARCHAR as the number of
+ * its characters, a short, followed by one byte per character, the other
+ * fields in their fixed-size format.
+ * <p>
+ * The slot of a tuple does not change while it is on the page, so its
+ * RecordId stays valid: records are moved to gather the free space only when
+ * a tuple does not fit otherwise, and their directory entries follow them.
+ *
+ * @see HeapPage
+ * @see TupleDesc#hasVariableLength
+ */
+public class SlottedPage extends HeapPage {
+	/** The size of the header, before the slot directory */
+	static final int HEADER_SIZE = 4;
+	/** The size of an entry of the slot directory */
+	static final int SLOT_SIZE = 4;
+
+	int maxSlots;// the most tuples a page may hold, those of the smallest size
+
+	/**
+	 * Create a SlottedPage from a set of bytes of data read from disk. Like
+	 * those of a HeapPage, the bytes are not copied, and must not be changed
+	 * while the page is in use.
+	 */
+	public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+		this(id, ByteBuffer.wrap(data), Database.getCatalog().getTupleDesc(id.getTableId()));
+	}
+
+	/**
+	 * Create a SlottedPage from a buffer holding its bytes, e.g. a slice of a
+	 * mapped file, without copying them.
+	 */
+	public SlottedPage(HeapPageId id, ByteBuffer data) throws IOException {
+		this(id, data, Database.getCatalog().getTupleDesc(id.getTableId()));
+	}
+
+	SlottedPage(HeapPageId id, ByteBuffer data, TupleDesc td) throws IOException {
+		super(id, data, td);
+		int minRecord = 0;
+		for (int j = 0; j < td.numFields(); j++)
+			minRecord += td.getType(j) == Type.VARCHAR_TYPE ? 2 : td.getType(j).getLen();
+		this.maxSlots = (BufferPool.PAGE_SIZE - HEADER_SIZE) / (SLOT_SIZE + minRecord);
+		this.numSlots = this.data.getShort(0) & 0xffff;
+		if (numSlots > maxSlots || directoryEnd(numSlots) > freeEnd())
+			throw new IOException("malformed slotted page " + id.pageno());
+		this.tuples = new AtomicReferenceArray<Tuple>(maxSlots);
+	}
+
+	public SlottedPage getBeforeImage() {
+		try {
+			return new SlottedPage(pid, before, td);
+		} catch (IOException e) {
+			e.printStackTrace();
+			// should never happen -- we parsed it OK before!
+			System.exit(1);
+		}
+		return null;
+	}
+
+	/**
+	 * @return the offset of the first byte after a slot directory of slots
+	 *         entries
+	 */
+	private static int directoryEnd(int slots) {
+		return HEADER_SIZE + slots * SLOT_SIZE;
+	}
+
+	/**
+	 * @return the offset of the first byte of the records
+	 */
+	private int freeEnd() {
+		int end = data.getShort(2) & 0xffff;
+		return end == 0 ? BufferPool.PAGE_SIZE : end;
+	}
+
+	private void setFreeEnd(int end) {
+		data.putShort(2, (short) (end == BufferPool.PAGE_SIZE ? 0 : end));
+	}
+
+	private int recordOffset(int i) {
+		return data.getShort(directoryEnd(i)) & 0xffff;
+	}
+
+	private int recordLength(int i) {
+		return data.getShort(directoryEnd(i) + 2) & 0xffff;
+	}
+
+	private void setRecord(int i, int offset, int length) {
+		data.putShort(directoryEnd(i), (short) offset);
+		data.putShort(directoryEnd(i) + 2, (short) length);
+	}
+
+	/**
+	 * @return the number of bytes of the record of t
+	 */
+	private int recordLength(Tuple t) {
+		int len = 0;
+		for (int j = 0; j < td.numFields(); j++) {
+			if (td.getType(j) == Type.VARCHAR_TYPE)
+				len += 2 + Math.min(((StringField) t.getField(j)).getValue().length(), td.getMaxLen(j));
+			else
+				len += td.getType(j).getLen();
+		}
+		return len;
+	}
+
+	/**
+	 * @return the number of bytes free once the records are gathered, with a
+	 *         slot directory of slots entries
+	 */
+	private int freeBytes(int slots) {
+		int used = 0;
+		for (int i = 0; i < numSlots; i++)
+			if (getSlot(i))
+				used += recordLength(i);
+		return BufferPool.PAGE_SIZE - directoryEnd(slots) - used;
+	}
+
+	public boolean getSlot(int i) {
+		return i >= 0 && i < numSlots && recordOffset(i) != 0;
+	}
+
+	/**
+	 * @return the first empty slot, numSlots if there is none but the
+	 *         directory may grow, -1 otherwise
+	 */
+	public int getEmptySlot() {
+		for (int i = 0; i < numSlots; i++)
+			if (!getSlot(i))
+				return i;
+		return numSlots < maxSlots ? numSlots : -1;
+	}
+
+	public boolean hasRoomFor(Tuple t) {
+		int slot = getEmptySlot();
+		if (slot < 0)
+			return false;
+		return recordLength(t) <= freeBytes(Math.max(numSlots, slot + 1));
+	}
+
+	/**
+	 * Returns the number of tuples of the largest size that still fit on this
+	 * page.
+	 */
+	public int getNumEmptySlots() {
+		int largest = 0;
+		for (int j = 0; j < td.numFields(); j++)
+			largest += td.getType(j) == Type.VARCHAR_TYPE ? 2 + td.getMaxLen(j) : td.getType(j).getLen();
+
+		int empty = 0;
+		for (int i = 0; i < numSlots; i++)
+			if (!getSlot(i))
+				empty++;
+		int free = freeBytes(numSlots);
+		int fit = 0;
+		while (fit < empty || numSlots + fit - empty < maxSlots) {
+			int need = largest + (fit < empty ? 0 : SLOT_SIZE);
+			if (need > free)
+				break;
+			free -= need;
+			fit++;
+		}
+		return fit;
+	}
+
+	Tuple decodeTuple(int i) {
+		Tuple t = new Tuple(td);
+		t.setRecordId(new RecordId(pid, i));
+		int offset = recordOffset(i);
+		for (int j = 0; j < td.numFields(); j++) {
+			Type type = td.getType(j);
+			if (type == Type.VARCHAR_TYPE) {
+				int len = data.getShort(offset);
+				byte bs[] = new byte[len];
+				for (int k = 0; k < len; k++)
+					bs[k] = data.get(offset + 2 + k);
+				t.setField(j, new StringField(new String(bs), td.getMaxLen(j)));
+				offset += 2 + len;
+			} else {
+				t.setField(j, type.parse(data, offset));
+				offset += type.getLen();
+			}
+		}
+		return t;
+	}
+
+	/**
+	 * Adds the specified tuple to the page, the values of its VARCHARs cut to
+	 * the length of their field.
+	 *
+	 * @throws DbException
+	 *             if the tuple does not fit on the page
+	 */
+	public void addTuple(Tuple t) throws DbException {
+		if (!hasRoomFor(t))
+			throw new DbException("page is full");
+		int slot = getEmptySlot();
+		int slots = Math.max(numSlots, slot + 1);
+		int len = recordLength(t);
+
+		ensureWritable();
+		if (freeEnd() - directoryEnd(slots) < len)
+			compact();
+		int offset = freeEnd() - len;
+		int pos = offset;
+		for (int j = 0; j < td.numFields(); j++) {
+			Type type = td.getType(j);
+			if (type == Type.VARCHAR_TYPE) {
+				String s = ((StringField) t.getField(j)).getValue();
+				int n = Math.min(s.length(), td.getMaxLen(j));
+				data.putShort(pos, (short) n);
+				for (int k = 0; k < n; k++)
+					data.put(pos + 2 + k, (byte) s.charAt(k));
+				pos += 2 + n;
+			} else {
+				t.getField(j).serialize(data, pos);
+				pos += type.getLen();
+			}
+		}
+		numSlots = slots;
+		data.putShort(0, (short) numSlots);
+		setRecord(slot, offset, len);
+		setFreeEnd(offset);
+
+		t.setRecordId(new RecordId(pid, slot));
+		// NOTE: decoded again when asked for, the values stored may be cut
+		tuples.set(slot, null);
+	}
+
+	/**
+	 * Delete the specified tuple from the page. The space of its record is
+	 * reused once the records are gathered.
+	 *
+	 * @throws DbException
+	 *             if this tuple is not on this page, or tuple slot is already
+	 *             empty.
+	 */
+	public void deleteTuple(Tuple t) throws DbException {
+		RecordId rid = t.getRecordId();
+		if (!rid.getPageId().equals(this.pid))
+			throw new DbException("tuple is not on this page");
+		int slot = rid.tupleno();
+		if (!getSlot(slot))
+			throw new DbException("tuple slot is already empty");
+
+		ensureWritable();
+		if (recordOffset(slot) == freeEnd())
+			setFreeEnd(freeEnd() + recordLength(slot));
+		setRecord(slot, 0, 0);
+		tuples.set(slot, null);
+		// the empty entries at the end of the directory are dropped
+		while (numSlots > 0 && !getSlot(numSlots - 1))
+			numSlots--;
+		data.putShort(0, (short) numSlots);
+		if (numSlots == 0)
+			setFreeEnd(BufferPool.PAGE_SIZE);
+	}
+
+	/**
+	 * Moves the records to the end of the page, next to each other, so that
+	 * the free space is in one piece.
+	 */
+	private void compact() {
+		ByteBuffer old = ByteBuffer.wrap(getPageData().clone());
+		int end = BufferPool.PAGE_SIZE;
+		for (int i = 0; i < numSlots; i++) {
+			if (!getSlot(i))
+				continue;
+			int len = recordLength(i);
+			int from = recordOffset(i);
+			end -= len;
+			for (int k = 0; k < len; k++)
+				data.put(end + k, old.get(from + k));
+			setRecord(i, end, len);
+		}
+		setFreeEnd(end);
+	}
+}
@@ -0,0 +1,286 @@
+package cbpdbms;
+
+import java.util.*;
+
+/**
+ * The SortMergeJoin operator joins two inputs sorted on their join fields. It
+ * supports equality and range predicates (EQUALS, LESS_THAN, LESS_THAN_OR_EQ,
+ * GREATER_THAN and GREATER_THAN_OR_EQ).
+ * <p>
+ * Inputs are sorted with an {@link ExternalSort} unless they already are an
+ * {@link OrderedDbIterator} in the required order, e.g. the output of an
+ * {@link OrderBy} on the join field. For EQUALS both inputs are sorted in
+ * ascending order and the right tuples of each key are buffered while the
+ * left tuples with that key are read. For a range predicate both inputs are
+ * sorted so that the right tuples that match a left tuple form a prefix of the
+ * right input that only grows as the left input is read: ascending for
+ * GREATER_THAN(_OR_EQ), descending for LESS_THAN(_OR_EQ). That prefix is
+ * buffered and joined with each left tuple.
+ * <p>
+ * Buffered right tuples beyond the memory budget are kept in a
+ * {@link SpillFile}. The output tuples are the fields of child1 followed by
+ * the fields of child2, the same as {@link Join}.
+ */
+public class SortMergeJoin extends AbstractDbIterator {
+	/**
+	 * Default memory budget, in pages, of each sort and of the right buffer.
+	 */
+	public static final int DEFAULT_MEM_PAGES = 50;
+
+	JoinPredicate p;
+	DbIterator child1;
+	DbIterator child2;
+	int memPages;
+	boolean asc;// the order both inputs are read in
+
+	DbIterator left;// child1, sorted
+	DbIterator right;// child2, sorted
+
+	Tuple leftTup;
+	Tuple rightTup;// next right tuple not in the buffer, null if none
+
+	/**
+	 * the buffered right tuples: the current key for EQUALS, the matching
+	 * prefix for a range predicate
+	 */
+	ArrayList<Tuple> buffer;
+	SpillFile overflow;
+	int bufferPos;
+	DbIterator overflowIt;
+
+	/**
+	 * Constructor, with the default memory budget.
+	 *
+	 * @param p
+	 *            The predicate to use to join the children
+	 * @param child1
+	 *            Iterator for the left(outer) relation to join
+	 * @param child2
+	 *            Iterator for the right(inner) relation to join
+	 */
+	public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+		this(p, child1, child2, DEFAULT_MEM_PAGES);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param p
+	 *            The predicate to use to join the children
+	 * @param child1
+	 *            Iterator for the left(outer) relation to join
+	 * @param child2
+	 *            Iterator for the right(inner) relation to join
+	 * @param memPages
+	 *            the number of pages of tuples each sort and the right buffer
+	 *            may hold in memory, at least 3
+	 */
+	public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2, int memPages) {
+		if (!supports(p.getOperator()))
+			throw new IllegalArgumentException("SortMergeJoin does not support " + p.getOperator());
+		if (memPages < 3)
+			throw new IllegalArgumentException("memPages must be at least 3");
+
+		this.p = p;
+		this.child1 = child1;
+		this.child2 = child2;
+		this.memPages = memPages;
+		this.asc = p.getOperator() != Predicate.Op.LESS_THAN && p.getOperator() != Predicate.Op.LESS_THAN_OR_EQ;
+		this.left = sorted(child1, p.getField1(), asc, memPages);
+		this.right = sorted(child2, p.getField2(), asc, memPages);
+	}
+
+	/**
+	 * @return true if SortMergeJoin can evaluate a join predicate with the
+	 *         specified operator
+	 */
+	public static boolean supports(Predicate.Op op) {
+		switch (op) {
+		case EQUALS:
+		case LESS_THAN:
+		case LESS_THAN_OR_EQ:
+		case GREATER_THAN:
+		case GREATER_THAN_OR_EQ:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * @return child if it is already sorted on field in the specified order,
+	 *         otherwise an ExternalSort of child
+	 */
+	private static DbIterator sorted(DbIterator child, int field, boolean asc, int memPages) {
+		if (child instanceof OrderedDbIterator) {
+			OrderedDbIterator o = (OrderedDbIterator) child;
+			if (o.getOrderByField() == field && o.isAsc() == asc)
+				return child;
+		}
+		return new ExternalSort(field, asc, child, memPages);
+	}
+
+	/**
+	 * @return the sorted left input, child1 itself if it was already sorted
+	 */
+	public DbIterator getLeft() {
+		return left;
+	}
+
+	/**
+	 * @return the sorted right input, child2 itself if it was already sorted
+	 */
+	public DbIterator getRight() {
+		return right;
+	}
+
+	/**
+	 * @see cbpdbms.TupleDesc#combine(TupleDesc, TupleDesc) for possible
+	 *      implementation logic.
+	 */
+	public TupleDesc getTupleDesc() {
+		return TupleDesc.combine(child1.getTupleDesc(), child2.getTupleDesc());
+	}
+
+	public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+		left.open();
+		right.open();
+		reset();
+	}
+
+	public void close() {
+		super.close();
+		left.close();
+		right.close();
+		clearBuffer();
+		buffer = null;
+	}
+
+	public void rewind() throws DbException, TransactionAbortedException {
+		super.close();
+		left.rewind();
+		right.rewind();
+		reset();
+	}
+
+	private void reset() throws DbException, TransactionAbortedException {
+		clearBuffer();
+		buffer = new ArrayList<Tuple>();
+		leftTup = null;
+		rightTup = right.hasNext() ? right.next() : null;
+		bufferPos = 0;
+	}
+
+	/**
+	 * Returns the next tuple generated by the join, or null if there are no
+	 * more tuples. Each left tuple is joined with the buffered right tuples
+	 * before the next one is read.
+	 *
+	 * @return The next matching tuple.
+	 * @see JoinPredicate#filter
+	 */
+	protected Tuple readNext() throws TransactionAbortedException, DbException {
+		if (buffer == null)
+			throw new DbException("Iterator not init");
+
+		while (true) {
+			if (leftTup != null) {
+				Tuple t = nextBuffered();
+				if (t != null)
+					return Tuple.simpleCombine(leftTup, t);
+			}
+
+			if (!left.hasNext())
+				return null;
+			leftTup = left.next();
+
+			if (p.getOperator() == Predicate.Op.EQUALS)
+				advanceEquals();
+			else
+				advanceRange();
+
+			// no right tuple can match this or any later left tuple
+			if (bufferSize() == 0 && rightTup == null)
+				return null;
+
+			bufferPos = 0;
+			closeOverflowIt();
+		}
+	}
+
+	/**
+	 * Fills the buffer with the right tuples whose key equals the key of
+	 * leftTup, keeping it if leftTup has the same key as the previous one.
+	 */
+	private void advanceEquals() throws DbException, TransactionAbortedException {
+		Field key = leftTup.getField(p.getField1());
+		if (bufferSize() > 0 && buffer.get(0).getField(p.getField2()).compare(Predicate.Op.EQUALS, key))
+			return;
+
+		clearBuffer();
+		while (rightTup != null && rightTup.getField(p.getField2()).compare(Predicate.Op.LESS_THAN, key))
+			rightTup = right.hasNext() ? right.next() : null;
+		while (rightTup != null && rightTup.getField(p.getField2()).compare(Predicate.Op.EQUALS, key)) {
+			addBuffered(rightTup);
+			rightTup = right.hasNext() ? right.next() : null;
+		}
+	}
+
+	/**
+	 * Extends the buffered prefix with the right tuples that match leftTup.
+	 * They also match every later left tuple, given the order of the inputs.
+	 */
+	private void advanceRange() throws DbException, TransactionAbortedException {
+		while (rightTup != null && p.filter(leftTup, rightTup)) {
+			addBuffered(rightTup);
+			rightTup = right.hasNext() ? right.next() : null;
+		}
+	}
+
+	private int bufferSize() {
+		return buffer.size() + (overflow == null ? 0 : overflow.numTuples());
+	}
+
+	private void addBuffered(Tuple t) throws DbException {
+		if (buffer.size() < memPages * SpillFile.tuplesPerPage(child2.getTupleDesc())) {
+			buffer.add(t);
+			return;
+		}
+
+		if (overflow == null)
+			overflow = new SpillFile(child2.getTupleDesc());
+		overflow.add(t);
+	}
+
+	/**
+	 * @return the next buffered right tuple for leftTup, or null once all of
+	 *         them were returned
+	 */
+	private Tuple nextBuffered() throws DbException, TransactionAbortedException {
+		if (bufferPos < buffer.size())
+			return buffer.get(bufferPos++);
+		if (overflow == null)
+			return null;
+
+		if (overflowIt == null) {
+			overflowIt = overflow.iterator();
+			overflowIt.open();
+		}
+		return overflowIt.hasNext() ? overflowIt.next() : null;
+	}
+
+	private void closeOverflowIt() {
+		if (overflowIt != null)
+			overflowIt.close();
+		overflowIt = null;
+	}
+
+	private void clearBuffer() {
+		closeOverflowIt();
+		if (buffer != null)
+			buffer.clear();
+		if (overflow != null)
+			overflow.delete();
+		overflow = null;
+	}
+}
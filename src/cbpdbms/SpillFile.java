@@ -0,0 +1,226 @@
+package cbpdbms;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * SpillFile is a temporary, append-only file of tuples used by operators whose
+ * input does not fit in their memory budget. Tuples are written out in the
+ * HeapPage format one full page at a time and read back with a sequential
+ * iterator. Tuples may still be added after an iterator was created; an
+ * iterator sees at least the tuples added before it was opened.
+ * <p>
+ * A SpillFile is not in the Catalog and its pages never go through the
+ * BufferPool, so spilling takes no locks and does not evict table pages.
+ */
+public class SpillFile {
+	File f;
+	TupleDesc td;
+	int id;// used as the tableid of the HeapPageIds of this file
+
+	DataOutputStream out;
+	HeapPage page;// the page being filled, null if none
+	int numPages;
+	int numTuples;
+
+	/**
+	 * Creates an empty spill file for tuples of the specified schema.
+	 *
+	 * @param td
+	 *            the schema of the tuples that will be added
+	 */
+	public SpillFile(TupleDesc td) throws DbException {
+		this.td = td;
+		try {
+			this.f = File.createTempFile("spill", ".dat");
+			this.f.deleteOnExit();
+			this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+		} catch (IOException e) {
+			throw new DbException("can not create spill file: " + e.getMessage());
+		}
+		this.id = f.getAbsoluteFile().hashCode();
+	}
+
+	/**
+	 * @return the number of tuples of schema td that fit on one page
+	 */
+	public static int tuplesPerPage(TupleDesc td) {
+		return (BufferPool.PAGE_SIZE * 8) / (td.getSize() * 8 + 1);
+	}
+
+	public TupleDesc getTupleDesc() {
+		return this.td;
+	}
+
+	/**
+	 * @return the number of tuples added to this file
+	 */
+	public int numTuples() {
+		return this.numTuples;
+	}
+
+	/**
+	 * @return the number of pages of this file, including the page being
+	 *         filled
+	 */
+	public int numPages() {
+		return page == null ? numPages : numPages + 1;
+	}
+
+	/**
+	 * Appends a copy of t to the file.
+	 *
+	 * @throws IllegalStateException
+	 *             if the file has already been sealed
+	 */
+	public void add(Tuple t) throws DbException {
+		if (out == null)
+			throw new IllegalStateException("spill file is sealed");
+
+		if (page == null) {
+			try {
+				page = new HeapPage(new HeapPageId(id, numPages), HeapPage.createEmptyPageData(), td);
+			} catch (IOException e) {
+				throw new DbException("can not create spill page: " + e.getMessage());
+			}
+		}
+
+		// NOTE: addTuple overwrites the RecordId of the tuple it stores, the
+		// caller's tuple may still live on a page of the BufferPool.
+		Tuple copy = new Tuple(td);
+		for (int i = 0; i < td.numFields(); i++)
+			copy.setField(i, t.getField(i));
+		page.addTuple(copy);
+		numTuples++;
+
+		if (page.getNumEmptySlots() == 0)
+			writePage();
+	}
+
+	private void writePage() throws DbException {
+		try {
+			out.write(page.getPageData());
+		} catch (IOException e) {
+			throw new DbException("can not write spill file: " + e.getMessage());
+		}
+		numPages++;
+		page = null;
+	}
+
+	/**
+	 * Writes out the last, partially filled page and closes the file for
+	 * writing. No tuple can be added after this. Sealing twice is harmless.
+	 */
+	public void seal() throws DbException {
+		if (out == null)
+			return;
+
+		if (page != null)
+			writePage();
+
+		try {
+			out.close();
+		} catch (IOException e) {
+			throw new DbException("can not close spill file: " + e.getMessage());
+		}
+		out = null;
+	}
+
+	/**
+	 * Returns an iterator over the tuples of this file, in the order in which
+	 * they were added. The iterator must be opened before use.
+	 */
+	public DbIterator iterator() {
+		return new SpillIterator();
+	}
+
+	/**
+	 * Removes the file from disk. The file and its iterators can no longer be
+	 * used afterwards.
+	 */
+	public void delete() {
+		if (out != null) {
+			try {
+				out.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			out = null;
+		}
+		page = null;
+		f.delete();
+	}
+
+	/**
+	 * Reads the written pages of the file sequentially, one page at a time,
+	 * then the page being filled.
+	 */
+	class SpillIterator extends AbstractDbIterator {
+		DataInputStream in;
+		int pgNo;
+		int lastPgNo;// pages of the file when opened
+		HeapPage lastPage;// page being filled when opened
+		Iterator<Tuple> it;
+
+		public TupleDesc getTupleDesc() {
+			return td;
+		}
+
+		public void open() throws DbException {
+			try {
+				if (out != null)
+					out.flush();
+				in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), BufferPool.PAGE_SIZE));
+			} catch (IOException e) {
+				throw new DbException("can not open spill file: " + e.getMessage());
+			}
+			pgNo = 0;
+			lastPgNo = numPages;
+			lastPage = page;
+			it = null;
+		}
+
+		protected Tuple readNext() throws DbException {
+			if (in == null)
+				return null;
+
+			while (it == null || !it.hasNext()) {
+				if (pgNo > lastPgNo || (pgNo == lastPgNo && lastPage == null))
+					return null;
+
+				if (pgNo == lastPgNo) {
+					it = lastPage.iterator();
+					pgNo++;
+					continue;
+				}
+
+				byte[] data = new byte[BufferPool.PAGE_SIZE];
+				try {
+					in.readFully(data);
+					it = new HeapPage(new HeapPageId(id, pgNo++), data, td).iterator();
+				} catch (IOException e) {
+					throw new DbException("can not read spill file: " + e.getMessage());
+				}
+			}
+			return it.next();
+		}
+
+		public void rewind() throws DbException {
+			close();
+			open();
+		}
+
+		public void close() {
+			super.close();
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+			in = null;
+			it = null;
+		}
+	}
+}
@@ -65,4 +65,13 @@ public class StringHistogram {
 		int val = stringToInt(s);
 		return hist.estimateSelectivity(op, val);
 	}
+
+	/**
+	 * @return the average selectivity of an equality predicate on a value
+	 *         drawn from the histogrammed strings
+	 * @see IntHistogram#avgSelectivity()
+	 */
+	public double avgSelectivity() {
+		return hist.avgSelectivity();
+	}
 }
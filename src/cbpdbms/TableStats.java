@@ -155,6 +155,7 @@ public class TableStats {
 				this.imap.put(i, ihis);
 				break;
 			case STRING_TYPE:
+			case VARCHAR_TYPE:
 				this.smap.put(i, new StringHistogram(NUM_HIST_BINS));
 				break;
 			default:
@@ -188,6 +189,7 @@ public class TableStats {
 						minmap.put(i, value);
 					break;
 				case STRING_TYPE:
+				case VARCHAR_TYPE:
 					break;
 				default:
 					new util.Bug("wrong type");
@@ -239,6 +241,31 @@ public class TableStats {
 		return this.file.numPages() * this.ioCostPerPage;
 	}
 
+	/**
+	 * Estimates the cost of reading the tuples that match a predicate of
+	 * selectivity selectivityFactor through an index on the table: the pages
+	 * of the index read by a lookup, then one page per matching tuple since
+	 * the table is not stored in the order of the index.
+	 * 
+	 * @param index
+	 *            an index on the table
+	 * @param selectivityFactor
+	 *            The selectivity of the predicate on the indexed field
+	 * @return The estimated cost of the index scan.
+	 */
+	public double estimateIndexScanCost(IndexFile index, double selectivityFactor) {
+		return estimateIndexScanCost(index.estimateLookupPages(ntups), selectivityFactor);
+	}
+
+	/**
+	 * Estimates the cost of reading the tuples that match a predicate of
+	 * selectivity selectivityFactor through an index on the table whose
+	 * lookups read lookupPages pages.
+	 */
+	public double estimateIndexScanCost(int lookupPages, double selectivityFactor) {
+		return (lookupPages + estimateTableCardinality(selectivityFactor)) * this.ioCostPerPage;
+	}
+
 	/**
 	 * This method returns the number of tuples in the relation, given that a
 	 * predicate with selectivity selectivityFactor is applied.
@@ -253,6 +280,33 @@ public class TableStats {
 		return (int) Math.ceil(ntups * selectivityFactor);
 	}
 
+	/**
+	 * The average selectivity of the field under op, over the values of the
+	 * field in the table, as for the inner side of a join on field. Only
+	 * EQUALS is estimated from the histograms, 1.0 is returned for the
+	 * other operators.
+	 * 
+	 * @param field
+	 *            the index of the field
+	 * @param op
+	 *            the operator in the predicate
+	 */
+	public double avgSelectivity(int field, Predicate.Op op) {
+		if (op != Predicate.Op.EQUALS)
+			return 1.0;
+
+		switch (td.getType(field)) {
+		case INT_TYPE:
+			return this.imap.get(field).avgSelectivity();
+		case STRING_TYPE:
+		case VARCHAR_TYPE:
+			return this.smap.get(field).avgSelectivity();
+		default:
+			new util.Bug("wrong type");
+		}
+		return 1.0;
+	}
+
 	/**
 	 * Estimate the selectivity of predicate <tt>field op constant</tt> on the
 	 * table.
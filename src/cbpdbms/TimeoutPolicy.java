@@ -0,0 +1,48 @@
+package cbpdbms;
+
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * TimeoutPolicy aborts a transaction that waits for a lock longer than a
+ * timeout, assuming it is part of a deadlock. It keeps no state and costs
+ * nothing while no deadlock forms, but a deadlock lasts the whole timeout,
+ * and a transaction that merely waits long aborts too.
+ * <p>
+ * Each wait lasts between the timeout and twice the timeout, drawn at random,
+ * so that the transactions of a deadlock do not all give up together and
+ * start it again.
+ */
+public class TimeoutPolicy implements DeadlockPolicy {
+	/** The default timeout, in milliseconds */
+	public static final long DEFAULT_TIMEOUT = 500;
+
+	private final long timeout;
+
+	public TimeoutPolicy() {
+		this(DEFAULT_TIMEOUT);
+	}
+
+	/**
+	 * @param timeout
+	 *            the longest a transaction waits for a lock, in milliseconds
+	 */
+	public TimeoutPolicy(long timeout) {
+		if (timeout <= 0)
+			throw new IllegalArgumentException("timeout must be positive");
+		this.timeout = timeout;
+	}
+
+	public void beforeWait(LockManager locker, TransactionId tid, Set<TransactionId> blockers) {
+	}
+
+	public void afterWait(LockManager locker, TransactionId tid, Set<TransactionId> blockers) {
+	}
+
+	public long maxWait() {
+		return timeout + ThreadLocalRandom.current().nextLong(timeout);
+	}
+
+	public void transactionComplete(TransactionId tid) {
+	}
+}
@@ -10,6 +10,7 @@ import java.io.*;
 public class Transaction {
 	TransactionId tid;
 	boolean started = false;
+	boolean snapshot = false;
 
 	public Transaction() {
 		tid = new TransactionId();
@@ -30,6 +31,19 @@ public class Transaction {
 		}
 	}
 
+	/**
+	 * Start the transaction as a snapshot transaction, which reads the tables
+	 * as they were committed when it starts, without locks, and writes
+	 * nothing. No BEGIN record is logged: the transaction has nothing to undo
+	 * or redo.
+	 * 
+	 * @see BufferPool#beginSnapshot
+	 */
+	public void startSnapshot() {
+		Database.getBufferPool().beginSnapshot(tid);
+		snapshot = true;
+	}
+
 	public TransactionId getId() {
 		return tid;
 	}
@@ -49,6 +63,12 @@ public class Transaction {
 	 */
 	public void transactionComplete(boolean abort) throws IOException {
 
+		if (snapshot) {
+			Database.getBufferPool().transactionComplete(tid, !abort);
+			snapshot = false;
+			return;
+		}
+
 		if (started) {
 			// write commit / abort records
 			if (abort) {
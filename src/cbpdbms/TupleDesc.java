@@ -8,6 +8,7 @@ import java.util.*;
 public class TupleDesc {
 	private Type[] typeAr;
 	private String[] fieldAr;
+	private int[] maxLenAr;// the most characters of the string fields, or null
 
 	/**
 	 * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
@@ -44,7 +45,12 @@ public class TupleDesc {
 		else
 			for (Type t : td2.typeAr)
 				nfield[i++] = "unknowname";
-		return new TupleDesc(ntype, nfield);
+		if (td1.maxLenAr == null && td2.maxLenAr == null)
+			return new TupleDesc(ntype, nfield);
+		int[] nlen = new int[new_size];
+		for (i = 0; i < new_size; i++)
+			nlen[i] = i < td1.numFields() ? td1.getMaxLen(i) : td2.getMaxLen(i - td1.numFields());
+		return new TupleDesc(ntype, nfield, nlen);
 	}
 
 	/**
@@ -65,6 +71,24 @@ public class TupleDesc {
 
 	}
 
+	/**
+	 * Create a new TupleDesc whose string fields keep at most the specified
+	 * number of characters, e.g. the n of the VARCHAR(n) fields of a table.
+	 *
+	 * @param maxLenAr
+	 *            array specifying the most characters of each field, ignored
+	 *            for the fields that are not strings
+	 */
+	public TupleDesc(Type[] typeAr, String[] fieldAr, int[] maxLenAr) {
+		this(typeAr, fieldAr);
+		if (maxLenAr.length != typeAr.length)
+			throw new IllegalArgumentException("one length per field expected");
+		for (int i = 0; i < typeAr.length; i++)
+			if (typeAr[i] != Type.INT_TYPE && (maxLenAr[i] < 1 || maxLenAr[i] > Type.STRING_LEN))
+				throw new IllegalArgumentException("string length must be between 1 and " + Type.STRING_LEN);
+		this.maxLenAr = maxLenAr;
+	}
+
 	/**
 	 * Constructor. Create a new tuple desc with typeAr.length fields with
 	 * fields of the specified types, with anonymous (unnamed) fields.
@@ -148,6 +172,26 @@ public class TupleDesc {
 		return this.typeAr[i];
 	}
 
+	/**
+	 * @param i
+	 *            The index of a string field
+	 * @return the most characters values of the ith field keep
+	 */
+	public int getMaxLen(int i) {
+		return maxLenAr == null ? Type.STRING_LEN : maxLenAr[i];
+	}
+
+	/**
+	 * @return true if tuples of this TupleDesc are stored with fields of
+	 *         variable length, in SlottedPages
+	 */
+	public boolean hasVariableLength() {
+		for (Type t : this.typeAr)
+			if (t == Type.VARCHAR_TYPE)
+				return true;
+		return false;
+	}
+
 	/**
 	 * @return The size (in bytes) of tuples corresponding to this TupleDesc.
 	 *         Note that tuples from a given TupleDesc are of a fixed size.
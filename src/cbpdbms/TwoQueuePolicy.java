@@ -0,0 +1,131 @@
+package cbpdbms;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * TwoQueuePolicy is the 2Q replacement policy. A page read into the pool
+ * enters a FIFO queue, A1in; when it is evicted from there, its id is
+ * remembered in a ghost queue, A1out. A page read again while it is in A1out
+ * has been accessed twice in a short time, it enters the LRU queue Am
+ * instead. Pages read once, e.g. by a scan, thus only go through A1in and do
+ * not push the hot pages out of Am.
+ * <p>
+ * A1in holds up to a quarter of the pool and A1out the ids of half of it, as
+ * suggested for 2Q.
+ * <p>
+ * access only sets a reference bit of a page of Am, without any lock, so hits
+ * do not contend; the other operations are synchronized. Am is kept in LRU
+ * order lazily: victim moves the pages of Am whose bit is set to its end,
+ * clearing the bit, before choosing among them. Every operation is O(1)
+ * amortized, victim apart from the pages it skips because they are not
+ * evictable.
+ */
+public class TwoQueuePolicy implements ReplacementPolicy {
+	int maxIn;// the size A1in is kept under
+	int maxOut;// the size of A1out
+
+	// insertion ordered: the oldest page first, for Am the least recently used
+	LinkedHashSet<PageId> a1in;
+	LinkedHashSet<PageId> a1out;
+	LinkedHashSet<PageId> am;
+	Map<PageId, AtomicBoolean> referenced;// the reference bits of the pages of Am
+
+	/**
+	 * @param numPages
+	 *            the number of pages of the pool
+	 */
+	public TwoQueuePolicy(int numPages) {
+		this.maxIn = Math.max(1, numPages / 4);
+		this.maxOut = Math.max(1, numPages / 2);
+		this.a1in = new LinkedHashSet<PageId>();
+		this.a1out = new LinkedHashSet<PageId>();
+		this.am = new LinkedHashSet<PageId>();
+		this.referenced = new ConcurrentHashMap<PageId, AtomicBoolean>();
+	}
+
+	public synchronized void add(PageId pid) {
+		if (a1in.contains(pid) || am.contains(pid))
+			return;
+		if (a1out.remove(pid)) {
+			am.add(pid);
+			referenced.put(pid, new AtomicBoolean());
+		} else
+			a1in.add(pid);
+	}
+
+	public void access(PageId pid) {
+		// a page of A1in is not promoted, its accesses are likely correlated
+		AtomicBoolean bit = referenced.get(pid);
+		if (bit != null)
+			bit.set(true);
+	}
+
+	public synchronized void remove(PageId pid) {
+		if (a1in.remove(pid)) {
+			a1out.add(pid);
+			if (a1out.size() > maxOut) {
+				Iterator<PageId> it = a1out.iterator();
+				it.next();
+				it.remove();
+			}
+		} else if (am.remove(pid)) {
+			referenced.remove(pid);
+		}
+	}
+
+	public synchronized PageId victim(Evictable evictable) {
+		PageId pid;
+		if (a1in.size() > maxIn || am.isEmpty()) {
+			pid = first(a1in, evictable);
+			if (pid == null)
+				pid = leastRecentlyUsed(evictable);
+		} else {
+			pid = leastRecentlyUsed(evictable);
+			if (pid == null)
+				pid = first(a1in, evictable);
+		}
+		return pid;
+	}
+
+	/**
+	 * @return the least recently used evictable page of Am, after moving the
+	 *         pages accessed since they were last moved to its end; those
+	 *         accessed again meanwhile are taken as they are by the second
+	 *         pass
+	 */
+	private PageId leastRecentlyUsed(Evictable evictable) {
+		for (int pass = 0; pass < 2; pass++) {
+			ArrayList<PageId> moved = new ArrayList<PageId>();
+			PageId victim = null;
+			for (PageId pid : am) {
+				if (pass == 0 && referenced.get(pid).getAndSet(false)) {
+					moved.add(pid);
+					continue;
+				}
+				if (evictable.isEvictable(pid)) {
+					victim = pid;
+					break;
+				}
+			}
+			for (PageId pid : moved) {
+				am.remove(pid);
+				am.add(pid);
+			}
+			if (victim != null || moved.isEmpty())
+				return victim;
+		}
+		return null;
+	}
+
+	private PageId first(LinkedHashSet<PageId> queue, Evictable evictable) {
+		for (PageId pid : queue)
+			if (evictable.isEvictable(pid))
+				return pid;
+		return null;
+	}
+}
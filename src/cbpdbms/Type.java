@@ -2,6 +2,7 @@ package cbpdbms;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in CBPDBMS. Types are static objects defined by
@@ -24,6 +25,11 @@ public enum Type {
 			}
 		}
 
+		@Override
+		public Field parse(ByteBuffer buf, int offset) {
+			return new IntField(buf.getInt(offset));
+		}
+
 		@Override
 		public String toString() {
 			return "INT";
@@ -49,10 +55,46 @@ public enum Type {
 			}
 		}
 
+		@Override
+		public Field parse(ByteBuffer buf, int offset) {
+			int strLen = buf.getInt(offset);
+			byte bs[] = new byte[strLen];
+			for (int i = 0; i < strLen; i++)
+				bs[i] = buf.get(offset + 4 + i);
+			return new StringField(new String(bs), STRING_LEN);
+		}
+
 		@Override
 		public String toString() {
 			return "STRING";
 		}
+	},
+	/**
+	 * Strings of a table stored with their length only, see SlottedPage. Their
+	 * values are StringFields, of STRING_TYPE, and getLen and parse work like
+	 * those of STRING_TYPE, for the fixed-size formats: the pages of
+	 * SpillFile, the keys of indexes.
+	 */
+	VARCHAR_TYPE() {
+		@Override
+		public int getLen() {
+			return STRING_LEN + 4;
+		}
+
+		@Override
+		public Field parse(DataInputStream dis) throws ParseException {
+			return STRING_TYPE.parse(dis);
+		}
+
+		@Override
+		public Field parse(ByteBuffer buf, int offset) {
+			return STRING_TYPE.parse(buf, offset);
+		}
+
+		@Override
+		public String toString() {
+			return "VARCHAR";
+		}
 	};
 
 	public static final int STRING_LEN = 128;
@@ -73,4 +115,14 @@ public enum Type {
 	 */
 	public abstract Field parse(DataInputStream dis) throws ParseException;
 
+	/**
+	 * @return a Field object of the same type as this object that has contents
+	 *         read from buf, in the format parse(DataInputStream) reads
+	 * @param buf
+	 *            The buffer to read from; its position does not change
+	 * @param offset
+	 *            The index of the first byte of the field in buf
+	 */
+	public abstract Field parse(ByteBuffer buf, int offset);
+
 }
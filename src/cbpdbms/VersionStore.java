@@ -0,0 +1,256 @@
+package cbpdbms;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * VersionStore keeps the committed versions of the pages of a BufferPool in
+ * MVCC mode, so that snapshot transactions read the tables as they were when
+ * they started, without locks.
+ * <p>
+ * Commits are stamped with the timestamps of a logical clock. A version of a
+ * page is its before image once committed, whose bytes the page never writes
+ * to again, stamped with the timestamp of the commit; the versions of a page
+ * are kept oldest first. A snapshot transaction reads a page in the newest
+ * version stamped at most with the timestamp of the clock when it started.
+ * <p>
+ * A page without versions has not been committed since the oldest snapshot
+ * began, so its committed contents, the before image of the page of the pool
+ * or the page on disk, are the version every snapshot reads. Before a writer
+ * lets its uncommitted data reach where those are read from, it pins the
+ * page, which keeps the committed contents as the first version, stamped 0,
+ * until the writer completes: see pin.
+ * <p>
+ * The versions no snapshot reads any more are dropped as commits and
+ * snapshots complete. A page keeps the newest version the oldest snapshot
+ * reads and those after it, and no version at all once that is the last and
+ * no writer pins it.
+ *
+ * @see BufferPool#setMvcc
+ */
+public class VersionStore {
+
+	/**
+	 * The versions of a page.
+	 */
+	private static class Versions {
+		// NOTE: replaced, never changed, so that readers use it without the
+		// monitor of the store
+		volatile long[] stamps;
+		volatile Page[] pages;
+		TransactionId writer;// the transaction pinning the page, if any
+
+		Versions(Page base) {
+			stamps = new long[] { 0 };
+			pages = new Page[] { base };
+		}
+	}
+
+	private final Map<PageId, Versions> versions;
+	private final Map<TransactionId, Long> snapshots;// the timestamp each snapshot reads at
+	private final Map<TransactionId, Set<PageId>> pinned;// the pages each writer pins
+	private volatile long clock;// the timestamp of the last commit
+
+	public VersionStore() {
+		versions = new ConcurrentHashMap<PageId, Versions>();
+		snapshots = new ConcurrentHashMap<TransactionId, Long>();
+		pinned = new HashMap<TransactionId, Set<PageId>>();
+		clock = 0;
+	}
+
+	/**
+	 * Starts a snapshot of tid at the timestamp of the last commit.
+	 *
+	 * @return the timestamp tid reads at
+	 */
+	public synchronized long beginSnapshot(TransactionId tid) {
+		if (snapshots.containsKey(tid))
+			throw new IllegalStateException("transaction " + tid + " already reads a snapshot");
+		snapshots.put(tid, clock);
+		return clock;
+	}
+
+	/**
+	 * @return the timestamp tid reads at, null if it is not a snapshot
+	 *         transaction
+	 */
+	public Long getSnapshot(TransactionId tid) {
+		return snapshots.get(tid);
+	}
+
+	/**
+	 * Ends the snapshot of tid and drops the versions only it read.
+	 */
+	public synchronized void endSnapshot(TransactionId tid) {
+		if (snapshots.remove(tid) != null)
+			collect();
+	}
+
+	/**
+	 * @return the timestamp of the last commit
+	 */
+	public long getClock() {
+		return clock;
+	}
+
+	/**
+	 * @return the version of pid a snapshot at timestamp ts reads, null if
+	 *         the page has no versions and it reads the committed contents
+	 *         of the page
+	 */
+	public Page find(PageId pid, long ts) {
+		Versions v = versions.get(pid);
+		if (v == null)
+			return null;
+		long[] stamps;
+		Page[] pages;
+		synchronized (v) {
+			stamps = v.stamps;
+			pages = v.pages;
+		}
+		for (int i = stamps.length - 1; i >= 0; i--)
+			if (stamps[i] <= ts)
+				return pages[i];
+		throw new IllegalStateException("no version of " + pid + " at " + ts);
+	}
+
+	/**
+	 * @return true if pid has versions
+	 */
+	public boolean hasVersions(PageId pid) {
+		return versions.containsKey(pid);
+	}
+
+	/**
+	 * Pins pid for tid, about to make its uncommitted data readable where the
+	 * committed contents of the page are read from: the committed contents,
+	 * committed, are kept as the first version of the page if it has none,
+	 * and no version is dropped until tid completes.
+	 */
+	public synchronized void pin(TransactionId tid, PageId pid, Page committed) {
+		Versions v = versions.get(pid);
+		if (v == null) {
+			v = new Versions(committed);
+			versions.put(pid, v);
+		}
+		v.writer = tid;
+		Set<PageId> pids = pinned.get(tid);
+		if (pids == null) {
+			pids = new HashSet<PageId>();
+			pinned.put(tid, pids);
+		}
+		pids.add(pid);
+	}
+
+	/**
+	 * @return the pages tid pins
+	 */
+	public synchronized List<PageId> getPinned(TransactionId tid) {
+		Set<PageId> pids = pinned.get(tid);
+		return pids == null ? new ArrayList<PageId>() : new ArrayList<PageId>(pids);
+	}
+
+	/**
+	 * @return the timestamp of the next commit, which snapshots do not read
+	 *         until it is published
+	 */
+	public long nextTimestamp() {
+		return clock + 1;
+	}
+
+	/**
+	 * Adds the version of a page tid pins committed at timestamp ts.
+	 */
+	public synchronized void add(PageId pid, long ts, Page committed) {
+		Versions v = versions.get(pid);
+		if (v == null)
+			throw new IllegalStateException(pid + " is not pinned");
+		synchronized (v) {
+			int n = v.stamps.length;
+			long[] stamps = new long[n + 1];
+			Page[] pages = new Page[n + 1];
+			System.arraycopy(v.stamps, 0, stamps, 0, n);
+			System.arraycopy(v.pages, 0, pages, 0, n);
+			stamps[n] = ts;
+			pages[n] = committed;
+			v.stamps = stamps;
+			v.pages = pages;
+		}
+	}
+
+	/**
+	 * Completes tid: the snapshots starting from now on read the versions of
+	 * its commit, stamped ts, and the pages it pins are unpinned.
+	 *
+	 * @param ts
+	 *            the timestamp of the commit of tid, 0 if it aborts or
+	 *            committed no page
+	 */
+	public synchronized void complete(TransactionId tid, long ts) {
+		if (ts > clock)
+			clock = ts;
+		Set<PageId> pids = pinned.remove(tid);
+		if (pids != null)
+			for (PageId pid : pids) {
+				Versions v = versions.get(pid);
+				if (v != null && tid.equals(v.writer))
+					v.writer = null;
+			}
+		collect();
+	}
+
+	/**
+	 * @return the number of pages with versions
+	 */
+	public int getVersionedPageCount() {
+		return versions.size();
+	}
+
+	/**
+	 * @return the number of versions kept, of all the pages
+	 */
+	public int getVersionCount() {
+		int n = 0;
+		for (Versions v : versions.values())
+			n += v.stamps.length;
+		return n;
+	}
+
+	/**
+	 * Drops the versions no snapshot reads: those older than the newest one
+	 * the oldest snapshot reads.
+	 */
+	private void collect() {
+		long oldest = clock;
+		for (long ts : snapshots.values())
+			oldest = Math.min(oldest, ts);
+		for (Iterator<Versions> it = versions.values().iterator(); it.hasNext();) {
+			Versions v = it.next();
+			long[] stamps = v.stamps;
+			int first = stamps.length - 1;
+			while (first > 0 && stamps[first] > oldest)
+				first--;
+			if (first == stamps.length - 1 && v.writer == null) {
+				it.remove();
+				continue;
+			}
+			if (first == 0)
+				continue;
+			synchronized (v) {
+				int n = stamps.length - first;
+				long[] kept = new long[n];
+				Page[] pages = new Page[n];
+				System.arraycopy(stamps, first, kept, 0, n);
+				System.arraycopy(v.pages, first, pages, 0, n);
+				v.stamps = kept;
+				v.pages = pages;
+			}
+		}
+	}
+}
@@ -0,0 +1,34 @@
+package cbpdbms;
+
+import java.util.Set;
+
+/**
+ * WaitDiePolicy is the wait-die scheme: a transaction may only wait for
+ * younger transactions, those with a greater TransactionId. A transaction
+ * that would wait for an older one dies, it aborts at once. Waits then always
+ * go from older to younger transactions and cannot form a cycle.
+ * <p>
+ * No graph is kept, but a transaction may abort when there is no deadlock.
+ * NOTE: a transaction restarted after an abort gets a new, younger id, so it
+ * is not protected from dying again as in the textbook scheme.
+ *
+ * @see WoundWaitPolicy
+ */
+public class WaitDiePolicy implements DeadlockPolicy {
+	public void beforeWait(LockManager locker, TransactionId tid, Set<TransactionId> blockers)
+			throws TransactionAbortedException {
+		for (TransactionId t : blockers)
+			if (t.getId() < tid.getId())
+				throw new TransactionAbortedException();
+	}
+
+	public void afterWait(LockManager locker, TransactionId tid, Set<TransactionId> blockers) {
+	}
+
+	public long maxWait() {
+		return 0;
+	}
+
+	public void transactionComplete(TransactionId tid) {
+	}
+}
@@ -0,0 +1,50 @@
+package cbpdbms;
+
+import java.util.Set;
+
+import util.Graph;
+
+/**
+ * WaitForGraphPolicy keeps a wait-for graph of the transactions, with an edge
+ * from each waiting transaction to those it waits for, and aborts a
+ * transaction at once if its wait would close a cycle of the graph.
+ * <p>
+ * A deadlock is found as soon as it forms and only the transaction closing it
+ * aborts, but every wait searches the graph under the monitor of the policy.
+ * This is the default policy.
+ */
+public class WaitForGraphPolicy implements DeadlockPolicy {
+	Graph<TransactionId> wfGraph;// wait-for graph
+
+	public WaitForGraphPolicy() {
+		wfGraph = new Graph<TransactionId>("wait-for");
+	}
+
+	public synchronized void beforeWait(LockManager locker, TransactionId tid, Set<TransactionId> blockers)
+			throws TransactionAbortedException {
+		// the holders and the requests queued before got their locks or
+		// queued without adding their node
+		wfGraph.addNode(tid);
+		for (TransactionId t : blockers) {
+			wfGraph.addNode(t);
+			wfGraph.addEdge(tid, t);
+		}
+
+		if (wfGraph.isCycle(tid))
+			throw new TransactionAbortedException();
+	}
+
+	public synchronized void afterWait(LockManager locker, TransactionId tid, Set<TransactionId> blockers) {
+		for (TransactionId t : blockers)
+			wfGraph.delEdge(tid, t);
+	}
+
+	public long maxWait() {
+		return 0;
+	}
+
+	public synchronized void transactionComplete(TransactionId tid) {
+		if (wfGraph.findNode(tid) != null)
+			wfGraph.delNode(tid);
+	}
+}
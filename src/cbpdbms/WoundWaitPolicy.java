@@ -0,0 +1,33 @@
+package cbpdbms;
+
+import java.util.Set;
+
+/**
+ * WoundWaitPolicy is the wound-wait scheme: a transaction may only wait for
+ * older transactions, those with a smaller TransactionId. A transaction that
+ * would wait for younger ones wounds them, they abort, see LockManager#abort,
+ * and it waits for them to release their locks. Waits then always go from
+ * younger to older transactions and cannot form a cycle.
+ * <p>
+ * A wounded transaction aborts when it next asks for a lock, or at once if it
+ * is waiting for one; it may still commit if it asks for no other lock.
+ *
+ * @see WaitDiePolicy
+ */
+public class WoundWaitPolicy implements DeadlockPolicy {
+	public void beforeWait(LockManager locker, TransactionId tid, Set<TransactionId> blockers) {
+		for (TransactionId t : blockers)
+			if (t.getId() > tid.getId())
+				locker.abort(t);
+	}
+
+	public void afterWait(LockManager locker, TransactionId tid, Set<TransactionId> blockers) {
+	}
+
+	public long maxWait() {
+		return 0;
+	}
+
+	public void transactionComplete(TransactionId tid) {
+	}
+}
@@ -89,21 +89,40 @@ public class Graph<T> {
 		return true;
 	}
 
-	private synchronized boolean dfs(Node n, Set<Graph<T>.Node> visited) {
-		if (visited.contains(n))
-			return true;
+	/**
+	 * Removes one edge from from to to.
+	 *
+	 * @return false if there is no such edge
+	 */
+	public synchronized boolean delEdge(T from, T to) {
+		Node f = findNode(from);
+		if (f == null)
+			return false;
 
-		boolean isCycle = false;
-		visited.add(n);
-		for (Edge e : n.edge) {
-			if (e.to != null) {
-				isCycle = dfs(e.to, visited);
-				if (isCycle)
-					return true;
-			} else {
-				n.dealNullEdge(e);
+		for (Edge e : f.edge) {
+			if (e.to != null && e.to.data.equals(to)) {
+				f.edge.remove(e);
+				f.outdegree--;
+				e.to.indegree--;
+				return true;
 			}
 		}
+		return false;
+	}
+
+	/**
+	 * @return true if start may be reached from n
+	 */
+	private synchronized boolean dfs(Node n, Node start, Set<Graph<T>.Node> visited) {
+		if (!visited.add(n))
+			return false;
+
+		for (Edge e : n.edge) {
+			if (e.to == start)
+				return true;
+			if (dfs(e.to, start, visited))
+				return true;
+		}
 
 		return false;
 	}
@@ -111,7 +130,7 @@ public class Graph<T> {
 	/**
 	 * 
 	 * @param data
-	 * @return true is exsit cycle, false if no cycle.
+	 * @return true is exsit cycle through data, false if no cycle.
 	 */
 	public synchronized boolean isCycle(T data) {
 		Node node = findNode(data);
@@ -120,7 +139,7 @@ public class Graph<T> {
 
 		Set<Node> visited = new HashSet<Node>();
 
-		return dfs(node, visited);
+		return dfs(node, node, visited);
 
 	}
 
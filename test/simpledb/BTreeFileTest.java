@@ -0,0 +1,226 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import cbpdbms.BTreeFile;
+import cbpdbms.Database;
+import cbpdbms.DbFileIterator;
+import cbpdbms.DbIterator;
+import cbpdbms.Delete;
+import cbpdbms.Field;
+import cbpdbms.Filter;
+import cbpdbms.HeapFile;
+import cbpdbms.IndexScan;
+import cbpdbms.IntField;
+import cbpdbms.Predicate;
+import cbpdbms.SeqScan;
+import cbpdbms.StringField;
+import cbpdbms.TableStats;
+import cbpdbms.TransactionId;
+import cbpdbms.Tuple;
+import cbpdbms.TupleDesc;
+import cbpdbms.Type;
+
+public class BTreeFileTest extends SimpleDbTestBase {
+	private static final int ROWS = 1000;
+	private static final int KEYS = 300;
+	// transactions are small so that their dirty pages fit in the BufferPool
+	private static final int ROWS_PER_TRANSACTION = 10;
+
+	HeapFile table;
+	BTreeFile index;
+	ArrayList<String> keys;
+
+	private static StringField key(int k) {
+		return new StringField("key" + k, Type.STRING_LEN);
+	}
+
+	/**
+	 * Creates a table of (string key, int row number) with an index on the
+	 * key, then fills it. String keys make the pages of the index hold few
+	 * entries, so that the tree has several levels.
+	 */
+	@Before
+	public void setUp() throws Exception {
+		File f = File.createTempFile("btree_table", ".dat");
+		f.deleteOnExit();
+		TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE }, new String[] { "key", "v" });
+		table = new HeapFile(f, td);
+		Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+
+		File indexFile = File.createTempFile("btree_index", ".dat");
+		indexFile.deleteOnExit();
+		index = new BTreeFile(indexFile, table, 0);
+		Database.getCatalog().addIndex(index);
+
+		Random r = new Random(7);
+		keys = new ArrayList<String>();
+		TransactionId tid = null;
+		for (int i = 0; i < ROWS; i++) {
+			if (i % ROWS_PER_TRANSACTION == 0) {
+				if (tid != null)
+					Database.getBufferPool().transactionComplete(tid);
+				tid = new TransactionId();
+			}
+			int k = r.nextInt(KEYS);
+			Tuple t = new Tuple(td);
+			t.setField(0, key(k));
+			t.setField(1, new IntField(i));
+			Database.getBufferPool().insertTuple(tid, table.getId(), t);
+			keys.add(key(k).getValue());
+		}
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	private int count(DbFileIterator it) throws Exception {
+		int n = 0;
+		it.open();
+		while (it.hasNext()) {
+			it.next();
+			n++;
+		}
+		it.close();
+		return n;
+	}
+
+	private int expectedCount(Predicate.Op op, Field constant) {
+		int n = 0;
+		for (String k : keys)
+			if (k != null && new StringField(k, Type.STRING_LEN).compare(op, constant))
+				n++;
+		return n;
+	}
+
+	/**
+	 * Unit test for BTreeFile.iterator(): all the entries, in key order.
+	 */
+	@Test
+	public void iterator() throws Exception {
+		assertTrue(index.estimateHeight(ROWS) >= 3);
+
+		TransactionId tid = new TransactionId();
+		DbFileIterator it = index.iterator(tid);
+		it.open();
+		int n = 0;
+		Field prev = null;
+		while (it.hasNext()) {
+			Tuple t = it.next();
+			if (prev != null)
+				assertTrue(prev.compare(Predicate.Op.LESS_THAN_OR_EQ, t.getField(0)));
+			prev = t.getField(0);
+			n++;
+		}
+		it.close();
+		assertEquals(ROWS, n);
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * Unit test for BTreeFile.indexIterator() with each operator, for keys
+	 * that are and are not in the index.
+	 */
+	@Test
+	public void indexIterator() throws Exception {
+		TransactionId tid = new TransactionId();
+		Predicate.Op[] ops = { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+				Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ, Predicate.Op.NOT_EQUALS };
+		Field[] constants = { key(0), key(17), key(150), key(299), new StringField("a", Type.STRING_LEN),
+				new StringField("key17x", Type.STRING_LEN), new StringField("z", Type.STRING_LEN) };
+		for (Predicate.Op op : ops)
+			for (Field c : constants)
+				assertEquals(op + " " + c, expectedCount(op, c), count(index.indexIterator(tid, op, c)));
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * Unit test for IndexScan: the tuples of the table whose key matches.
+	 */
+	@Test
+	public void indexScan() throws Exception {
+		TransactionId tid = new TransactionId();
+		DbIterator scan = new IndexScan(tid, index, Predicate.Op.EQUALS, key(42), "t");
+		assertEquals("t.key", scan.getTupleDesc().getFieldName(0));
+
+		scan.open();
+		int n = 0;
+		while (scan.hasNext()) {
+			Tuple t = scan.next();
+			assertEquals(key(42), t.getField(0));
+			int v = ((IntField) t.getField(1)).getValue();
+			assertEquals(keys.get(v), key(42).getValue());
+			n++;
+		}
+		assertEquals(expectedCount(Predicate.Op.EQUALS, key(42)), n);
+
+		scan.rewind();
+		int m = 0;
+		while (scan.hasNext()) {
+			scan.next();
+			m++;
+		}
+		assertEquals(n, m);
+		scan.close();
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * Deleting tuples from the table removes their entries from the index.
+	 */
+	@Test
+	public void delete() throws Exception {
+		for (int lo = 0; lo < ROWS / 2; lo += ROWS_PER_TRANSACTION) {
+			TransactionId tid = new TransactionId();
+			Predicate from = new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(lo));
+			Predicate to = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(lo + ROWS_PER_TRANSACTION));
+			DbIterator it = new Filter(to, new Filter(from, new SeqScan(tid, table.getId(), "t")));
+			Delete delete = new Delete(tid, it);
+			delete.open();
+			assertEquals(ROWS_PER_TRANSACTION, ((IntField) delete.next().getField(0)).getValue());
+			delete.close();
+			Database.getBufferPool().transactionComplete(tid);
+
+			for (int i = lo; i < lo + ROWS_PER_TRANSACTION; i++)
+				keys.set(i, null);
+		}
+
+		TransactionId tid = new TransactionId();
+		assertEquals(ROWS / 2, count(index.iterator(tid)));
+		for (int k = 0; k < KEYS; k += 13)
+			assertEquals(expectedCount(Predicate.Op.EQUALS, key(k)),
+					count(index.indexIterator(tid, Predicate.Op.EQUALS, key(k))));
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * The cost of an index scan is lower than that of a table scan for a
+	 * selective predicate only.
+	 */
+	@Test
+	public void indexScanCost() throws Exception {
+		TableStats stats = new TableStats(table.getId(), 1000);
+		Field k = key(42);
+		double eq = stats.estimateSelectivity(0, Predicate.Op.EQUALS, k);
+		double ge = stats.estimateSelectivity(0, Predicate.Op.GREATER_THAN_OR_EQ, new StringField("a", Type.STRING_LEN));
+		assertTrue(stats.estimateIndexScanCost(index, eq) < stats.estimateScanCost());
+		assertTrue(stats.estimateIndexScanCost(index, ge) > stats.estimateScanCost());
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeFileTest.class);
+	}
+}
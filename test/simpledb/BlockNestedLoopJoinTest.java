@@ -0,0 +1,141 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import cbpdbms.BlockNestedLoopJoin;
+import cbpdbms.DbIterator;
+import cbpdbms.Join;
+import cbpdbms.JoinPredicate;
+import cbpdbms.Predicate;
+import cbpdbms.TupleDesc;
+import cbpdbms.Utility;
+
+public class BlockNestedLoopJoinTest extends SimpleDbTestBase {
+
+	int width1 = 2;
+	int width2 = 3;
+	DbIterator scan1;
+	DbIterator scan2;
+	DbIterator eqJoin;
+
+	/**
+	 * Initialize each unit test
+	 */
+	@Before
+	public void createTupleLists() throws Exception {
+		this.scan1 = TestUtil.createTupleList(width1, new int[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+		this.scan2 = TestUtil.createTupleList(width2, new int[] { 1, 2, 3, 2, 3, 4, 3, 4, 5, 4, 5, 6, 5, 6, 7 });
+		this.eqJoin = TestUtil.createTupleList(width1 + width2,
+				new int[] { 1, 2, 1, 2, 3, 3, 4, 3, 4, 5, 5, 6, 5, 6, 7 });
+	}
+
+	/**
+	 * @return width-field tuples whose first field is in [0, keys)
+	 */
+	private DbIterator createRandomTupleList(Random r, int width, int rows, int keys) {
+		int[] data = new int[width * rows];
+		for (int i = 0; i < data.length; i++)
+			data[i] = (i % width == 0) ? r.nextInt(keys) : r.nextInt();
+		return TestUtil.createTupleList(width, data);
+	}
+
+	/**
+	 * @return the tuples of it as sorted strings, to compare joins that
+	 *         produce tuples in different orders
+	 */
+	private List<String> sortedTuples(DbIterator it) throws Exception {
+		List<String> list = new ArrayList<String>();
+		it.open();
+		while (it.hasNext())
+			list.add(it.next().toString());
+		it.close();
+		Collections.sort(list);
+		return list;
+	}
+
+	/**
+	 * Unit test for BlockNestedLoopJoin.getTupleDesc()
+	 */
+	@Test
+	public void getTupleDesc() {
+		JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+		BlockNestedLoopJoin op = new BlockNestedLoopJoin(pred, scan1, scan2);
+		TupleDesc expected = Utility.getTupleDesc(width1 + width2);
+		TupleDesc actual = op.getTupleDesc();
+		assertEquals(expected, actual);
+	}
+
+	/**
+	 * Unit test for BlockNestedLoopJoin.getNext() using an = predicate
+	 */
+	@Test
+	public void eqJoin() throws Exception {
+		JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+		BlockNestedLoopJoin op = new BlockNestedLoopJoin(pred, scan1, scan2);
+		op.open();
+		eqJoin.open();
+		TestUtil.matchAllTuples(eqJoin, op);
+	}
+
+	/**
+	 * An outer relation of several blocks produces the same tuples as a
+	 * nested loops join
+	 */
+	@Test
+	public void manyBlocks() throws Exception {
+		Random r = new Random(1);
+		DbIterator left = createRandomTupleList(r, width1, 1200, 100);
+		DbIterator right = createRandomTupleList(r, width2, 50, 100);
+		for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.NOT_EQUALS, Predicate.Op.GREATER_THAN }) {
+			JoinPredicate pred = new JoinPredicate(0, op, 0);
+			BlockNestedLoopJoin bnl = new BlockNestedLoopJoin(pred, left, right, 1);
+			assertTrue(bnl.getBlockTuples() < 1200);
+			assertEquals(sortedTuples(new Join(pred, left, right)), sortedTuples(bnl));
+		}
+	}
+
+	/**
+	 * Unit test for BlockNestedLoopJoin.rewind()
+	 */
+	@Test
+	public void rewind() throws Exception {
+		JoinPredicate pred = new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0);
+		BlockNestedLoopJoin op = new BlockNestedLoopJoin(pred, scan1, scan2);
+		op.open();
+		int count = 0;
+		while (op.hasNext()) {
+			op.next();
+			count++;
+		}
+		assertEquals(17, count);
+		assertTrue(TestUtil.checkExhausted(op));
+
+		op.rewind();
+		int again = 0;
+		while (op.hasNext()) {
+			op.next();
+			again++;
+		}
+		assertEquals(count, again);
+		op.close();
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BlockNestedLoopJoinTest.class);
+	}
+}
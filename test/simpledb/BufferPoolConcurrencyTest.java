@@ -0,0 +1,184 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import cbpdbms.BufferPool;
+import cbpdbms.ClockPolicy;
+import cbpdbms.Database;
+import cbpdbms.HeapFile;
+import cbpdbms.HeapPageId;
+import cbpdbms.LruKPolicy;
+import cbpdbms.Page;
+import cbpdbms.Permissions;
+import cbpdbms.ReplacementPolicy;
+import cbpdbms.SeqScan;
+import cbpdbms.TransactionId;
+import cbpdbms.TwoQueuePolicy;
+
+public class BufferPoolConcurrencyTest extends SimpleDbTestBase {
+	private static final int ROWS = 10000;
+	private static final int THREADS = 8;
+	private static final long TIMEOUT = 1000;
+
+	HeapFile f;
+
+	@Before
+	public void setUp() throws Exception {
+		f = SystemTestUtil.createRandomHeapFile(2, ROWS, null, null);
+	}
+
+	/**
+	 * Runs threads running the task, each as a transaction of its own.
+	 *
+	 * @return the first error of a thread, null if there is none
+	 */
+	private Throwable run(int threads, final Task task) throws InterruptedException {
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		Thread[] ts = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			final int n = i;
+			ts[i] = new Thread() {
+				public void run() {
+					TransactionId tid = new TransactionId();
+					try {
+						task.run(n, tid);
+						Database.getBufferPool().transactionComplete(tid);
+					} catch (Throwable e) {
+						error.compareAndSet(null, e);
+					}
+				}
+			};
+		}
+		for (Thread t : ts)
+			t.start();
+		for (Thread t : ts)
+			t.join();
+		return error.get();
+	}
+
+	private interface Task {
+		void run(int thread, TransactionId tid) throws Exception;
+	}
+
+	/**
+	 * Threads missing the same pages together get the same copy of each page,
+	 * read once; threads reading more pages than the pool holds never
+	 * overflow it.
+	 */
+	@Test
+	public void concurrentMisses() throws Exception {
+		final BufferPool bp = Database.resetBufferPool(f.numPages());
+		final Page[][] pages = new Page[THREADS][f.numPages()];
+		assertNull(run(THREADS, new Task() {
+			public void run(int thread, TransactionId tid) throws Exception {
+				for (int i = 0; i < f.numPages(); i++)
+					pages[thread][i] = bp.getPage(tid, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+			}
+		}));
+		for (int t = 1; t < THREADS; t++)
+			for (int i = 0; i < f.numPages(); i++)
+				assertSame(pages[0][i], pages[t][i]);
+
+		final int poolPages = 4;
+		final BufferPool small = Database.resetBufferPool(poolPages);
+		assertNull(run(THREADS, new Task() {
+			public void run(int thread, TransactionId tid) throws Exception {
+				for (int n = 0; n < 3; n++)
+					for (int i = 0; i < f.numPages(); i++) {
+						int pgNo = (i + thread) % f.numPages();
+						Page p = small.getPage(tid, new HeapPageId(f.getId(), pgNo), Permissions.READ_ONLY);
+						assertEquals(pgNo, p.getId().pageno());
+						assertTrue(small.getPageCount() <= poolPages);
+					}
+			}
+		}));
+	}
+
+	/**
+	 * Threads scanning a table held in the pool all at once each read every
+	 * row of it.
+	 */
+	@Test
+	public void concurrentScans() throws Exception {
+		Database.resetBufferPool(f.numPages());
+		final int scans = 5;
+		assertNull(run(THREADS, new Task() {
+			public void run(int thread, TransactionId tid) throws Exception {
+				for (int n = 0; n < scans; n++) {
+					SeqScan scan = new SeqScan(tid, f.getId(), "");
+					int rows = 0;
+					scan.open();
+					while (scan.hasNext()) {
+						scan.next();
+						rows++;
+					}
+					scan.close();
+					assertEquals(ROWS, rows);
+				}
+			}
+		}));
+	}
+
+	/**
+	 * Hits on the pages of a pool with each replacement policy take no lock:
+	 * a hit completes while another thread holds the monitor of the policy,
+	 * and threads hitting all at once each get the pages they ask for.
+	 */
+	@Test
+	public void concurrentHits() throws Exception {
+		ReplacementPolicy[] policies = { new ClockPolicy(f.numPages()), new LruKPolicy(f.numPages()),
+				new TwoQueuePolicy(f.numPages()) };
+		for (ReplacementPolicy policy : policies) {
+			final BufferPool bp = new BufferPool(f.numPages(), policy);
+			final TransactionId tid = new TransactionId();
+			final HeapPageId pid = new HeapPageId(f.getId(), 0);
+			bp.getPage(tid, pid, Permissions.READ_ONLY);
+			Thread hit = new Thread() {
+				public void run() {
+					try {
+						bp.getPage(tid, pid, Permissions.READ_ONLY);
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+				}
+			};
+			synchronized (policy) {
+				hit.start();
+				hit.join(TIMEOUT);
+				assertFalse(policy.getClass().getSimpleName() + " locks hits", hit.isAlive());
+			}
+			bp.transactionComplete(tid);
+
+			assertNull(run(THREADS, new Task() {
+				public void run(int thread, TransactionId tid) throws Exception {
+					for (int n = 0; n < 100; n++)
+						for (int i = 0; i < f.numPages(); i++) {
+							Page p = bp.getPage(tid, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+							assertEquals(i, p.getId().pageno());
+						}
+				}
+			}));
+			assertTrue(bp.getPageCount() <= f.numPages());
+		}
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BufferPoolConcurrencyTest.class);
+	}
+}
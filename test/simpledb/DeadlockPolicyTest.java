@@ -0,0 +1,262 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import org.junit.Test;
+
+import cbpdbms.DeadlockDetector;
+import cbpdbms.HeapPageId;
+import cbpdbms.LockManager;
+import cbpdbms.PageId;
+import cbpdbms.Permissions;
+import cbpdbms.TimeoutPolicy;
+import cbpdbms.TransactionAbortedException;
+import cbpdbms.TransactionId;
+import cbpdbms.WaitDiePolicy;
+import cbpdbms.WoundWaitPolicy;
+
+/**
+ * The deadlock policies of the LockManager, and a benchmark of the latency of
+ * acquireLock under each of them.
+ */
+public class DeadlockPolicyTest extends SimpleDbTestBase {
+	private static final int TIMEOUT = 100;
+
+	private final PageId p0 = new HeapPageId(1, 0);
+	private final PageId p1 = new HeapPageId(1, 1);
+
+	/**
+	 * Asks for a lock in a new thread, which records whether it got it.
+	 */
+	private static class Grabber extends Thread {
+		final LockManager locker;
+		final TransactionId tid;
+		final PageId pid;
+		final Permissions perm;
+		volatile boolean acquired;
+		volatile boolean aborted;
+
+		Grabber(LockManager locker, TransactionId tid, PageId pid, Permissions perm) {
+			this.locker = locker;
+			this.tid = tid;
+			this.pid = pid;
+			this.perm = perm;
+			start();
+		}
+
+		public void run() {
+			try {
+				locker.acquireLock(tid, pid, perm);
+				acquired = true;
+			} catch (TransactionAbortedException e) {
+				aborted = true;
+			}
+		}
+	}
+
+	/**
+	 * Under wait-die, an older transaction waits for a younger one, a younger
+	 * one aborts rather than wait for an older one.
+	 */
+	@Test
+	public void waitDie() throws Exception {
+		LockManager locker = new LockManager(new WaitDiePolicy());
+		TransactionId older = new TransactionId();
+		TransactionId younger = new TransactionId();
+		locker.acquireLock(younger, p0, Permissions.READ_WRITE);
+		locker.acquireLock(older, p1, Permissions.READ_WRITE);
+
+		Grabber waits = new Grabber(locker, older, p0, Permissions.READ_ONLY);
+		Thread.sleep(TIMEOUT);
+		assertFalse(waits.acquired || waits.aborted);
+		try {
+			locker.acquireLock(younger, p1, Permissions.READ_ONLY);
+			fail("expected the younger transaction to die");
+		} catch (TransactionAbortedException e) {
+			// expected
+		}
+		locker.releaseAllTransactionLock(younger);
+		waits.join(TIMEOUT * 10);
+		assertTrue(waits.acquired);
+	}
+
+	/**
+	 * Under wound-wait, an older transaction aborts a younger one it would
+	 * wait for, a younger one waits for an older one.
+	 */
+	@Test
+	public void woundWait() throws Exception {
+		LockManager locker = new LockManager(new WoundWaitPolicy());
+		TransactionId older = new TransactionId();
+		TransactionId younger = new TransactionId();
+		locker.acquireLock(older, p0, Permissions.READ_WRITE);
+		locker.acquireLock(younger, p1, Permissions.READ_WRITE);
+
+		Grabber youngerWaits = new Grabber(locker, younger, p0, Permissions.READ_ONLY);
+		Thread.sleep(TIMEOUT);
+		assertFalse(youngerWaits.acquired || youngerWaits.aborted);
+
+		Grabber wounds = new Grabber(locker, older, p1, Permissions.READ_ONLY);
+		youngerWaits.join(TIMEOUT * 10);
+		assertTrue(youngerWaits.aborted);
+		assertFalse(wounds.acquired);
+		locker.releaseAllTransactionLock(younger);
+		wounds.join(TIMEOUT * 10);
+		assertTrue(wounds.acquired);
+	}
+
+	/**
+	 * Under the timeout policy, a transaction gives up after waiting for the
+	 * timeout.
+	 */
+	@Test
+	public void timeout() throws Exception {
+		LockManager locker = new LockManager(new TimeoutPolicy(TIMEOUT));
+		TransactionId tid1 = new TransactionId();
+		TransactionId tid2 = new TransactionId();
+		locker.acquireLock(tid1, p0, Permissions.READ_WRITE);
+
+		long start = System.currentTimeMillis();
+		try {
+			locker.acquireLock(tid2, p0, Permissions.READ_ONLY);
+			fail("expected the wait to time out");
+		} catch (TransactionAbortedException e) {
+			// expected
+		}
+		long waited = System.currentTimeMillis() - start;
+		assertTrue(waited >= TIMEOUT && waited < TIMEOUT * 10);
+		// the page and its table
+		assertEquals(2, locker.getLockCount());
+	}
+
+	/**
+	 * The background detector breaks a deadlock by aborting its youngest
+	 * transaction.
+	 */
+	@Test
+	public void detector() throws Exception {
+		LockManager locker = new LockManager(new DeadlockDetector(TIMEOUT / 10));
+		TransactionId older = new TransactionId();
+		TransactionId younger = new TransactionId();
+		locker.acquireLock(older, p0, Permissions.READ_ONLY);
+		locker.acquireLock(younger, p1, Permissions.READ_ONLY);
+
+		Grabber g1 = new Grabber(locker, older, p1, Permissions.READ_WRITE);
+		Grabber g2 = new Grabber(locker, younger, p0, Permissions.READ_WRITE);
+		g2.join(TIMEOUT * 10);
+		assertTrue(g2.aborted);
+		assertFalse(g1.acquired || g1.aborted);
+		locker.releaseAllTransactionLock(younger);
+		g1.join(TIMEOUT * 10);
+		assertTrue(g1.acquired);
+	}
+
+	private static final int THREADS = 8;
+	private static final int PAGES = 4;
+	private static final int COMMITS = 100;
+
+	/**
+	 * Runs THREADS threads, each committing COMMITS transactions that read a
+	 * random page and then write another, DeadlockTest style, under a policy.
+	 *
+	 * @return the latencies of the calls of acquireLock, in nanoseconds
+	 */
+	private long[] contend(String policy, final AtomicLong aborts) throws Exception {
+		final LockManager locker = new LockManager(LockManager.newDeadlockPolicy(policy));
+		final long[][] latencies = new long[THREADS][];
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		Thread[] ts = new Thread[THREADS];
+		for (int i = 0; i < THREADS; i++) {
+			final int thread = i;
+			ts[i] = new Thread() {
+				public void run() {
+					Random rand = new Random(thread);
+					long[] lat = new long[COMMITS * 8];
+					int n = 0;
+					try {
+						for (int done = 0; done < COMMITS;) {
+							TransactionId tid = new TransactionId();
+							PageId read = new HeapPageId(1, rand.nextInt(PAGES));
+							PageId write = new HeapPageId(1, rand.nextInt(PAGES));
+							try {
+								long start = System.nanoTime();
+								locker.acquireLock(tid, read, Permissions.READ_ONLY);
+								Thread.yield();
+								locker.acquireLock(tid, write, Permissions.READ_WRITE);
+								long end = System.nanoTime();
+								if (n == lat.length)
+									lat = Arrays.copyOf(lat, n * 2);
+								lat[n++] = end - start;
+								done++;
+							} catch (TransactionAbortedException e) {
+								aborts.incrementAndGet();
+							}
+							locker.releaseAllTransactionLock(tid);
+						}
+					} catch (Throwable e) {
+						error.set(e);
+					}
+					latencies[thread] = Arrays.copyOf(lat, n);
+				}
+			};
+		}
+		for (Thread t : ts)
+			t.start();
+		for (Thread t : ts) {
+			t.join(60000);
+			assertFalse("stuck under " + policy, t.isAlive());
+		}
+		assertNull(error.get());
+		assertEquals(0, locker.getLockCount());
+
+		long[] all = new long[0];
+		for (long[] lat : latencies) {
+			int n = all.length;
+			all = Arrays.copyOf(all, n + lat.length);
+			System.arraycopy(lat, 0, all, n, lat.length);
+		}
+		Arrays.sort(all);
+		return all;
+	}
+
+	/**
+	 * Every policy lets all the transactions of a contended workload commit,
+	 * and prints the latency of getting both locks of a transaction.
+	 */
+	@Test
+	public void latency() throws Exception {
+		String[] policies = { "graph", "timeout:20", "wait-die", "wound-wait", "detector:5" };
+		for (String policy : policies) {
+			AtomicLong aborts = new AtomicLong();
+			long start = System.nanoTime();
+			long[] lat = contend(policy, aborts);
+			double seconds = (System.nanoTime() - start) / 1e9;
+			assertEquals(THREADS * COMMITS, lat.length);
+			long sum = 0;
+			for (long l : lat)
+				sum += l;
+			System.out.println(String.format(
+					"DeadlockPolicyTest: %-10s mean %7.1f us, p99 %8.1f us, %5d aborts, %.2f s", policy,
+					sum / 1e3 / lat.length, lat[lat.length * 99 / 100] / 1e3, aborts.get(), seconds));
+		}
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(DeadlockPolicyTest.class);
+	}
+}
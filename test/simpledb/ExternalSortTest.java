@@ -0,0 +1,89 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import org.junit.Test;
+
+import cbpdbms.DbIterator;
+import cbpdbms.ExternalSort;
+import cbpdbms.IntField;
+
+public class ExternalSortTest extends SimpleDbTestBase {
+
+	/**
+	 * @return rows two-field tuples with random keys, and their keys in keys
+	 */
+	private DbIterator createRandomTupleList(Random r, int rows, List<Integer> keys) {
+		int[] data = new int[2 * rows];
+		for (int i = 0; i < rows; i++) {
+			data[2 * i] = r.nextInt(rows);
+			data[2 * i + 1] = i;
+			keys.add(data[2 * i]);
+		}
+		return TestUtil.createTupleList(2, data);
+	}
+
+	private List<Integer> readKeys(DbIterator it) throws Exception {
+		List<Integer> list = new ArrayList<Integer>();
+		while (it.hasNext())
+			list.add(((IntField) it.next().getField(0)).getValue());
+		return list;
+	}
+
+	/**
+	 * A child that fits in the budget is sorted in memory
+	 */
+	@Test
+	public void inMemory() throws Exception {
+		List<Integer> keys = new ArrayList<Integer>();
+		ExternalSort op = new ExternalSort(0, true, createRandomTupleList(new Random(1), 500, keys));
+		op.open();
+		assertFalse(op.hasSpilled());
+		Collections.sort(keys);
+		assertEquals(keys, readKeys(op));
+		op.close();
+	}
+
+	/**
+	 * A child larger than the budget is sorted in runs that need more than
+	 * one merge pass, in both orders
+	 */
+	@Test
+	public void spilled() throws Exception {
+		for (boolean asc : new boolean[] { true, false }) {
+			List<Integer> keys = new ArrayList<Integer>();
+			ExternalSort op = new ExternalSort(0, asc, createRandomTupleList(new Random(2), 20000, keys), 3);
+			op.open();
+			assertTrue(op.hasSpilled());
+			assertTrue(op.getMergePasses() > 0);
+
+			Collections.sort(keys);
+			if (!asc)
+				Collections.reverse(keys);
+			assertEquals(keys, readKeys(op));
+			assertTrue(TestUtil.checkExhausted(op));
+
+			// rewind reads the sorted runs again
+			op.rewind();
+			assertEquals(keys, readKeys(op));
+			op.close();
+		}
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(ExternalSortTest.class);
+	}
+}
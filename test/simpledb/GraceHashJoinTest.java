@@ -0,0 +1,154 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import cbpdbms.DbIterator;
+import cbpdbms.GraceHashJoin;
+import cbpdbms.Join;
+import cbpdbms.JoinPredicate;
+import cbpdbms.Predicate;
+import cbpdbms.TupleDesc;
+import cbpdbms.Utility;
+
+public class GraceHashJoinTest extends SimpleDbTestBase {
+
+	int width1 = 2;
+	int width2 = 3;
+	DbIterator scan1;
+	DbIterator scan2;
+	DbIterator eqJoin;
+
+	/**
+	 * Initialize each unit test
+	 */
+	@Before
+	public void createTupleLists() throws Exception {
+		this.scan1 = TestUtil.createTupleList(width1, new int[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+		this.scan2 = TestUtil.createTupleList(width2, new int[] { 1, 2, 3, 2, 3, 4, 3, 4, 5, 4, 5, 6, 5, 6, 7 });
+		this.eqJoin = TestUtil.createTupleList(width1 + width2,
+				new int[] { 1, 2, 1, 2, 3, 3, 4, 3, 4, 5, 5, 6, 5, 6, 7 });
+	}
+
+	/**
+	 * @return width-field tuples whose first field is in [0, keys)
+	 */
+	private DbIterator createRandomTupleList(Random r, int width, int rows, int keys) {
+		int[] data = new int[width * rows];
+		for (int i = 0; i < data.length; i++)
+			data[i] = (i % width == 0) ? r.nextInt(keys) : r.nextInt();
+		return TestUtil.createTupleList(width, data);
+	}
+
+	/**
+	 * @return the tuples of it as sorted strings, to compare joins that
+	 *         produce tuples in different orders
+	 */
+	private List<String> sortedTuples(DbIterator it) throws Exception {
+		List<String> list = new ArrayList<String>();
+		it.open();
+		while (it.hasNext())
+			list.add(it.next().toString());
+		it.close();
+		Collections.sort(list);
+		return list;
+	}
+
+	/**
+	 * Unit test for GraceHashJoin.getTupleDesc()
+	 */
+	@Test
+	public void getTupleDesc() {
+		JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+		GraceHashJoin op = new GraceHashJoin(pred, scan1, scan2);
+		TupleDesc expected = Utility.getTupleDesc(width1 + width2);
+		TupleDesc actual = op.getTupleDesc();
+		assertEquals(expected, actual);
+	}
+
+	/**
+	 * Inputs that fit in the budget are joined in memory
+	 */
+	@Test
+	public void eqJoinInMemory() throws Exception {
+		JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+		GraceHashJoin op = new GraceHashJoin(pred, scan1, scan2);
+		op.open();
+		assertFalse(op.hasSpilled());
+		eqJoin.open();
+		TestUtil.matchAllTuples(eqJoin, op);
+	}
+
+	/**
+	 * Inputs larger than the budget are partitioned to disk and still produce
+	 * the same tuples as a nested loops join, whichever side is built
+	 */
+	@Test
+	public void eqJoinSpilled() throws Exception {
+		JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+		for (boolean buildLeft : new boolean[] { true, false }) {
+			Random r = new Random(buildLeft ? 1 : 2);
+			DbIterator left = createRandomTupleList(r, width1, 3000, 500);
+			DbIterator right = createRandomTupleList(r, width2, 2000, 500);
+
+			List<String> expected = sortedTuples(new Join(pred, left, right));
+
+			GraceHashJoin op = new GraceHashJoin(pred, left, right, buildLeft, 2);
+			op.open();
+			assertTrue(op.hasSpilled());
+			op.close();
+
+			List<String> actual = sortedTuples(op);
+			assertEquals(expected.size(), actual.size());
+			assertEquals(expected, actual);
+		}
+	}
+
+	/**
+	 * Unit test for GraceHashJoin.rewind() after spilling
+	 */
+	@Test
+	public void rewindSpilled() throws Exception {
+		JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+		Random r = new Random(3);
+		DbIterator left = createRandomTupleList(r, width1, 2000, 300);
+		DbIterator right = createRandomTupleList(r, width2, 2000, 300);
+
+		GraceHashJoin op = new GraceHashJoin(pred, left, right, true, 2);
+		op.open();
+		int count = 0;
+		while (op.hasNext()) {
+			op.next();
+			count++;
+		}
+		assertTrue(TestUtil.checkExhausted(op));
+
+		op.rewind();
+		int again = 0;
+		while (op.hasNext()) {
+			op.next();
+			again++;
+		}
+		assertEquals(count, again);
+		op.close();
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(GraceHashJoinTest.class);
+	}
+}
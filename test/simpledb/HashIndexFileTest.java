@@ -0,0 +1,277 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import cbpdbms.Database;
+import cbpdbms.DbFileIterator;
+import cbpdbms.DbIterator;
+import cbpdbms.Delete;
+import cbpdbms.Filter;
+import cbpdbms.HashIndexFile;
+import cbpdbms.HeapFile;
+import cbpdbms.HeapPageId;
+import cbpdbms.IndexLookup;
+import cbpdbms.IntField;
+import cbpdbms.LogicalPlan;
+import cbpdbms.Predicate;
+import cbpdbms.RecordId;
+import cbpdbms.SeqScan;
+import cbpdbms.TableStats;
+import cbpdbms.TransactionId;
+import cbpdbms.Tuple;
+import cbpdbms.Utility;
+
+public class HashIndexFileTest extends SimpleDbTestBase {
+	private static final int ROWS = 2000;
+	private static final long TIMEOUT = 1000;
+	// transactions are small so that their dirty pages fit in the BufferPool
+	private static final int ROWS_PER_TRANSACTION = 20;
+
+	HeapFile table;
+	HashIndexFile index;
+
+	/**
+	 * Creates a table of (key, row number) whose keys are 7 times the row
+	 * number, with a hash index on the key, then fills it.
+	 */
+	@Before
+	public void setUp() throws Exception {
+		File f = File.createTempFile("hash_table", ".dat");
+		f.deleteOnExit();
+		table = Utility.openHeapFile(2, "c", f);
+
+		File indexFile = File.createTempFile("hash_index", ".dat");
+		indexFile.deleteOnExit();
+		index = new HashIndexFile(indexFile, table, 0);
+		Database.getCatalog().addIndex(index);
+
+		TransactionId tid = null;
+		for (int i = 0; i < ROWS; i++) {
+			if (i % ROWS_PER_TRANSACTION == 0) {
+				if (tid != null)
+					Database.getBufferPool().transactionComplete(tid);
+				tid = new TransactionId();
+			}
+			Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[] { 7 * i, i }));
+		}
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	private int count(DbFileIterator it) throws Exception {
+		int n = 0;
+		it.open();
+		while (it.hasNext()) {
+			it.next();
+			n++;
+		}
+		it.close();
+		return n;
+	}
+
+	/**
+	 * @return the row numbers of the tuples with key k, -1 if there is none
+	 */
+	private int lookup(TransactionId tid, int k) throws Exception {
+		DbIterator it = new IndexLookup(tid, index, new IntField(k), "t");
+		it.open();
+		int v = -1;
+		while (it.hasNext()) {
+			Tuple t = it.next();
+			assertEquals(-1, v);
+			assertEquals(k, ((IntField) t.getField(0)).getValue());
+			v = ((IntField) t.getField(1)).getValue();
+		}
+		it.close();
+		return v;
+	}
+
+	/**
+	 * Unit test for HashIndexFile.iterator(): every entry is there, and the
+	 * index grew past its first bucket.
+	 */
+	@Test
+	public void iterator() throws Exception {
+		TransactionId tid = new TransactionId();
+		assertEquals(ROWS, count(index.iterator(tid)));
+		assertTrue(index.numPages() > 4);
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * Unit test for IndexLookup over a HashIndexFile.
+	 */
+	@Test
+	public void lookup() throws Exception {
+		TransactionId tid = new TransactionId();
+		for (int i = 0; i < ROWS; i += 37)
+			assertEquals(i, lookup(tid, 7 * i));
+		assertEquals(-1, lookup(tid, 3));
+		assertEquals(-1, lookup(tid, 7 * ROWS));
+		assertEquals(1, count(index.lookup(tid, new IntField(7 * 5))));
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * Deleting tuples from the table removes their entries from the index.
+	 */
+	@Test
+	public void delete() throws Exception {
+		for (int lo = 0; lo < ROWS / 2; lo += ROWS_PER_TRANSACTION) {
+			TransactionId tid = new TransactionId();
+			Predicate from = new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(lo));
+			Predicate to = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(lo + ROWS_PER_TRANSACTION));
+			Delete delete = new Delete(tid, new Filter(to, new Filter(from, new SeqScan(tid, table.getId(), "t"))));
+			delete.open();
+			assertEquals(ROWS_PER_TRANSACTION, ((IntField) delete.next().getField(0)).getValue());
+			delete.close();
+			Database.getBufferPool().transactionComplete(tid);
+		}
+
+		TransactionId tid = new TransactionId();
+		assertEquals(ROWS / 2, count(index.iterator(tid)));
+		for (int i = 0; i < ROWS; i += 37)
+			assertEquals(i < ROWS / 2 ? -1 : i, lookup(tid, 7 * i));
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * The planner answers an equality filter on the indexed field, through
+	 * the index since it is much cheaper than a scan.
+	 */
+	@Test
+	public void planner() throws Exception {
+		HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+		TableStats s = new TableStats(table.getId(), 1000);
+		stats.put(Database.getCatalog().getTableName(table.getId()), s);
+		double sel = s.estimateSelectivity(0, Predicate.Op.EQUALS, new IntField(700));
+		assertTrue(s.estimateIndexScanCost(index, sel) < s.estimateScanCost());
+
+		LogicalPlan lp = new LogicalPlan();
+		lp.addScan(table.getId(), "t");
+		lp.addFilter("t.c0", Predicate.Op.EQUALS, "700");
+		lp.addProjectField("t.c1", null);
+
+		TransactionId tid = new TransactionId();
+		DbIterator plan = lp.physicalPlan(tid, stats, false);
+		plan.open();
+		assertTrue(plan.hasNext());
+		assertEquals(100, ((IntField) plan.next().getField(0)).getValue());
+		assertTrue(!plan.hasNext());
+		plan.close();
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * An entry whose key is not that of the tuple it points to, as left by an
+	 * index out of date with its table, is skipped by lookups.
+	 */
+	@Test
+	public void staleEntry() throws Exception {
+		TransactionId tid = new TransactionId();
+		Tuple t = Utility.getHeapTuple(new int[] { 3, 0 });
+		t.setRecordId(new RecordId(new HeapPageId(table.getId(), 0), 0));
+		index.addTuple(tid, t);
+		assertEquals(-1, lookup(tid, 3));
+		assertEquals(0, lookup(tid, 0));
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * Writers lock the pages of their bucket only: a transaction that added
+	 * an entry holds up neither one adding an entry to another bucket nor a
+	 * lookup of another bucket.
+	 */
+	@Test
+	public void concurrentWriters() throws Exception {
+		TransactionId writer = new TransactionId();
+		Tuple t = Utility.getHeapTuple(new int[] { 0, 0 });
+		t.setRecordId(new RecordId(new HeapPageId(table.getId(), 0), 0));
+		index.addTuple(writer, t);
+
+		final TransactionId other = new TransactionId();
+		final AtomicReference<Exception> error = new AtomicReference<Exception>();
+		final int[] found = { -1 };
+		Thread thread = new Thread() {
+			public void run() {
+				try {
+					Tuple t = Utility.getHeapTuple(new int[] { 1, 1 });
+					t.setRecordId(new RecordId(new HeapPageId(table.getId(), 0), 1));
+					index.addTuple(other, t);
+					found[0] = lookup(other, 7);
+				} catch (Exception e) {
+					error.set(e);
+				}
+			}
+		};
+		thread.start();
+		thread.join(TIMEOUT);
+		boolean blocked = thread.isAlive();
+		Database.getBufferPool().transactionComplete(writer, false);
+		thread.join();
+		assertFalse("the writer of another bucket blocks", blocked);
+		assertEquals(null, error.get());
+		assertEquals(1, found[0]);
+		Database.getBufferPool().transactionComplete(other, false);
+	}
+
+	/**
+	 * The index on the primary key of a table of a catalog file is rebuilt
+	 * once the table holds tuples it has no entry for, even in free slots of
+	 * the pages it was built from.
+	 */
+	@Test
+	public void rebuild() throws Exception {
+		assertEquals(ROWS, index.readNumEntries());
+
+		String path = table.getFile().getPath();
+		String name = path.substring(0, path.length() - ".dat".length());
+		new File(name + ".pk.idx").deleteOnExit();
+		File catalog = File.createTempFile("catalog", ".txt");
+		catalog.deleteOnExit();
+		FileWriter w = new FileWriter(catalog);
+		w.write(name + " (c0 int pk, c1 int)\n");
+		w.close();
+		Database.reset();
+		Database.getCatalog().loadSchema(catalog.getAbsolutePath());
+
+		// rows added to the last page of the table without the index
+		Database.reset();
+		HeapFile hf = Utility.openHeapFile(2, "c", table.getFile());
+		int pages = hf.numPages();
+		int rows = ROWS;
+		TransactionId t = new TransactionId();
+		for (int i = 0; i < ROWS_PER_TRANSACTION / 2; i++, rows++)
+			Database.getBufferPool().insertTuple(t, hf.getId(), Utility.getHeapTuple(new int[] { 7 * rows, rows }));
+		Database.getBufferPool().transactionComplete(t);
+		assertEquals(pages, hf.numPages());
+
+		Database.reset();
+		Database.getCatalog().loadSchema(catalog.getAbsolutePath());
+		index = (HashIndexFile) Database.getCatalog().getIndexes(hf.getId(), 0).get(0);
+		assertEquals(rows, index.readNumEntries());
+		TransactionId tid = new TransactionId();
+		assertEquals(rows, count(index.iterator(tid)));
+		assertEquals(rows - 1, lookup(tid, 7 * (rows - 1)));
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(HashIndexFileTest.class);
+	}
+}
@@ -0,0 +1,112 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import cbpdbms.DbIterator;
+import cbpdbms.HashJoin;
+import cbpdbms.JoinPredicate;
+import cbpdbms.Predicate;
+import cbpdbms.Tuple;
+import cbpdbms.TupleDesc;
+import cbpdbms.Utility;
+
+public class HashJoinTest extends SimpleDbTestBase {
+
+	int width1 = 2;
+	int width2 = 3;
+	DbIterator scan1;
+	DbIterator scan2;
+	DbIterator eqJoin;
+
+	/**
+	 * Initialize each unit test
+	 */
+	@Before
+	public void createTupleLists() throws Exception {
+		this.scan1 = TestUtil.createTupleList(width1, new int[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+		this.scan2 = TestUtil.createTupleList(width2, new int[] { 1, 2, 3, 2, 3, 4, 3, 4, 5, 4, 5, 6, 5, 6, 7 });
+		this.eqJoin = TestUtil.createTupleList(width1 + width2,
+				new int[] { 1, 2, 1, 2, 3, 3, 4, 3, 4, 5, 5, 6, 5, 6, 7 });
+	}
+
+	/**
+	 * Unit test for HashJoin.getTupleDesc()
+	 */
+	@Test
+	public void getTupleDesc() {
+		JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+		HashJoin op = new HashJoin(pred, scan1, scan2);
+		TupleDesc expected = Utility.getTupleDesc(width1 + width2);
+		TupleDesc actual = op.getTupleDesc();
+		assertEquals(expected, actual);
+	}
+
+	/**
+	 * Unit test for HashJoin.rewind()
+	 */
+	@Test
+	public void rewind() throws Exception {
+		JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+		HashJoin op = new HashJoin(pred, scan1, scan2);
+		op.open();
+		while (op.hasNext()) {
+			assertNotNull(op.next());
+		}
+		assertTrue(TestUtil.checkExhausted(op));
+		op.rewind();
+
+		eqJoin.open();
+		Tuple expected = eqJoin.next();
+		Tuple actual = op.next();
+		assertTrue(TestUtil.compareTuples(expected, actual));
+	}
+
+	/**
+	 * Unit test for HashJoin.getNext() building on the left child
+	 */
+	@Test
+	public void eqJoinBuildLeft() throws Exception {
+		JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+		HashJoin op = new HashJoin(pred, scan1, scan2, true);
+		op.open();
+		eqJoin.open();
+		TestUtil.matchAllTuples(eqJoin, op);
+	}
+
+	/**
+	 * Unit test for HashJoin.getNext() building on the right child; the
+	 * output must still be left fields followed by right fields
+	 */
+	@Test
+	public void eqJoinBuildRight() throws Exception {
+		JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+		HashJoin op = new HashJoin(pred, scan1, scan2, false);
+		op.open();
+		eqJoin.open();
+		TestUtil.matchAllTuples(eqJoin, op);
+	}
+
+	/**
+	 * HashJoin only handles equality predicates
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void nonEqualityRejected() {
+		JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+		new HashJoin(pred, scan1, scan2);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(HashJoinTest.class);
+	}
+}
@@ -0,0 +1,134 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cbpdbms.Database;
+import cbpdbms.DbException;
+import cbpdbms.DbFileIterator;
+import cbpdbms.HeapFile;
+import cbpdbms.HeapPage;
+import cbpdbms.HeapPageId;
+import cbpdbms.Page;
+import cbpdbms.TransactionId;
+import cbpdbms.Tuple;
+import cbpdbms.Utility;
+
+public class HeapFileMmapTest extends SimpleDbTestBase {
+	private static final int ROWS = 5000;
+
+	ArrayList<ArrayList<Integer>> tuples;
+	File file;
+	HeapFile hf;
+	TransactionId tid;
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		tuples = new ArrayList<ArrayList<Integer>>();
+		file = SystemTestUtil.createRandomHeapFileUnopened(2, ROWS, 1000, null, tuples);
+		hf = new HeapFile(file, Utility.getTupleDesc(2), true);
+		Database.getCatalog().addTable(hf, "mapped");
+		tid = new TransactionId();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * A mapped file reads the same pages and tuples as a file read with
+	 * copies.
+	 */
+	@Test
+	public void read() throws Exception {
+		assertTrue(hf.isMapped());
+		HeapFile copied = new HeapFile(file, Utility.getTupleDesc(2));
+		assertEquals(copied.numPages(), hf.numPages());
+		for (int i = 0; i < hf.numPages(); i++) {
+			HeapPageId pid = new HeapPageId(hf.getId(), i);
+			HeapPage page = (HeapPage) hf.readPage(pid);
+			assertArrayEquals(copied.readPage(pid).getPageData(), page.getPageData());
+			assertArrayEquals(page.getPageData(), page.getBeforeImage().getPageData());
+		}
+		SystemTestUtil.matchTuples(hf, tuples);
+	}
+
+	/**
+	 * Tuples are neither added to nor deleted from a mapped file.
+	 */
+	@Test
+	public void readOnly() throws Exception {
+		try {
+			Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(1, 2));
+			fail("expected a mapped file to be read-only");
+		} catch (DbException e) {
+			// expected
+		}
+
+		DbFileIterator it = hf.iterator(tid);
+		it.open();
+		Tuple t = it.next();
+		it.close();
+		try {
+			Database.getBufferPool().deleteTuple(tid, t);
+			fail("expected a mapped file to be read-only");
+		} catch (DbException e) {
+			// expected
+		}
+
+		Page page = hf.readPage(new HeapPageId(hf.getId(), 0));
+		try {
+			hf.writePage(page);
+			fail("expected a mapped file to be read-only");
+		} catch (java.io.IOException e) {
+			// expected
+		}
+		SystemTestUtil.matchTuples(hf, tuples);
+	}
+
+	/**
+	 * The mmap annotation of a table in a catalog file maps the table.
+	 */
+	@Test
+	public void loadSchema() throws Exception {
+		Database.reset();
+		String name = file.getPath().substring(0, file.getPath().length() - ".dat".length());
+		File catalog = File.createTempFile("catalog", ".txt");
+		catalog.deleteOnExit();
+		FileWriter w = new FileWriter(catalog);
+		w.write(name + " (a int, b int) mmap\n");
+		w.write(name + "_copy (a int, b int)\n");
+		w.close();
+
+		Database.getCatalog().loadSchema(catalog.getAbsolutePath());
+		int id = Database.getCatalog().getTableId(name);
+		assertTrue(((HeapFile) Database.getCatalog().getDbFile(id)).isMapped());
+		int copyId = Database.getCatalog().getTableId(name + "_copy");
+		assertFalse(((HeapFile) Database.getCatalog().getDbFile(copyId)).isMapped());
+		SystemTestUtil.matchTuples(Database.getCatalog().getDbFile(id), tuples);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(HeapFileMmapTest.class);
+	}
+}
@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
 
 import org.junit.After;
@@ -87,6 +89,79 @@ public class HeapFileReadTest extends SimpleDbTestBase {
 		assertFalse(page.getSlot(20));
 	}
 
+	/**
+	 * @return the number of open file descriptors of this process for f, -1
+	 *         if they cannot be listed
+	 */
+	private static int openCount(File f) throws IOException {
+		File[] fds = new File("/proc/self/fd").listFiles();
+		if (fds == null)
+			return -1;
+		int n = 0;
+		for (File fd : fds)
+			if (fd.getCanonicalFile().equals(f.getCanonicalFile()))
+				n++;
+		return n;
+	}
+
+	/**
+	 * A file replaced in the Catalog is closed, and opened again when it is
+	 * read again.
+	 */
+	@Test
+	public void close() throws Exception {
+		hf.readPage(new HeapPageId(hf.getId(), 0));
+		if (openCount(hf.getFile()) < 0)
+			return;
+		assertEquals(1, openCount(hf.getFile()));
+
+		Database.getCatalog().addTable(new HeapFile(hf.getFile(), td), "replaced");
+		assertEquals(0, openCount(hf.getFile()));
+
+		HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+		assertTrue(page.getSlot(1));
+		assertEquals(1, openCount(hf.getFile()));
+		hf.close();
+		assertEquals(0, openCount(hf.getFile()));
+	}
+
+	/**
+	 * Threads reading the pages of a file at once, each in its own order, read
+	 * the same bytes as a single thread.
+	 */
+	@Test
+	public void concurrentReadPage() throws Exception {
+		final HeapFile big = SystemTestUtil.createRandomHeapFile(2, 5000, null, null);
+		final int n = big.numPages();
+		final byte[][] expected = new byte[n][];
+		for (int i = 0; i < n; i++)
+			expected[i] = big.readPage(new HeapPageId(big.getId(), i)).getPageData();
+
+		final boolean[] match = new boolean[4];
+		Thread[] threads = new Thread[match.length];
+		for (int t = 0; t < threads.length; t++) {
+			final int thread = t;
+			threads[t] = new Thread() {
+				public void run() {
+					boolean ok = true;
+					for (int r = 0; r < 10; r++)
+						for (int i = 0; i < n; i++) {
+							int pgno = (i * (thread + 1) + r) % n;
+							byte[] data = big.readPage(new HeapPageId(big.getId(), pgno)).getPageData();
+							ok &= Arrays.equals(expected[pgno], data);
+						}
+					match[thread] = ok;
+				}
+			};
+		}
+		for (Thread t : threads)
+			t.start();
+		for (Thread t : threads)
+			t.join();
+		for (boolean ok : match)
+			assertTrue(ok);
+	}
+
 	@Test
 	public void testIteratorBasic() throws Exception {
 		HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null, null);
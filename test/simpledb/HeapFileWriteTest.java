@@ -4,8 +4,11 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import cbpdbms.BufferPool;
 import cbpdbms.Database;
 import cbpdbms.HeapFile;
+import cbpdbms.HeapPage;
+import cbpdbms.HeapPageId;
 import cbpdbms.TransactionId;
 import cbpdbms.Utility;
 
@@ -58,6 +61,21 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
 		assertEquals(3, empty.numPages());
 	}
 
+	/**
+	 * Unit test for HeapFile.writePage(): a page written past the end of the
+	 * file extends it, and reads back.
+	 */
+	@Test
+	public void writePage() throws Exception {
+		int n = empty.numPages();
+		HeapPage page = new HeapPage(new HeapPageId(empty.getId(), n + 1), HeapPage.createEmptyPageData());
+		page.addTuple(Utility.getHeapTuple(7, 2));
+		empty.writePage(page);
+		assertEquals(n + 2, empty.numPages());
+		assertEquals((n + 2) * BufferPool.PAGE_SIZE, empty.getFile().length());
+		assertArrayEquals(page.getPageData(), empty.readPage(page.getId()).getPageData());
+	}
+
 	/**
 	 * JUnit suite target
 	 */
@@ -1,6 +1,10 @@
 package simpledb;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
@@ -96,6 +100,54 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Changes to a page are written to its bytes in place, and leave the bytes
+	 * it was created from unchanged.
+	 */
+	@Test
+	public void pageData() throws Exception {
+		byte[] data = HeapPageReadTest.EXAMPLE_DATA.clone();
+		HeapPage page = new HeapPage(pid, data);
+		assertSame(data, page.getPageData());
+
+		Tuple added = Utility.getHeapTuple(new int[] { 7, 8 });
+		page.addTuple(added);
+		Tuple deleted = page.iterator().next();
+		page.deleteTuple(deleted);
+		assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, data);
+		assertSame(page.getPageData(), page.getPageData());
+
+		HeapPage read = new HeapPage(pid, page.getPageData());
+		assertEquals(page.getNumEmptySlots(), read.getNumEmptySlots());
+		Tuple t = read.getTuple(added.getRecordId().tupleno());
+		assertTrue(TestUtil.compareTuples(added, t));
+		assertEquals(added.getRecordId(), t.getRecordId());
+		assertNull(read.getTuple(deleted.getRecordId().tupleno()));
+		assertArrayEquals(data, page.getBeforeImage().getPageData());
+	}
+
+	/**
+	 * The before image is the bytes of the page when it was last committed,
+	 * kept without a copy until the page changes again.
+	 */
+	@Test
+	public void beforeImage() throws Exception {
+		HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+		assertSame(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImageData());
+
+		page.addTuple(Utility.getHeapTuple(new int[] { 7, 8 }));
+		byte[] committed = page.getPageData();
+		page.setBeforeImage();
+		assertSame(committed, page.getBeforeImageData());
+		byte[] copy = committed.clone();
+
+		page.deleteTuple(page.iterator().next());
+		assertNotSame(committed, page.getPageData());
+		assertArrayEquals(copy, page.getBeforeImageData());
+		assertArrayEquals(copy, page.getBeforeImage().getPageData());
+		assertEquals(page.getNumEmptySlots() - 1, page.getBeforeImage().getNumEmptySlots());
+	}
+
 	/**
 	 * Unit test for HeapPage.deleteTuple() with false tuples
 	 */
@@ -0,0 +1,180 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Vector;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import cbpdbms.Database;
+import cbpdbms.DbIterator;
+import cbpdbms.HashIndexFile;
+import cbpdbms.HeapFile;
+import cbpdbms.IndexFile;
+import cbpdbms.IndexNestedLoopJoin;
+import cbpdbms.IntField;
+import cbpdbms.JoinOptimizer;
+import cbpdbms.JoinPredicate;
+import cbpdbms.LogicalJoinNode;
+import cbpdbms.LogicalPlan;
+import cbpdbms.Predicate;
+import cbpdbms.SeqScan;
+import cbpdbms.TableStats;
+import cbpdbms.TransactionId;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+	private static final int OUTER_ROWS = 5;
+	private static final int INNER_ROWS = 20000;
+	private static final int MAX_VALUE = 1 << 16;
+
+	ArrayList<ArrayList<Integer>> outerTuples;
+	HeapFile outer;
+	ArrayList<ArrayList<Integer>> innerTuples;
+	HeapFile inner;
+
+	/**
+	 * Creates a large inner table of two columns, with random values in [0,
+	 * MAX_VALUE), and a small outer table of some of its tuples.
+	 */
+	@Before
+	public void setUp() throws Exception {
+		innerTuples = new ArrayList<ArrayList<Integer>>();
+		inner = SystemTestUtil.createRandomHeapFile(2, INNER_ROWS, MAX_VALUE, null, innerTuples, "c");
+		Database.getCatalog().addTable(inner, "inner");
+		outerTuples = new ArrayList<ArrayList<Integer>>();
+		for (int i = 0; i < OUTER_ROWS; i++)
+			outerTuples.add(innerTuples.get(i * (INNER_ROWS / OUTER_ROWS)));
+		outer = JoinOptimizerTest.createDuplicateHeapFile(outerTuples, 2, "c");
+		Database.getCatalog().addTable(outer, "outer");
+	}
+
+	/**
+	 * @return the tuples of outer joined with the tuples of inner whose first
+	 *         field equals the first field of the outer tuple and whose
+	 *         second field is below max
+	 */
+	private ArrayList<ArrayList<Integer>> expected(int max) {
+		ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+		for (ArrayList<Integer> t1 : outerTuples)
+			for (ArrayList<Integer> t2 : innerTuples)
+				if (t1.get(0).equals(t2.get(0)) && t2.get(1) < max) {
+					ArrayList<Integer> t = new ArrayList<Integer>(t1);
+					t.addAll(t2);
+					result.add(t);
+				}
+		return result;
+	}
+
+	private IndexFile addIndex() throws Exception {
+		File f = File.createTempFile("inlj_index", ".dat");
+		f.deleteOnExit();
+		HashIndexFile index = new HashIndexFile(f, inner, 0);
+		Database.getCatalog().addIndex(index);
+		Database.getCatalog().buildIndex(index);
+		return index;
+	}
+
+	/**
+	 * Unit test for IndexNestedLoopJoin: the same tuples as a nested loop
+	 * join, with and without filters on the inner table, after a rewind too.
+	 */
+	@Test
+	public void join() throws Exception {
+		IndexFile index = addIndex();
+		TransactionId tid = new TransactionId();
+		JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+		DbIterator join = new IndexNestedLoopJoin(p, new SeqScan(tid, outer.getId(), "o"), tid, index, "i",
+				Collections.<Predicate> emptyList());
+		assertEquals("o.c0", join.getTupleDesc().getFieldName(0));
+		assertEquals("i.c1", join.getTupleDesc().getFieldName(3));
+		SystemTestUtil.matchTuples(join, expected(MAX_VALUE));
+
+		ArrayList<Predicate> filters = new ArrayList<Predicate>();
+		filters.add(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(MAX_VALUE / 2)));
+		join = new IndexNestedLoopJoin(p, new SeqScan(tid, outer.getId(), "o"), tid, index, "i", filters);
+		SystemTestUtil.matchTuples(join, expected(MAX_VALUE / 2));
+
+		join.open();
+		int n = 0;
+		while (join.hasNext()) {
+			join.next();
+			n++;
+		}
+		join.rewind();
+		while (join.hasNext()) {
+			join.next();
+			n--;
+		}
+		join.close();
+		assertEquals(0, n);
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * The planner never builds an index: without one on the large inner table
+	 * it joins by hashing, with one it probes the index once per tuple of the
+	 * small outer table, which is estimated to be cheaper.
+	 */
+	@Test
+	public void planner() throws Exception {
+		HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+		stats.put("outer", new TableStats(outer.getId(), 1000));
+		stats.put("inner", new TableStats(inner.getId(), 1000));
+
+		LogicalPlan lp = new LogicalPlan();
+		lp.addScan(outer.getId(), "outer");
+		lp.addScan(inner.getId(), "inner");
+		lp.addJoin("outer.c0", "inner.c0", Predicate.Op.EQUALS);
+		lp.addFilter("inner.c1", Predicate.Op.LESS_THAN, "" + (MAX_VALUE / 2));
+		lp.addProjectField("outer.c0", null);
+		lp.addProjectField("outer.c1", null);
+		lp.addProjectField("inner.c0", null);
+		lp.addProjectField("inner.c1", null);
+
+		LogicalJoinNode j = new LogicalJoinNode("outer", "inner", "outer.c0", "inner.c0", Predicate.Op.EQUALS);
+		JoinOptimizer jo = new JoinOptimizer(lp, new Vector<LogicalJoinNode>());
+		double scanCost = stats.get("outer").estimateScanCost();
+		assertEquals(Double.MAX_VALUE, jo.estimateIndexJoinCost(j, OUTER_ROWS, scanCost, stats), 0);
+
+		TransactionId tid = new TransactionId();
+		assertFalse(jo.instantiateJoin(j, new SeqScan(tid, outer.getId(), "outer"), new SeqScan(tid, inner.getId(),
+				"inner"), stats) instanceof IndexNestedLoopJoin);
+		DbIterator plan = lp.physicalPlan(tid, stats, false);
+		SystemTestUtil.matchTuples(plan, expected(MAX_VALUE / 2));
+		Database.getBufferPool().transactionComplete(tid);
+		assertEquals(0, Database.getCatalog().getIndexes(inner.getId(), 0).size());
+
+		addIndex();
+		assertTrue(jo.estimateIndexJoinCost(j, OUTER_ROWS, scanCost, stats) < jo.estimateJoinCost(j, OUTER_ROWS,
+				INNER_ROWS, scanCost, stats.get("inner").estimateScanCost()));
+		tid = new TransactionId();
+		assertTrue(jo.instantiateJoin(j, new SeqScan(tid, outer.getId(), "outer"), new SeqScan(tid, inner.getId(),
+				"inner"), stats) instanceof IndexNestedLoopJoin);
+		plan = lp.physicalPlan(tid, stats, false);
+		SystemTestUtil.matchTuples(plan, expected(MAX_VALUE / 2));
+		Database.getBufferPool().transactionComplete(tid);
+
+		// the large table is not probed through an index on the small one
+		LogicalJoinNode j2 = j.swapInnerOuter();
+		assertTrue(jo.estimateIndexJoinCost(j2, INNER_ROWS, stats.get("inner").estimateScanCost(), stats) > jo
+				.estimateJoinCost(j2, INNER_ROWS, OUTER_ROWS, stats.get("inner").estimateScanCost(), scanCost));
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+	}
+}
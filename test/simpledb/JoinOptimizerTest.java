@@ -14,6 +14,9 @@ import org.junit.Test;
 import cbpdbms.BufferPool;
 import cbpdbms.Database;
 import cbpdbms.DbException;
+import cbpdbms.DbIterator;
+import cbpdbms.GraceHashJoin;
+import cbpdbms.HashJoin;
 import cbpdbms.HeapFile;
 import cbpdbms.HeapFileEncoder;
 import cbpdbms.JoinOptimizer;
@@ -21,6 +24,7 @@ import cbpdbms.LogicalJoinNode;
 import cbpdbms.Parser;
 import cbpdbms.ParsingException;
 import cbpdbms.Predicate;
+import cbpdbms.SeqScan;
 import cbpdbms.TableStats;
 import cbpdbms.TransactionAbortedException;
 import cbpdbms.TransactionId;
@@ -558,4 +562,48 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
 		// Make sure that "bigTable" is the innermost table in the join
 		Assert.assertEquals(result.get(result.size() - 1).t1, "a");
 	}
+
+	/**
+	 * Test that a join over the result of another join is sized by that
+	 * result, not by the base table of its left-hand side
+	 */
+	@Test
+	public void instantiateJoinOverJoinTest()
+			throws IOException, DbException, TransactionAbortedException, ParsingException {
+		final int IO_COST = 103;
+
+		HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+		HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
+		TransactionId tid = new TransactionId();
+
+		// a is small, b and c fit in the memory of a hash join, but b joined
+		// with a, being twice as wide, does not
+		HeapFile smallHeapFile = SystemTestUtil.createRandomHeapFile(2, 10, null, null, "c");
+		HeapFile bigHeapFileB = SystemTestUtil.createRandomHeapFile(2, 20000, null, null, "c");
+		HeapFile bigHeapFileC = SystemTestUtil.createRandomHeapFile(2, 20000, null, null, "c");
+		Database.getCatalog().addTable(smallHeapFile, "a");
+		Database.getCatalog().addTable(bigHeapFileB, "b");
+		Database.getCatalog().addTable(bigHeapFileC, "c");
+
+		stats.put("a", new TableStats(smallHeapFile.getId(), IO_COST));
+		stats.put("b", new TableStats(bigHeapFileB.getId(), IO_COST));
+		stats.put("c", new TableStats(bigHeapFileC.getId(), IO_COST));
+		filterSelectivities.put("a", 1.0);
+		filterSelectivities.put("b", 1.0);
+		filterSelectivities.put("c", 1.0);
+
+		LogicalJoinNode ab = new LogicalJoinNode("a", "b", "a.c0", "b.c0", Predicate.Op.EQUALS);
+		LogicalJoinNode ac = new LogicalJoinNode("a", "c", "a.c1", "c.c0", Predicate.Op.EQUALS);
+		Vector<LogicalJoinNode> nodes = new Vector<LogicalJoinNode>();
+		nodes.add(ab);
+		nodes.add(ac);
+		JoinOptimizer j = new JoinOptimizer(Parser.generateLogicalPlan(tid,
+				"SELECT a.c0 FROM a, b, c WHERE a.c0 = b.c0 AND a.c1 = c.c0;"), nodes);
+
+		DbIterator plan = j.instantiateJoin(ab, new SeqScan(tid, smallHeapFile.getId(), "a"),
+				new SeqScan(tid, bigHeapFileB.getId(), "b"), stats, filterSelectivities);
+		Assert.assertTrue(plan instanceof HashJoin);
+		plan = j.instantiateJoin(ac, plan, new SeqScan(tid, bigHeapFileC.getId(), "c"), stats, filterSelectivities);
+		Assert.assertTrue(plan instanceof GraceHashJoin);
+	}
 }
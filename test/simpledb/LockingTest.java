@@ -1,18 +1,30 @@
 package simpledb;
 
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicReference;
+
 import org.junit.Before;
 import org.junit.Test;
 
 import cbpdbms.BufferPool;
 import cbpdbms.Database;
+import cbpdbms.HeapPage;
 import cbpdbms.HeapPageId;
+import cbpdbms.LockManager;
+import cbpdbms.LockMode;
 import cbpdbms.PageId;
 import cbpdbms.Permissions;
+import cbpdbms.RecordId;
+import cbpdbms.SeqScan;
+import cbpdbms.TransactionAbortedException;
 import cbpdbms.TransactionId;
+import cbpdbms.Tuple;
 import cbpdbms.Utility;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
 public class LockingTest extends TestUtil.CreateHeapFile {
@@ -203,6 +215,327 @@ public class LockingTest extends TestUtil.CreateHeapFile {
 		bp.getPage(tid1, p1, Permissions.READ_WRITE);
 	}
 
+	private TestUtil.LockGrabber startGrabber(TransactionId tid, PageId pid, Permissions perm) throws Exception {
+		TestUtil.LockGrabber t = new TestUtil.LockGrabber(tid, pid, perm);
+		t.start();
+		Thread.sleep(TIMEOUT);
+		return t;
+	}
+
+	/**
+	 * A transaction waiting for a lock sleeps, rather than spins, until the
+	 * holder releases it.
+	 */
+	@Test
+	public void waiterSleeps() throws Exception {
+		bp.getPage(tid1, p0, Permissions.READ_WRITE);
+		TestUtil.LockGrabber t = startGrabber(tid2, p0, Permissions.READ_ONLY);
+		assertFalse(t.acquired());
+		// TIMED_WAITING if the deadlock policy limits waits
+		assertTrue(t.getState() == Thread.State.WAITING || t.getState() == Thread.State.TIMED_WAITING);
+
+		bp.transactionComplete(tid1);
+		t.join(TIMEOUT * 10);
+		assertTrue(t.acquired());
+		assertNull(t.getError());
+	}
+
+	/**
+	 * Locks are granted in the order they are asked for: a reader does not
+	 * pass a writer waiting before it.
+	 */
+	@Test
+	public void fifoOrder() throws Exception {
+		TransactionId tid3 = new TransactionId();
+		bp.getPage(tid1, p0, Permissions.READ_ONLY);
+		TestUtil.LockGrabber writer = startGrabber(tid2, p0, Permissions.READ_WRITE);
+		TestUtil.LockGrabber reader = startGrabber(tid3, p0, Permissions.READ_ONLY);
+		assertFalse(writer.acquired());
+		assertFalse(reader.acquired());
+
+		bp.transactionComplete(tid1);
+		writer.join(TIMEOUT * 10);
+		assertTrue(writer.acquired());
+		Thread.sleep(TIMEOUT);
+		assertFalse(reader.acquired());
+
+		bp.transactionComplete(tid2);
+		reader.join(TIMEOUT * 10);
+		assertTrue(reader.acquired());
+		bp.transactionComplete(tid3);
+	}
+
+	/**
+	 * The upgrade of a shared lock is granted before the requests that were
+	 * waiting for the page already.
+	 */
+	@Test
+	public void upgradeFirst() throws Exception {
+		TransactionId tid3 = new TransactionId();
+		bp.getPage(tid1, p0, Permissions.READ_ONLY);
+		bp.getPage(tid2, p0, Permissions.READ_ONLY);
+		TestUtil.LockGrabber writer = startGrabber(tid3, p0, Permissions.READ_WRITE);
+		TestUtil.LockGrabber upgrade = startGrabber(tid1, p0, Permissions.READ_WRITE);
+		assertFalse(writer.acquired());
+		assertFalse(upgrade.acquired());
+
+		bp.transactionComplete(tid2);
+		upgrade.join(TIMEOUT * 10);
+		assertTrue(upgrade.acquired());
+		Thread.sleep(TIMEOUT);
+		assertFalse(writer.acquired());
+
+		bp.transactionComplete(tid1);
+		writer.join(TIMEOUT * 10);
+		assertTrue(writer.acquired());
+		bp.transactionComplete(tid3);
+	}
+
+	/**
+	 * The locks of a page are found by the value of its PageId, and their
+	 * entry leaves the lock table once they are released. The pages of a
+	 * table share the entry of the intention lock on the table.
+	 */
+	@Test
+	public void lockTable() throws Exception {
+		LockManager locker = new LockManager();
+		locker.acquireLock(tid1, new HeapPageId(empty.getId(), 0), Permissions.READ_WRITE);
+		locker.acquireLock(tid1, new HeapPageId(empty.getId(), 1), Permissions.READ_ONLY);
+		assertEquals(3, locker.getLockCount());
+		assertTrue(locker.isExclusivelyLocked(new HeapPageId(empty.getId(), 0)));
+		assertTrue(locker.holdsLock(tid1, new HeapPageId(empty.getId(), 1)));
+
+		locker.acquireLock(tid2, new HeapPageId(empty.getId(), 1), Permissions.READ_ONLY);
+		locker.releaseAllTransactionLock(tid1);
+		assertFalse(locker.isExclusivelyLocked(p0));
+		assertEquals(2, locker.getLockCount());
+		locker.releaseLock(tid2, new HeapPageId(empty.getId(), 1));
+		assertEquals(1, locker.getLockCount());
+		locker.releaseAllTransactionLock(tid2);
+		assertEquals(0, locker.getLockCount());
+	}
+
+	/**
+	 * Asks for a record lock in a new thread, and tells whether it is granted
+	 * within TIMEOUT.
+	 */
+	private boolean grabRecordLock(final LockManager locker, final TransactionId tid, final RecordId rid,
+			final Permissions perm) throws Exception {
+		Thread t = new Thread() {
+			public void run() {
+				try {
+					locker.acquireRecordLock(tid, rid, perm);
+				} catch (TransactionAbortedException e) {
+					// not granted
+				}
+			}
+		};
+		t.setDaemon(true);
+		t.start();
+		t.join(TIMEOUT);
+		return !t.isAlive() && locker.holdsLock(tid, rid);
+	}
+
+	/**
+	 * Two transactions write different records of a page at once, under IX
+	 * locks on the page and its table, but not the same record.
+	 */
+	@Test
+	public void recordLocks() throws Exception {
+		LockManager locker = new LockManager();
+		RecordId r0 = new RecordId(p0, 0);
+		RecordId r1 = new RecordId(p0, 1);
+		locker.acquireRecordLock(tid1, r0, Permissions.READ_WRITE);
+		assertEquals(LockMode.IX, locker.getPageLock(tid1, p0));
+		assertEquals(LockMode.IX, locker.getTableLock(tid1, empty.getId()));
+
+		assertTrue(grabRecordLock(locker, tid2, r1, Permissions.READ_WRITE));
+		assertFalse(grabRecordLock(locker, tid2, r0, Permissions.READ_ONLY));
+		// withdraws the wait of tid2
+		locker.releaseAllTransactionLock(tid2);
+		locker.releaseAllTransactionLock(tid1);
+		Thread.sleep(TIMEOUT);
+		assertEquals(0, locker.getLockCount());
+	}
+
+	/**
+	 * A lock on a whole page conflicts with the intention locks of the
+	 * transactions locking its records, but not with those of other pages.
+	 */
+	@Test
+	public void intentionLocks() throws Exception {
+		LockManager locker = new LockManager();
+		locker.acquireRecordLock(tid1, new RecordId(p0, 0), Permissions.READ_ONLY);
+		assertEquals(LockMode.IS, locker.getPageLock(tid1, p0));
+		assertTrue(grabRecordLock(locker, tid2, new RecordId(p0, 1), Permissions.READ_WRITE));
+
+		TransactionId tid3 = new TransactionId();
+		locker.acquireLock(tid3, p1, Permissions.READ_WRITE);
+		assertTrue(locker.isExclusivelyLocked(p1));
+		assertFalse(grabRecordLock(locker, tid1, new RecordId(p1, 0), Permissions.READ_ONLY));
+
+		// SIX lets the readers of other records in, not the writers
+		locker.releaseAllTransactionLock(tid2);
+		locker.acquireLock(tid3, p0, LockMode.SIX);
+		assertTrue(grabRecordLock(locker, tid2, new RecordId(p0, 2), Permissions.READ_ONLY));
+		assertFalse(grabRecordLock(locker, new TransactionId(), new RecordId(p0, 3), Permissions.READ_WRITE));
+	}
+
+	/**
+	 * A lock on the table makes the locks on its pages and records needless.
+	 */
+	@Test
+	public void tableLockCovers() throws Exception {
+		LockManager locker = new LockManager();
+		locker.acquireTableLock(tid1, empty.getId(), LockMode.S);
+		assertTrue(locker.holdsLock(tid1, p2));
+		locker.acquireLock(tid1, p2, Permissions.READ_ONLY);
+		locker.acquireRecordLock(tid1, new RecordId(p2, 0), Permissions.READ_ONLY);
+		assertEquals(1, locker.getLockCount());
+
+		assertFalse(grabRecordLock(locker, tid2, new RecordId(p2, 1), Permissions.READ_WRITE));
+	}
+
+	/**
+	 * A transaction locking more records of a table than the threshold locks
+	 * the table instead, and its record locks are released.
+	 */
+	@Test
+	public void lockEscalation() throws Exception {
+		LockManager locker = new LockManager();
+		locker.setEscalationThreshold(10);
+		for (int i = 0; i < 10; i++)
+			locker.acquireRecordLock(tid1, new RecordId(p0, i), Permissions.READ_ONLY);
+		assertEquals(LockMode.IS, locker.getTableLock(tid1, empty.getId()));
+		assertEquals(12, locker.getLockCount());
+
+		locker.acquireRecordLock(tid1, new RecordId(p1, 0), Permissions.READ_ONLY);
+		assertEquals(LockMode.S, locker.getTableLock(tid1, empty.getId()));
+		assertTrue(locker.holdsLock(tid1, new RecordId(p0, 3)));
+		assertTrue(locker.holdsLock(tid1, new RecordId(p1, 0)));
+		// the table and the page intention lock left
+		assertEquals(2, locker.getLockCount());
+
+		assertTrue(grabRecordLock(locker, tid2, new RecordId(p2, 0), Permissions.READ_ONLY));
+		assertFalse(grabRecordLock(locker, new TransactionId(), new RecordId(p2, 1), Permissions.READ_WRITE));
+	}
+
+	/**
+	 * A transaction reads a tuple of a page through its record lock while
+	 * another deletes a different tuple of the page.
+	 */
+	@Test
+	public void readWhileDeleting() throws Exception {
+		HeapPage page = (HeapPage) bp.getPage(tid1, p0, Permissions.READ_ONLY);
+		bp.releasePage(tid1, p0);
+		Iterator<Tuple> it = page.iterator();
+		Tuple first = it.next();
+		Tuple second = it.next();
+
+		bp.deleteTuple(tid1, first);
+		assertTrue(bp.holdsLock(tid1, p0));
+		RecordId rid = second.getRecordId();
+		assertEquals(second.getField(0), empty.getTuple(tid2, rid.getPageId().pageno(), rid.tupleno()).getField(0));
+		bp.transactionComplete(tid1, false);
+		bp.transactionComplete(tid2);
+	}
+
+	/**
+	 * Record locks are for readers only: a transaction deleting a tuple of a
+	 * page waits for the one deleting another tuple of the page to complete,
+	 * since the page holds the uncommitted changes of one transaction only.
+	 */
+	@Test
+	public void writersOfSamePage() throws Exception {
+		HeapPage page = (HeapPage) bp.getPage(tid1, p0, Permissions.READ_ONLY);
+		bp.releasePage(tid1, p0);
+		Iterator<Tuple> it = page.iterator();
+		Tuple first = it.next();
+		final Tuple second = it.next();
+
+		bp.deleteTuple(tid1, first);
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		Thread writer = new Thread() {
+			public void run() {
+				try {
+					bp.deleteTuple(tid2, second);
+				} catch (Throwable e) {
+					error.set(e);
+				}
+			}
+		};
+		writer.start();
+		writer.join(TIMEOUT);
+		assertTrue(writer.isAlive());
+
+		bp.transactionComplete(tid1, false);
+		writer.join();
+		assertNull(error.get());
+		assertTrue(bp.holdsLock(tid2, p0));
+		bp.transactionComplete(tid2, false);
+	}
+
+	/**
+	 * Transactions appending rows to a table whose pages are all full at once
+	 * each add their row, to the one page the first of them appends.
+	 */
+	@Test
+	public void concurrentAppends() throws Exception {
+		final int threads = 8;
+		int rows = 1025;
+		for (int round = 0; round < 10; round++) {
+			TransactionId fill = new TransactionId();
+			HeapPageId last = new HeapPageId(empty.getId(), empty.numPages() - 1);
+			while (((HeapPage) bp.getPage(fill, last, Permissions.READ_ONLY)).getNumEmptySlots() > 0) {
+				bp.insertTuple(fill, empty.getId(), Utility.getHeapTuple(rows, 2));
+				rows++;
+			}
+			bp.transactionComplete(fill);
+
+			final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+			Thread[] ts = new Thread[threads];
+			for (int i = 0; i < threads; i++) {
+				final int row = rows + i;
+				ts[i] = new Thread() {
+					public void run() {
+						try {
+							while (true) {
+								TransactionId tid = new TransactionId();
+								try {
+									bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(row, 2));
+									bp.transactionComplete(tid);
+									return;
+								} catch (TransactionAbortedException e) {
+									bp.transactionComplete(tid, false);
+								}
+							}
+						} catch (Throwable e) {
+							error.compareAndSet(null, e);
+						}
+					}
+				};
+			}
+			for (Thread t : ts)
+				t.start();
+			for (Thread t : ts)
+				t.join();
+			assertNull(error.get());
+			rows += threads;
+		}
+
+		TransactionId tid = new TransactionId();
+		SeqScan scan = new SeqScan(tid, empty.getId(), "");
+		int n = 0;
+		scan.open();
+		while (scan.hasNext()) {
+			scan.next();
+			n++;
+		}
+		scan.close();
+		bp.transactionComplete(tid);
+		assertEquals(rows, n);
+	}
+
 	/**
 	 * JUnit suite target
 	 */
@@ -0,0 +1,210 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import cbpdbms.BufferPool;
+import cbpdbms.Database;
+import cbpdbms.DbException;
+import cbpdbms.Delete;
+import cbpdbms.HeapFile;
+import cbpdbms.HeapPageId;
+import cbpdbms.IntField;
+import cbpdbms.SeqScan;
+import cbpdbms.Transaction;
+import cbpdbms.TransactionId;
+import cbpdbms.Utility;
+import cbpdbms.VersionStore;
+
+/**
+ * Snapshot transactions reading tables while other transactions write them,
+ * in MVCC mode.
+ */
+public class MvccTest extends SimpleDbTestBase {
+	private static final int ROWS = 5000;
+
+	HeapFile f;
+	BufferPool bp;
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		f = SystemTestUtil.createRandomHeapFile(2, ROWS, null, null);
+		bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+		bp.setMvcc(true);
+	}
+
+	/**
+	 * Deletes all the rows of f in transaction tid.
+	 */
+	private void deleteAll(TransactionId tid) throws Exception {
+		Delete delete = new Delete(tid, new SeqScan(tid, f.getId(), ""));
+		delete.open();
+		assertEquals(ROWS, ((IntField) delete.next().getField(0)).getValue());
+		delete.close();
+	}
+
+	/**
+	 * @return the number of rows of f tid reads
+	 */
+	private int count(TransactionId tid) throws Exception {
+		SeqScan scan = new SeqScan(tid, f.getId(), "");
+		int rows = 0;
+		scan.open();
+		while (scan.hasNext()) {
+			scan.next();
+			rows++;
+		}
+		scan.close();
+		return rows;
+	}
+
+	/**
+	 * A snapshot reads the rows committed when it started, not those of
+	 * transactions that are uncommitted or commit after it started.
+	 */
+	@Test
+	public void snapshotReads() throws Exception {
+		TransactionId writer = new TransactionId();
+		deleteAll(writer);
+
+		TransactionId before = new TransactionId();
+		bp.beginSnapshot(before);
+		// the writer holds the pages exclusively, a locking scan would wait
+		assertEquals(ROWS, count(before));
+
+		bp.transactionComplete(writer, true);
+		assertEquals(ROWS, count(before));
+
+		TransactionId after = new TransactionId();
+		bp.beginSnapshot(after);
+		assertEquals(0, count(after));
+		bp.transactionComplete(before);
+		bp.transactionComplete(after);
+	}
+
+	/**
+	 * A snapshot takes no lock, so writers do not wait for it.
+	 */
+	@Test
+	public void noLocks() throws Exception {
+		TransactionId reader = new TransactionId();
+		bp.beginSnapshot(reader);
+		assertEquals(ROWS, count(reader));
+		for (int i = 0; i < f.numPages(); i++)
+			assertFalse(bp.holdsLock(reader, new HeapPageId(f.getId(), i)));
+
+		TransactionId writer = new TransactionId();
+		deleteAll(writer);
+		bp.transactionComplete(writer, true);
+		bp.transactionComplete(reader);
+	}
+
+	/**
+	 * The versions of the pages are dropped once no snapshot reads them, and
+	 * kept by none while no snapshot runs.
+	 */
+	@Test
+	public void garbageCollection() throws Exception {
+		VersionStore versions = bp.getVersionStore();
+		TransactionId reader = new TransactionId();
+		bp.beginSnapshot(reader);
+
+		TransactionId writer = new TransactionId();
+		deleteAll(writer);
+		bp.transactionComplete(writer, true);
+		// the version reader reads and the committed one of each page
+		assertEquals(f.numPages(), versions.getVersionedPageCount());
+		assertEquals(2 * f.numPages(), versions.getVersionCount());
+
+		bp.transactionComplete(reader);
+		assertEquals(0, versions.getVersionedPageCount());
+
+		writer = new TransactionId();
+		bp.insertTuple(writer, f.getId(), Utility.getHeapTuple(new int[] { 1, 2 }));
+		bp.transactionComplete(writer, true);
+		assertEquals(0, versions.getVersionCount());
+	}
+
+	/**
+	 * The pages appended to a file by an uncommitted transaction are read
+	 * empty by the snapshots.
+	 */
+	@Test
+	public void appendedPages() throws Exception {
+		int pages = f.numPages();
+		TransactionId writer = new TransactionId();
+		int added = 0;
+		while (f.numPages() == pages) {
+			bp.insertTuple(writer, f.getId(), Utility.getHeapTuple(new int[] { added, added }));
+			added++;
+		}
+
+		TransactionId reader = new TransactionId();
+		bp.beginSnapshot(reader);
+		assertEquals(ROWS, count(reader));
+		bp.transactionComplete(writer, true);
+		assertEquals(ROWS, count(reader));
+		bp.transactionComplete(reader);
+
+		reader = new TransactionId();
+		bp.beginSnapshot(reader);
+		assertEquals(ROWS + added, count(reader));
+		bp.transactionComplete(reader);
+	}
+
+	/**
+	 * The pages a transaction steals reach the disk uncommitted, the
+	 * snapshots read them from the VersionStore.
+	 */
+	@Test
+	public void stolenPages() throws Exception {
+		bp = Database.resetBufferPool(4);
+		bp.setMvcc(true);
+		bp.setSteal(true);
+		assertTrue(f.numPages() > 4);
+
+		Transaction t = new Transaction();
+		t.start();
+		deleteAll(t.getId());
+
+		Transaction reader = new Transaction();
+		reader.startSnapshot();
+		assertEquals(ROWS, count(reader.getId()));
+		t.commit();
+		assertEquals(ROWS, count(reader.getId()));
+		reader.commit();
+	}
+
+	/**
+	 * Snapshot transactions write nothing.
+	 */
+	@Test
+	public void readOnly() throws Exception {
+		TransactionId reader = new TransactionId();
+		bp.beginSnapshot(reader);
+		try {
+			bp.insertTuple(reader, f.getId(), Utility.getHeapTuple(new int[] { 1, 2 }));
+			fail("a snapshot transaction wrote a tuple");
+		} catch (DbException e) {
+			// expected
+		}
+		bp.transactionComplete(reader);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(MvccTest.class);
+	}
+}
@@ -0,0 +1,130 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import org.junit.Test;
+
+import cbpdbms.DbIterator;
+import cbpdbms.IntField;
+import cbpdbms.OrderBy;
+import cbpdbms.Parser;
+import cbpdbms.ParsingException;
+import cbpdbms.TransactionId;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+	/**
+	 * @return rows two-field tuples with random keys, and their keys in keys
+	 */
+	private DbIterator createRandomTupleList(Random r, int rows, List<Integer> keys) {
+		int[] data = new int[2 * rows];
+		for (int i = 0; i < rows; i++) {
+			data[2 * i] = r.nextInt(rows);
+			data[2 * i + 1] = i;
+			keys.add(data[2 * i]);
+		}
+		return TestUtil.createTupleList(2, data);
+	}
+
+	private List<Integer> readKeys(DbIterator it) throws Exception {
+		List<Integer> list = new ArrayList<Integer>();
+		while (it.hasNext())
+			list.add(((IntField) it.next().getField(0)).getValue());
+		return list;
+	}
+
+	/**
+	 * Opening an OrderBy again returns the tuples once, not once per open()
+	 */
+	@Test
+	public void reopen() throws Exception {
+		List<Integer> keys = new ArrayList<Integer>();
+		OrderBy op = new OrderBy(0, true, createRandomTupleList(new Random(1), 100, keys));
+		Collections.sort(keys);
+		for (int i = 0; i < 2; i++) {
+			op.open();
+			assertEquals(keys, readKeys(op));
+			op.close();
+		}
+	}
+
+	/**
+	 * A child larger than the memory budget is sorted on disk
+	 */
+	@Test
+	public void spilled() throws Exception {
+		List<Integer> keys = new ArrayList<Integer>();
+		OrderBy op = new OrderBy(0, false, createRandomTupleList(new Random(2), 5000, keys), OrderBy.NO_LIMIT, 3);
+		Collections.sort(keys, Collections.reverseOrder());
+		op.open();
+		assertEquals(keys, readKeys(op));
+		op.rewind();
+		assertEquals(keys, readKeys(op));
+		op.close();
+	}
+
+	/**
+	 * With a limit only the first tuples of the ordering are returned
+	 */
+	@Test
+	public void topN() throws Exception {
+		for (int limit : new int[] { 0, 1, 10, 1000 }) {
+			List<Integer> keys = new ArrayList<Integer>();
+			OrderBy op = new OrderBy(0, true, createRandomTupleList(new Random(3), 500, keys), limit);
+			Collections.sort(keys);
+			List<Integer> expected = keys.subList(0, Math.min(limit, keys.size()));
+			op.open();
+			assertEquals(expected, readKeys(op));
+			op.rewind();
+			assertEquals(expected, readKeys(op));
+			op.close();
+		}
+	}
+
+	/**
+	 * A limit larger than the memory budget is sorted on disk and stopped
+	 * after limit tuples, and a huge limit allocates nothing up front
+	 */
+	@Test
+	public void largeLimit() throws Exception {
+		for (int limit : new int[] { 3000, Integer.MAX_VALUE }) {
+			List<Integer> keys = new ArrayList<Integer>();
+			OrderBy op = new OrderBy(0, true, createRandomTupleList(new Random(4), 5000, keys), limit, 3);
+			Collections.sort(keys);
+			List<Integer> expected = keys.subList(0, Math.min(limit, keys.size()));
+			op.open();
+			assertEquals(expected, readKeys(op));
+			op.rewind();
+			assertEquals(expected, readKeys(op));
+			op.close();
+		}
+		OrderBy op = new OrderBy(0, true, createRandomTupleList(new Random(5), 10, new ArrayList<Integer>()),
+				Integer.MAX_VALUE);
+		op.open();
+		assertEquals(10, readKeys(op).size());
+		op.close();
+	}
+
+	/**
+	 * A LIMIT that does not fit in an int is a parsing error
+	 */
+	@Test(expected = ParsingException.class)
+	public void limitOverflow() throws Exception {
+		Parser.generateLogicalPlan(new TransactionId(), "SELECT * FROM t ORDER BY t.a LIMIT 99999999999;");
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(OrderByTest.class);
+	}
+}
@@ -0,0 +1,172 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cbpdbms.BufferPool;
+import cbpdbms.Database;
+import cbpdbms.Delete;
+import cbpdbms.HeapFile;
+import cbpdbms.IntField;
+import cbpdbms.SeqScan;
+import cbpdbms.Transaction;
+import cbpdbms.TransactionId;
+import cbpdbms.Utility;
+
+/**
+ * NO-FORCE commits, with a cleaner writing their pages back.
+ */
+public class PageCleanerTest extends SimpleDbTestBase {
+	private static final int ROWS = 5000;
+	private static final int POOL_PAGES = 20;
+
+	HeapFile f;
+	HeapFile big;
+	BufferPool bp;
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		f = SystemTestUtil.createRandomHeapFile(2, ROWS, null, null);
+		big = SystemTestUtil.createRandomHeapFile(2, 4 * ROWS, null, null);
+		assertTrue(f.numPages() < POOL_PAGES && big.numPages() > POOL_PAGES);
+		bp = Database.resetBufferPool(POOL_PAGES);
+		// the scans of big must push the pages of f out of the pool; pages
+		// read ahead only replace pages whose contents are on disk
+		bp.setReadAhead(false);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		bp.stopCleaner();
+	}
+
+	/**
+	 * Deletes all the rows of f in a transaction, and commits it.
+	 */
+	private void deleteAll() throws Exception {
+		Transaction t = new Transaction();
+		t.start();
+		Delete delete = new Delete(t.getId(), new SeqScan(t.getId(), f.getId(), ""));
+		delete.open();
+		assertEquals(ROWS, ((IntField) delete.next().getField(0)).getValue());
+		delete.close();
+		t.commit();
+	}
+
+	/**
+	 * @return the number of rows of a file, read through the pool
+	 */
+	private int count(HeapFile file) throws Exception {
+		TransactionId tid = new TransactionId();
+		SeqScan scan = new SeqScan(tid, file.getId(), "");
+		int rows = 0;
+		scan.open();
+		while (scan.hasNext()) {
+			scan.next();
+			rows++;
+		}
+		scan.close();
+		Database.getBufferPool().transactionComplete(tid);
+		return rows;
+	}
+
+	/**
+	 * @return the number of rows of f, read through a new pool from disk
+	 */
+	private int countOnDisk() throws Exception {
+		Database.resetBufferPool(POOL_PAGES);
+		return count(f);
+	}
+
+	private void awaitCleaned() throws InterruptedException {
+		for (int i = 0; i < 500 && bp.getUnwrittenCount() > 0; i++)
+			Thread.sleep(10);
+		assertEquals(0, bp.getUnwrittenCount());
+	}
+
+	/**
+	 * A commit leaves its pages in the pool, the cleaner writes them.
+	 */
+	@Test
+	public void writeBack() throws Exception {
+		bp.startCleaner(1000, 0, 0);
+		deleteAll();
+		awaitCleaned();
+		bp.stopCleaner();
+		assertEquals(0, countOnDisk());
+	}
+
+	/**
+	 * Evictions write the pages the cleaner did not, and none once the
+	 * cleaner wrote them.
+	 */
+	@Test
+	public void evictions() throws Exception {
+		// a cleaner above its high water mark only when the pool overflows
+		bp.startCleaner(1000, 0, 1);
+		deleteAll();
+		assertEquals(f.numPages(), bp.getUnwrittenCount());
+		count(big);
+		assertEquals(f.numPages(), bp.getWriteBackEvictions());
+		bp.stopCleaner();
+		assertEquals(0, countOnDisk());
+
+		setUp();
+		bp.startCleaner(1000, 0, 0);
+		deleteAll();
+		awaitCleaned();
+		count(big);
+		assertEquals(0, bp.getWriteBackEvictions());
+		bp.stopCleaner();
+		assertEquals(0, countOnDisk());
+	}
+
+	/**
+	 * A checkpoint writes the pages not written back.
+	 */
+	@Test
+	public void checkpoint() throws Exception {
+		bp.startCleaner(1000, 0, 1);
+		deleteAll();
+		Database.getLogFile().logCheckpoint();
+		assertEquals(0, bp.getUnwrittenCount());
+		bp.stopCleaner();
+		assertEquals(0, countOnDisk());
+	}
+
+	/**
+	 * The commits whose pages were not written back before a crash are
+	 * redone by recovery.
+	 */
+	@Test
+	public void recover() throws Exception {
+		bp.startCleaner(1000, 0, 1);
+		deleteAll();
+		bp.stopCleaner();
+		assertEquals(f.numPages(), bp.getUnwrittenCount());
+
+		File file = f.getFile();
+		Database.reset();
+		f = Utility.openHeapFile(2, file);
+		Database.getLogFile().recover();
+		assertEquals(0, countOnDisk());
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(PageCleanerTest.class);
+	}
+}
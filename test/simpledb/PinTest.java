@@ -0,0 +1,136 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import cbpdbms.BufferPool;
+import cbpdbms.Database;
+import cbpdbms.DbException;
+import cbpdbms.HeapFile;
+import cbpdbms.HeapPageId;
+import cbpdbms.Page;
+import cbpdbms.PageId;
+import cbpdbms.Permissions;
+import cbpdbms.SeqScan;
+import cbpdbms.TransactionId;
+
+public class PinTest extends SimpleDbTestBase {
+	private static final int POOL_PAGES = 3;
+
+	HeapFile f;
+	BufferPool bp;
+	TransactionId tid;
+
+	@Before
+	public void setUp() throws Exception {
+		f = SystemTestUtil.createRandomHeapFile(2, 5000, null, null);
+		assertTrue(f.numPages() > POOL_PAGES);
+		bp = Database.resetBufferPool(POOL_PAGES);
+		tid = new TransactionId();
+	}
+
+	private PageId page(int i) {
+		return new HeapPageId(f.getId(), i);
+	}
+
+	/**
+	 * A pinned page stays in the pool while other pages come and go, and is
+	 * evicted again once unpinned.
+	 */
+	@Test
+	public void pinnedNotEvicted() throws Exception {
+		Page p = bp.pinPage(tid, page(0), Permissions.READ_ONLY);
+		assertEquals(1, bp.getPinCount(page(0)));
+		for (int i = 1; i < f.numPages(); i++)
+			bp.getPage(tid, page(i), Permissions.READ_ONLY);
+		assertSame(p, bp.getPage(tid, page(0), Permissions.READ_ONLY));
+
+		bp.unpinPage(tid, page(0));
+		assertEquals(0, bp.getPinCount(page(0)));
+		for (int i = 1; i < f.numPages(); i++)
+			bp.getPage(tid, page(i), Permissions.READ_ONLY);
+		assertEquals(0, bp.getPinCount(page(0)));
+		bp.transactionComplete(tid);
+	}
+
+	/**
+	 * A page pinned twice needs two unpins; a pool of pinned pages has no
+	 * room for another one.
+	 */
+	@Test
+	public void poolFullOfPins() throws Exception {
+		bp.pinPage(tid, page(0), Permissions.READ_ONLY);
+		bp.pinPage(tid, page(0), Permissions.READ_ONLY);
+		assertEquals(2, bp.getPinCount(page(0)));
+		bp.unpinPage(tid, page(0));
+		assertEquals(1, bp.getPinCount(page(0)));
+
+		for (int i = 1; i < POOL_PAGES; i++)
+			bp.pinPage(tid, page(i), Permissions.READ_ONLY);
+		try {
+			bp.getPage(tid, page(POOL_PAGES), Permissions.READ_ONLY);
+			fail("expected the pool to have no unpinned page to evict");
+		} catch (DbException e) {
+			// expected
+		}
+
+		bp.unpinPage(tid, page(1));
+		bp.getPage(tid, page(POOL_PAGES), Permissions.READ_ONLY);
+		assertEquals(0, bp.getPinCount(page(1)));
+		bp.transactionComplete(tid);
+	}
+
+	/**
+	 * The pins a transaction did not release go when it completes, and an
+	 * unpin after that does nothing.
+	 */
+	@Test
+	public void releasedOnComplete() throws Exception {
+		for (int i = 0; i < POOL_PAGES; i++)
+			bp.pinPage(tid, page(i), Permissions.READ_ONLY);
+		bp.transactionComplete(tid);
+		for (int i = 0; i < POOL_PAGES; i++)
+			assertEquals(0, bp.getPinCount(page(i)));
+		bp.unpinPage(tid, page(0));
+		assertEquals(0, bp.getPinCount(page(0)));
+	}
+
+	/**
+	 * A scan pins the page it reads, one at a time, and nothing once closed.
+	 */
+	@Test
+	public void scanPins() throws Exception {
+		SeqScan scan = new SeqScan(tid, f.getId(), "");
+		scan.open();
+		int rows = 0;
+		while (scan.hasNext()) {
+			scan.next();
+			rows++;
+			int pinned = 0;
+			for (int i = 0; i < f.numPages(); i++)
+				pinned += bp.getPinCount(page(i));
+			assertEquals(1, pinned);
+		}
+		scan.close();
+		assertEquals(5000, rows);
+		for (int i = 0; i < f.numPages(); i++)
+			assertEquals(0, bp.getPinCount(page(i)));
+		bp.transactionComplete(tid);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(PinTest.class);
+	}
+}
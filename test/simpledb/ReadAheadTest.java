@@ -0,0 +1,123 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cbpdbms.BufferPool;
+import cbpdbms.Database;
+import cbpdbms.HeapFile;
+import cbpdbms.HeapPageId;
+import cbpdbms.Page;
+import cbpdbms.PageId;
+import cbpdbms.Permissions;
+import cbpdbms.TransactionId;
+
+/**
+ * Pages read ahead of sequential scans.
+ */
+public class ReadAheadTest extends SimpleDbTestBase {
+	private static final int ROWS = 5000;
+	private static final int POOL_PAGES = 40;
+
+	ArrayList<ArrayList<Integer>> tuples;
+	HeapFile f;
+	BufferPool bp;
+	TransactionId tid;
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		tuples = new ArrayList<ArrayList<Integer>>();
+		f = SystemTestUtil.createRandomHeapFile(2, 2 * ROWS, null, tuples);
+		assertTrue(f.numPages() > 8 && f.numPages() < POOL_PAGES);
+		bp = Database.resetBufferPool(POOL_PAGES);
+		tid = new TransactionId();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	private PageId page(int i) {
+		return new HeapPageId(f.getId(), i);
+	}
+
+	/**
+	 * Pages read ahead are in the pool, and returned by getPage without
+	 * reading them again.
+	 */
+	@Test
+	public void prefetchPages() throws Exception {
+		Page first = bp.getPage(tid, page(0), Permissions.READ_ONLY);
+		bp.prefetchPages(f, 0, 8);
+		assertEquals(8, bp.getPageCount());
+		assertEquals(7, bp.getPrefetchedCount());
+		assertSame(first, bp.getPage(tid, page(0), Permissions.READ_ONLY));
+
+		Page[] read = new Page[8];
+		for (int i = 1; i < 8; i++)
+			read[i] = bp.getPage(tid, page(i), Permissions.READ_ONLY);
+		bp.prefetchPages(f, 1, 7);
+		for (int i = 1; i < 8; i++)
+			assertSame(read[i], bp.getPage(tid, page(i), Permissions.READ_ONLY));
+		assertEquals(8, bp.getPageCount());
+		assertEquals(7, bp.getPrefetchedCount());
+	}
+
+	/**
+	 * A page locked exclusively, which may differ from its copy on disk, is
+	 * not read ahead.
+	 */
+	@Test
+	public void exclusivelyLocked() throws Exception {
+		bp.acquireLock(tid, page(1), Permissions.READ_WRITE);
+		bp.prefetchPages(f, 0, 3);
+		assertEquals(2, bp.getPageCount());
+		assertEquals(2, bp.getPrefetchedCount());
+	}
+
+	/**
+	 * Read-ahead into a pool full of pinned pages reads nothing, and does not
+	 * fail.
+	 */
+	@Test
+	public void poolFull() throws Exception {
+		bp = Database.resetBufferPool(2);
+		bp.pinPage(tid, page(0), Permissions.READ_ONLY);
+		bp.pinPage(tid, page(1), Permissions.READ_ONLY);
+		bp.prefetchPages(f, 2, 4);
+		assertEquals(2, bp.getPageCount());
+		assertEquals(0, bp.getPrefetchedCount());
+	}
+
+	/**
+	 * A scan reads its pages ahead, and still returns all the tuples.
+	 */
+	@Test
+	public void scan() throws Exception {
+		SystemTestUtil.matchTuples(f, tuples);
+		for (int i = 0; i < 500 && bp.getPrefetchedCount() == 0; i++)
+			Thread.sleep(10);
+		assertTrue(bp.getPrefetchedCount() > 0);
+		SystemTestUtil.matchTuples(f, tuples);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(ReadAheadTest.class);
+	}
+}
@@ -0,0 +1,197 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import org.junit.Test;
+
+import cbpdbms.BufferPool;
+import cbpdbms.ClockPolicy;
+import cbpdbms.HeapFile;
+import cbpdbms.HeapPageId;
+import cbpdbms.LruKPolicy;
+import cbpdbms.PageId;
+import cbpdbms.Permissions;
+import cbpdbms.ReplacementPolicy;
+import cbpdbms.TransactionId;
+import cbpdbms.TwoQueuePolicy;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+	private static final int PAGES = 8;
+
+	/** Every page is evictable, but the pinned ones. */
+	private static class Pins implements ReplacementPolicy.Evictable {
+		Set<PageId> pinned = new HashSet<PageId>();
+
+		public boolean isEvictable(PageId pid) {
+			return !pinned.contains(pid);
+		}
+	}
+
+	private static PageId page(int i) {
+		return new HeapPageId(1, i);
+	}
+
+	/**
+	 * Fills a policy with PAGES pages, the even ones accessed again.
+	 */
+	private static void fill(ReplacementPolicy policy) {
+		for (int i = 0; i < PAGES; i++)
+			policy.add(page(i));
+		for (int i = 0; i < PAGES; i += 2)
+			policy.access(page(i));
+	}
+
+	/**
+	 * Evicts pages until the policy is empty.
+	 *
+	 * @return the number of pages evicted
+	 */
+	private static int drain(ReplacementPolicy policy, Pins pins) {
+		int n = 0;
+		PageId pid;
+		while ((pid = policy.victim(pins)) != null) {
+			assertTrue(pins.isEvictable(pid));
+			policy.remove(pid);
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * CLOCK evicts a page whose reference bit is clear first.
+	 */
+	@Test
+	public void clock() {
+		ClockPolicy policy = new ClockPolicy(PAGES);
+		for (int i = 0; i < PAGES; i++)
+			policy.add(page(i));
+		// the first sweep clears every bit, the hand stops at frame 0 again
+		assertEquals(page(0), policy.victim(new Pins()));
+		policy.remove(page(0));
+		policy.add(page(PAGES));
+		policy.access(page(1));
+		assertEquals(page(2), policy.victim(new Pins()));
+	}
+
+	/**
+	 * LRU-K evicts pages accessed fewer than K times first, least recently
+	 * used first.
+	 */
+	@Test
+	public void lruK() {
+		LruKPolicy policy = new LruKPolicy(PAGES);
+		fill(policy);
+		assertEquals(page(1), policy.victim(new Pins()));
+		policy.remove(page(1));
+		assertEquals(page(3), policy.victim(new Pins()));
+
+		// odd pages go first, then even ones by their second access
+		for (int i = 3; i < PAGES; i += 2)
+			policy.remove(page(i));
+		assertEquals(page(0), policy.victim(new Pins()));
+	}
+
+	/**
+	 * 2Q evicts from the FIFO queue of the pages read once, and promotes a
+	 * page read again soon after its eviction.
+	 */
+	@Test
+	public void twoQueue() {
+		TwoQueuePolicy policy = new TwoQueuePolicy(PAGES);
+		fill(policy);
+		assertEquals(page(0), policy.victim(new Pins()));
+		policy.remove(page(0));
+		policy.add(page(0));// back from the ghost queue, into Am
+
+		// A1in is evicted down to its quota of a quarter of the pool, then Am
+		for (int i = 1; i < PAGES - PAGES / 4; i++)
+			assertEquals(page(i), drainOne(policy));
+		assertEquals(page(0), policy.victim(new Pins()));
+	}
+
+	private static PageId drainOne(ReplacementPolicy policy) {
+		PageId pid = policy.victim(new Pins());
+		policy.remove(pid);
+		return pid;
+	}
+
+	/**
+	 * No policy chooses a page that is not evictable.
+	 */
+	@Test
+	public void notEvictable() {
+		ReplacementPolicy[] policies = { new ClockPolicy(PAGES), new LruKPolicy(PAGES), new TwoQueuePolicy(PAGES) };
+		for (ReplacementPolicy policy : policies) {
+			fill(policy);
+			Pins pins = new Pins();
+			for (int i = 0; i < PAGES; i += 3)
+				pins.pinned.add(page(i));
+			assertEquals(PAGES - pins.pinned.size(), drain(policy, pins));
+
+			assertEquals(pins.pinned.size(), drain(policy, new Pins()));
+			assertNull(policy.victim(new Pins()));
+		}
+	}
+
+	/**
+	 * A large pool evicts quickly: each eviction from a pool of tens of
+	 * thousands of pages only looks at a few frames.
+	 */
+	@Test
+	public void largePool() {
+		int pages = 50000;
+		ReplacementPolicy[] policies = { new ClockPolicy(pages), new LruKPolicy(pages), new TwoQueuePolicy(pages) };
+		for (ReplacementPolicy policy : policies) {
+			Pins pins = new Pins();
+			for (int i = 0; i < pages; i++)
+				policy.add(page(i));
+			for (int i = pages; i < 5 * pages; i++) {
+				PageId pid = policy.victim(pins);
+				assertNotNull(pid);
+				policy.remove(pid);
+				policy.add(page(i));
+				policy.access(page(i - pages / 2));
+			}
+		}
+	}
+
+	/**
+	 * Reads of a table larger than the pool, twice, through a BufferPool with
+	 * each policy.
+	 */
+	@Test
+	public void bufferPool() throws Exception {
+		HeapFile f = SystemTestUtil.createRandomHeapFile(2, 20000, null, null);
+		assertTrue(f.numPages() > PAGES);
+		ReplacementPolicy[] policies = { new ClockPolicy(PAGES), new LruKPolicy(PAGES), new TwoQueuePolicy(PAGES) };
+		for (ReplacementPolicy policy : policies) {
+			BufferPool bp = new BufferPool(PAGES, policy);
+			TransactionId tid = new TransactionId();
+			for (int n = 0; n < 2; n++) {
+				for (int i = 0; i < f.numPages(); i++) {
+					PageId pid = new HeapPageId(f.getId(), i);
+					assertEquals(pid, bp.getPage(tid, pid, Permissions.READ_ONLY).getId());
+				}
+				assertEquals(PAGES, bp.getPageCount());
+			}
+			bp.transactionComplete(tid);
+		}
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+	}
+}
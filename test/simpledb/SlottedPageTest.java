@@ -0,0 +1,245 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import cbpdbms.BufferPool;
+import cbpdbms.Database;
+import cbpdbms.DbException;
+import cbpdbms.DbFileIterator;
+import cbpdbms.HeapFile;
+import cbpdbms.HeapFileEncoder;
+import cbpdbms.HeapPage;
+import cbpdbms.HeapPageId;
+import cbpdbms.IntField;
+import cbpdbms.SlottedPage;
+import cbpdbms.StringField;
+import cbpdbms.TransactionId;
+import cbpdbms.Tuple;
+import cbpdbms.TupleDesc;
+import cbpdbms.Type;
+
+/**
+ * Tables with VARCHAR fields, stored in SlottedPages.
+ */
+public class SlottedPageTest extends SimpleDbTestBase {
+	private static final int NAME_LEN = 20;
+
+	TupleDesc td;
+	HeapFile hf;
+	HeapPageId pid;
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.VARCHAR_TYPE }, new String[] { "id", "name" },
+				new int[] { 0, NAME_LEN });
+		File f = File.createTempFile("slotted", ".dat");
+		f.deleteOnExit();
+		hf = new HeapFile(f, td);
+		Database.getCatalog().addTable(hf, "slotted");
+		pid = new HeapPageId(hf.getId(), 0);
+	}
+
+	private Tuple tuple(int id, String name) {
+		Tuple t = new Tuple(td);
+		t.setField(0, new IntField(id));
+		t.setField(1, new StringField(name, Type.STRING_LEN));
+		return t;
+	}
+
+	private static String name(int i) {
+		return "n" + i + (i % 3 == 0 ? "-longer" : "");
+	}
+
+	private SlottedPage emptyPage() throws Exception {
+		return new SlottedPage(pid, HeapPage.createEmptyPageData());
+	}
+
+	/**
+	 * A page holds short strings with their length only, many more of them
+	 * than a page of fixed-size strings.
+	 */
+	@Test
+	public void addAndRead() throws Exception {
+		SlottedPage page = emptyPage();
+		int n = 0;
+		while (page.hasRoomFor(tuple(n, name(n))))
+			page.addTuple(tuple(n, name(n++)));
+		int fixed = BufferPool.PAGE_SIZE * 8 / (td.getSize() * 8 + 1);
+		assertTrue(n > 5 * fixed);
+		assertEquals(0, page.getNumEmptySlots());
+
+		SlottedPage read = new SlottedPage(pid, page.getPageData());
+		Iterator<Tuple> it = read.iterator();
+		for (int i = 0; i < n; i++) {
+			Tuple t = it.next();
+			assertEquals(i, ((IntField) t.getField(0)).getValue());
+			assertEquals(name(i), ((StringField) t.getField(1)).getValue());
+			assertEquals(i, t.getRecordId().tupleno());
+		}
+		assertFalse(it.hasNext());
+
+		try {
+			page.addTuple(tuple(n, name(n)));
+			fail("expected the page to be full");
+		} catch (DbException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * The space of deleted tuples is reused, and the tuples left keep their
+	 * slots when the records are moved.
+	 */
+	@Test
+	public void deleteAndReuse() throws Exception {
+		SlottedPage page = emptyPage();
+		int n = 0;
+		while (page.hasRoomFor(tuple(n, name(n))))
+			page.addTuple(tuple(n, name(n++)));
+
+		// free every other tuple, then fill the page with longer ones
+		Set<Integer> kept = new HashSet<Integer>();
+		ArrayList<Tuple> all = new ArrayList<Tuple>();
+		for (Iterator<Tuple> it = page.iterator(); it.hasNext();)
+			all.add(it.next());
+		for (Tuple t : all) {
+			if (t.getRecordId().tupleno() % 2 == 0)
+				page.deleteTuple(t);
+			else
+				kept.add(t.getRecordId().tupleno());
+		}
+		assertNull(page.getTuple(0));
+		String longer = "abcdefghijklmnopqrst";
+		int added = 0;
+		while (page.hasRoomFor(tuple(-1, longer))) {
+			page.addTuple(tuple(-1, longer));
+			added++;
+		}
+		assertTrue(added > 0);
+
+		for (int slot : kept) {
+			Tuple t = page.getTuple(slot);
+			assertEquals(slot, ((IntField) t.getField(0)).getValue());
+			assertEquals(name(slot), ((StringField) t.getField(1)).getValue());
+		}
+		int longOnes = 0;
+		for (Iterator<Tuple> it = page.iterator(); it.hasNext();) {
+			Tuple t = it.next();
+			if (((IntField) t.getField(0)).getValue() == -1) {
+				assertEquals(longer, ((StringField) t.getField(1)).getValue());
+				longOnes++;
+			}
+		}
+		assertEquals(added, longOnes);
+	}
+
+	/**
+	 * Values longer than their VARCHAR(n) field are cut to n characters.
+	 */
+	@Test
+	public void maxLength() throws Exception {
+		SlottedPage page = emptyPage();
+		String s = "0123456789012345678901234567890123456789";
+		page.addTuple(tuple(1, s));
+		Tuple t = page.iterator().next();
+		assertEquals(s.substring(0, NAME_LEN), ((StringField) t.getField(1)).getValue());
+	}
+
+	/**
+	 * A HeapFile of a table with VARCHARs reads and writes SlottedPages.
+	 */
+	@Test
+	public void heapFile() throws Exception {
+		TransactionId tid = new TransactionId();
+		for (int i = 0; i < 1000; i++)
+			Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(i, name(i)));
+		Database.getBufferPool().transactionComplete(tid);
+		assertTrue(hf.readPage(pid) instanceof SlottedPage);
+		// about 20 bytes a tuple, instead of 140
+		assertTrue(hf.numPages() <= 1000 * 24 / BufferPool.PAGE_SIZE + 1);
+
+		Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+		tid = new TransactionId();
+		DbFileIterator it = hf.iterator(tid);
+		it.open();
+		Set<Integer> seen = new HashSet<Integer>();
+		while (it.hasNext()) {
+			Tuple t = it.next();
+			int id = ((IntField) t.getField(0)).getValue();
+			assertEquals(name(id), ((StringField) t.getField(1)).getValue());
+			seen.add(id);
+		}
+		it.close();
+		assertEquals(1000, seen.size());
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * A varchar(n) field of a catalog file makes a table of SlottedPages,
+	 * which HeapFileEncoder converts text files to.
+	 */
+	@Test
+	public void loadSchema() throws Exception {
+		Database.reset();
+		File text = File.createTempFile("names", ".txt");
+		text.deleteOnExit();
+		FileWriter w = new FileWriter(text);
+		for (int i = 0; i < 500; i++)
+			w.write(i + "," + name(i) + "\n");
+		w.close();
+		String name = text.getPath().substring(0, text.getPath().length() - ".txt".length());
+		File data = new File(name + ".dat");
+		data.deleteOnExit();
+		HeapFileEncoder.convert(text, data, BufferPool.PAGE_SIZE, 2,
+				new Type[] { Type.INT_TYPE, Type.VARCHAR_TYPE });
+
+		File catalog = File.createTempFile("catalog", ".txt");
+		catalog.deleteOnExit();
+		w = new FileWriter(catalog);
+		w.write(name + " (id int, name varchar(" + NAME_LEN + "))\n");
+		w.close();
+		Database.getCatalog().loadSchema(catalog.getAbsolutePath());
+		int id = Database.getCatalog().getTableId(name);
+		TupleDesc loaded = Database.getCatalog().getTupleDesc(id);
+		assertEquals(Type.VARCHAR_TYPE, loaded.getType(1));
+		assertEquals(NAME_LEN, loaded.getMaxLen(1));
+
+		TransactionId tid = new TransactionId();
+		DbFileIterator it = Database.getCatalog().getDbFile(id).iterator(tid);
+		it.open();
+		int rows = 0;
+		while (it.hasNext()) {
+			Tuple t = it.next();
+			assertEquals(name(((IntField) t.getField(0)).getValue()), ((StringField) t.getField(1)).getValue());
+			rows++;
+		}
+		it.close();
+		assertEquals(500, rows);
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(SlottedPageTest.class);
+	}
+}
@@ -0,0 +1,208 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import cbpdbms.DbIterator;
+import cbpdbms.ExternalSort;
+import cbpdbms.Join;
+import cbpdbms.JoinPredicate;
+import cbpdbms.OrderBy;
+import cbpdbms.Predicate;
+import cbpdbms.SortMergeJoin;
+import cbpdbms.TupleDesc;
+import cbpdbms.Utility;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+	int width1 = 2;
+	int width2 = 3;
+	DbIterator scan1;
+	DbIterator scan2;
+	DbIterator eqJoin;
+
+	/**
+	 * Initialize each unit test
+	 */
+	@Before
+	public void createTupleLists() throws Exception {
+		this.scan1 = TestUtil.createTupleList(width1, new int[] { 7, 8, 3, 4, 1, 2, 5, 6 });
+		this.scan2 = TestUtil.createTupleList(width2, new int[] { 5, 6, 7, 2, 3, 4, 4, 5, 6, 1, 2, 3, 3, 4, 5 });
+		this.eqJoin = TestUtil.createTupleList(width1 + width2,
+				new int[] { 1, 2, 1, 2, 3, 3, 4, 3, 4, 5, 5, 6, 5, 6, 7 });
+	}
+
+	/**
+	 * @return width-field tuples whose first field is in [0, keys)
+	 */
+	private DbIterator createRandomTupleList(Random r, int width, int rows, int keys) {
+		int[] data = new int[width * rows];
+		for (int i = 0; i < data.length; i++)
+			data[i] = (i % width == 0) ? r.nextInt(keys) : r.nextInt();
+		return TestUtil.createTupleList(width, data);
+	}
+
+	/**
+	 * @return the tuples of it as sorted strings, to compare joins that
+	 *         produce tuples in different orders
+	 */
+	private List<String> sortedTuples(DbIterator it) throws Exception {
+		List<String> list = new ArrayList<String>();
+		it.open();
+		while (it.hasNext())
+			list.add(it.next().toString());
+		it.close();
+		Collections.sort(list);
+		return list;
+	}
+
+	/**
+	 * Unit test for SortMergeJoin.getTupleDesc()
+	 */
+	@Test
+	public void getTupleDesc() {
+		JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+		SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+		TupleDesc expected = Utility.getTupleDesc(width1 + width2);
+		TupleDesc actual = op.getTupleDesc();
+		assertEquals(expected, actual);
+	}
+
+	/**
+	 * Unit test for SortMergeJoin.getNext() using an = predicate on unsorted
+	 * inputs
+	 */
+	@Test
+	public void eqJoin() throws Exception {
+		JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+		SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+		op.open();
+		eqJoin.open();
+		TestUtil.matchAllTuples(eqJoin, op);
+	}
+
+	/**
+	 * Every supported predicate produces the same tuples as a nested loops
+	 * join, with duplicate keys on both sides
+	 */
+	@Test
+	public void allOps() throws Exception {
+		Predicate.Op[] ops = new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+				Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ };
+		Random r = new Random(1);
+		DbIterator left = createRandomTupleList(r, width1, 200, 50);
+		DbIterator right = createRandomTupleList(r, width2, 150, 50);
+		for (Predicate.Op op : ops) {
+			JoinPredicate pred = new JoinPredicate(0, op, 0);
+			List<String> expected = sortedTuples(new Join(pred, left, right));
+			List<String> actual = sortedTuples(new SortMergeJoin(pred, left, right));
+			assertEquals(op.toString(), expected, actual);
+		}
+	}
+
+	/**
+	 * @return the number of tuples of it and the sum of the hash codes of
+	 *         their strings, to compare joins with large outputs
+	 */
+	private long[] checksum(DbIterator it) throws Exception {
+		long[] sum = new long[2];
+		it.open();
+		while (it.hasNext()) {
+			sum[0]++;
+			sum[1] += it.next().toString().hashCode();
+		}
+		it.close();
+		return sum;
+	}
+
+	/**
+	 * Inputs larger than the memory budget are sorted on disk, and a matching
+	 * range larger than the budget is buffered on disk
+	 */
+	@Test
+	public void spilled() throws Exception {
+		Random r = new Random(2);
+		DbIterator left = createRandomTupleList(r, width1, 2000, 1000);
+		DbIterator right = createRandomTupleList(r, width2, 1500, 1000);
+
+		JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+		List<String> expected = sortedTuples(new Join(pred, left, right));
+		List<String> actual = sortedTuples(new SortMergeJoin(pred, left, right, 3));
+		assertEquals(expected.size(), actual.size());
+		assertEquals(expected, actual);
+
+		pred = new JoinPredicate(0, Predicate.Op.LESS_THAN, 0);
+		long[] expectedSum = checksum(new Join(pred, left, right));
+		long[] actualSum = checksum(new SortMergeJoin(pred, left, right, 3));
+		assertEquals(expectedSum[0], actualSum[0]);
+		assertEquals(expectedSum[1], actualSum[1]);
+	}
+
+	/**
+	 * An input that is already sorted on the join field is not sorted again
+	 */
+	@Test
+	public void sortedInput() throws Exception {
+		JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+		OrderBy sorted = new OrderBy(0, true, scan1);
+		SortMergeJoin op = new SortMergeJoin(pred, sorted, scan2);
+		assertTrue(op.getLeft() == sorted);
+		assertTrue(op.getRight() instanceof ExternalSort);
+		op.open();
+		eqJoin.open();
+		TestUtil.matchAllTuples(eqJoin, op);
+	}
+
+	/**
+	 * Unit test for SortMergeJoin.rewind()
+	 */
+	@Test
+	public void rewind() throws Exception {
+		JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+		SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+		op.open();
+		int count = 0;
+		while (op.hasNext()) {
+			op.next();
+			count++;
+		}
+		assertEquals(11, count);
+		assertTrue(TestUtil.checkExhausted(op));
+
+		op.rewind();
+		int again = 0;
+		while (op.hasNext()) {
+			op.next();
+			again++;
+		}
+		assertEquals(count, again);
+		op.close();
+	}
+
+	/**
+	 * SortMergeJoin does not handle <> or LIKE predicates
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void notEqualsRejected() {
+		JoinPredicate pred = new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0);
+		new SortMergeJoin(pred, scan1, scan2);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(SortMergeJoinTest.class);
+	}
+}
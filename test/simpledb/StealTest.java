@@ -0,0 +1,190 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import cbpdbms.BufferPool;
+import cbpdbms.Database;
+import cbpdbms.DbException;
+import cbpdbms.DbFileIterator;
+import cbpdbms.Delete;
+import cbpdbms.HashIndexFile;
+import cbpdbms.HeapFile;
+import cbpdbms.IntField;
+import cbpdbms.SeqScan;
+import cbpdbms.Transaction;
+import cbpdbms.TransactionId;
+import cbpdbms.Utility;
+
+/**
+ * Transactions that dirty more pages than the pool holds, in STEAL mode.
+ */
+public class StealTest extends SimpleDbTestBase {
+	private static final int ROWS = 5000;
+	private static final int POOL_PAGES = 4;
+
+	HeapFile f;
+	BufferPool bp;
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		f = SystemTestUtil.createRandomHeapFile(2, ROWS, null, null);
+		assertTrue(f.numPages() > 2 * POOL_PAGES);
+		bp = Database.resetBufferPool(POOL_PAGES);
+	}
+
+	/**
+	 * Deletes all the rows of f in transaction t.
+	 */
+	private void deleteAll(Transaction t) throws Exception {
+		Delete delete = new Delete(t.getId(), new SeqScan(t.getId(), f.getId(), ""));
+		delete.open();
+		assertEquals(ROWS, ((IntField) delete.next().getField(0)).getValue());
+		delete.close();
+	}
+
+	/**
+	 * @return the number of rows of f, read through a new pool from disk
+	 */
+	private int countOnDisk() throws Exception {
+		Database.resetBufferPool(POOL_PAGES);
+		TransactionId tid = new TransactionId();
+		SeqScan scan = new SeqScan(tid, f.getId(), "");
+		int rows = 0;
+		scan.open();
+		while (scan.hasNext()) {
+			scan.next();
+			rows++;
+		}
+		scan.close();
+		Database.getBufferPool().transactionComplete(tid);
+		return rows;
+	}
+
+	/**
+	 * NO-STEAL fails a transaction dirtying more pages than the pool holds,
+	 * STEAL commits it.
+	 */
+	@Test
+	public void commit() throws Exception {
+		assertFalse(bp.isSteal());
+		Transaction t = new Transaction();
+		t.start();
+		try {
+			deleteAll(t);
+			fail("expected the pool to be full of dirty pages");
+		} catch (DbException e) {
+			// expected
+		}
+		t.transactionComplete(true);
+		assertEquals(ROWS, countOnDisk());
+
+		Database.getBufferPool().setSteal(true);
+		t = new Transaction();
+		t.start();
+		deleteAll(t);
+		t.commit();
+		assertEquals(0, countOnDisk());
+	}
+
+	/**
+	 * The pages stolen by an aborted transaction are rolled back from the
+	 * log.
+	 */
+	@Test
+	public void abort() throws Exception {
+		bp.setSteal(true);
+		Transaction t = new Transaction();
+		t.start();
+		deleteAll(t);
+		t.transactionComplete(true);
+		assertEquals(ROWS, countOnDisk());
+	}
+
+	/**
+	 * The pages stolen by a transaction that did not commit before a crash
+	 * are undone by recovery.
+	 */
+	@Test
+	public void recover() throws Exception {
+		bp.setSteal(true);
+		Transaction t = new Transaction();
+		t.start();
+		deleteAll(t);
+
+		File file = f.getFile();
+		Database.reset();
+		f = Utility.openHeapFile(2, file);
+		Database.getLogFile().recover();
+		assertEquals(ROWS, countOnDisk());
+	}
+
+	/**
+	 * @return the number of entries of index
+	 */
+	private int countEntries(HashIndexFile index) throws Exception {
+		TransactionId tid = new TransactionId();
+		DbFileIterator it = index.iterator(tid);
+		int entries = 0;
+		it.open();
+		while (it.hasNext()) {
+			it.next();
+			entries++;
+		}
+		it.close();
+		Database.getBufferPool().transactionComplete(tid);
+		return entries;
+	}
+
+	/**
+	 * The index pages a transaction modifies are stolen as those of the
+	 * table: STEAL commits and rolls back a transaction dirtying more pages
+	 * of an indexed table than the pool holds.
+	 */
+	@Test
+	public void indexedTable() throws Exception {
+		File indexFile = File.createTempFile("steal_index", ".dat");
+		indexFile.deleteOnExit();
+		HashIndexFile index = new HashIndexFile(indexFile, f, 0);
+		Database.getCatalog().addIndex(index);
+		Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+		Database.getCatalog().buildIndex(index);
+		assertTrue(index.numPages() > 2 * POOL_PAGES);
+
+		bp = Database.resetBufferPool(POOL_PAGES);
+		bp.setSteal(true);
+		Transaction t = new Transaction();
+		t.start();
+		deleteAll(t);
+		t.transactionComplete(true);
+		assertEquals(ROWS, countOnDisk());
+		assertEquals(ROWS, countEntries(index));
+
+		Database.getBufferPool().setSteal(true);
+		t = new Transaction();
+		t.start();
+		deleteAll(t);
+		t.commit();
+		assertEquals(0, countOnDisk());
+		assertEquals(0, countEntries(index));
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(StealTest.class);
+	}
+}
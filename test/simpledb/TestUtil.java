@@ -262,6 +262,9 @@ public class TestUtil {
 		public TupleDesc getTupleDesc() {
 			return td;
 		}
+
+		public void close() {
+		}
 	}
 
 	/**